@@ -0,0 +1,145 @@
+package com.espressif.ui.Data;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.espressif.ui.models.ESPDevice;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Read/write throughput of devices.db under simulated MQTT bursts, once with the legacy
+ * open path and once with {@link DatabaseConfig#DEFAULT}. A writer replays bursts of state
+ * changes through the write-behind buffer and flushes after each burst, while a reader
+ * keeps loading the full table as the adapter used to. Results are logged under
+ * {@value #TAG} and reported as instrumentation status.
+ * Run with {@code ./gradlew :app:connectedDebugAndroidTest
+ * -Pandroid.testInstrumentationRunnerArguments.class=com.espressif.ui.Data.DeviceDatabaseBenchmark}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeviceDatabaseBenchmark {
+
+    private static final String TAG = "DeviceDatabaseBenchmark";
+    private static final int DEVICE_COUNT = 1000;
+    private static final int BURSTS = 40;
+    private static final int MESSAGES_PER_BURST = 250;
+
+    @Test
+    public void legacyVersusTuned() throws Exception {
+        Result legacy = run("legacy", DatabaseConfig.LEGACY);
+        Result tuned = run("tuned", DatabaseConfig.DEFAULT);
+
+        report(legacy);
+        report(tuned);
+        assertTrue(legacy.rows >= DEVICE_COUNT);
+        assertTrue(tuned.rows >= DEVICE_COUNT);
+    }
+
+    private static final class Result {
+        String label;
+        DatabaseConfig config;
+        long rows;
+        double burstMsMean;
+        double burstMsMax;
+        double writesPerSecond;
+        long reads;
+        double readsPerSecond;
+        double readMsMean;
+    }
+
+    private Result run(String label, DatabaseConfig config) throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        String name = "bench-" + label + ".db";
+        context.deleteDatabase(name);
+        DeviceDatabaseHelper helper = new DeviceDatabaseHelper(context, name, config);
+        DeviceWriteBuffer buffer = helper.getWriteBuffer();
+
+        ESPDevice[] devices = new ESPDevice[DEVICE_COUNT];
+        for (int i = 0; i < DEVICE_COUNT; i++) {
+            String id = String.format(Locale.US, "esp_device_%06X", i);
+            devices[i] = new ESPDevice(id, "/devices/" + id + "/command");
+            buffer.submit(devices[i]);
+        }
+        buffer.flushNow();
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        AtomicLong readNanos = new AtomicLong();
+        Thread reader = new Thread(() -> {
+            while (writing.get()) {
+                long start = System.nanoTime();
+                try {
+                    List<ESPDevice> all = helper.getAllDevicesAsync().get();
+                    if (all.size() == DEVICE_COUNT) {
+                        reads.incrementAndGet();
+                        readNanos.addAndGet(System.nanoTime() - start);
+                    }
+                } catch (Exception e) {
+                    Log.w(TAG, "Read failed: " + e.getMessage());
+                }
+            }
+        }, "bench-reader");
+
+        Random random = new Random(42);
+        long totalBurstNanos = 0;
+        long maxBurstNanos = 0;
+        long start = System.nanoTime();
+        reader.start();
+        for (int burst = 0; burst < BURSTS; burst++) {
+            long burstStart = System.nanoTime();
+            for (int i = 0; i < MESSAGES_PER_BURST; i++) {
+                int index = random.nextInt(DEVICE_COUNT);
+                ESPDevice device = devices[index].withLightOn(!devices[index].isLightOn())
+                        .withRGBMode(random.nextBoolean());
+                devices[index] = device;
+                buffer.submit(device);
+            }
+            buffer.flushNow();
+            long burstNanos = System.nanoTime() - burstStart;
+            totalBurstNanos += burstNanos;
+            maxBurstNanos = Math.max(maxBurstNanos, burstNanos);
+        }
+        long elapsed = System.nanoTime() - start;
+        writing.set(false);
+        reader.join();
+
+        Result result = new Result();
+        result.label = label;
+        result.config = config;
+        result.rows = buffer.getRowsWritten();
+        result.burstMsMean = totalBurstNanos / 1e6 / BURSTS;
+        result.burstMsMax = maxBurstNanos / 1e6;
+        result.writesPerSecond = (double) BURSTS * MESSAGES_PER_BURST / (elapsed / 1e9);
+        result.reads = reads.get();
+        result.readsPerSecond = reads.get() / (elapsed / 1e9);
+        result.readMsMean = reads.get() > 0 ? readNanos.get() / 1e6 / reads.get() : 0;
+
+        helper.close();
+        context.deleteDatabase(name);
+        return result;
+    }
+
+    private static void report(Result result) {
+        String line = String.format(Locale.US,
+                "%s [%s]: burst mean %.2f ms, max %.2f ms, %.0f msg/s, %d full reads (%.1f/s, mean %.2f ms)",
+                result.label, result.config, result.burstMsMean, result.burstMsMax, result.writesPerSecond,
+                result.reads, result.readsPerSecond, result.readMsMean);
+        Log.i(TAG, line);
+        Bundle status = new Bundle();
+        status.putString("stream", line + "\n");
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+}
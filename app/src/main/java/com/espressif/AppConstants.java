@@ -31,6 +31,16 @@ public class AppConstants {
     public static final String KEY_USER_NAME_THREAD = "sec2_username_thread";
     public static final String KEY_THREAD_DATASET = "thread_dataset";
     public static final String KEY_THREAD_SCAN_AVAILABLE = "thread_scan_available";
+    public static final String KEY_MQTT_CLIENT_ID = "mqtt_client_id";
+    public static final String KEY_MQTT_PERSISTENT_SESSION = "mqtt_persistent_session";
+    public static final String KEY_MQTT_BROKER_HOST = "mqtt_broker_host";
+    public static final String KEY_MQTT_BROKER_PORT = "mqtt_broker_port";
+    public static final String KEY_MQTT_BROKER_TLS = "mqtt_broker_tls";
+    public static final String KEY_MQTT_KEEP_ALIVE = "mqtt_keep_alive";
+    public static final String KEY_MQTT_POOL_SIZE = "mqtt_pool_size";
+    public static final String KEY_MQTT_VERSION = "mqtt_version";
+    public static final String KEY_MQTT_TOPIC_ALIAS_MAXIMUM = "mqtt_topic_alias_maximum";
+    public static final String KEY_MQTT_BINARY_COMMANDS = "mqtt_binary_commands";
 
     public static final String ESP_PREFERENCES = "Esp_Preferences";
 
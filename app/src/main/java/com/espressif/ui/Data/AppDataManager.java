@@ -1,23 +1,21 @@
 package com.espressif.ui.Data;
 
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 
+import com.espressif.ui.models.DeviceCommand;
 import com.espressif.ui.models.ESPDevice;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
+/**
+ * Device access for code without a Context. Kept for its existing callers; the state
+ * itself lives in {@link DeviceStore}, which must have been created with a Context first.
+ */
 public class AppDataManager {
     private static AppDataManager instance;
-    private final List<ESPDevice> espDevices;
-    private final Handler handler = new Handler(Looper.getMainLooper());
     private static final String TAG = "AppDataManager";
 
     private AppDataManager() {
-        espDevices = Collections.synchronizedList(new ArrayList<>());
     }
 
     public static synchronized AppDataManager getInstance() {
@@ -27,42 +25,22 @@ public class AppDataManager {
         return instance;
     }
 
+    private DeviceStore store() {
+        return DeviceStore.getInstance();
+    }
+
     public void removeDevice(String deviceId) {
         if (deviceId == null) {
             Log.w(TAG, "Attempted to remove device with null ID");
             return;
         }
-
-        handler.post(() -> {
-            synchronized (espDevices) {
-                boolean removed = espDevices.removeIf(device ->
-                        device != null && deviceId.equals(device.getDeviceId()));
-
-                if (removed) {
-                    Log.d(TAG, "Removed device: " + deviceId);
-                } else {
-                    Log.w(TAG, "Device not found for removal: " + deviceId);
-                }
-                logDeviceList();
-            }
-        });
+        if (!store().remove(deviceId)) {
+            Log.w(TAG, "Device not found for removal: " + deviceId);
+        }
     }
 
     public void addDevice(String deviceId, String commandTopic) {
-        if (deviceId == null || commandTopic == null) {
-            Log.w(TAG, "Invalid device parameters: deviceId=" + deviceId + ", topic=" + commandTopic);
-            return;
-        }
-
-        handler.post(() -> {
-            synchronized (espDevices) {
-                if (getDeviceById(deviceId) == null) {
-                    ESPDevice newDevice = new ESPDevice(deviceId, commandTopic);
-                    espDevices.add(newDevice);
-                    Log.d(TAG, "Added device: " + deviceId + " with topic: " + commandTopic);
-                }
-            }
-        });
+        store().add(deviceId, commandTopic);
     }
 
     public void updateDeviceName(String deviceId, String newName) {
@@ -70,54 +48,30 @@ public class AppDataManager {
             Log.w(TAG, "Invalid parameters for renaming: deviceId=" + deviceId + ", newName=" + newName);
             return;
         }
-
-        handler.post(() -> {
-            synchronized (espDevices) {
-                ESPDevice device = getDeviceById(deviceId);
-                if (device != null) {
-                    device.setName(newName);
-                    Log.d(TAG, "Updated name for device " + deviceId + " to: " + newName);
-                    logDeviceList();
-                } else {
-                    Log.w(TAG, "Device not found for renaming: " + deviceId);
-                }
-            }
-        });
+        if (store().update(deviceId, device -> device.withName(newName)) != null) {
+            Log.d(TAG, "Updated name for device " + deviceId + " to: " + newName);
+        } else {
+            Log.w(TAG, "Device not found for renaming: " + deviceId);
+        }
     }
 
     public ESPDevice getFirstDevice() {
-        synchronized (espDevices) {
-            return espDevices.isEmpty() ? null : espDevices.get(0);
-        }
+        List<ESPDevice> devices = store().getAll();
+        return devices.isEmpty() ? null : devices.get(0);
     }
 
     public List<ESPDevice> getAllDevices() {
-        synchronized (espDevices) {
-            return new ArrayList<>(espDevices); // Return a copy to prevent external modification
-        }
+        return store().getAll();
     }
 
     public ESPDevice getDeviceById(String deviceId) {
-        if (deviceId == null) return null;
-
-        synchronized (espDevices) {
-            for (ESPDevice device : espDevices) {
-                if (deviceId.equals(device.getDeviceId())) {
-                    return device;
-                }
-            }
-            return null;
-        }
+        return store().get(deviceId);
     }
 
     public void setDeviceLightState(String deviceId, boolean isLightOn) {
-        handler.post(() -> {
-            ESPDevice device = getDeviceById(deviceId);
-            if (device != null) {
-                device.setLightOn(isLightOn);
-                Log.d(TAG, "Set " + deviceId + " light state to: " + isLightOn);
-            }
-        });
+        if (store().update(deviceId, device -> device.withLightOn(isLightOn)) != null) {
+            Log.d(TAG, "Set " + deviceId + " light state to: " + isLightOn);
+        }
     }
 
     public void handleMqttMessage(String topic, String message) {
@@ -126,75 +80,21 @@ public class AppDataManager {
             return;
         }
 
-        String[] parts = topic.split("/");
-        if (parts.length < 3) {
+        String deviceId = DeviceStore.extractDeviceIdFromTopic(topic);
+        if (deviceId == null) {
             Log.w(TAG, "Invalid topic format: " + topic);
             return;
         }
 
-        String deviceId = parts[2];
-        Log.d(TAG, "Received topic: " + topic + ", message: " + message + ", deviceId: " + deviceId);
-
-        handler.post(() -> {
-            synchronized (espDevices) {
-                ESPDevice device = getDeviceById(deviceId);
-
-                if ("deleteNVS".equals(message)) {
-                    removeDevice(deviceId);
-                    return;
-                }
-
-                if (device == null) {
-                    addDevice(deviceId, topic);
-                    device = getDeviceById(deviceId);
-                }
-
-                updateDeviceState(device, message);
-                logDeviceList();
-            }
-        });
-    }
-
-    private void updateDeviceState(ESPDevice device, String message) {
-        switch (message) {
-            case "on":
-                device.setLightOn(true);
-                device.setRGBMode(false);
-                Log.d(TAG, "Set " + device.getDeviceId() + " to ON (Single mode)");
-                break;
-            case "off":
-                device.setLightOn(false);
-                device.setRGBMode(false);
-                Log.d(TAG, "Set " + device.getDeviceId() + " to OFF (Single mode)");
-                break;
-            case "onRGB":
-                device.setLightOn(true);
-                device.setRGBMode(true);
-                Log.d(TAG, "Set " + device.getDeviceId() + " to ON (RGB mode)");
-                break;
-            case "offRGB":
-                device.setLightOn(false);
-                device.setRGBMode(true);
-                Log.d(TAG, "Set " + device.getDeviceId() + " to OFF (RGB mode)");
-                break;
-            case "deleteNVS":
-                removeDevice(device.getDeviceId());
-                Log.d(TAG, "Delete " + device.getDeviceId());
-                break;
-            default:
-                Log.w(TAG, "Unhandled message type: " + message);
-                break;
+        DeviceCommand command = DeviceCommand.parseLegacy(message);
+        if (command == null) {
+            Log.w(TAG, "Unhandled message type: " + message);
+            return;
         }
-    }
-
-    private void logDeviceList() {
-        Log.d(TAG, "Current device count: " + espDevices.size());
-        for (ESPDevice d : espDevices) {
-            Log.d(TAG, "Device: " + d.getDeviceId() +
-                    ", Name: " + d.getName() +
-                    ", Topic: " + d.getCommandTopic() +
-                    ", State: " + d.isLightOn() +
-                    ", RGB: " + d.isRGBMode());
+        if (command.getType() != DeviceCommand.Type.DELETE_NVS) {
+            store().add(deviceId, topic);
         }
+        store().apply(deviceId, command);
+        Log.d(TAG, "Set " + deviceId + " to " + command);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,121 @@
+package com.espressif.ui.Data;
+
+/**
+ * How {@link DeviceDatabaseHelper} opens devices.db: journal mode, sync level, page cache,
+ * memory mapping and how many threads may read while the DB thread writes.
+ */
+public final class DatabaseConfig {
+
+    public static final String SYNCHRONOUS_OFF = "OFF";
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+    public static final String SYNCHRONOUS_FULL = "FULL";
+
+    /**
+     * WAL with synchronous=NORMAL: a commit only appends to the log, readers never wait for
+     * the writer, and a crash can lose at most the last commits, never corrupt the file.
+     */
+    public static final DatabaseConfig DEFAULT = new Builder().build();
+
+    /** What the helper used before: rollback journal, platform defaults, reads on the DB thread. */
+    public static final DatabaseConfig LEGACY = new Builder()
+            .writeAheadLogging(false)
+            .synchronous(SYNCHRONOUS_FULL)
+            .cacheSizeKb(0)
+            .mmapSizeBytes(0)
+            .readerThreads(0)
+            .build();
+
+    private final boolean writeAheadLogging;
+    private final String synchronous;
+    private final int cacheSizeKb;
+    private final long mmapSizeBytes;
+    private final int readerThreads;
+
+    private DatabaseConfig(Builder builder) {
+        this.writeAheadLogging = builder.writeAheadLogging;
+        this.synchronous = builder.synchronous;
+        this.cacheSizeKb = builder.cacheSizeKb;
+        this.mmapSizeBytes = builder.mmapSizeBytes;
+        // Không có WAL thì người đọc vẫn phải chờ người ghi, luồng đọc riêng không giúp gì
+        this.readerThreads = builder.writeAheadLogging ? builder.readerThreads : 0;
+    }
+
+    public boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    /** Page cache per connection in KiB; 0 keeps SQLite's default. */
+    public int getCacheSizeKb() {
+        return cacheSizeKb;
+    }
+
+    /** Bytes of the file to memory-map; 0 disables mmap. */
+    public long getMmapSizeBytes() {
+        return mmapSizeBytes;
+    }
+
+    /** Threads serving async reads next to the DB thread; 0 reads on the DB thread. */
+    public int getReaderThreads() {
+        return readerThreads;
+    }
+
+    @Override
+    public String toString() {
+        return (writeAheadLogging ? "WAL" : "rollback journal") + ", synchronous=" + synchronous
+                + ", cache=" + cacheSizeKb + "KiB, mmap=" + mmapSizeBytes + ", readers=" + readerThreads;
+    }
+
+    public static final class Builder {
+        private boolean writeAheadLogging = true;
+        private String synchronous = SYNCHRONOUS_NORMAL;
+        private int cacheSizeKb = 2048;
+        private long mmapSizeBytes = 4L * 1024 * 1024;
+        private int readerThreads = 2;
+
+        public Builder writeAheadLogging(boolean enabled) {
+            this.writeAheadLogging = enabled;
+            return this;
+        }
+
+        public Builder synchronous(String synchronous) {
+            if (!SYNCHRONOUS_OFF.equals(synchronous) && !SYNCHRONOUS_NORMAL.equals(synchronous)
+                    && !SYNCHRONOUS_FULL.equals(synchronous)) {
+                throw new IllegalArgumentException("Invalid synchronous mode: " + synchronous);
+            }
+            this.synchronous = synchronous;
+            return this;
+        }
+
+        public Builder cacheSizeKb(int cacheSizeKb) {
+            if (cacheSizeKb < 0) {
+                throw new IllegalArgumentException("Cache size must not be negative: " + cacheSizeKb);
+            }
+            this.cacheSizeKb = cacheSizeKb;
+            return this;
+        }
+
+        public Builder mmapSizeBytes(long mmapSizeBytes) {
+            if (mmapSizeBytes < 0) {
+                throw new IllegalArgumentException("mmap size must not be negative: " + mmapSizeBytes);
+            }
+            this.mmapSizeBytes = mmapSizeBytes;
+            return this;
+        }
+
+        public Builder readerThreads(int readerThreads) {
+            if (readerThreads < 0) {
+                throw new IllegalArgumentException("Reader threads must not be negative: " + readerThreads);
+            }
+            this.readerThreads = readerThreads;
+            return this;
+        }
+
+        public DatabaseConfig build() {
+            return new DatabaseConfig(this);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.espressif.ui.Data;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Worker threads for devices.db: one writer thread (the DB thread), plus optionally a
+ * small pool for reads when WAL lets them run next to the writer. Tasks wait in a bounded queue, so a burst of
+ * MQTT traffic cannot pile up unbounded work behind SQLite; when the queue is full,
+ * {@link #submit} fails fast with a {@link RejectedExecutionException} instead of
+ * blocking the caller. Delayed tasks are timed on a separate thread and only enter the
+ * queue when they are due.
+ */
+public class DatabaseExecutor {
+
+    private static final String TAG = "DatabaseExecutor";
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final String WRITER_NAME = "devices-db";
+    public static final String READER_NAME = "devices-db-read";
+    private static final long WRITE_RETRY_MS = 50;
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile int maxQueueDepth;
+
+    public DatabaseExecutor(String name, int threadCount, int queueCapacity) {
+        this.name = name;
+        AtomicInteger index = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, threadCount == 1 ? name : name + "-" + index.incrementAndGet());
+            threads.add(thread);
+            return thread;
+        });
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** True when called on one of this executor's threads, where waiting on it could deadlock. */
+    public boolean isDbThread() {
+        return threads.contains(Thread.currentThread());
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+            recordDepth();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            Log.w(TAG, name + " queue full (" + executor.getQueue().size() + "), rejecting task");
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public CompletableFuture<Void> execute(Runnable task) {
+        return submit(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Queues a write that must not be lost: if the queue is full it is retried shortly
+     * instead of being rejected.
+     */
+    public void executeWrite(Runnable task) {
+        try {
+            executor.execute(task);
+            recordDepth();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            schedule(task, WRITE_RETRY_MS);
+        }
+    }
+
+    /**
+     * Runs the task on the DB thread after the delay. If the queue is full when it is due,
+     * it is retried after the same delay rather than dropped.
+     */
+    public void schedule(Runnable task, long delayMs) {
+        timer.schedule(() -> {
+            try {
+                executor.execute(task);
+                recordDepth();
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                if (!executor.isShutdown()) {
+                    schedule(task, delayMs);
+                }
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Lets queued tasks finish and stops the threads; later submissions are rejected. */
+    public void shutdown() {
+        timer.shutdownNow();
+        executor.shutdown();
+    }
+
+    private void recordDepth() {
+        int depth = executor.getQueue().size();
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,80 @@
+package com.espressif.ui.Data;
+
+import com.espressif.ui.models.ESPDevice;
+
+/**
+ * One change published by {@link DeviceStore}: a device was inserted, updated or removed.
+ * Updates carry the {@link ESPDevice#diff} mask of the fields that differ between the two
+ * snapshots, so a view can rebind only what changed.
+ */
+public final class DeviceChange {
+
+    public enum Type {
+        INSERTED,
+        UPDATED,
+        REMOVED
+    }
+
+    private final Type type;
+    private final ESPDevice previous;
+    private final ESPDevice device;
+    private final int changedFields;
+    private final long version;
+
+    private DeviceChange(Type type, ESPDevice previous, ESPDevice device, int changedFields, long version) {
+        this.type = type;
+        this.previous = previous;
+        this.device = device;
+        this.changedFields = changedFields;
+        this.version = version;
+    }
+
+    static DeviceChange inserted(ESPDevice device, long version) {
+        return new DeviceChange(Type.INSERTED, null, device, ESPDevice.ALL_FIELDS, version);
+    }
+
+    static DeviceChange updated(ESPDevice previous, ESPDevice device, long version) {
+        return new DeviceChange(Type.UPDATED, previous, device, previous.diff(device), version);
+    }
+
+    static DeviceChange removed(ESPDevice previous, long version) {
+        return new DeviceChange(Type.REMOVED, previous, null, ESPDevice.ALL_FIELDS, version);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getDeviceId() {
+        return device != null ? device.getDeviceId() : previous.getDeviceId();
+    }
+
+    /** Snapshot before the change; null for inserts. */
+    public ESPDevice getPrevious() {
+        return previous;
+    }
+
+    /** Snapshot after the change; null for removals. */
+    public ESPDevice getDevice() {
+        return device;
+    }
+
+    /** {@code ESPDevice.FIELD_*} bits; every bit for inserts and removals. */
+    public int getChangedFields() {
+        return changedFields;
+    }
+
+    public boolean hasChanged(int fields) {
+        return (changedFields & fields) != 0;
+    }
+
+    /** Store version right after this change. */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + getDeviceId() + " fields=0x" + Integer.toHexString(changedFields) + " v" + version;
+    }
+}
@@ -5,20 +5,32 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.os.Handler;
-import android.os.Looper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
-import com.espressif.ui.Services.MQTTService;
+import androidx.annotation.WorkerThread;
+
+import com.espressif.ui.Services.DeviceCommandCodec;
+import com.espressif.ui.models.DeviceGroup;
 import com.espressif.ui.models.ESPDevice;
+import com.espressif.ui.models.Rule;
+import com.espressif.ui.models.Scene;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class DeviceDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "devices.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 7;
 
     public static final String TABLE_DEVICES = "devices";
     public static final String COLUMN_ID = "_id";
@@ -27,14 +39,53 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_COMMAND_TOPIC = "command_topic";
     public static final String COLUMN_IS_LIGHT_ON = "is_light_on";
     public static final String COLUMN_IS_RGB_MODE = "is_rgb_mode";
+    public static final String COLUMN_BRIGHTNESS = "brightness";
+    public static final String COLUMN_COLOR = "color";
+    private static final String INDEX_DEVICE_ID = "idx_devices_device_id";
+
+    // "groups" là từ khóa trong SQLite mới nên bảng nhóm đặt tên device_groups
+    public static final String TABLE_GROUPS = "device_groups";
+    public static final String TABLE_GROUP_MEMBERS = "group_members";
+    public static final String COLUMN_GROUP_ID = "group_id";
+    public static final String COLUMN_GROUP_TYPE = "type";
+    private static final String INDEX_GROUP_MEMBERS_DEVICE = "idx_group_members_device_id";
+
+    public static final String TABLE_SCENES = "scenes";
+    public static final String TABLE_SCENE_ACTIONS = "scene_actions";
+    public static final String COLUMN_SCENE_ID = "scene_id";
+    public static final String COLUMN_POSITION = "position";
+    public static final String COLUMN_TARGET_TYPE = "target_type";
+    public static final String COLUMN_TARGET_ID = "target_id";
+    public static final String COLUMN_COMMAND = "command";
+
+    public static final String TABLE_RULES = "rules";
+    public static final String COLUMN_RULE_ID = "rule_id";
+    public static final String COLUMN_ENABLED = "enabled";
+    public static final String COLUMN_TRIGGER = "trigger_type";
+    public static final String COLUMN_TOPIC_FILTER = "topic_filter";
+    public static final String COLUMN_PAYLOAD = "payload";
+    public static final String COLUMN_AT_MINUTE = "at_minute";
+    public static final String COLUMN_WINDOW_START = "window_start";
+    public static final String COLUMN_WINDOW_END = "window_end";
+
+    // Tách khỏi bảng devices để heartbeat không đi qua upsert của write buffer
+    public static final String TABLE_PRESENCE = "device_presence";
+    public static final String COLUMN_LAST_SEEN = "last_seen";
 
-    private static final String DEFAULT_TOPIC_1 = "/devices/notification"; // Topic mặc định 1
-    private static final String DEFAULT_TOPIC_2 = "/speech/command";    // Topic mặc định 2
-    private final Handler handler = new Handler(Looper.getMainLooper());
     private static DeviceDatabaseHelper instance;
+    private final DatabaseConfig config;
+    // Mọi lần ghi devices.db đi qua luồng này; các hàm đồng bộ bên dưới chỉ gọi từ luồng nền
+    private final DatabaseExecutor dbExecutor =
+            new DatabaseExecutor(DatabaseExecutor.WRITER_NAME, 1, DatabaseExecutor.DEFAULT_QUEUE_CAPACITY);
+    // Với WAL các lần đọc async chạy song song với luồng ghi; nếu không thì dùng chung luồng ghi
+    private final DatabaseExecutor readExecutor;
+    private final DeviceWriteBuffer writeBuffer =
+            new DeviceWriteBuffer(this, dbExecutor, DeviceWriteBuffer.DEFAULT_WINDOW_MS);
+    private final StateHistory stateHistory;
     private static final String TAG = "DeviceDatabaseHelper";
 
-    private static final String TABLE_CREATE =
+    // Schema của version 1; các version sau được dựng bằng chính các bước migrate trong onUpgrade
+    private static final String TABLE_CREATE_V1 =
             "CREATE TABLE " + TABLE_DEVICES + " (" +
                     COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                     COLUMN_DEVICE_ID + " TEXT, " +
@@ -47,6 +98,10 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
     public static synchronized DeviceDatabaseHelper getInstance(Context context) {
         if (instance == null) {
             instance = new DeviceDatabaseHelper(context.getApplicationContext());
+            // Ghi nốt các cập nhật còn chờ khi app xuống nền hoặc sắp bị thu hồi
+            context.getApplicationContext().registerComponentCallbacks(instance.writeBuffer);
+            context.getApplicationContext().registerComponentCallbacks(instance.stateHistory);
+            instance.stateHistory.startCompactor();
         }
         return instance;
     }
@@ -59,221 +114,175 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
     }
 
     public DeviceDatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
-    }
-
-    @Override
-    public void onCreate(SQLiteDatabase db) {
-        db.execSQL(TABLE_CREATE);
+        this(context, DATABASE_NAME, DatabaseConfig.DEFAULT);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_DEVICES);
-        onCreate(db);
-    }
-
-    // Tách hàm phụ
-    public void handleMqttMessage(String topic, String message) {
-        if (topic == null || message == null) {
-            logWarning("Received null topic or message");
-            return;
+    /** Opens {@code databaseName} with the given tuning; used directly by benchmarks. */
+    public DeviceDatabaseHelper(Context context, String databaseName, DatabaseConfig config) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        this.config = config;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            // Áp dụng cho mọi kết nối trong pool, kể cả các kết nối đọc mở sau này
+            setOpenParams(new SQLiteDatabase.OpenParams.Builder()
+                    .setSynchronousMode(config.getSynchronous())
+                    .build());
         }
-
-        logDebug("Received topic: " + topic + ", message: " + message);
-
-        handler.post(() -> processMessage(topic, message));
+        setWriteAheadLoggingEnabled(config.isWriteAheadLogging());
+        this.readExecutor = config.getReaderThreads() > 0
+                ? new DatabaseExecutor(DatabaseExecutor.READER_NAME, config.getReaderThreads(),
+                DatabaseExecutor.DEFAULT_QUEUE_CAPACITY)
+                : dbExecutor;
+        this.stateHistory = new StateHistory(this, dbExecutor, readExecutor);
     }
 
-    private void processMessage(String topic, String message) {
-        if (isDeleteRequest(message)) {
-            handleDeleteDevice(topic);
-            return;
+    // Chạy khi mở database, trước onCreate/onUpgrade; các PRAGMA chỉ áp dụng cho kết nối chính
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
+            pragma(db, "PRAGMA synchronous = " + config.getSynchronous());
         }
-
-        if (isNotificationTopic(topic)) {
-            handleNotificationMessage(message);
-            return;
+        if (config.getCacheSizeKb() > 0) {
+            // Giá trị âm nghĩa là KiB thay vì số trang
+            pragma(db, "PRAGMA cache_size = -" + config.getCacheSizeKb());
         }
+        pragma(db, "PRAGMA mmap_size = " + config.getMmapSizeBytes());
+        Log.d(TAG, "Opened " + getDatabaseName() + " with " + config);
+    }
 
-        if (isLightControlTopic(topic)) {
-            handleLightControlMessage(message);
-            return;
+    // PRAGMA có trả về dòng kết quả nên không chạy được bằng execSQL
+    private static void pragma(SQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            cursor.moveToFirst();
         }
-
-        handleDeviceSpecificMessage(topic, message);
     }
 
-    private boolean isDeleteRequest(String message) {
-        return "deleteNVS".equals(message);
+    public DatabaseConfig getConfig() {
+        return config;
     }
 
-    private boolean isNotificationTopic(String topic) {
-        return DEFAULT_TOPIC_1.equals(topic);
+    // Chỉ các instance riêng (benchmark) đóng DB; instance dùng chung sống cùng tiến trình
+    @Override
+    public synchronized void close() {
+        writeBuffer.flushNow();
+        writeBuffer.callInOrder(() -> {
+            stateHistory.drain();
+            return null;
+        });
+        super.close();
+        if (readExecutor != dbExecutor) {
+            readExecutor.shutdown();
+        }
+        dbExecutor.shutdown();
     }
 
-    private boolean isLightControlTopic(String topic) {
-        return DEFAULT_TOPIC_2.equals(topic);
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(TABLE_CREATE_V1);
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
-    private void handleDeleteDevice(String topic) {
-        String deviceId = extractDeviceIdFromTopic(topic);
-        if (deviceId != null) {
-            removeDevice(deviceId);
-        } else {
-            logWarning("Invalid topic format for deleteNVS: " + topic);
+    // SQLiteOpenHelper chạy onCreate/onUpgrade trong một transaction; mỗi bước giữ nguyên dữ liệu
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            migrateToV2(db);
         }
-    }
-
-    private void handleNotificationMessage(String message) {
-        String[] parts = message.split("/");
-        if (parts.length >= 3) {
-            String deviceId = parts[2];
-            if (getDeviceById(deviceId) == null) {
-                addDevice(deviceId, message);
-            }
-        } else {
-            logWarning("Invalid message format in /devices/notification: " + message);
+        if (oldVersion < 3) {
+            // v3: lịch sử bật/tắt và bảng tổng hợp theo giờ; trạng thái hiện tại làm mốc đầu tiên
+            StateHistory.createTables(db);
+            db.execSQL("INSERT INTO " + StateHistory.TABLE_HISTORY + " (" + StateHistory.COLUMN_DEVICE_ID + ", "
+                    + StateHistory.COLUMN_TIMESTAMP + ", " + StateHistory.COLUMN_IS_LIGHT_ON + ", "
+                    + StateHistory.COLUMN_IS_RGB_MODE + ", " + StateHistory.COLUMN_IS_SEED + ") SELECT "
+                    + COLUMN_DEVICE_ID + ", " + System.currentTimeMillis() + ", " + COLUMN_IS_LIGHT_ON + ", "
+                    + COLUMN_IS_RGB_MODE + ", 1 FROM " + TABLE_DEVICES);
         }
-    }
-
-    private void handleLightControlMessage(String message) {
-        switch (message) {
-            case "turn on":
-                updateStateLight(true);
-                break;
-            case "turn off":
-                updateStateLight(false);
-                break;
-            default:
-                logWarning("Unknown light control message: " + message);
+        if (oldVersion < 4) {
+            migrateToV4(db);
         }
-    }
-
-    private void handleDeviceSpecificMessage(String topic, String message) {
-        String deviceId = extractDeviceIdFromTopic(topic);
-        if (deviceId != null) {
-            ESPDevice device = getDeviceById(deviceId);
-            if (device == null) {
-                logWarning("Device not found for ID: " + deviceId);
-                return;
-            }
-
-            // Check if message starts with "name/" for setting device name
-            if (message.startsWith("name/")) {
-                String[] parts = message.split("/", 2); // Split into "name" and "<newName>"
-                if (parts.length == 2 && !parts[1].isEmpty()) {
-                    String newName = parts[1]; // Get the name after "name/"
-                    device.setName(newName);  // Set the new name
-                    updateDevice(device);     // Update the database
-                    logDebug("Set device name to: " + newName + " for device " + deviceId);
-                } else {
-                    logWarning("Invalid name format in message: " + message + " for device: " + deviceId);
-                }
-            } else if ("deleteNVS".equals(message)) {
-                try {
-                    removeDevice(device.getDeviceId());
-                    logDebug("Deleted device with ID: " + deviceId);
-                } catch (Exception e) {
-                    logWarning("Error deleting device with ID: " + deviceId + ": " + e.getMessage());
-                }
-            } else {
-                // Handle existing cases
-                switch (message) {
-                    case "onRGB":
-                        device.setLightOn(true);
-                        device.setRGBMode(true);
-                        break;
-                    case "offRGB":
-                        device.setLightOn(false);
-                        device.setRGBMode(true);
-                        break;
-                    case "on":
-                        device.setLightOn(true);
-                        device.setRGBMode(false);
-                        break;
-                    case "off":
-                        device.setLightOn(false);
-                        device.setRGBMode(false);
-                        break;
-                    default:
-                        logWarning("Unknown message: " + message + " for device: " + deviceId);
-                        return;
-                }
-                // Update database for state changes
-                updateDevice(device);
-                logDebug("Processed message: " + message + " for device " + deviceId +
-                        ", LightOn: " + device.isLightOn() + ", RGBMode: " + device.isRGBMode());
-            }
-        } else {
-            logWarning("Could not extract device ID from topic: " + topic);
+        if (oldVersion < 5) {
+            migrateToV5(db);
+        }
+        if (oldVersion < 6) {
+            // v6: luật tự động hóa; mỗi luật áp dụng một scene
+            db.execSQL("CREATE TABLE " + TABLE_RULES + " (" +
+                    COLUMN_RULE_ID + " TEXT PRIMARY KEY, " +
+                    COLUMN_NAME + " TEXT, " +
+                    COLUMN_ENABLED + " INTEGER NOT NULL, " +
+                    COLUMN_TRIGGER + " TEXT NOT NULL, " +
+                    COLUMN_TOPIC_FILTER + " TEXT, " +
+                    COLUMN_PAYLOAD + " TEXT, " +
+                    COLUMN_AT_MINUTE + " INTEGER NOT NULL, " +
+                    COLUMN_WINDOW_START + " INTEGER NOT NULL, " +
+                    COLUMN_WINDOW_END + " INTEGER NOT NULL, " +
+                    COLUMN_SCENE_ID + " TEXT NOT NULL)");
+        }
+        if (oldVersion < 7) {
+            // v7: lần cuối thấy heartbeat của từng thiết bị (epoch ms)
+            db.execSQL("CREATE TABLE " + TABLE_PRESENCE + " (" +
+                    COLUMN_DEVICE_ID + " TEXT PRIMARY KEY, " +
+                    COLUMN_LAST_SEEN + " INTEGER NOT NULL)");
         }
-    }
-    private String extractDeviceIdFromTopic(String topic) {
-        String[] parts = topic.split("/");
-        return parts.length >= 3 ? parts[2] : null;
     }
 
-    private void logWarning(String msg) {
-        Log.w(TAG, msg);
+    // v2: device_id duy nhất (có index) và lưu độ sáng, màu
+    private void migrateToV2(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + TABLE_DEVICES + " WHERE " + COLUMN_DEVICE_ID + " IS NULL");
+        // Giữ bản ghi mới nhất của mỗi thiết bị, xóa các bản trùng do CONFLICT_IGNORE cũ không có tác dụng
+        db.execSQL("DELETE FROM " + TABLE_DEVICES + " WHERE " + COLUMN_ID + " NOT IN (SELECT MAX(" + COLUMN_ID
+                + ") FROM " + TABLE_DEVICES + " GROUP BY " + COLUMN_DEVICE_ID + ")");
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_DEVICE_ID + " ON " + TABLE_DEVICES + " (" + COLUMN_DEVICE_ID + ")");
+        db.execSQL("ALTER TABLE " + TABLE_DEVICES + " ADD COLUMN " + COLUMN_BRIGHTNESS + " INTEGER NOT NULL DEFAULT 100");
+        db.execSQL("ALTER TABLE " + TABLE_DEVICES + " ADD COLUMN " + COLUMN_COLOR + " INTEGER NOT NULL DEFAULT "
+                + 0xFFFFFF);
     }
 
-    private void logDebug(String msg) {
-        Log.d(TAG, msg);
+    // v4: nhóm thiết bị (phòng, khu vực, tag) và thành viên của từng nhóm
+    private void migrateToV4(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_GROUPS + " (" +
+                COLUMN_GROUP_ID + " TEXT PRIMARY KEY, " +
+                COLUMN_NAME + " TEXT, " +
+                COLUMN_GROUP_TYPE + " TEXT NOT NULL)");
+        db.execSQL("CREATE TABLE " + TABLE_GROUP_MEMBERS + " (" +
+                COLUMN_GROUP_ID + " TEXT NOT NULL, " +
+                COLUMN_DEVICE_ID + " TEXT NOT NULL, " +
+                "PRIMARY KEY (" + COLUMN_GROUP_ID + ", " + COLUMN_DEVICE_ID + "))");
+        // Xóa thiết bị cần tìm theo device_id
+        db.execSQL("CREATE INDEX " + INDEX_GROUP_MEMBERS_DEVICE + " ON " + TABLE_GROUP_MEMBERS
+                + " (" + COLUMN_DEVICE_ID + ")");
     }
 
+    // v5: scene và các lệnh của scene theo thứ tự; lệnh lưu ở dạng nhị phân của DeviceCommandCodec
+    private void migrateToV5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_SCENES + " (" +
+                COLUMN_SCENE_ID + " TEXT PRIMARY KEY, " +
+                COLUMN_NAME + " TEXT)");
+        db.execSQL("CREATE TABLE " + TABLE_SCENE_ACTIONS + " (" +
+                COLUMN_SCENE_ID + " TEXT NOT NULL, " +
+                COLUMN_POSITION + " INTEGER NOT NULL, " +
+                COLUMN_TARGET_TYPE + " TEXT NOT NULL, " +
+                COLUMN_TARGET_ID + " TEXT NOT NULL, " +
+                COLUMN_COMMAND + " BLOB NOT NULL, " +
+                "PRIMARY KEY (" + COLUMN_SCENE_ID + ", " + COLUMN_POSITION + "))");
+    }
 
-    // Cập nhật trạng thái đèn cho tất cả thiết bị (ít dùng hơn)
+    // Cập nhật trạng thái đèn cho tất cả thiết bị bằng một câu UPDATE trong một transaction
     public void updateStateLight(boolean isLightOn) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        List<ESPDevice> espDevices = getAllDevices();
-
-        if (espDevices.isEmpty()) {
-            Log.w(TAG, "No devices found in database to update");
-            return; // Không đóng db
-        }
-
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_IS_LIGHT_ON, isLightOn ? 1 : 0);
-
-        for (ESPDevice device : espDevices) {
-            int rowsAffected = db.update(
-                    TABLE_DEVICES,
-                    values,
-                    COLUMN_DEVICE_ID + " = ?",
-                    new String[]{device.getDeviceId()}
-            );
-
-            if (rowsAffected > 0) {
-                Log.d(TAG, "Updated state for device " + device.getName() + " (ID: " + device.getDeviceId() + ") to " + (isLightOn ? "ON" : "OFF"));
-            } else {
-                Log.w(TAG, "Failed to update state for device " + device.getName() + " (ID: " + device.getDeviceId() + ")");
-            }
-        }
-        // Không đóng db ở đây
+        writeBuffer.setAllLightsOn(isLightOn);
     }
 
     // Cập nhật trạng thái đèn cho một thiết bị cụ thể
+    @WorkerThread
     public void updateStateLight(String deviceId, int newState) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_IS_LIGHT_ON, newState);
-
-        int rowsAffected = db.update(
-                TABLE_DEVICES,
-                values,
-                COLUMN_DEVICE_ID + " = ?",
-                new String[]{deviceId}
-        );
-
-        if (rowsAffected > 0) {
-            Log.d(TAG, "Updated state for device ID " + deviceId + " to " + (newState == 1 ? "ON" : "OFF"));
-        } else {
+        ESPDevice device = getDeviceById(deviceId);
+        if (device == null) {
             Log.w(TAG, "Failed to update state for device ID " + deviceId);
+            return;
         }
-        // Không đóng db ở đây
+        writeBuffer.submit(device.withLightOn(newState == 1));
+        Log.d(TAG, "Updated state for device ID " + deviceId + " to " + (newState == 1 ? "ON" : "OFF"));
     }
 
+    @WorkerThread
     public void addDevice(String deviceId, String commandTopic) {
         if (deviceId == null || commandTopic == null) return;
 
@@ -284,10 +293,12 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
         values.put(COLUMN_NAME, "ESP Device");
         values.put(COLUMN_IS_LIGHT_ON, 0);
         values.put(COLUMN_IS_RGB_MODE, 0);
+        // Index UNIQUE trên device_id làm CONFLICT_IGNORE có tác dụng: thiết bị đã có giữ nguyên trạng thái
         db.insertWithOnConflict(TABLE_DEVICES, null, values, SQLiteDatabase.CONFLICT_IGNORE);
         // Không đóng db
     }
 
+    @WorkerThread
     public ESPDevice getDeviceById(String deviceId) {
         SQLiteDatabase db = this.getReadableDatabase();
         ESPDevice device = null;
@@ -299,16 +310,7 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
                 null, null, null);
 
         if (cursor != null && cursor.moveToFirst()) {
-            String id = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DEVICE_ID));
-            String name = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME));
-            String topic = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_COMMAND_TOPIC));
-            boolean isLightOn = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IS_LIGHT_ON)) == 1;
-            boolean isRGBMode = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IS_RGB_MODE)) == 1;
-
-            device = new ESPDevice(id, topic);
-            device.setName(name);
-            device.setLightOn(isLightOn);
-            device.setRGBMode(isRGBMode);
+            device = readDevice(cursor);
         }
 
         if (cursor != null) {
@@ -318,13 +320,37 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
         return device;
     }
 
+    @WorkerThread
     public boolean deleteDeviceById(String deviceId) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        int deletedRows = db.delete(TABLE_DEVICES, COLUMN_DEVICE_ID + " = ?", new String[]{deviceId});
-        // Không đóng db
-        return deletedRows > 0;
+        // Chạy sau lần ghi đang dở để upsert của nó không tạo lại dòng vừa xóa
+        return writeBuffer.callInOrder(() -> {
+            writeBuffer.discard(deviceId);
+            SQLiteDatabase db = this.getWritableDatabase();
+            int deletedRows = db.delete(TABLE_DEVICES, COLUMN_DEVICE_ID + " = ?", new String[]{deviceId});
+            stateHistory.deleteDevice(db, deviceId);
+            db.delete(TABLE_GROUP_MEMBERS, COLUMN_DEVICE_ID + " = ?", new String[]{deviceId});
+            db.delete(TABLE_PRESENCE, COLUMN_DEVICE_ID + " = ?", new String[]{deviceId});
+            // Không đóng db
+            return deletedRows > 0;
+        });
     }
 
+    // Xóa trên luồng ghi mà không chờ, theo thứ tự với các upsert đã xếp hàng
+    public void deleteDeviceLater(String deviceId) {
+        writeBuffer.runInOrder(() -> {
+            writeBuffer.discard(deviceId);
+            SQLiteDatabase db = getWritableDatabase();
+            int deletedRows = db.delete(TABLE_DEVICES, COLUMN_DEVICE_ID + " = ?", new String[]{deviceId});
+            stateHistory.deleteDevice(db, deviceId);
+            db.delete(TABLE_GROUP_MEMBERS, COLUMN_DEVICE_ID + " = ?", new String[]{deviceId});
+            db.delete(TABLE_PRESENCE, COLUMN_DEVICE_ID + " = ?", new String[]{deviceId});
+            if (deletedRows == 0) {
+                Log.w(TAG, "Device not found in SQLite for removal: " + deviceId);
+            }
+        });
+    }
+
+    @WorkerThread
     public void removeDevice(String deviceId) {
         if (deviceId == null) {
             Log.w(TAG, "Attempted to remove device with null ID");
@@ -339,46 +365,316 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Queues the device's values in the write-behind buffer; they are committed together
+     * with other updates within {@link DeviceWriteBuffer#DEFAULT_WINDOW_MS}, and reads see
+     * them immediately.
+     *
+     * @return true once the update is queued
+     */
     public boolean updateDevice(ESPDevice device) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
+        writeBuffer.submit(device);
+        return true;
+    }
 
-//        System.out.println(device.isRGBMode() ? 1 : 0);
-        values.put(COLUMN_NAME, device.getName());
-        values.put(COLUMN_COMMAND_TOPIC, device.getCommandTopic());
-        values.put(COLUMN_IS_LIGHT_ON, device.isLightOn() ? 1 : 0);
-        values.put(COLUMN_IS_RGB_MODE, device.isRGBMode() ? 1 : 0);
+    /** Queues several devices and commits them together in one transaction, without waiting for the window. */
+    public void updateDevices(Collection<ESPDevice> devices) {
+        writeBuffer.submitAll(devices);
+    }
 
-        int rowsAffected = db.update(
-                TABLE_DEVICES,
-                values,
-                COLUMN_DEVICE_ID + " = ?",
-                new String[]{device.getDeviceId()}
-        );
-        // Không đóng db
-        return rowsAffected > 0;
+    public DeviceWriteBuffer getWriteBuffer() {
+        return writeBuffer;
+    }
+
+    public StateHistory getStateHistory() {
+        return stateHistory;
+    }
+
+    public DatabaseExecutor getDbExecutor() {
+        return dbExecutor;
     }
 
+    // Các hàm async chạy trên luồng DB; future thất bại ngay nếu hàng đợi đã đầy
+
+    public CompletableFuture<List<ESPDevice>> getAllDevicesAsync() {
+        return readExecutor.submit(this::getAllDevices);
+    }
+
+    public CompletableFuture<ESPDevice> getDeviceByIdAsync(String deviceId) {
+        return readExecutor.submit(() -> getDeviceById(deviceId));
+    }
+
+    public CompletableFuture<Void> addDeviceAsync(String deviceId, String commandTopic) {
+        return dbExecutor.execute(() -> addDevice(deviceId, commandTopic));
+    }
+
+    public CompletableFuture<Boolean> deleteDeviceByIdAsync(String deviceId) {
+        return dbExecutor.submit(() -> deleteDeviceById(deviceId));
+    }
+
+    @WorkerThread
     public List<ESPDevice> getAllDevices() {
         List<ESPDevice> devices = new ArrayList<>();
         SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = db.query(TABLE_DEVICES, null, null, null, null, null, null);
 
         while (cursor.moveToNext()) {
-            String deviceId = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DEVICE_ID));
-            String name = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME));
-            String topic = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_COMMAND_TOPIC));
-            boolean isLightOn = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IS_LIGHT_ON)) == 1;
-            boolean isRGBMode = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IS_RGB_MODE)) == 1;
-
-            ESPDevice device = new ESPDevice(deviceId, topic);
-            device.setName(name);
-            device.setLightOn(isLightOn);
-            device.setRGBMode(isRGBMode);
-            devices.add(device);
+            devices.add(readDevice(cursor));
         }
         cursor.close();
         // Không đóng db
         return devices;
     }
+
+    // Ghi cả nhóm (tên, loại, danh sách thành viên) trong một transaction, theo thứ tự với các lần ghi khác
+    public void saveGroupLater(DeviceGroup group) {
+        writeBuffer.runInOrder(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_GROUP_ID, group.getGroupId());
+                values.put(COLUMN_NAME, group.getName());
+                values.put(COLUMN_GROUP_TYPE, group.getType().name());
+                db.insertWithOnConflict(TABLE_GROUPS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                String[] args = {group.getGroupId()};
+                db.delete(TABLE_GROUP_MEMBERS, COLUMN_GROUP_ID + " = ?", args);
+                ContentValues member = new ContentValues();
+                for (String deviceId : group.getMemberIds()) {
+                    member.put(COLUMN_GROUP_ID, group.getGroupId());
+                    member.put(COLUMN_DEVICE_ID, deviceId);
+                    db.insertWithOnConflict(TABLE_GROUP_MEMBERS, null, member, SQLiteDatabase.CONFLICT_IGNORE);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    public void deleteGroupLater(String groupId) {
+        writeBuffer.runInOrder(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                String[] args = {groupId};
+                db.delete(TABLE_GROUP_MEMBERS, COLUMN_GROUP_ID + " = ?", args);
+                db.delete(TABLE_GROUPS, COLUMN_GROUP_ID + " = ?", args);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    public CompletableFuture<List<DeviceGroup>> getAllGroupsAsync() {
+        return readExecutor.submit(this::getAllGroups);
+    }
+
+    @WorkerThread
+    public List<DeviceGroup> getAllGroups() {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Map<String, Set<String>> members = new HashMap<>();
+        // rowid giữ thứ tự thành viên được thêm vào
+        try (Cursor cursor = db.query(TABLE_GROUP_MEMBERS, new String[]{COLUMN_GROUP_ID, COLUMN_DEVICE_ID},
+                null, null, null, null, "rowid")) {
+            while (cursor.moveToNext()) {
+                members.computeIfAbsent(cursor.getString(0), id -> new LinkedHashSet<>()).add(cursor.getString(1));
+            }
+        }
+        List<DeviceGroup> groups = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE_GROUPS, new String[]{COLUMN_GROUP_ID, COLUMN_NAME, COLUMN_GROUP_TYPE},
+                null, null, null, null, "rowid")) {
+            while (cursor.moveToNext()) {
+                String groupId = cursor.getString(0);
+                DeviceGroup.Type type;
+                try {
+                    type = DeviceGroup.Type.valueOf(cursor.getString(2));
+                } catch (IllegalArgumentException e) {
+                    type = DeviceGroup.Type.TAG;
+                }
+                Set<String> memberIds = members.get(groupId);
+                groups.add(new DeviceGroup(groupId, cursor.getString(1), type,
+                        memberIds != null ? memberIds : Collections.emptySet()));
+            }
+        }
+        // Không đóng db
+        return groups;
+    }
+
+    public void saveSceneLater(Scene scene) {
+        writeBuffer.runInOrder(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_SCENE_ID, scene.getSceneId());
+                values.put(COLUMN_NAME, scene.getName());
+                db.insertWithOnConflict(TABLE_SCENES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                db.delete(TABLE_SCENE_ACTIONS, COLUMN_SCENE_ID + " = ?", new String[]{scene.getSceneId()});
+                ContentValues action = new ContentValues();
+                int position = 0;
+                for (Scene.Action sceneAction : scene.getActions()) {
+                    action.put(COLUMN_SCENE_ID, scene.getSceneId());
+                    action.put(COLUMN_POSITION, position++);
+                    action.put(COLUMN_TARGET_TYPE, sceneAction.getTarget().name());
+                    action.put(COLUMN_TARGET_ID, sceneAction.getTargetId());
+                    action.put(COLUMN_COMMAND, DeviceCommandCodec.encode(sceneAction.getCommand()));
+                    db.insert(TABLE_SCENE_ACTIONS, null, action);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    public void deleteSceneLater(String sceneId) {
+        writeBuffer.runInOrder(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                String[] args = {sceneId};
+                db.delete(TABLE_SCENE_ACTIONS, COLUMN_SCENE_ID + " = ?", args);
+                db.delete(TABLE_SCENES, COLUMN_SCENE_ID + " = ?", args);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    public CompletableFuture<List<Scene>> getAllScenesAsync() {
+        return readExecutor.submit(this::getAllScenes);
+    }
+
+    @WorkerThread
+    public List<Scene> getAllScenes() {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Map<String, List<Scene.Action>> actions = new HashMap<>();
+        try (Cursor cursor = db.query(TABLE_SCENE_ACTIONS,
+                new String[]{COLUMN_SCENE_ID, COLUMN_TARGET_TYPE, COLUMN_TARGET_ID, COLUMN_COMMAND},
+                null, null, null, null, COLUMN_SCENE_ID + ", " + COLUMN_POSITION)) {
+            while (cursor.moveToNext()) {
+                try {
+                    Scene.Action action = new Scene.Action(Scene.Target.valueOf(cursor.getString(1)),
+                            cursor.getString(2), DeviceCommandCodec.decode(cursor.getBlob(3)));
+                    actions.computeIfAbsent(cursor.getString(0), id -> new ArrayList<>()).add(action);
+                } catch (IllegalArgumentException e) {
+                    // Bỏ qua lệnh hỏng, giữ các lệnh còn lại của scene
+                    Log.w(TAG, "Skipping invalid action of scene " + cursor.getString(0) + ": " + e.getMessage());
+                }
+            }
+        }
+        List<Scene> scenes = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE_SCENES, new String[]{COLUMN_SCENE_ID, COLUMN_NAME},
+                null, null, null, null, "rowid")) {
+            while (cursor.moveToNext()) {
+                List<Scene.Action> sceneActions = actions.get(cursor.getString(0));
+                scenes.add(new Scene(cursor.getString(0), cursor.getString(1),
+                        sceneActions != null ? sceneActions : Collections.emptyList()));
+            }
+        }
+        // Không đóng db
+        return scenes;
+    }
+
+    public void saveRuleLater(Rule rule) {
+        writeBuffer.runInOrder(() -> {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_RULE_ID, rule.getRuleId());
+            values.put(COLUMN_NAME, rule.getName());
+            values.put(COLUMN_ENABLED, rule.isEnabled() ? 1 : 0);
+            values.put(COLUMN_TRIGGER, rule.getTrigger().name());
+            values.put(COLUMN_TOPIC_FILTER, rule.getTopicFilter());
+            values.put(COLUMN_PAYLOAD, rule.getPayload());
+            values.put(COLUMN_AT_MINUTE, rule.getAtMinute());
+            values.put(COLUMN_WINDOW_START, rule.getWindowStart());
+            values.put(COLUMN_WINDOW_END, rule.getWindowEnd());
+            values.put(COLUMN_SCENE_ID, rule.getSceneId());
+            getWritableDatabase().insertWithOnConflict(TABLE_RULES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        });
+    }
+
+    public void deleteRuleLater(String ruleId) {
+        writeBuffer.runInOrder(() ->
+                getWritableDatabase().delete(TABLE_RULES, COLUMN_RULE_ID + " = ?", new String[]{ruleId}));
+    }
+
+    public CompletableFuture<List<Rule>> getAllRulesAsync() {
+        return readExecutor.submit(this::getAllRules);
+    }
+
+    @WorkerThread
+    public List<Rule> getAllRules() {
+        List<Rule> rules = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_RULES, new String[]{COLUMN_RULE_ID, COLUMN_NAME,
+                        COLUMN_ENABLED, COLUMN_TRIGGER, COLUMN_TOPIC_FILTER, COLUMN_PAYLOAD, COLUMN_AT_MINUTE,
+                        COLUMN_WINDOW_START, COLUMN_WINDOW_END, COLUMN_SCENE_ID},
+                null, null, null, null, "rowid")) {
+            while (cursor.moveToNext()) {
+                try {
+                    rules.add(new Rule(cursor.getString(0), cursor.getString(1), cursor.getInt(2) == 1,
+                            Rule.Trigger.valueOf(cursor.getString(3)), cursor.getString(4), cursor.getString(5),
+                            cursor.getInt(6), cursor.getInt(7), cursor.getInt(8), cursor.getString(9)));
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Skipping invalid rule " + cursor.getString(0) + ": " + e.getMessage());
+                }
+            }
+        }
+        // Không đóng db
+        return rules;
+    }
+
+    /** Writes a batch of last-seen times in one transaction, after the writes already queued. */
+    public void saveLastSeenLater(Map<String, Long> lastSeen) {
+        if (lastSeen.isEmpty()) {
+            return;
+        }
+        writeBuffer.runInOrder(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try (SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_PRESENCE
+                    + " (" + COLUMN_DEVICE_ID + ", " + COLUMN_LAST_SEEN + ") VALUES (?, ?)")) {
+                for (Map.Entry<String, Long> entry : lastSeen.entrySet()) {
+                    statement.bindString(1, entry.getKey());
+                    statement.bindLong(2, entry.getValue());
+                    statement.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.d(TAG, "Saved last-seen times of " + lastSeen.size() + " devices");
+        });
+    }
+
+    public CompletableFuture<Map<String, Long>> getAllLastSeenAsync() {
+        return readExecutor.submit(this::getAllLastSeen);
+    }
+
+    @WorkerThread
+    public Map<String, Long> getAllLastSeen() {
+        Map<String, Long> lastSeen = new HashMap<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_PRESENCE,
+                new String[]{COLUMN_DEVICE_ID, COLUMN_LAST_SEEN}, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                lastSeen.put(cursor.getString(0), cursor.getLong(1));
+            }
+        }
+        // Không đóng db
+        return lastSeen;
+    }
+
+    private ESPDevice readDevice(Cursor cursor) {
+        String deviceId = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DEVICE_ID));
+        String name = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME));
+        String topic = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_COMMAND_TOPIC));
+        boolean isLightOn = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IS_LIGHT_ON)) == 1;
+        boolean isRGBMode = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IS_RGB_MODE)) == 1;
+        long state = ESPDevice.packState(isLightOn, isRGBMode, true,
+                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_BRIGHTNESS)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_COLOR)));
+        return writeBuffer.overlay(new ESPDevice(deviceId, name, topic, state));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,259 @@
+package com.espressif.ui.Data;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.espressif.ui.models.DeviceGroup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Rooms, zones and tags, kept in memory and written to SQLite next to the devices. Groups
+ * are immutable {@link DeviceGroup} snapshots, so lookups are plain map reads; every change
+ * replaces the group and queues a write on the DB thread.
+ *
+ * <p>When a device is removed from {@link DeviceStore} it is dropped from every group.
+ * Listeners are told which devices' memberships changed, so the new list can be sent
+ * to them.
+ */
+public class DeviceGroupStore {
+
+    private static final String TAG = "DeviceGroupStore";
+
+    private static DeviceGroupStore instance;
+
+    /** Where the store writes its changes; {@link DeviceDatabaseHelper} in the app. */
+    interface Persistence {
+        void save(DeviceGroup group);
+
+        void delete(String groupId);
+    }
+
+    public interface MembershipListener {
+        /** Called after the groups containing {@code deviceId} changed; must not block. */
+        void onMembershipChanged(String deviceId);
+    }
+
+    private final Persistence persistence;
+    private final Map<String, DeviceGroup> groups = new ConcurrentHashMap<>();
+    // Ghi tuần tự; đọc không cần khóa
+    private final Object writeLock = new Object();
+    private final CompletableFuture<DeviceGroupStore> loaded = new CompletableFuture<>();
+    private final List<MembershipListener> listeners = new CopyOnWriteArrayList<>();
+
+    public static synchronized DeviceGroupStore getInstance(Context context) {
+        if (instance == null) {
+            DeviceDatabaseHelper dbHelper = DeviceDatabaseHelper.getInstance(context);
+            DeviceGroupStore store = new DeviceGroupStore(new Persistence() {
+                @Override
+                public void save(DeviceGroup group) {
+                    dbHelper.saveGroupLater(group);
+                }
+
+                @Override
+                public void delete(String groupId) {
+                    dbHelper.deleteGroupLater(groupId);
+                }
+            });
+            dbHelper.getAllGroupsAsync().whenComplete((groups, throwable) -> {
+                if (throwable != null) {
+                    Log.e(TAG, "Failed to load groups: " + throwable.getMessage());
+                    store.load(Collections.emptyList());
+                    return;
+                }
+                store.load(groups);
+                Log.d(TAG, "Loaded " + groups.size() + " groups");
+            });
+            // Chạy ngay trong khóa của DeviceStore để thành viên bị gỡ trước khi ai đó đọc lại nhóm
+            DeviceStore.getInstance(context).addListener(change -> {
+                if (change.getType() == DeviceChange.Type.REMOVED) {
+                    store.removeDevice(change.getDeviceId());
+                }
+            }, Runnable::run);
+            instance = store;
+        }
+        return instance;
+    }
+
+    DeviceGroupStore(List<DeviceGroup> groups, Persistence persistence) {
+        this(persistence);
+        load(groups);
+    }
+
+    private DeviceGroupStore(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+    private void load(List<DeviceGroup> loadedGroups) {
+        synchronized (writeLock) {
+            for (DeviceGroup group : loadedGroups) {
+                // Nhóm tạo trong lúc đang nạp được giữ nguyên
+                groups.putIfAbsent(group.getGroupId(), group);
+            }
+        }
+        loaded.complete(this);
+    }
+
+    /** Completes, off the main thread, once the groups have been read from SQLite. */
+    public CompletableFuture<DeviceGroupStore> whenLoaded() {
+        return loaded;
+    }
+
+    public boolean isLoaded() {
+        return loaded.isDone();
+    }
+
+    public void addListener(MembershipListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MembershipListener listener) {
+        listeners.remove(listener);
+    }
+
+    public DeviceGroup get(String groupId) {
+        return groupId != null ? groups.get(groupId) : null;
+    }
+
+    public List<DeviceGroup> getAll() {
+        return new ArrayList<>(groups.values());
+    }
+
+    public List<DeviceGroup> getAll(DeviceGroup.Type type) {
+        List<DeviceGroup> result = new ArrayList<>();
+        for (DeviceGroup group : groups.values()) {
+            if (group.getType() == type) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    /** Groups the device belongs to, not counting {@link DeviceGroup#ALL_ID}. */
+    public List<DeviceGroup> groupsOf(String deviceId) {
+        List<DeviceGroup> result = new ArrayList<>();
+        for (DeviceGroup group : groups.values()) {
+            if (group.contains(deviceId)) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    public DeviceGroup create(String name, DeviceGroup.Type type) {
+        // Id ngắn, không chứa ký tự đặc biệt của topic
+        String groupId = UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+        DeviceGroup group = new DeviceGroup(groupId, name, type, Collections.emptySet());
+        synchronized (writeLock) {
+            groups.put(groupId, group);
+            persistence.save(group);
+        }
+        Log.d(TAG, "Created group " + group);
+        return group;
+    }
+
+    public DeviceGroup rename(String groupId, String name) {
+        synchronized (writeLock) {
+            DeviceGroup current = get(groupId);
+            if (current == null) {
+                return null;
+            }
+            DeviceGroup renamed = current.withName(name);
+            if (renamed != current) {
+                groups.put(groupId, renamed);
+                persistence.save(renamed);
+            }
+            return renamed;
+        }
+    }
+
+    /** @return the updated group, or null if it does not exist */
+    public DeviceGroup addMember(String groupId, String deviceId) {
+        DeviceGroup updated;
+        synchronized (writeLock) {
+            DeviceGroup current = get(groupId);
+            if (current == null) {
+                Log.w(TAG, "Group not found: " + groupId);
+                return null;
+            }
+            updated = current.withMember(deviceId);
+            if (updated == current) {
+                return current;
+            }
+            groups.put(groupId, updated);
+            persistence.save(updated);
+        }
+        notifyChanged(Collections.singleton(deviceId));
+        return updated;
+    }
+
+    /** @return the updated group, or null if it does not exist */
+    public DeviceGroup removeMember(String groupId, String deviceId) {
+        DeviceGroup updated;
+        synchronized (writeLock) {
+            DeviceGroup current = get(groupId);
+            if (current == null) {
+                return null;
+            }
+            updated = current.withoutMember(deviceId);
+            if (updated == current) {
+                return current;
+            }
+            groups.put(groupId, updated);
+            persistence.save(updated);
+        }
+        notifyChanged(Collections.singleton(deviceId));
+        return updated;
+    }
+
+    public boolean delete(String groupId) {
+        DeviceGroup removed;
+        synchronized (writeLock) {
+            removed = groupId != null ? groups.remove(groupId) : null;
+            if (removed == null) {
+                return false;
+            }
+            persistence.delete(groupId);
+        }
+        notifyChanged(removed.getMemberIds());
+        Log.d(TAG, "Deleted group " + groupId);
+        return true;
+    }
+
+    // Dòng trong group_members đã bị xóa cùng thiết bị; ở đây chỉ cập nhật bộ nhớ
+    void removeDevice(String deviceId) {
+        boolean changed = false;
+        synchronized (writeLock) {
+            for (DeviceGroup group : groups.values()) {
+                DeviceGroup updated = group.withoutMember(deviceId);
+                if (updated != group) {
+                    groups.put(group.getGroupId(), updated);
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            notifyChanged(Collections.singleton(deviceId));
+        }
+    }
+
+    private void notifyChanged(Collection<String> deviceIds) {
+        for (MembershipListener listener : listeners) {
+            for (String deviceId : deviceIds) {
+                try {
+                    listener.onMembershipChanged(deviceId);
+                } catch (Exception e) {
+                    Log.e(TAG, "Membership listener failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,592 @@
+package com.espressif.ui.Data;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.espressif.ui.Services.TopicRouter;
+import com.espressif.ui.models.DeviceCommand;
+import com.espressif.ui.models.ESPDevice;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.UnaryOperator;
+
+/**
+ * The one authoritative copy of device state. Devices are loaded from SQLite once, on
+ * the DB thread, and kept in concurrent maps keyed by deviceId and by command topic; writes go through
+ * {@link DeviceDatabaseHelper}'s write-behind buffer, so callers never wait on the DB.
+ *
+ * <p>Every {@link ESPDevice} handed out is an immutable snapshot shared by all readers.
+ * Changes are made with {@link #update}, which derives a new snapshot from the current one
+ * and publishes it, so lookups are plain map reads.
+ *
+ * <p>Besides the two keys, the store indexes which devices are on and which are in RGB
+ * mode. Every write bumps a version number; {@link #snapshot()} returns an immutable,
+ * ordered view tagged with that version and reuses it until the next write.
+ *
+ * <p>Every insert, update and removal is also published as a {@link DeviceChange} to the
+ * registered {@link ChangeListener}s, in the order the changes were made, so views can apply
+ * them one by one instead of reloading the whole list.
+ */
+public class DeviceStore {
+
+    private static final String TAG = "DeviceStore";
+    private static final String DEFAULT_NAME = "ESP Device";
+
+    private static final String NOTIFICATION_TOPIC = "/devices/notification";
+    private static final String LIGHT_CONTROL_TOPIC = "/speech/command";
+    private static final String DEVICE_TOPIC_FILTER = "/devices/+/command";
+    // Reachable chỉ sống trong bộ nhớ (PresenceTracker), không có cột trong bảng devices
+    private static final int PERSISTED_FIELDS = ESPDevice.ALL_FIELDS & ~ESPDevice.FIELD_REACHABLE;
+
+    private static DeviceStore instance;
+
+    /** Where the store writes its changes; {@link DeviceDatabaseHelper} in the app. */
+    interface Persistence {
+        void write(ESPDevice device);
+
+        /** Writes several devices together, in one transaction where the backend can. */
+        default void writeAll(List<ESPDevice> devices) {
+            for (ESPDevice device : devices) {
+                write(device);
+            }
+        }
+
+        void delete(String deviceId);
+
+        void setAllLightsOn(boolean lightOn);
+
+        /** Appends a light/RGB transition to the device's history; must not block. */
+        void recordTransition(ESPDevice device, long timestampMs);
+    }
+
+    /** Receives changes on the executor it was registered with. */
+    public interface ChangeListener {
+        void onDeviceChanged(DeviceChange change);
+    }
+
+    private static final class Subscription {
+        final ChangeListener listener;
+        final Executor executor;
+
+        Subscription(ChangeListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    /** Immutable view of all devices at one version. */
+    public static final class Snapshot {
+        private final long version;
+        private final List<ESPDevice> devices;
+
+        Snapshot(long version, List<ESPDevice> devices) {
+            this.version = version;
+            this.devices = Collections.unmodifiableList(devices);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /** Devices in the order they were added; the list cannot be modified. */
+        public List<ESPDevice> getDevices() {
+            return devices;
+        }
+    }
+
+    private static final class Entry {
+        final long order;
+        final ESPDevice device;
+
+        Entry(long order, ESPDevice device) {
+            this.order = order;
+            this.device = device;
+        }
+    }
+
+    private final Persistence persistence;
+    private final Map<String, Entry> byId = new ConcurrentHashMap<>();
+    private final Map<String, Entry> byTopic = new ConcurrentHashMap<>();
+    private final Set<String> lightOnIds = ConcurrentHashMap.newKeySet();
+    private final Set<String> rgbModeIds = ConcurrentHashMap.newKeySet();
+    // Ghi tuần tự để các map và index luôn khớp nhau; đọc không cần khóa
+    private final Object writeLock = new Object();
+    private long nextOrder;
+    private volatile long version;
+    private volatile Snapshot snapshot;
+    private final CompletableFuture<DeviceStore> loaded = new CompletableFuture<>();
+    // Tin MQTT đến trước khi nạp xong; null khi đã xử lý hết
+    private final Object deferLock = new Object();
+    private List<Runnable> deferred = new ArrayList<>();
+    private final List<Subscription> listeners = new CopyOnWriteArrayList<>();
+
+    public static synchronized DeviceStore getInstance(Context context) {
+        if (instance == null) {
+            DeviceDatabaseHelper dbHelper = DeviceDatabaseHelper.getInstance(context);
+            DeviceStore store = new DeviceStore(new Persistence() {
+                @Override
+                public void write(ESPDevice device) {
+                    dbHelper.updateDevice(device);
+                }
+
+                @Override
+                public void writeAll(List<ESPDevice> devices) {
+                    dbHelper.updateDevices(devices);
+                }
+
+                @Override
+                public void delete(String deviceId) {
+                    dbHelper.deleteDeviceLater(deviceId);
+                }
+
+                @Override
+                public void setAllLightsOn(boolean lightOn) {
+                    dbHelper.updateStateLight(lightOn);
+                }
+
+                @Override
+                public void recordTransition(ESPDevice device, long timestampMs) {
+                    dbHelper.getStateHistory().record(device.getDeviceId(), timestampMs,
+                            device.isLightOn(), device.isRGBMode());
+                }
+            });
+            long start = System.nanoTime();
+            dbHelper.getAllDevicesAsync().whenComplete((devices, throwable) -> {
+                if (throwable != null) {
+                    // Vẫn cho app chạy với danh sách rỗng, thiết bị sẽ được thêm lại qua MQTT
+                    Log.e(TAG, "Failed to load devices: " + throwable.getMessage());
+                    store.load(Collections.emptyList());
+                    return;
+                }
+                store.load(devices);
+                Log.d(TAG, "Loaded " + devices.size() + " devices in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms");
+            });
+            instance = store;
+        }
+        return instance;
+    }
+
+    public static synchronized DeviceStore getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("DeviceStore is not initialized. Call getInstance(context) first.");
+        }
+        return instance;
+    }
+
+    DeviceStore(List<ESPDevice> devices, Persistence persistence) {
+        this(persistence);
+        load(devices);
+    }
+
+    private DeviceStore(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+    private void load(List<ESPDevice> devices) {
+        synchronized (writeLock) {
+            for (ESPDevice device : devices) {
+                if (!byId.containsKey(device.getDeviceId())) {
+                    publish(new Entry(nextOrder++, device));
+                    emit(DeviceChange.inserted(device, version));
+                }
+            }
+        }
+        runDeferred();
+        loaded.complete(this);
+    }
+
+    private void runDeferred() {
+        while (true) {
+            List<Runnable> batch;
+            synchronized (deferLock) {
+                batch = deferred;
+                if (batch.isEmpty()) {
+                    deferred = null;
+                    return;
+                }
+                // Tin đến trong lúc đang chạy lô này xếp sau nó
+                deferred = new ArrayList<>();
+            }
+            for (Runnable task : batch) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Registers a listener for later changes. Changes are handed to {@code executor} in the
+     * order they happened; with a single-threaded executor (e.g. the main thread) the listener
+     * sees them in that order too.
+     */
+    public void addListener(ChangeListener listener, Executor executor) {
+        listeners.add(new Subscription(listener, executor));
+    }
+
+    public void removeListener(ChangeListener listener) {
+        listeners.removeIf(subscription -> subscription.listener == listener);
+    }
+
+    // Gọi trong writeLock để mọi listener nhận thay đổi đúng thứ tự xảy ra
+    private void emit(DeviceChange change) {
+        for (Subscription subscription : listeners) {
+            subscription.executor.execute(() -> subscription.listener.onDeviceChanged(change));
+        }
+    }
+
+    /** Completes, off the main thread, once the devices have been read from SQLite. */
+    public CompletableFuture<DeviceStore> whenLoaded() {
+        return loaded;
+    }
+
+    public boolean isLoaded() {
+        return loaded.isDone();
+    }
+
+    public ESPDevice get(String deviceId) {
+        if (deviceId == null) {
+            return null;
+        }
+        Entry entry = byId.get(deviceId);
+        return entry != null ? entry.device : null;
+    }
+
+    public ESPDevice getByTopic(String commandTopic) {
+        if (commandTopic == null) {
+            return null;
+        }
+        Entry entry = byTopic.get(commandTopic);
+        return entry != null ? entry.device : null;
+    }
+
+    /** All devices in the order they were added; the list cannot be modified. */
+    public List<ESPDevice> getAll() {
+        return snapshot().getDevices();
+    }
+
+    /** Current snapshot; rebuilt only if something changed since the last call. */
+    public Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current != null && current.version == version) {
+            return current;
+        }
+        synchronized (writeLock) {
+            current = snapshot;
+            if (current != null && current.version == version) {
+                return current;
+            }
+            List<Entry> entries = new ArrayList<>(byId.values());
+            entries.sort(Comparator.comparingLong(entry -> entry.order));
+            List<ESPDevice> devices = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                devices.add(entry.device);
+            }
+            current = new Snapshot(version, devices);
+            snapshot = current;
+            return current;
+        }
+    }
+
+    /** Incremented by every change; equal versions mean nothing changed in between. */
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public int countLightOn() {
+        return lightOnIds.size();
+    }
+
+    public int countRGBMode() {
+        return rgbModeIds.size();
+    }
+
+    public List<ESPDevice> getLightOn() {
+        return collect(lightOnIds);
+    }
+
+    public List<ESPDevice> getRGBMode() {
+        return collect(rgbModeIds);
+    }
+
+    private List<ESPDevice> collect(Set<String> ids) {
+        List<ESPDevice> devices = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            ESPDevice device = get(id);
+            // Thiết bị có thể vừa bị xóa giữa hai lần đọc
+            if (device != null) {
+                devices.add(device);
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Adds a device if it is not known yet.
+     *
+     * @return the existing or the new device
+     */
+    public ESPDevice add(String deviceId, String commandTopic) {
+        if (deviceId == null || commandTopic == null) {
+            Log.w(TAG, "Invalid device parameters: deviceId=" + deviceId + ", topic=" + commandTopic);
+            return null;
+        }
+        ESPDevice device;
+        synchronized (writeLock) {
+            Entry existing = byId.get(deviceId);
+            if (existing != null) {
+                return existing.device;
+            }
+            device = new ESPDevice(deviceId, DEFAULT_NAME, commandTopic, false, false);
+            publish(new Entry(nextOrder++, device));
+            emit(DeviceChange.inserted(device, version));
+            persistence.write(device);
+            // Trạng thái ban đầu là mốc để tính thời gian bật về sau
+            persistence.recordTransition(device, System.currentTimeMillis());
+        }
+        Log.d(TAG, "Added device: " + deviceId + " with topic: " + commandTopic);
+        return device;
+    }
+
+    /**
+     * Derives a new snapshot of the device, e.g. {@code d -> d.withLightOn(true)}, and
+     * publishes it. A change that leaves every field as it was is dropped: nothing is
+     * written and no event is sent. A change of reachability alone is sent but not written.
+     *
+     * @return the new snapshot (the current one if nothing changed), or null if the device is unknown
+     */
+    public ESPDevice update(String deviceId, UnaryOperator<ESPDevice> change) {
+        ESPDevice updated;
+        synchronized (writeLock) {
+            Entry current = deviceId != null ? byId.get(deviceId) : null;
+            if (current == null) {
+                return null;
+            }
+            updated = change.apply(current.device);
+            if (updated == null || !deviceId.equals(updated.getDeviceId())) {
+                throw new IllegalArgumentException("Update must return the same device: " + deviceId);
+            }
+            int changedFields = current.device.diff(updated);
+            if (changedFields == 0) {
+                return current.device;
+            }
+            publish(new Entry(current.order, updated));
+            emit(DeviceChange.updated(current.device, updated, version));
+            // Trong khóa để thứ tự ghi xuống DB giống thứ tự cập nhật
+            if ((changedFields & PERSISTED_FIELDS) != 0) {
+                persistence.write(updated);
+            }
+            if ((changedFields & (ESPDevice.FIELD_LIGHT | ESPDevice.FIELD_RGB_MODE)) != 0) {
+                persistence.recordTransition(updated, System.currentTimeMillis());
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Applies the same change to several devices as one write: every snapshot is published
+     * and its event sent before any other writer runs, and the rows are committed in one
+     * transaction. Unknown ids and changes that leave a device as it was are skipped.
+     *
+     * @return the devices that actually changed, in the order of {@code deviceIds}
+     */
+    public List<ESPDevice> updateAll(Collection<String> deviceIds, UnaryOperator<ESPDevice> change) {
+        List<ESPDevice> changed = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (writeLock) {
+            for (String deviceId : deviceIds) {
+                Entry current = deviceId != null ? byId.get(deviceId) : null;
+                if (current == null) {
+                    continue;
+                }
+                ESPDevice updated = change.apply(current.device);
+                if (updated == null || !deviceId.equals(updated.getDeviceId())) {
+                    throw new IllegalArgumentException("Update must return the same device: " + deviceId);
+                }
+                int changedFields = current.device.diff(updated);
+                if (changedFields == 0) {
+                    continue;
+                }
+                publish(new Entry(current.order, updated));
+                emit(DeviceChange.updated(current.device, updated, version));
+                if ((changedFields & (ESPDevice.FIELD_LIGHT | ESPDevice.FIELD_RGB_MODE)) != 0) {
+                    persistence.recordTransition(updated, now);
+                }
+                changed.add(updated);
+            }
+            if (!changed.isEmpty()) {
+                persistence.writeAll(changed);
+            }
+        }
+        return changed;
+    }
+
+    public boolean remove(String deviceId) {
+        Entry removed;
+        synchronized (writeLock) {
+            removed = deviceId != null ? byId.remove(deviceId) : null;
+            if (removed == null) {
+                return false;
+            }
+            byTopic.remove(removed.device.getCommandTopic(), removed);
+            lightOnIds.remove(deviceId);
+            rgbModeIds.remove(deviceId);
+            version++;
+            emit(DeviceChange.removed(removed.device, version));
+            persistence.delete(deviceId);
+        }
+        Log.d(TAG, "Removed device: " + deviceId);
+        return true;
+    }
+
+    /** Sets the light of every device; SQLite is updated with a single statement. */
+    public void setAllLightsOn(boolean lightOn) {
+        long now = System.currentTimeMillis();
+        synchronized (writeLock) {
+            // Tắt hết chỉ cần duyệt các đèn đang bật
+            Iterable<String> ids = lightOn ? byId.keySet() : new ArrayList<>(lightOnIds);
+            for (String id : ids) {
+                Entry entry = byId.get(id);
+                if (entry != null && entry.device.isLightOn() != lightOn) {
+                    ESPDevice updated = entry.device.withLightOn(lightOn);
+                    publish(new Entry(entry.order, updated));
+                    emit(DeviceChange.updated(entry.device, updated, version));
+                    persistence.recordTransition(updated, now);
+                }
+            }
+            persistence.setAllLightsOn(lightOn);
+        }
+    }
+
+    /** Applies a command received for a device; DELETE_NVS removes it. */
+    public ESPDevice apply(String deviceId, DeviceCommand command) {
+        if (command.getType() == DeviceCommand.Type.DELETE_NVS) {
+            remove(deviceId);
+            return null;
+        }
+        return update(deviceId, command::applyTo);
+    }
+
+    /** Applies a state or rename command to several devices with {@link #updateAll}. */
+    public List<ESPDevice> applyAll(Collection<String> deviceIds, DeviceCommand command) {
+        if (command.getType() == DeviceCommand.Type.DELETE_NVS) {
+            throw new IllegalArgumentException("DELETE_NVS cannot be applied to a group");
+        }
+        return updateAll(deviceIds, command::applyTo);
+    }
+
+    private void publish(Entry entry) {
+        ESPDevice device = entry.device;
+        byId.put(device.getDeviceId(), entry);
+        byTopic.put(device.getCommandTopic(), entry);
+        index(lightOnIds, device.getDeviceId(), device.isLightOn());
+        index(rgbModeIds, device.getDeviceId(), device.isRGBMode());
+        version++;
+    }
+
+    private static void index(Set<String> ids, String deviceId, boolean member) {
+        if (member) {
+            ids.add(deviceId);
+        } else {
+            ids.remove(deviceId);
+        }
+    }
+
+    // Đăng ký handler theo topic filter; store được cập nhật ngay trên luồng của router
+    public void registerRoutes(TopicRouter router) {
+        router.addHandler(NOTIFICATION_TOPIC, (topic, message) ->
+                afterLoad(() -> handleNotificationMessage(message)));
+        router.addHandler(LIGHT_CONTROL_TOPIC, (topic, message) ->
+                afterLoad(() -> handleLightControlMessage(message)));
+        router.addHandler(DEVICE_TOPIC_FILTER, new TopicRouter.MessageHandler() {
+            @Override
+            public void onMessage(String topic, String message) {
+                DeviceCommand command = DeviceCommand.parseLegacy(message);
+                if (command == null) {
+                    Log.w(TAG, "Unknown message: " + message + " on topic: " + topic);
+                    return;
+                }
+                afterLoad(() -> handleDeviceCommand(topic, command));
+            }
+
+            @Override
+            public void onCommand(String topic, DeviceCommand command) {
+                afterLoad(() -> handleDeviceCommand(topic, command));
+            }
+        });
+    }
+
+    // Tin đến trước khi nạp xong được xử lý ngay sau khi nạp, theo đúng thứ tự đến
+    private void afterLoad(Runnable task) {
+        synchronized (deferLock) {
+            if (deferred != null) {
+                deferred.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    private void handleNotificationMessage(String message) {
+        String deviceId = extractDeviceIdFromTopic(message);
+        if (deviceId != null) {
+            add(deviceId, message);
+        } else {
+            Log.w(TAG, "Invalid message format in " + NOTIFICATION_TOPIC + ": " + message);
+        }
+    }
+
+    private void handleLightControlMessage(String message) {
+        switch (message) {
+            case "turn on":
+                setAllLightsOn(true);
+                break;
+            case "turn off":
+                setAllLightsOn(false);
+                break;
+            default:
+                Log.w(TAG, "Unknown light control message: " + message);
+        }
+    }
+
+    // Lệnh dạng chuỗi cũ và dạng nhị phân đều được đưa về DeviceCommand trước khi tới đây
+    private void handleDeviceCommand(String topic, DeviceCommand command) {
+        String deviceId = extractDeviceIdFromTopic(topic);
+        if (deviceId == null) {
+            Log.w(TAG, "Could not extract device ID from topic: " + topic);
+            return;
+        }
+        if (get(deviceId) == null) {
+            Log.w(TAG, "Device not found for ID: " + deviceId);
+            return;
+        }
+        ESPDevice device = apply(deviceId, command);
+        Log.d(TAG, "Processed command: " + command + " for device " + deviceId
+                + (device != null ? ", LightOn: " + device.isLightOn() + ", RGBMode: " + device.isRGBMode() : ""));
+    }
+
+    // Lấy level thứ 3 của topic ("/devices/<id>/command" -> "<id>") mà không cần split
+    static String extractDeviceIdFromTopic(String topic) {
+        int first = topic.indexOf('/');
+        int second = first == -1 ? -1 : topic.indexOf('/', first + 1);
+        if (second == -1) {
+            return null;
+        }
+        int third = topic.indexOf('/', second + 1);
+        int end = third == -1 ? topic.length() : third;
+        return end > second + 1 ? topic.substring(second + 1, end) : null;
+    }
+}
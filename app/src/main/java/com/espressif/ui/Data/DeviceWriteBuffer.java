@@ -0,0 +1,376 @@
+package com.espressif.ui.Data;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.espressif.ui.models.ESPDevice;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind buffer for device rows. Updates are collected per device for
+ * {@code windowMs} and written in one transaction with a reused compiled statement,
+ * so a burst of MQTT state changes costs one commit instead of one per message.
+ * Pending values are overlaid on reads, and the buffer is flushed when the app goes
+ * to the background or the system is about to reclaim the process.
+ *
+ * <p>Rows are written with an upsert keyed on the unique {@code device_id} index, so a
+ * device that was deleted or never inserted is created instead of silently dropped.
+ */
+public class DeviceWriteBuffer implements ComponentCallbacks2 {
+
+    private static final String TAG = "DeviceWriteBuffer";
+    public static final long DEFAULT_WINDOW_MS = 250;
+
+    // Thứ tự tham số giống nhau cho cả ba câu lệnh: name, topic, light, rgb, brightness, color, device_id
+    private static final String INSERT_INTO = " INTO " + DeviceDatabaseHelper.TABLE_DEVICES + " ("
+            + DeviceDatabaseHelper.COLUMN_NAME + ", "
+            + DeviceDatabaseHelper.COLUMN_COMMAND_TOPIC + ", "
+            + DeviceDatabaseHelper.COLUMN_IS_LIGHT_ON + ", "
+            + DeviceDatabaseHelper.COLUMN_IS_RGB_MODE + ", "
+            + DeviceDatabaseHelper.COLUMN_BRIGHTNESS + ", "
+            + DeviceDatabaseHelper.COLUMN_COLOR + ", "
+            + DeviceDatabaseHelper.COLUMN_DEVICE_ID + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPSERT_SQL = "INSERT" + INSERT_INTO
+            + " ON CONFLICT(" + DeviceDatabaseHelper.COLUMN_DEVICE_ID + ") DO UPDATE SET "
+            + DeviceDatabaseHelper.COLUMN_NAME + " = excluded." + DeviceDatabaseHelper.COLUMN_NAME + ", "
+            + DeviceDatabaseHelper.COLUMN_COMMAND_TOPIC + " = excluded." + DeviceDatabaseHelper.COLUMN_COMMAND_TOPIC + ", "
+            + DeviceDatabaseHelper.COLUMN_IS_LIGHT_ON + " = excluded." + DeviceDatabaseHelper.COLUMN_IS_LIGHT_ON + ", "
+            + DeviceDatabaseHelper.COLUMN_IS_RGB_MODE + " = excluded." + DeviceDatabaseHelper.COLUMN_IS_RGB_MODE + ", "
+            + DeviceDatabaseHelper.COLUMN_BRIGHTNESS + " = excluded." + DeviceDatabaseHelper.COLUMN_BRIGHTNESS + ", "
+            + DeviceDatabaseHelper.COLUMN_COLOR + " = excluded." + DeviceDatabaseHelper.COLUMN_COLOR;
+    // SQLite trước 3.24 (Android < 11) không có ON CONFLICT DO UPDATE: UPDATE rồi INSERT nếu chưa có dòng
+    private static final String UPDATE_SQL = "UPDATE " + DeviceDatabaseHelper.TABLE_DEVICES + " SET "
+            + DeviceDatabaseHelper.COLUMN_NAME + " = ?, "
+            + DeviceDatabaseHelper.COLUMN_COMMAND_TOPIC + " = ?, "
+            + DeviceDatabaseHelper.COLUMN_IS_LIGHT_ON + " = ?, "
+            + DeviceDatabaseHelper.COLUMN_IS_RGB_MODE + " = ?, "
+            + DeviceDatabaseHelper.COLUMN_BRIGHTNESS + " = ?, "
+            + DeviceDatabaseHelper.COLUMN_COLOR + " = ? WHERE "
+            + DeviceDatabaseHelper.COLUMN_DEVICE_ID + " = ?";
+    private static final String INSERT_SQL = "INSERT OR IGNORE" + INSERT_INTO;
+    private static final boolean NATIVE_UPSERT = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+    private static final String UPDATE_ALL_LIGHTS_SQL = "UPDATE " + DeviceDatabaseHelper.TABLE_DEVICES + " SET "
+            + DeviceDatabaseHelper.COLUMN_IS_LIGHT_ON + " = ?";
+
+    private final SQLiteOpenHelper helper;
+    private final long windowMs;
+    // Giữ thứ tự ghi theo lần cập nhật đầu tiên của mỗi thiết bị; ESPDevice bất biến nên giữ thẳng snapshot
+    private final Map<String, ESPDevice> pending = new LinkedHashMap<>();
+    private final DatabaseExecutor executor;
+    private boolean flushScheduled;
+    // Chỉ dùng trên luồng DB
+    private SQLiteStatement upsertStatement;
+    private SQLiteStatement insertStatement;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private volatile int lastFlushSize;
+    private volatile int maxFlushSize;
+    private volatile long lastFlushMs;
+    private volatile long maxFlushMs;
+
+    public DeviceWriteBuffer(SQLiteOpenHelper helper, DatabaseExecutor executor, long windowMs) {
+        this.helper = helper;
+        this.executor = executor;
+        this.windowMs = windowMs;
+    }
+
+    /** Queues the device's current values; a later submit for the same device replaces them. */
+    public void submit(ESPDevice device) {
+        submitted.incrementAndGet();
+        synchronized (pending) {
+            pending.put(device.getDeviceId(), device);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        executor.schedule(this::drain, windowMs);
+    }
+
+    /**
+     * Queues several devices and drains right away, so they are committed in the same
+     * transaction (together with anything else pending) instead of waiting for the window.
+     */
+    public void submitAll(Collection<ESPDevice> devices) {
+        if (devices.isEmpty()) {
+            return;
+        }
+        submitted.addAndGet(devices.size());
+        synchronized (pending) {
+            for (ESPDevice device : devices) {
+                pending.put(device.getDeviceId(), device);
+            }
+        }
+        executor.executeWrite(this::drain);
+    }
+
+    /** Drops a pending write, e.g. because the row is being deleted. */
+    public void discard(String deviceId) {
+        synchronized (pending) {
+            pending.remove(deviceId);
+        }
+    }
+
+    /** Returns the value not yet written for a device just read from the database, if any. */
+    public ESPDevice overlay(ESPDevice device) {
+        ESPDevice write;
+        synchronized (pending) {
+            write = pending.get(device.getDeviceId());
+        }
+        return write != null ? write : device;
+    }
+
+    /** Sets the light of every device with a single UPDATE, ordered after the pending writes. */
+    public void setAllLightsOn(boolean lightOn) {
+        synchronized (pending) {
+            for (Map.Entry<String, ESPDevice> entry : pending.entrySet()) {
+                entry.setValue(entry.getValue().withLightOn(lightOn));
+            }
+        }
+        executor.executeWrite(() -> {
+            drain();
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                SQLiteStatement statement = db.compileStatement(UPDATE_ALL_LIGHTS_SQL);
+                statement.bindLong(1, lightOn ? 1 : 0);
+                int rows = statement.executeUpdateDelete();
+                statement.close();
+                db.setTransactionSuccessful();
+                Log.d(TAG, "Set " + rows + " devices to " + (lightOn ? "ON" : "OFF"));
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to update all lights: " + e.getMessage());
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the DB thread after everything already queued, and waits for it.
+     * Used for writes outside the buffer that must not be overtaken by a pending upsert.
+     */
+    public <T> T callInOrder(Callable<T> task) {
+        if (executor.isDbThread()) {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        try {
+            return executor.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the DB thread", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /** Runs a task on the DB thread after everything already queued, without waiting. */
+    public void runInOrder(Runnable task) {
+        executor.executeWrite(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                Log.e(TAG, "Write task failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /** Writes pending updates soon, without waiting for the window to close. */
+    public void flush() {
+        executor.executeWrite(this::drain);
+    }
+
+    /** Writes pending updates and waits until they are committed. */
+    public void flushNow() {
+        if (executor.isDbThread()) {
+            drain();
+            return;
+        }
+        try {
+            executor.submit(() -> {
+                drain();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Flush failed: " + e.getCause());
+        }
+    }
+
+    private void drain() {
+        List<ESPDevice> batch;
+        synchronized (pending) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            // Chỉ xóa khỏi pending sau khi commit để overlay không đọc phải giá trị cũ trong DB
+            batch = new ArrayList<>(pending.values());
+        }
+
+        long start = System.nanoTime();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        int rows = 0;
+        boolean committed = false;
+        try {
+            if (upsertStatement == null) {
+                upsertStatement = db.compileStatement(NATIVE_UPSERT ? UPSERT_SQL : UPDATE_SQL);
+                if (!NATIVE_UPSERT) {
+                    insertStatement = db.compileStatement(INSERT_SQL);
+                }
+            }
+            for (ESPDevice write : batch) {
+                if (NATIVE_UPSERT) {
+                    bind(upsertStatement, write);
+                    upsertStatement.executeInsert();
+                    rows++;
+                    continue;
+                }
+                bind(upsertStatement, write);
+                int updated = upsertStatement.executeUpdateDelete();
+                if (updated == 0) {
+                    bind(insertStatement, write);
+                    updated = insertStatement.executeInsert() != -1 ? 1 : 0;
+                }
+                rows += updated;
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write " + batch.size() + " devices: " + e.getMessage());
+        } finally {
+            db.endTransaction();
+        }
+        if (!committed) {
+            // Giữ nguyên pending và hẹn thử lại sau một cửa sổ, không chờ lần submit kế tiếp
+            synchronized (pending) {
+                if (flushScheduled) {
+                    return;
+                }
+                flushScheduled = true;
+            }
+            executor.schedule(this::drain, windowMs);
+            return;
+        }
+        synchronized (pending) {
+            for (ESPDevice write : batch) {
+                // Giữ lại nếu thiết bị được cập nhật tiếp trong lúc đang ghi
+                pending.remove(write.getDeviceId(), write);
+            }
+        }
+
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        flushes.incrementAndGet();
+        rowsWritten.addAndGet(rows);
+        lastFlushSize = batch.size();
+        lastFlushMs = elapsedMs;
+        if (batch.size() > maxFlushSize) {
+            maxFlushSize = batch.size();
+        }
+        if (elapsedMs > maxFlushMs) {
+            maxFlushMs = elapsedMs;
+        }
+        Log.d(TAG, "Flushed " + batch.size() + " devices (" + rows + " rows) in " + elapsedMs + " ms");
+    }
+
+    private static void bind(SQLiteStatement statement, ESPDevice write) {
+        statement.clearBindings();
+        bindStringOrNull(statement, 1, write.getName());
+        bindStringOrNull(statement, 2, write.getCommandTopic());
+        statement.bindLong(3, write.isLightOn() ? 1 : 0);
+        statement.bindLong(4, write.isRGBMode() ? 1 : 0);
+        statement.bindLong(5, write.getBrightness());
+        statement.bindLong(6, write.getColor());
+        statement.bindString(7, write.getDeviceId());
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            // Tiến trình sắp bị hệ thống thu hồi
+            flushNow();
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        flushNow();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Không liên quan
+    }
+
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public int getLastFlushSize() {
+        return lastFlushSize;
+    }
+
+    public int getMaxFlushSize() {
+        return maxFlushSize;
+    }
+
+    public long getLastFlushMs() {
+        return lastFlushMs;
+    }
+
+    public long getMaxFlushMs() {
+        return maxFlushMs;
+    }
+}
@@ -0,0 +1,134 @@
+package com.espressif.ui.Data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Durable store for MQTT commands published while the client was offline.
+ * Rows sharing a coalesce key replace each other, so only the latest command of a kind
+ * is kept per topic; replacing a row moves it to the end of the replay order.
+ */
+public class OutboxDatabaseHelper extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "outbox.db";
+    private static final int DATABASE_VERSION = 1;
+
+    public static final String TABLE_OUTBOX = "outbox";
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_COALESCE_KEY = "coalesce_key";
+    public static final String COLUMN_TOPIC = "topic";
+    public static final String COLUMN_PAYLOAD = "payload";
+    public static final String COLUMN_QOS = "qos";
+    public static final String COLUMN_ENQUEUED_AT = "enqueued_at";
+
+    private static OutboxDatabaseHelper instance;
+
+    private static final String TABLE_CREATE =
+            "CREATE TABLE " + TABLE_OUTBOX + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    COLUMN_COALESCE_KEY + " TEXT UNIQUE, " +
+                    COLUMN_TOPIC + " TEXT NOT NULL, " +
+                    COLUMN_PAYLOAD + " BLOB NOT NULL, " +
+                    COLUMN_QOS + " INTEGER NOT NULL, " +
+                    COLUMN_ENQUEUED_AT + " INTEGER NOT NULL" +
+                    ");";
+
+    public static final class Entry {
+        public final long id;
+        public final String topic;
+        public final byte[] payload;
+        public final int qos;
+        public final long enqueuedAt;
+
+        public Entry(long id, String topic, byte[] payload, int qos, long enqueuedAt) {
+            this.id = id;
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    public static synchronized OutboxDatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new OutboxDatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private OutboxDatabaseHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(TABLE_CREATE);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Chỉ có version 1
+    }
+
+    /**
+     * @param coalesceKey rows with the same non-null key replace each other; null never coalesces
+     * @return true if an older command was replaced
+     */
+    public boolean enqueue(String coalesceKey, String topic, byte[] payload, int qos, long enqueuedAt) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            int replaced = coalesceKey == null ? 0 : db.delete(TABLE_OUTBOX,
+                    COLUMN_COALESCE_KEY + " = ?", new String[]{coalesceKey});
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_COALESCE_KEY, coalesceKey);
+            values.put(COLUMN_TOPIC, topic);
+            values.put(COLUMN_PAYLOAD, payload);
+            values.put(COLUMN_QOS, qos);
+            values.put(COLUMN_ENQUEUED_AT, enqueuedAt);
+            db.insertOrThrow(TABLE_OUTBOX, null, values);
+            db.setTransactionSuccessful();
+            return replaced > 0;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Oldest entries first. */
+    public List<Entry> peek(int limit) {
+        List<Entry> entries = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_OUTBOX,
+                new String[]{COLUMN_ID, COLUMN_TOPIC, COLUMN_PAYLOAD, COLUMN_QOS, COLUMN_ENQUEUED_AT},
+                null, null, null, null, COLUMN_ID + " ASC", String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                entries.add(new Entry(cursor.getLong(0), cursor.getString(1), cursor.getBlob(2),
+                        cursor.getInt(3), cursor.getLong(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    /** @return true if the row was still there; a coalesced command may have replaced it */
+    public boolean remove(long id) {
+        return getWritableDatabase().delete(TABLE_OUTBOX, COLUMN_ID + " = ?", new String[]{String.valueOf(id)}) > 0;
+    }
+
+    /** Removes the entry with the given coalesce key; returns the number of rows removed. */
+    public int removeByKey(String coalesceKey) {
+        return getWritableDatabase().delete(TABLE_OUTBOX, COLUMN_COALESCE_KEY + " = ?", new String[]{coalesceKey});
+    }
+
+    public int count() {
+        return (int) DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_OUTBOX);
+    }
+}
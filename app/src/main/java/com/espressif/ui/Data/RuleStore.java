@@ -0,0 +1,153 @@
+package com.espressif.ui.Data;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.espressif.ui.models.Rule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Automation rules saved on the phone, kept in memory as immutable {@link Rule}s and
+ * written to SQLite on the DB thread. Listeners see every save and delete, so the rule
+ * engine can re-index just the rule that changed.
+ */
+public class RuleStore {
+
+    private static final String TAG = "RuleStore";
+
+    private static RuleStore instance;
+
+    /** Where the store writes its changes; {@link DeviceDatabaseHelper} in the app. */
+    interface Persistence {
+        void save(Rule rule);
+
+        void delete(String ruleId);
+    }
+
+    public interface Listener {
+        /** {@code previous} is null for new rules, {@code current} null for deleted ones. */
+        void onRuleChanged(Rule previous, Rule current);
+    }
+
+    private final Persistence persistence;
+    private final Map<String, Rule> rules = new ConcurrentHashMap<>();
+    private final CompletableFuture<RuleStore> loaded = new CompletableFuture<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public static synchronized RuleStore getInstance(Context context) {
+        if (instance == null) {
+            DeviceDatabaseHelper dbHelper = DeviceDatabaseHelper.getInstance(context);
+            RuleStore store = new RuleStore(new Persistence() {
+                @Override
+                public void save(Rule rule) {
+                    dbHelper.saveRuleLater(rule);
+                }
+
+                @Override
+                public void delete(String ruleId) {
+                    dbHelper.deleteRuleLater(ruleId);
+                }
+            });
+            dbHelper.getAllRulesAsync().whenComplete((rules, throwable) -> {
+                if (throwable != null) {
+                    Log.e(TAG, "Failed to load rules: " + throwable.getMessage());
+                    store.load(Collections.emptyList());
+                    return;
+                }
+                store.load(rules);
+                Log.d(TAG, "Loaded " + rules.size() + " rules");
+            });
+            instance = store;
+        }
+        return instance;
+    }
+
+    RuleStore(List<Rule> rules, Persistence persistence) {
+        this(persistence);
+        load(rules);
+    }
+
+    private RuleStore(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+    // Luật nạp từ DB cũng được báo cho listener như luật mới
+    private void load(List<Rule> loadedRules) {
+        for (Rule rule : loadedRules) {
+            Rule added;
+            synchronized (this) {
+                if (rules.putIfAbsent(rule.getRuleId(), rule) != null) {
+                    continue;
+                }
+                added = rule;
+            }
+            notifyChanged(null, added);
+        }
+        loaded.complete(this);
+    }
+
+    public CompletableFuture<RuleStore> whenLoaded() {
+        return loaded;
+    }
+
+    /** Registers a listener and replays the rules already loaded as additions. */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        for (Rule rule : rules.values()) {
+            listener.onRuleChanged(null, rule);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public Rule get(String ruleId) {
+        return ruleId != null ? rules.get(ruleId) : null;
+    }
+
+    public List<Rule> getAll() {
+        return new ArrayList<>(rules.values());
+    }
+
+    /** Adds or replaces the rule with the same id. */
+    public void save(Rule rule) {
+        Rule previous;
+        synchronized (this) {
+            previous = rules.put(rule.getRuleId(), rule);
+            persistence.save(rule);
+        }
+        notifyChanged(previous, rule);
+        Log.d(TAG, "Saved " + rule);
+    }
+
+    public boolean delete(String ruleId) {
+        Rule removed;
+        synchronized (this) {
+            removed = ruleId != null ? rules.remove(ruleId) : null;
+            if (removed == null) {
+                return false;
+            }
+            persistence.delete(ruleId);
+        }
+        notifyChanged(removed, null);
+        return true;
+    }
+
+    private void notifyChanged(Rule previous, Rule current) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onRuleChanged(previous, current);
+            } catch (Exception e) {
+                Log.e(TAG, "Rule listener failed: " + e.getMessage());
+            }
+        }
+    }
+}
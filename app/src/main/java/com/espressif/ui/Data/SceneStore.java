@@ -0,0 +1,115 @@
+package com.espressif.ui.Data;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.espressif.ui.models.Scene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scenes saved on the phone, kept in memory as immutable {@link Scene}s and written to
+ * SQLite on the DB thread. Saving a scene replaces it, so anything cached for the old
+ * instance (e.g. a compiled batch) can be told apart by identity.
+ */
+public class SceneStore {
+
+    private static final String TAG = "SceneStore";
+
+    private static SceneStore instance;
+
+    /** Where the store writes its changes; {@link DeviceDatabaseHelper} in the app. */
+    interface Persistence {
+        void save(Scene scene);
+
+        void delete(String sceneId);
+    }
+
+    private final Persistence persistence;
+    private final Map<String, Scene> scenes = new ConcurrentHashMap<>();
+    private final CompletableFuture<SceneStore> loaded = new CompletableFuture<>();
+
+    public static synchronized SceneStore getInstance(Context context) {
+        if (instance == null) {
+            DeviceDatabaseHelper dbHelper = DeviceDatabaseHelper.getInstance(context);
+            SceneStore store = new SceneStore(new Persistence() {
+                @Override
+                public void save(Scene scene) {
+                    dbHelper.saveSceneLater(scene);
+                }
+
+                @Override
+                public void delete(String sceneId) {
+                    dbHelper.deleteSceneLater(sceneId);
+                }
+            });
+            dbHelper.getAllScenesAsync().whenComplete((scenes, throwable) -> {
+                if (throwable != null) {
+                    Log.e(TAG, "Failed to load scenes: " + throwable.getMessage());
+                    store.load(Collections.emptyList());
+                    return;
+                }
+                store.load(scenes);
+                Log.d(TAG, "Loaded " + scenes.size() + " scenes");
+            });
+            instance = store;
+        }
+        return instance;
+    }
+
+    SceneStore(List<Scene> scenes, Persistence persistence) {
+        this(persistence);
+        load(scenes);
+    }
+
+    private SceneStore(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+    private synchronized void load(List<Scene> loadedScenes) {
+        for (Scene scene : loadedScenes) {
+            // Scene lưu trong lúc đang nạp được giữ nguyên
+            scenes.putIfAbsent(scene.getSceneId(), scene);
+        }
+        loaded.complete(this);
+    }
+
+    public CompletableFuture<SceneStore> whenLoaded() {
+        return loaded;
+    }
+
+    public Scene get(String sceneId) {
+        return sceneId != null ? scenes.get(sceneId) : null;
+    }
+
+    public List<Scene> getAll() {
+        return new ArrayList<>(scenes.values());
+    }
+
+    public Scene create(String name, List<Scene.Action> actions) {
+        Scene scene = new Scene(UUID.randomUUID().toString(), name, actions);
+        save(scene);
+        return scene;
+    }
+
+    /** Adds or replaces the scene with the same id. */
+    public synchronized void save(Scene scene) {
+        scenes.put(scene.getSceneId(), scene);
+        persistence.save(scene);
+        Log.d(TAG, "Saved " + scene);
+    }
+
+    public synchronized boolean delete(String sceneId) {
+        if (sceneId == null || scenes.remove(sceneId) == null) {
+            return false;
+        }
+        persistence.delete(sceneId);
+        return true;
+    }
+}
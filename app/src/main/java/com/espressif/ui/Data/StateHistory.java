@@ -0,0 +1,410 @@
+package com.espressif.ui.Data;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+import com.espressif.ui.models.HourlyUsage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only log of light/RGB transitions per device, with per-hour rollups for usage
+ * charts. Transitions are kept in memory and inserted in one transaction every
+ * {@link #FLUSH_WINDOW_MS}, on the same DB thread as {@link DeviceWriteBuffer}, so recording
+ * one costs the MQTT thread only a list append.
+ *
+ * <p>A compactor runs every {@link #COMPACT_INTERVAL_MS}. It folds raw transitions older
+ * than {@link #RAW_RETENTION_MS} into {@code state_hourly} and deletes them, keeping one
+ * seed row per device that carries the state across the cut. It also folds sooner if the log
+ * exceeds {@link #MAX_RAW_ROWS}, and drops rollups older than {@link #HOURLY_RETENTION_MS}.
+ * This keeps the tables bounded however often lights are switched.
+ */
+public class StateHistory implements ComponentCallbacks2 {
+
+    private static final String TAG = "StateHistory";
+
+    public static final String TABLE_HISTORY = "state_history";
+    public static final String TABLE_HOURLY = "state_hourly";
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_DEVICE_ID = "device_id";
+    public static final String COLUMN_TIMESTAMP = "ts";
+    public static final String COLUMN_IS_LIGHT_ON = "is_light_on";
+    public static final String COLUMN_IS_RGB_MODE = "is_rgb_mode";
+    public static final String COLUMN_IS_SEED = "is_seed";
+    public static final String COLUMN_HOUR_START = "hour_start";
+    public static final String COLUMN_ON_MS = "on_ms";
+    public static final String COLUMN_TOGGLES = "toggles";
+    private static final String INDEX_HISTORY = "idx_state_history_device_ts";
+
+    public static final long FLUSH_WINDOW_MS = 1000;
+    public static final int MAX_BATCH = 500;
+    public static final long RAW_RETENTION_MS = TimeUnit.HOURS.toMillis(48);
+    public static final int MAX_RAW_ROWS = 100_000;
+    public static final long HOURLY_RETENTION_MS = TimeUnit.DAYS.toMillis(400);
+    public static final long COMPACT_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long FIRST_COMPACT_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String INSERT_HISTORY_SQL = "INSERT INTO " + TABLE_HISTORY + " ("
+            + COLUMN_DEVICE_ID + ", " + COLUMN_TIMESTAMP + ", " + COLUMN_IS_LIGHT_ON + ", "
+            + COLUMN_IS_RGB_MODE + ", " + COLUMN_IS_SEED + ") VALUES (?, ?, ?, ?, ?)";
+    // Dòng seed là trạng thái tại mốc cắt nên đứng trước transition thật có cùng thời điểm
+    private static final String HISTORY_ORDER = COLUMN_TIMESTAMP + ", " + COLUMN_IS_SEED + " DESC, " + COLUMN_ID;
+    // Mỗi giờ chỉ được gộp một lần nên ghi đè là đủ, không cần cộng dồn
+    private static final String INSERT_HOURLY_SQL = "INSERT OR REPLACE INTO " + TABLE_HOURLY + " ("
+            + COLUMN_DEVICE_ID + ", " + COLUMN_HOUR_START + ", " + COLUMN_ON_MS + ", "
+            + COLUMN_TOGGLES + ") VALUES (?, ?, ?, ?)";
+
+    private static final class Transition {
+        final String deviceId;
+        final long timestampMs;
+        final boolean lightOn;
+        final boolean rgbMode;
+
+        Transition(String deviceId, long timestampMs, boolean lightOn, boolean rgbMode) {
+            this.deviceId = deviceId;
+            this.timestampMs = timestampMs;
+            this.lightOn = lightOn;
+            this.rgbMode = rgbMode;
+        }
+    }
+
+    private final SQLiteOpenHelper helper;
+    private final DatabaseExecutor writeExecutor;
+    private final DatabaseExecutor readExecutor;
+    private final List<Transition> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private boolean compactorStarted;
+    // Chỉ dùng trên luồng DB
+    private SQLiteStatement insertStatement;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private volatile long lastCompactMs;
+    private volatile int lastCompactedRows;
+
+    public StateHistory(SQLiteOpenHelper helper, DatabaseExecutor writeExecutor, DatabaseExecutor readExecutor) {
+        this.helper = helper;
+        this.writeExecutor = writeExecutor;
+        this.readExecutor = readExecutor;
+    }
+
+    // Gọi từ migrate của DeviceDatabaseHelper, bên trong transaction của onUpgrade
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_HISTORY + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_DEVICE_ID + " TEXT NOT NULL, "
+                + COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + COLUMN_IS_LIGHT_ON + " INTEGER NOT NULL, "
+                + COLUMN_IS_RGB_MODE + " INTEGER NOT NULL, "
+                + COLUMN_IS_SEED + " INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX " + INDEX_HISTORY + " ON " + TABLE_HISTORY
+                + " (" + COLUMN_DEVICE_ID + ", " + COLUMN_TIMESTAMP + ")");
+        db.execSQL("CREATE TABLE " + TABLE_HOURLY + " ("
+                + COLUMN_DEVICE_ID + " TEXT NOT NULL, "
+                + COLUMN_HOUR_START + " INTEGER NOT NULL, "
+                + COLUMN_ON_MS + " INTEGER NOT NULL, "
+                + COLUMN_TOGGLES + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_DEVICE_ID + ", " + COLUMN_HOUR_START + "))");
+    }
+
+    /** Queues a transition; it is written with the next batch. Safe to call from any thread. */
+    public void record(String deviceId, long timestampMs, boolean lightOn, boolean rgbMode) {
+        Transition transition = new Transition(deviceId, timestampMs, lightOn, rgbMode);
+        recorded.incrementAndGet();
+        boolean flushNow;
+        synchronized (pending) {
+            pending.add(transition);
+            flushNow = pending.size() == MAX_BATCH;
+            if (!flushNow) {
+                if (flushScheduled) {
+                    return;
+                }
+                flushScheduled = true;
+            }
+        }
+        if (flushNow) {
+            writeExecutor.executeWrite(this::drain);
+        } else {
+            writeExecutor.schedule(this::drain, FLUSH_WINDOW_MS);
+        }
+    }
+
+    /** Schedules the compactor; later calls do nothing. */
+    public synchronized void startCompactor() {
+        if (compactorStarted) {
+            return;
+        }
+        compactorStarted = true;
+        writeExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact(System.currentTimeMillis());
+                } catch (Exception e) {
+                    Log.e(TAG, "Compaction failed: " + e.getMessage());
+                }
+                writeExecutor.schedule(this, COMPACT_INTERVAL_MS);
+            }
+        }, FIRST_COMPACT_DELAY_MS);
+    }
+
+    /** Writes queued transitions soon, on the DB thread. */
+    public void flush() {
+        writeExecutor.executeWrite(this::drain);
+    }
+
+    @WorkerThread
+    void drain() {
+        List<Transition> batch;
+        synchronized (pending) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        boolean committed = false;
+        try {
+            if (insertStatement == null) {
+                insertStatement = db.compileStatement(INSERT_HISTORY_SQL);
+            }
+            for (Transition transition : batch) {
+                insertStatement.clearBindings();
+                insertStatement.bindString(1, transition.deviceId);
+                insertStatement.bindLong(2, transition.timestampMs);
+                insertStatement.bindLong(3, transition.lightOn ? 1 : 0);
+                insertStatement.bindLong(4, transition.rgbMode ? 1 : 0);
+                insertStatement.bindLong(5, 0);
+                insertStatement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write " + batch.size() + " transitions: " + e.getMessage());
+        } finally {
+            db.endTransaction();
+        }
+        if (!committed) {
+            // Trả lại đầu hàng đợi để giữ thứ tự thời gian và hẹn thử lại sau một cửa sổ
+            synchronized (pending) {
+                pending.addAll(0, batch);
+                if (flushScheduled) {
+                    return;
+                }
+                flushScheduled = true;
+            }
+            writeExecutor.schedule(this::drain, FLUSH_WINDOW_MS);
+            return;
+        }
+        rowsWritten.addAndGet(batch.size());
+        Log.d(TAG, "Wrote " + batch.size() + " transitions");
+    }
+
+    /** Deletes the device's history; runs on the DB thread from the device delete. */
+    @WorkerThread
+    void deleteDevice(SQLiteDatabase db, String deviceId) {
+        synchronized (pending) {
+            pending.removeIf(transition -> transition.deviceId.equals(deviceId));
+        }
+        String[] args = {deviceId};
+        db.delete(TABLE_HISTORY, COLUMN_DEVICE_ID + " = ?", args);
+        db.delete(TABLE_HOURLY, COLUMN_DEVICE_ID + " = ?", args);
+    }
+
+    /**
+     * Folds old transitions into hourly rollups and trims both tables.
+     *
+     * @return number of raw rows folded
+     */
+    @WorkerThread
+    int compact(long nowMs) {
+        drain();
+        long start = System.nanoTime();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long cutoff = UsageAggregator.hourStart(nowMs - RAW_RETENTION_MS);
+        if (countRows(db) > MAX_RAW_ROWS) {
+            // Thiết bị bật tắt quá dày: gộp luôn mọi giờ đã trọn vẹn
+            cutoff = UsageAggregator.hourStart(nowMs);
+        }
+
+        int folded = 0;
+        db.beginTransaction();
+        try {
+            SQLiteStatement hourly = db.compileStatement(INSERT_HOURLY_SQL);
+            SQLiteStatement seed = db.compileStatement(INSERT_HISTORY_SQL);
+            try (Cursor cursor = db.query(TABLE_HISTORY,
+                    new String[]{COLUMN_DEVICE_ID, COLUMN_TIMESTAMP, COLUMN_IS_LIGHT_ON, COLUMN_IS_RGB_MODE},
+                    COLUMN_TIMESTAMP + " < ?", new String[]{String.valueOf(cutoff)},
+                    null, null, COLUMN_DEVICE_ID + ", " + HISTORY_ORDER)) {
+                UsageAggregator aggregator = null;
+                while (cursor.moveToNext()) {
+                    String deviceId = cursor.getString(0);
+                    if (aggregator == null || !aggregator.getDeviceId().equals(deviceId)) {
+                        if (aggregator != null) {
+                            writeRollup(aggregator, cutoff, hourly, seed);
+                        }
+                        aggregator = new UsageAggregator(deviceId);
+                    }
+                    aggregator.add(cursor.getLong(1), cursor.getInt(2) == 1, cursor.getInt(3) == 1);
+                    folded++;
+                }
+                if (aggregator != null) {
+                    writeRollup(aggregator, cutoff, hourly, seed);
+                }
+            }
+            hourly.close();
+            seed.close();
+            db.delete(TABLE_HISTORY, COLUMN_TIMESTAMP + " < ?", new String[]{String.valueOf(cutoff)});
+            db.delete(TABLE_HOURLY, COLUMN_HOUR_START + " < ?",
+                    new String[]{String.valueOf(nowMs - HOURLY_RETENTION_MS)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        lastCompactMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastCompactedRows = folded;
+        Log.d(TAG, "Compacted " + folded + " transitions before " + cutoff + " in " + lastCompactMs + " ms");
+        return folded;
+    }
+
+    // Ghi các giờ trước mốc cắt, rồi một dòng seed tại mốc cắt mang trạng thái cuối sang lần gộp sau
+    private static void writeRollup(UsageAggregator aggregator, long cutoff, SQLiteStatement hourly,
+                                    SQLiteStatement seed) {
+        aggregator.finish(cutoff);
+        for (HourlyUsage usage : aggregator.result()) {
+            hourly.clearBindings();
+            hourly.bindString(1, usage.getDeviceId());
+            hourly.bindLong(2, usage.getHourStartMs());
+            hourly.bindLong(3, usage.getOnDurationMs());
+            hourly.bindLong(4, usage.getToggleCount());
+            hourly.executeInsert();
+        }
+        seed.clearBindings();
+        seed.bindString(1, aggregator.getDeviceId());
+        seed.bindLong(2, cutoff);
+        seed.bindLong(3, aggregator.isLastLightOn() ? 1 : 0);
+        seed.bindLong(4, aggregator.isLastRGBMode() ? 1 : 0);
+        seed.bindLong(5, 1);
+        seed.executeInsert();
+    }
+
+    private static long countRows(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_HISTORY, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * Per-hour usage of one device in [fromMs, toMs), oldest first. Hours already compacted
+     * come from the rollups; recent hours are computed from the raw log and the transitions
+     * not yet written, with the current state counted up to now.
+     */
+    @WorkerThread
+    public List<HourlyUsage> getHourlyUsage(String deviceId, long fromMs, long toMs) {
+        SQLiteDatabase db = helper.getReadableDatabase();
+        List<HourlyUsage> usage = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE_HOURLY,
+                new String[]{COLUMN_HOUR_START, COLUMN_ON_MS, COLUMN_TOGGLES},
+                COLUMN_DEVICE_ID + " = ? AND " + COLUMN_HOUR_START + " >= ? AND " + COLUMN_HOUR_START + " < ?",
+                new String[]{deviceId, String.valueOf(UsageAggregator.hourStart(fromMs)), String.valueOf(toMs)},
+                null, null, COLUMN_HOUR_START)) {
+            while (cursor.moveToNext()) {
+                usage.add(new HourlyUsage(deviceId, cursor.getLong(0), cursor.getLong(1), cursor.getInt(2)));
+            }
+        }
+
+        // Log thô chỉ còn các giờ sau lần gộp cuối nên không trùng với bảng theo giờ
+        UsageAggregator aggregator = new UsageAggregator(deviceId);
+        try (Cursor cursor = db.query(TABLE_HISTORY,
+                new String[]{COLUMN_TIMESTAMP, COLUMN_IS_LIGHT_ON, COLUMN_IS_RGB_MODE},
+                COLUMN_DEVICE_ID + " = ?", new String[]{deviceId},
+                null, null, HISTORY_ORDER)) {
+            while (cursor.moveToNext()) {
+                aggregator.add(cursor.getLong(0), cursor.getInt(1) == 1, cursor.getInt(2) == 1);
+            }
+        }
+        synchronized (pending) {
+            for (Transition transition : pending) {
+                if (transition.deviceId.equals(deviceId)) {
+                    aggregator.add(transition.timestampMs, transition.lightOn, transition.rgbMode);
+                }
+            }
+        }
+        aggregator.finish(Math.min(System.currentTimeMillis(), toMs));
+        usage.addAll(aggregator.result(fromMs, toMs));
+        return usage;
+    }
+
+    /** Total on-duration of one device in [fromMs, toMs), counted in whole hours from fromMs's hour. */
+    @WorkerThread
+    public long getOnDurationMs(String deviceId, long fromMs, long toMs) {
+        long total = 0;
+        for (HourlyUsage usage : getHourlyUsage(deviceId, fromMs, toMs)) {
+            total += usage.getOnDurationMs();
+        }
+        return total;
+    }
+
+    public CompletableFuture<List<HourlyUsage>> getHourlyUsageAsync(String deviceId, long fromMs, long toMs) {
+        return readExecutor.submit(() -> getHourlyUsage(deviceId, fromMs, toMs));
+    }
+
+    public CompletableFuture<Long> getOnDurationMsAsync(String deviceId, long fromMs, long toMs) {
+        return readExecutor.submit(() -> getOnDurationMs(deviceId, fromMs, toMs));
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        flush();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Không liên quan
+    }
+
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getLastCompactMs() {
+        return lastCompactMs;
+    }
+
+    public int getLastCompactedRows() {
+        return lastCompactedRows;
+    }
+}
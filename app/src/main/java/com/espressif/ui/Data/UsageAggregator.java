@@ -0,0 +1,107 @@
+package com.espressif.ui.Data;
+
+import com.espressif.ui.models.HourlyUsage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Folds one device's state transitions, in time order, into per-hour on-duration and
+ * toggle counts. An on period that spans several hours is split across them. The first
+ * transition only sets the starting state; every later change of the light counts as a toggle.
+ */
+final class UsageAggregator {
+
+    static final long HOUR_MS = 60L * 60 * 1000;
+
+    private final String deviceId;
+    // hourStart -> {onMs, toggles}
+    private final TreeMap<Long, long[]> buckets = new TreeMap<>();
+    private long lastTimestamp = -1;
+    private boolean lastLightOn;
+    private boolean lastRGBMode;
+
+    UsageAggregator(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    static long hourStart(long timestampMs) {
+        return timestampMs - Math.floorMod(timestampMs, HOUR_MS);
+    }
+
+    void add(long timestampMs, boolean lightOn, boolean rgbMode) {
+        if (lastTimestamp >= 0) {
+            // Đồng hồ có thể lùi; coi như xảy ra cùng lúc với transition trước
+            long timestamp = Math.max(timestampMs, lastTimestamp);
+            if (lastLightOn) {
+                addOnDuration(lastTimestamp, timestamp);
+            }
+            if (lightOn != lastLightOn) {
+                bucket(hourStart(timestamp))[1]++;
+            }
+            lastTimestamp = timestamp;
+        } else {
+            lastTimestamp = timestampMs;
+        }
+        lastLightOn = lightOn;
+        lastRGBMode = rgbMode;
+    }
+
+    /** Counts the current state as lasting until {@code endMs}. */
+    void finish(long endMs) {
+        if (lastTimestamp >= 0 && lastLightOn && endMs > lastTimestamp) {
+            addOnDuration(lastTimestamp, endMs);
+        }
+    }
+
+    private void addOnDuration(long fromMs, long toMs) {
+        long from = fromMs;
+        while (from < toMs) {
+            long hour = hourStart(from);
+            long end = Math.min(toMs, hour + HOUR_MS);
+            bucket(hour)[0] += end - from;
+            from = end;
+        }
+    }
+
+    private long[] bucket(long hourStart) {
+        long[] bucket = buckets.get(hourStart);
+        if (bucket == null) {
+            bucket = new long[2];
+            buckets.put(hourStart, bucket);
+        }
+        return bucket;
+    }
+
+    String getDeviceId() {
+        return deviceId;
+    }
+
+    boolean hasState() {
+        return lastTimestamp >= 0;
+    }
+
+    boolean isLastLightOn() {
+        return lastLightOn;
+    }
+
+    boolean isLastRGBMode() {
+        return lastRGBMode;
+    }
+
+    /** Hours with any on-time or toggle in [fromMs, toMs), oldest first. */
+    List<HourlyUsage> result(long fromMs, long toMs) {
+        List<HourlyUsage> usage = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry : buckets.subMap(hourStart(fromMs), true, toMs, false).entrySet()) {
+            long[] bucket = entry.getValue();
+            usage.add(new HourlyUsage(deviceId, entry.getKey(), bucket[0], (int) bucket[1]));
+        }
+        return usage;
+    }
+
+    List<HourlyUsage> result() {
+        return result(Long.MIN_VALUE + HOUR_MS, Long.MAX_VALUE);
+    }
+}
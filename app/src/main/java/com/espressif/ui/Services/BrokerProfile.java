@@ -0,0 +1,149 @@
+package com.espressif.ui.Services;
+
+/**
+ * Connection settings of one MQTT broker: endpoint, TLS, keep-alive and how many
+ * client connections {@link MQTTService} opens to it.
+ */
+public final class BrokerProfile {
+
+    public static final int DEFAULT_PORT = 1883;
+    public static final int DEFAULT_TLS_PORT = 8883;
+    public static final int DEFAULT_KEEP_ALIVE_SECONDS = 60;
+    public static final int DEFAULT_TOPIC_ALIAS_MAXIMUM = 16;
+
+    /** Site broker the app has always talked to. */
+    public static final BrokerProfile DEFAULT = new Builder("172.28.31.152").build();
+
+    private final String name;
+    private final String host;
+    private final int port;
+    private final boolean tls;
+    private final int keepAliveSeconds;
+    private final int poolSize;
+    private final int mqttVersion;
+    private final int topicAliasMaximum;
+
+    private BrokerProfile(Builder builder) {
+        this.name = builder.name != null ? builder.name : builder.host;
+        this.host = builder.host;
+        this.port = builder.port > 0 ? builder.port : (builder.tls ? DEFAULT_TLS_PORT : DEFAULT_PORT);
+        this.tls = builder.tls;
+        this.keepAliveSeconds = builder.keepAliveSeconds;
+        this.poolSize = builder.poolSize;
+        this.mqttVersion = builder.mqttVersion;
+        this.topicAliasMaximum = builder.topicAliasMaximum;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isTls() {
+        return tls;
+    }
+
+    public int getKeepAliveSeconds() {
+        return keepAliveSeconds;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /** 3 for MQTT 3.1.1, 5 for MQTT 5. */
+    public int getMqttVersion() {
+        return mqttVersion;
+    }
+
+    /** Topic aliases each MQTT 5 connection may assign; 0 sends every topic in full. */
+    public int getTopicAliasMaximum() {
+        return topicAliasMaximum;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + (tls ? "ssl://" : "tcp://") + host + ":" + port + ", mqtt" + mqttVersion
+                + ", pool=" + poolSize + ")";
+    }
+
+    public static final class Builder {
+        private final String host;
+        private String name;
+        private int port;
+        private boolean tls;
+        private int keepAliveSeconds = DEFAULT_KEEP_ALIVE_SECONDS;
+        private int poolSize = 1;
+        private int mqttVersion = 3;
+        private int topicAliasMaximum = DEFAULT_TOPIC_ALIAS_MAXIMUM;
+
+        public Builder(String host) {
+            if (host == null || host.trim().isEmpty()) {
+                throw new IllegalArgumentException("Broker host cannot be empty");
+            }
+            this.host = host.trim();
+        }
+
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder port(int port) {
+            if (port < 0 || port > 65535) {
+                throw new IllegalArgumentException("Invalid port: " + port);
+            }
+            this.port = port;
+            return this;
+        }
+
+        public Builder tls(boolean tls) {
+            this.tls = tls;
+            return this;
+        }
+
+        public Builder keepAlive(int seconds) {
+            if (seconds < 0 || seconds > 65535) {
+                throw new IllegalArgumentException("Invalid keep alive: " + seconds);
+            }
+            this.keepAliveSeconds = seconds;
+            return this;
+        }
+
+        /** Number of client connections; publishes are spread over them by topic hash. */
+        public Builder poolSize(int poolSize) {
+            if (poolSize < 1) {
+                throw new IllegalArgumentException("Pool size must be at least 1: " + poolSize);
+            }
+            this.poolSize = poolSize;
+            return this;
+        }
+
+        public Builder mqttVersion(int mqttVersion) {
+            if (mqttVersion != 3 && mqttVersion != 5) {
+                throw new IllegalArgumentException("Unsupported MQTT version: " + mqttVersion);
+            }
+            this.mqttVersion = mqttVersion;
+            return this;
+        }
+
+        public Builder topicAliasMaximum(int topicAliasMaximum) {
+            if (topicAliasMaximum < 0 || topicAliasMaximum > 65535) {
+                throw new IllegalArgumentException("Invalid topic alias maximum: " + topicAliasMaximum);
+            }
+            this.topicAliasMaximum = topicAliasMaximum;
+            return this;
+        }
+
+        public BrokerProfile build() {
+            return new BrokerProfile(this);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.espressif.ui.Services;
+
+import com.hivemq.client.mqtt.MqttClient;
+import com.hivemq.client.mqtt.MqttClientBuilder;
+import com.hivemq.client.mqtt.lifecycle.MqttClientConnectedContext;
+import com.hivemq.client.mqtt.lifecycle.MqttClientDisconnectedContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed set of MQTT connections to one broker. The primary client carries every
+ * subscription and its reconnects are driven by {@link MQTTService}; the others only
+ * publish and reconnect on their own. A topic always maps to the same client, so
+ * commands to one device stay in order while a congested stream only delays its share.
+ */
+public class ClientPool {
+
+    public interface Listener {
+        void onPrimaryConnected(ClientPool pool, MqttClientConnectedContext context);
+
+        void onPrimaryDisconnected(ClientPool pool, MqttClientDisconnectedContext context);
+
+        /** A publish-only client came (back) up. */
+        void onSecondaryConnected(ClientPool pool, int index);
+    }
+
+    private final BrokerProfile profile;
+    private final MqttConnection[] clients;
+
+    public ClientPool(BrokerProfile profile, String clientId, long reconnectBaseMs, long reconnectMaxMs,
+                      Listener listener) {
+        this.profile = profile;
+        this.clients = new MqttConnection[profile.getPoolSize()];
+        clients[0] = build(newBuilder(clientId)
+                .addConnectedListener(context -> listener.onPrimaryConnected(this, context))
+                .addDisconnectedListener(context -> listener.onPrimaryDisconnected(this, context)));
+        for (int i = 1; i < clients.length; i++) {
+            int index = i;
+            clients[i] = build(newBuilder(clientId + "-" + i)
+                    .automaticReconnect()
+                    .initialDelay(reconnectBaseMs, TimeUnit.MILLISECONDS)
+                    .maxDelay(reconnectMaxMs, TimeUnit.MILLISECONDS)
+                    .applyAutomaticReconnect()
+                    .addConnectedListener(context -> listener.onSecondaryConnected(this, index)));
+        }
+    }
+
+    private MqttClientBuilder newBuilder(String identifier) {
+        MqttClientBuilder builder = MqttClient.builder()
+                .serverHost(profile.getHost())
+                .serverPort(profile.getPort())
+                .identifier(identifier);
+        if (profile.isTls()) {
+            builder = builder.sslWithDefaultConfig();
+        }
+        return builder;
+    }
+
+    private MqttConnection build(MqttClientBuilder builder) {
+        if (profile.getMqttVersion() == 5) {
+            return new Mqtt5Connection(builder.useMqttVersion5().buildAsync(),
+                    profile.getKeepAliveSeconds(), profile.getTopicAliasMaximum());
+        }
+        return new Mqtt3Connection(builder.useMqttVersion3().buildAsync(), profile.getKeepAliveSeconds());
+    }
+
+    public BrokerProfile getProfile() {
+        return profile;
+    }
+
+    public int size() {
+        return clients.length;
+    }
+
+    public MqttConnection primary() {
+        return clients[0];
+    }
+
+    public MqttConnection get(int index) {
+        return clients[index];
+    }
+
+    /** Client that carries publishes for {@code topic}. */
+    public MqttConnection forTopic(String topic) {
+        return clients[indexFor(topic, clients.length)];
+    }
+
+    static int indexFor(String topic, int poolSize) {
+        return (topic.hashCode() & Integer.MAX_VALUE) % poolSize;
+    }
+
+    /** Completes with the session-present flag. */
+    public CompletableFuture<Boolean> connectPrimary(boolean cleanSession) {
+        return clients[0].connect(cleanSession);
+    }
+
+    /** Publish-only clients never hold subscriptions, so they always use a clean session. */
+    public List<CompletableFuture<Boolean>> connectSecondaries() {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 1; i < clients.length; i++) {
+            if (!clients[i].getState().isConnectedOrReconnect()) {
+                futures.add(clients[i].connect(true));
+            }
+        }
+        return futures;
+    }
+
+    public CompletableFuture<Void> disconnectAll() {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (MqttConnection client : clients) {
+            if (client.getState().isConnectedOrReconnect()) {
+                futures.add(client.disconnect());
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+}
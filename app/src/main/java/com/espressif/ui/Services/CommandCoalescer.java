@@ -0,0 +1,143 @@
+package com.espressif.ui.Services;
+
+import android.util.Log;
+
+import com.espressif.ui.models.ESPDevice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses rapid state commands (on/off/onRGB/offRGB) per command topic. The first
+ * command for a topic opens a window; commands arriving inside it replace the pending
+ * one, and only the last is handed to the sink when the window closes.
+ */
+public class CommandCoalescer {
+
+    private static final String TAG = "CommandCoalescer";
+
+    public interface Sink {
+        /** Called on the coalescer thread with the device and its final command. */
+        void onCommand(ESPDevice device, String command);
+    }
+
+    private static final class Pending {
+        ESPDevice device;
+        String command;
+        ScheduledFuture<?> window;
+    }
+
+    private final long windowMs;
+    private final Sink sink;
+    private final Map<String, Pending> pending = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong emitted = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+
+    public CommandCoalescer(long windowMs, Sink sink) {
+        this(windowMs, sink, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    CommandCoalescer(long windowMs, Sink sink, ScheduledExecutorService scheduler) {
+        if (windowMs < 0) {
+            throw new IllegalArgumentException("Window must not be negative: " + windowMs);
+        }
+        this.windowMs = windowMs;
+        this.sink = sink;
+        this.scheduler = scheduler;
+    }
+
+    public void submit(ESPDevice device, String command) {
+        String topic = device.getCommandTopic();
+        submitted.incrementAndGet();
+        synchronized (pending) {
+            Pending current = pending.get(topic);
+            if (current != null) {
+                current.device = device;
+                current.command = command;
+                superseded.incrementAndGet();
+                return;
+            }
+            current = new Pending();
+            current.device = device;
+            current.command = command;
+            // Chỉ giữ lệnh khi đã hẹn được cửa sổ; emit chờ khóa nên không chạy trước put
+            try {
+                current.window = scheduler.schedule(() -> emit(topic), windowMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "Coalescer is shut down, dropping " + command + " for " + topic);
+                return;
+            }
+            pending.put(topic, current);
+        }
+    }
+
+    /** Drops a pending command, e.g. because the device is being deleted. */
+    public void cancel(String topic) {
+        synchronized (pending) {
+            Pending current = pending.remove(topic);
+            if (current != null) {
+                current.window.cancel(false);
+                superseded.incrementAndGet();
+            }
+        }
+    }
+
+    /** Emits every pending command now and stops accepting new windows. */
+    public void shutdown() {
+        List<String> topics;
+        synchronized (pending) {
+            topics = new ArrayList<>(pending.keySet());
+            // Executor vẫn chạy các tác vụ hẹn giờ sau shutdown(); huỷ để luồng dừng ngay
+            for (Pending current : pending.values()) {
+                current.window.cancel(false);
+            }
+        }
+        for (String topic : topics) {
+            scheduler.execute(() -> emit(topic));
+        }
+        scheduler.shutdown();
+    }
+
+    private void emit(String topic) {
+        Pending command;
+        synchronized (pending) {
+            command = pending.remove(topic);
+        }
+        if (command == null) {
+            return;
+        }
+        emitted.incrementAndGet();
+        try {
+            sink.onCommand(command.device, command.command);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to emit " + command.command + " to " + topic + ": " + e.getMessage());
+        }
+    }
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getEmittedCount() {
+        return emitted.get();
+    }
+
+    public long getSupersededCount() {
+        return superseded.get();
+    }
+}
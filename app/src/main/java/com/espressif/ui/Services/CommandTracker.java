@@ -0,0 +1,330 @@
+package com.espressif.ui.Services;
+
+import android.util.Log;
+
+import com.espressif.ui.Data.DeviceStore;
+import com.espressif.ui.models.DeviceCommand;
+import com.espressif.ui.models.ESPDevice;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Tracks state commands until the device confirms them. The UI changes {@link DeviceStore}
+ * right away (optimistic state); the tracker remembers the last confirmed state of the
+ * device and, if no confirmation arrives within {@link #ACK_TIMEOUT_MS}, puts back the
+ * fields the device never confirmed. A command still waiting in the outbox is dropped
+ * with the rollback, so it is not replayed after the UI has given up on it.
+ *
+ * <p>Pending commands are keyed by command topic and sequence number; only the newest
+ * command per topic is pending, older ones are superseded. A command is confirmed by the
+ * MQTT 5 reply to its request, or, on MQTT 3.1.1, by the device's echo on the command
+ * topic: the broker also sends the app its own publish on that topic, so while the app is
+ * subscribed the first matching message is its own and the second is the device's.
+ * A device report with a different state settles the command too; the store already
+ * holds what the device reported.
+ *
+ * <p>Round-trip times are kept in a {@link LatencyHistogram} per device and overall.
+ */
+public class CommandTracker {
+
+    private static final String TAG = "CommandTracker";
+    public static final long ACK_TIMEOUT_MS = 5000;
+    private static final long COMMAND_EXPIRY_SECONDS = 30; // Lệnh bật/tắt cũ hơn thế này không còn ý nghĩa
+    private static final String DEVICE_TOPIC_FILTER = "/devices/+/command";
+
+    /** What the tracker acts on; {@link MQTTService} and {@link DeviceStore} in the app. */
+    interface Host {
+        DeviceCommand stamp(DeviceCommand command);
+
+        /** Publishes at QoS 1, through the outbox when offline. */
+        void publish(String topic, DeviceCommand command);
+
+        /** MQTT 5 request at QoS 1; completes with the reply payload. */
+        CompletableFuture<String> request(String topic, DeviceCommand command, long expirySeconds, long timeoutMs);
+
+        boolean supportsRequestResponse();
+
+        /** How many holders the subscription to {@code topic} has; 0 if not subscribed. */
+        int getRefCount(String topic);
+
+        /** Drops the state command for {@code topic} still waiting in the outbox, if any. */
+        void discardQueued(String topic);
+
+        /** {@link DeviceStore#update}. */
+        ESPDevice updateDevice(String deviceId, UnaryOperator<ESPDevice> change);
+    }
+
+    public interface Listener {
+        /** The device did not confirm in time and its state was put back to {@code restored}. */
+        void onCommandTimedOut(ESPDevice restored, DeviceCommand command);
+    }
+
+    private static final class Pending {
+        final String deviceId;
+        final String topic;
+        final DeviceCommand command;
+        final ESPDevice expected;
+        final ESPDevice confirmed;
+        final long sentAtNanos;
+        // Số lần tin khớp cần thấy (kể cả bản của chính app) trước khi coi là thiết bị đã nhận
+        int echoesNeeded;
+        // Bản echo của các lệnh cũ hơn đã bị thay thế, còn có thể đến sau
+        int staleEchoes;
+        ScheduledFuture<?> timeout;
+
+        Pending(String deviceId, String topic, DeviceCommand command, ESPDevice expected, ESPDevice confirmed,
+                int echoesNeeded) {
+            this.deviceId = deviceId;
+            this.topic = topic;
+            this.command = command;
+            this.expected = expected;
+            this.confirmed = confirmed;
+            this.echoesNeeded = echoesNeeded;
+            this.sentAtNanos = System.nanoTime();
+        }
+    }
+
+    private final Host host;
+    private final ScheduledExecutorService scheduler;
+    private final long ackTimeoutMs;
+    // topic -> lệnh mới nhất chưa được xác nhận
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    // deviceId -> trạng thái đã được xác nhận trước thay đổi lạc quan đầu tiên
+    private final Map<String, ESPDevice> confirmed = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> latencyByDevice = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+
+    CommandTracker(Host host, ScheduledExecutorService scheduler) {
+        this(host, scheduler, ACK_TIMEOUT_MS);
+    }
+
+    CommandTracker(Host host, ScheduledExecutorService scheduler, long ackTimeoutMs) {
+        this.host = host;
+        this.scheduler = scheduler;
+        this.ackTimeoutMs = ackTimeoutMs;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Call with the device as it is before an optimistic change. Only the first call
+     * between two confirmations counts, so rollback returns to the last state the device
+     * actually confirmed.
+     */
+    public void beforeChange(ESPDevice device) {
+        confirmed.putIfAbsent(device.getDeviceId(), device);
+    }
+
+    /** Publishes a state command for {@code device}, which already holds the expected state. */
+    public void send(ESPDevice device, DeviceCommand command) {
+        DeviceCommand stamped = host.stamp(command);
+        String topic = device.getCommandTopic();
+        ESPDevice base = confirmed.getOrDefault(device.getDeviceId(), device);
+        boolean request = host.supportsRequestResponse();
+        // Chỉ nhận lại bản của chính mình khi đang subscribe topic của thiết bị
+        int echoes = request ? 0 : host.getRefCount(topic) > 0 ? 2 : 1;
+        Pending entry = new Pending(device.getDeviceId(), topic, stamped, device, base, echoes);
+        // Hẹn giờ trước khi đưa vào bảng để echo đến sớm luôn thấy timeout
+        entry.timeout = scheduler.schedule(() -> onTimeout(entry), ackTimeoutMs, TimeUnit.MILLISECONDS);
+        Pending previous = pending.put(topic, entry);
+        if (previous != null) {
+            previous.timeout.cancel(false);
+            synchronized (previous) {
+                entry.staleEchoes = previous.echoesNeeded + previous.staleEchoes;
+            }
+            superseded.incrementAndGet();
+        }
+        sent.incrementAndGet();
+
+        if (request) {
+            host.request(topic, stamped, COMMAND_EXPIRY_SECONDS, ackTimeoutMs)
+                    .whenComplete((reply, throwable) -> {
+                        // Hết giờ được xử lý bởi timer của chính tracker
+                        if (throwable == null) {
+                            onReply(entry, DeviceCommand.parseLegacy(reply));
+                        }
+                    });
+        } else {
+            host.publish(topic, stamped);
+        }
+    }
+
+    // Đăng ký sau DeviceStore để store đã có trạng thái thiết bị báo về
+    void registerRoutes(TopicRouter router) {
+        router.addHandler(DEVICE_TOPIC_FILTER, new TopicRouter.MessageHandler() {
+            @Override
+            public void onMessage(String topic, String message) {
+                DeviceCommand command = DeviceCommand.parseLegacy(message);
+                if (command != null) {
+                    onCommand(topic, command);
+                }
+            }
+
+            @Override
+            public void onCommand(String topic, DeviceCommand command) {
+                onEcho(topic, command);
+            }
+        });
+    }
+
+    private void onEcho(String topic, DeviceCommand command) {
+        Pending entry = pending.get(topic);
+        if (entry == null || command.getType() != DeviceCommand.Type.SET_STATE) {
+            return;
+        }
+        String how;
+        synchronized (entry) {
+            if (entry.echoesNeeded == 0) {
+                // MQTT 5: chờ trả lời qua response topic
+                return;
+            }
+            if (matches(entry, command)) {
+                if (--entry.echoesNeeded > 0) {
+                    return;
+                }
+                how = "echo";
+            } else if (command.getSeq() != 0 && command.getSeq() < entry.command.getSeq()) {
+                return;
+            } else if (entry.staleEchoes > 0) {
+                // Có thể là echo của lệnh cũ đã bị thay thế, chưa phải trạng thái thiết bị báo
+                entry.staleEchoes--;
+                return;
+            } else {
+                // Thiết bị báo trạng thái khác: lệnh coi như đã xong, store giữ trạng thái thiết bị báo
+                how = "reported " + command;
+            }
+        }
+        settle(entry, how);
+    }
+
+    private void onReply(Pending entry, DeviceCommand reply) {
+        if (reply != null && reply.getType() == DeviceCommand.Type.SET_STATE && !matches(entry, reply)) {
+            // Trả lời qua response topic không đi qua router nên tự áp dụng vào store
+            host.updateDevice(entry.deviceId, reply::applyTo);
+        }
+        settle(entry, "reply");
+    }
+
+    private static boolean matches(Pending entry, DeviceCommand command) {
+        if (command.getSeq() != 0 && entry.command.getSeq() != 0) {
+            return command.getSeq() == entry.command.getSeq();
+        }
+        return command.isLightOn() == entry.expected.isLightOn() && command.isRGBMode() == entry.expected.isRGBMode();
+    }
+
+    private void settle(Pending entry, String how) {
+        if (!pending.remove(entry.topic, entry)) {
+            return;
+        }
+        entry.timeout.cancel(false);
+        confirmed.remove(entry.deviceId);
+        long rttMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - entry.sentAtNanos);
+        latency.record(rttMs);
+        latencyByDevice.computeIfAbsent(entry.deviceId, id -> new LatencyHistogram()).record(rttMs);
+        acked.incrementAndGet();
+        Log.d(TAG, "Confirmed " + entry.command + " on " + entry.topic + " (" + how + ") after " + rttMs + " ms");
+    }
+
+    private void onTimeout(Pending entry) {
+        if (!pending.remove(entry.topic, entry)) {
+            return;
+        }
+        confirmed.remove(entry.deviceId);
+        timedOut.incrementAndGet();
+        // Lệnh còn nằm trong outbox (đang offline) sẽ được phát lại khi kết nối lại; bỏ đi để UI không nhảy ngược
+        host.discardQueued(entry.topic);
+        ESPDevice restored = host.updateDevice(entry.deviceId, current -> rollback(current, entry.expected, entry.confirmed));
+        Log.w(TAG, "No confirmation for " + entry.command + " on " + entry.topic + " in " + ackTimeoutMs
+                + " ms, restored " + restored);
+        if (restored == null) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            listener.onCommandTimedOut(restored, entry.command);
+        }
+    }
+
+    /**
+     * Puts back the state fields that still hold the optimistic value; fields changed since
+     * (e.g. by a device report or a rename) are left alone.
+     */
+    static ESPDevice rollback(ESPDevice current, ESPDevice expected, ESPDevice confirmed) {
+        ESPDevice restored = current;
+        if (current.isLightOn() == expected.isLightOn()) {
+            restored = restored.withLightOn(confirmed.isLightOn());
+        }
+        if (current.isRGBMode() == expected.isRGBMode()) {
+            restored = restored.withRGBMode(confirmed.isRGBMode());
+        }
+        if (current.getBrightness() == expected.getBrightness()) {
+            restored = restored.withBrightness(confirmed.getBrightness());
+        }
+        if (current.getColor() == expected.getColor()) {
+            restored = restored.withColor(confirmed.getColor());
+        }
+        return restored;
+    }
+
+    /** Drops the pending command of a device being deleted, without rollback. */
+    public void cancel(ESPDevice device) {
+        Pending entry = pending.remove(device.getCommandTopic());
+        if (entry != null) {
+            entry.timeout.cancel(false);
+        }
+        confirmed.remove(device.getDeviceId());
+    }
+
+    public boolean isPending(String commandTopic) {
+        return pending.containsKey(commandTopic);
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /** Round-trip times of all devices. */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /** Round-trip times of one device, or null if none was confirmed yet. */
+    public LatencyHistogram getLatency(String deviceId) {
+        return latencyByDevice.get(deviceId);
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getAckedCount() {
+        return acked.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    public long getSupersededCount() {
+        return superseded.get();
+    }
+}
@@ -0,0 +1,175 @@
+package com.espressif.ui.Services;
+
+import com.espressif.ui.models.DeviceCommand;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of {@link DeviceCommand}, shared with the ESP firmware.
+ *
+ * <pre>
+ * byte 0     MAGIC (0xFE, never the first byte of UTF-8 text, so legacy strings are told apart)
+ * byte 1     VERSION
+ * byte 2     opcode: 1 SET_STATE, 2 RENAME, 3 DELETE_NVS
+ * byte 3     flags: bit0 light on, bit1 RGB mode, bit2 brightness present, bit3 color present
+ * varint     sequence number (unsigned LEB128, 0 = none)
+ * [1 byte]   brightness 0-100, if flag bit2
+ * [3 bytes]  color R, G, B, if flag bit3
+ * [rest]     RENAME only: new name in UTF-8
+ * </pre>
+ *
+ * A state command is 5 bytes plus the optional fields. Decoding reads the buffer in
+ * place; only a RENAME allocates, for the name itself.
+ */
+public final class DeviceCommandCodec {
+
+    public static final byte MAGIC = (byte) 0xFE;
+    public static final int VERSION = 1;
+
+    private static final int OP_SET_STATE = 1;
+    private static final int OP_RENAME = 2;
+    private static final int OP_DELETE_NVS = 3;
+
+    private static final int FLAG_LIGHT_ON = 1;
+    private static final int FLAG_RGB_MODE = 1 << 1;
+    private static final int FLAG_BRIGHTNESS = 1 << 2;
+    private static final int FLAG_COLOR = 1 << 3;
+
+    private static final int HEADER_SIZE = 4;
+
+    private DeviceCommandCodec() {
+    }
+
+    public static boolean isBinary(byte[] payload) {
+        return payload != null && payload.length >= HEADER_SIZE + 1 && payload[0] == MAGIC;
+    }
+
+    public static byte[] encode(DeviceCommand command) {
+        byte[] name = command.getType() == DeviceCommand.Type.RENAME
+                ? command.getName().getBytes(StandardCharsets.UTF_8) : null;
+        byte[] buffer = new byte[HEADER_SIZE + varintSize(command.getSeq())
+                + (command.hasBrightness() ? 1 : 0) + (command.hasColor() ? 3 : 0)
+                + (name != null ? name.length : 0)];
+
+        int flags = 0;
+        if (command.isLightOn()) {
+            flags |= FLAG_LIGHT_ON;
+        }
+        if (command.isRGBMode()) {
+            flags |= FLAG_RGB_MODE;
+        }
+        if (command.hasBrightness()) {
+            flags |= FLAG_BRIGHTNESS;
+        }
+        if (command.hasColor()) {
+            flags |= FLAG_COLOR;
+        }
+
+        buffer[0] = MAGIC;
+        buffer[1] = VERSION;
+        buffer[2] = (byte) opcode(command.getType());
+        buffer[3] = (byte) flags;
+        int pos = HEADER_SIZE;
+        long seq = command.getSeq();
+        while ((seq & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((seq & 0x7F) | 0x80);
+            seq >>>= 7;
+        }
+        buffer[pos++] = (byte) seq;
+        if (command.hasBrightness()) {
+            buffer[pos++] = (byte) command.getBrightness();
+        }
+        if (command.hasColor()) {
+            int color = command.getColor();
+            buffer[pos++] = (byte) (color >> 16);
+            buffer[pos++] = (byte) (color >> 8);
+            buffer[pos++] = (byte) color;
+        }
+        if (name != null) {
+            System.arraycopy(name, 0, buffer, pos, name.length);
+        }
+        return buffer;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the payload is not a well-formed binary command
+     *                                  of a version this app understands
+     */
+    public static DeviceCommand decode(byte[] payload) {
+        if (!isBinary(payload)) {
+            throw new IllegalArgumentException("Not a binary device command");
+        }
+        int version = payload[1] & 0xFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported command version: " + version);
+        }
+        int opcode = payload[2] & 0xFF;
+        int flags = payload[3] & 0xFF;
+
+        int pos = HEADER_SIZE;
+        long seq = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (pos >= payload.length || shift >= 64) {
+                throw new IllegalArgumentException("Truncated sequence number");
+            }
+            b = payload[pos++];
+            seq |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        int brightness = DeviceCommand.NONE;
+        if ((flags & FLAG_BRIGHTNESS) != 0) {
+            if (pos >= payload.length) {
+                throw new IllegalArgumentException("Truncated brightness");
+            }
+            brightness = payload[pos++] & 0xFF;
+        }
+        int color = DeviceCommand.NONE;
+        if ((flags & FLAG_COLOR) != 0) {
+            if (pos + 3 > payload.length) {
+                throw new IllegalArgumentException("Truncated color");
+            }
+            color = (payload[pos] & 0xFF) << 16 | (payload[pos + 1] & 0xFF) << 8 | (payload[pos + 2] & 0xFF);
+            pos += 3;
+        }
+
+        boolean lightOn = (flags & FLAG_LIGHT_ON) != 0;
+        boolean rgbMode = (flags & FLAG_RGB_MODE) != 0;
+        switch (opcode) {
+            case OP_SET_STATE:
+                return new DeviceCommand(DeviceCommand.Type.SET_STATE, lightOn, rgbMode, brightness, color, seq, null);
+            case OP_RENAME:
+                if (pos >= payload.length) {
+                    throw new IllegalArgumentException("Empty name");
+                }
+                return new DeviceCommand(DeviceCommand.Type.RENAME, lightOn, rgbMode, brightness, color, seq,
+                        new String(payload, pos, payload.length - pos, StandardCharsets.UTF_8));
+            case OP_DELETE_NVS:
+                return seq == 0 ? DeviceCommand.deleteNvs() : DeviceCommand.deleteNvs().withSeq(seq);
+            default:
+                throw new IllegalArgumentException("Unknown opcode: " + opcode);
+        }
+    }
+
+    private static int opcode(DeviceCommand.Type type) {
+        switch (type) {
+            case SET_STATE:
+                return OP_SET_STATE;
+            case RENAME:
+                return OP_RENAME;
+            default:
+                return OP_DELETE_NVS;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.espressif.ui.Services;
+
+import android.util.Log;
+
+import com.espressif.ui.Data.DeviceGroupStore;
+import com.espressif.ui.Data.DeviceStore;
+import com.espressif.ui.models.DeviceCommand;
+import com.espressif.ui.models.DeviceGroup;
+import com.espressif.ui.models.ESPDevice;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends one command to a whole group: local state of every member is updated with
+ * {@link DeviceStore#applyAll} (one transaction) and the command is published once to the
+ * group topic, so "all lights off" costs one broker round-trip however many devices there are.
+ *
+ * <p>Devices learn their groups from a retained message on {@code /devices/<id>/groups}
+ * holding the comma-separated group ids; they subscribe to those group topics and to
+ * {@code /groups/all/command}. Memberships that could not be sent are resent on reconnect.
+ */
+public class GroupCommander {
+
+    private static final String TAG = "GroupCommander";
+    private static final PublishOptions RETAINED = new PublishOptions.Builder().retain(true).build();
+
+    private final MQTTService mqttService;
+    private final DeviceStore deviceStore;
+    private final DeviceGroupStore groupStore;
+    // Thiết bị có danh sách nhóm chưa gửi được lên broker
+    private final Set<String> unsynced = ConcurrentHashMap.newKeySet();
+
+    GroupCommander(MQTTService mqttService, DeviceStore deviceStore, DeviceGroupStore groupStore) {
+        this.mqttService = mqttService;
+        this.deviceStore = deviceStore;
+        this.groupStore = groupStore;
+        groupStore.addListener(this::syncMembership);
+        mqttService.addConnectionStateListener((state, cause, attempt) -> {
+            if (state == MQTTService.ConnectionState.CONNECTED) {
+                resendUnsynced();
+            }
+        });
+    }
+
+    /** Membership topic of a device: "/devices/&lt;id&gt;/groups". */
+    public static String membershipTopic(String deviceId) {
+        return "/devices/" + deviceId + "/groups";
+    }
+
+    /**
+     * Applies the command to every member locally and publishes it once to the group topic.
+     *
+     * @return the devices whose state changed, or an empty list if the group does not exist
+     */
+    public List<ESPDevice> send(String groupId, DeviceCommand command) {
+        Collection<String> members = membersOf(groupId);
+        if (members == null) {
+            Log.w(TAG, "Group not found: " + groupId);
+            return new ArrayList<>();
+        }
+        List<ESPDevice> changed = deviceStore.applyAll(members, command);
+        mqttService.publish(DeviceGroup.commandTopic(groupId), command, MqttQos.AT_LEAST_ONCE);
+        Log.d(TAG, "Sent " + command + " to group " + groupId + " (" + members.size() + " members, "
+                + changed.size() + " changed)");
+        return changed;
+    }
+
+    public List<ESPDevice> sendToAll(DeviceCommand command) {
+        return send(DeviceGroup.ALL_ID, command);
+    }
+
+    // null nếu nhóm không tồn tại; nhóm "all" gồm mọi thiết bị hiện có
+    private Collection<String> membersOf(String groupId) {
+        if (DeviceGroup.ALL_ID.equals(groupId)) {
+            List<ESPDevice> devices = deviceStore.getAll();
+            List<String> ids = new ArrayList<>(devices.size());
+            for (ESPDevice device : devices) {
+                ids.add(device.getDeviceId());
+            }
+            return ids;
+        }
+        DeviceGroup group = groupStore.get(groupId);
+        return group != null ? group.getMemberIds() : null;
+    }
+
+    // Lệnh nhóm do app khác (hoặc chính app này) gửi: áp dụng lại cũng không sao vì không đổi gì thì bỏ qua
+    void registerRoutes(TopicRouter router) {
+        router.addHandler(DeviceGroup.TOPIC_FILTER, new TopicRouter.MessageHandler() {
+            @Override
+            public void onMessage(String topic, String message) {
+                DeviceCommand command = DeviceCommand.parseLegacy(message);
+                if (command == null) {
+                    Log.w(TAG, "Unknown group message: " + message + " on topic: " + topic);
+                    return;
+                }
+                onCommand(topic, command);
+            }
+
+            @Override
+            public void onCommand(String topic, DeviceCommand command) {
+                applyGroupCommand(topic, command);
+            }
+        });
+    }
+
+    private void applyGroupCommand(String topic, DeviceCommand command) {
+        if (command.getType() == DeviceCommand.Type.DELETE_NVS) {
+            Log.w(TAG, "Ignoring DELETE_NVS on group topic: " + topic);
+            return;
+        }
+        // "/groups/<id>/command" -> "<id>"
+        String[] levels = topic.split("/");
+        if (levels.length != 4) {
+            Log.w(TAG, "Unexpected group topic: " + topic);
+            return;
+        }
+        Collection<String> members = membersOf(levels[2]);
+        if (members == null) {
+            Log.w(TAG, "Command for unknown group " + levels[2]);
+            return;
+        }
+        deviceStore.applyAll(members, command);
+    }
+
+    // Retained để thiết bị vừa khởi động nhận ngay danh sách nhóm; thiết bị đã xóa thì xóa tin retained
+    private void syncMembership(String deviceId) {
+        String payload;
+        if (deviceStore.get(deviceId) == null) {
+            payload = "";
+        } else {
+            StringBuilder groups = new StringBuilder();
+            for (DeviceGroup group : groupStore.groupsOf(deviceId)) {
+                if (groups.length() > 0) {
+                    groups.append(',');
+                }
+                groups.append(group.getGroupId());
+            }
+            payload = groups.toString();
+        }
+        mqttService.publishAsync(membershipTopic(deviceId), payload, MqttQos.AT_LEAST_ONCE, RETAINED)
+                .whenComplete((ignored, throwable) -> {
+                    if (throwable != null) {
+                        Log.w(TAG, "Membership of " + deviceId + " not sent: " + throwable.getMessage());
+                        unsynced.add(deviceId);
+                    } else {
+                        Log.d(TAG, "Sent groups of " + deviceId + ": [" + payload + "]");
+                    }
+                });
+    }
+
+    private void resendUnsynced() {
+        for (String deviceId : new ArrayList<>(unsynced)) {
+            unsynced.remove(deviceId);
+            syncMembership(deviceId);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.espressif.ui.Services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two millisecond buckets: bucket 0 holds
+ * values below 1 ms, bucket i holds [2^(i-1), 2^i) ms, and the last bucket everything
+ * from {@code 2^(BUCKETS-2)} ms up. Percentiles are reported as the upper bound of the
+ * bucket they fall in, which is precise enough to tell 20 ms from 200 ms from 2 s.
+ */
+public class LatencyHistogram {
+
+    public static final int BUCKETS = 18; // Bucket cuối: từ 65536 ms trở lên
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMs = new AtomicLong();
+    private final AtomicLong maxMs = new AtomicLong();
+
+    public void record(long latencyMs) {
+        long value = Math.max(0, latencyMs);
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sumMs.addAndGet(value);
+        long max;
+        while (value > (max = maxMs.get()) && !maxMs.compareAndSet(max, value)) {
+            // Thử lại khi luồng khác vừa ghi max
+        }
+    }
+
+    static int bucketOf(long latencyMs) {
+        if (latencyMs <= 0) {
+            return 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(latencyMs);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /** Exclusive upper bound of a bucket in ms; {@link Long#MAX_VALUE} for the last one. */
+    public static long upperBoundMs(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxMs() {
+        return maxMs.get();
+    }
+
+    public long getAverageMs() {
+        long n = count.get();
+        return n == 0 ? 0 : sumMs.get() / n;
+    }
+
+    public long getBucketCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0-100), capped at the maximum
+     * seen; 0 when nothing was recorded.
+     */
+    public long getPercentileMs(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundMs(i), maxMs.get());
+            }
+        }
+        return maxMs.get();
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + getCount() + " avg=" + getAverageMs() + "ms p50<=" + getPercentileMs(50) + "ms p95<="
+                + getPercentileMs(95) + "ms p99<=" + getPercentileMs(99) + "ms max=" + getMaxMs() + "ms";
+    }
+}
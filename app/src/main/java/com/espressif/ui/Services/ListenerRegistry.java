@@ -0,0 +1,289 @@
+package com.espressif.ui.Services;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copy-on-write registry of {@link MQTTService.MQTTCallback} listeners.
+ * Each listener has its own topic filters, its own delivery executor and a bounded
+ * queue, so a slow consumer only ever backs up its own queue.
+ */
+public class ListenerRegistry {
+
+    private static final String TAG = "ListenerRegistry";
+    public static final int DEFAULT_CAPACITY = 64;
+
+    public enum OverflowPolicy {
+        /** Drop the oldest queued event to make room for the new one; the default. */
+        DROP_OLDEST,
+        /** Drop the incoming event when the queue is full. */
+        DROP_NEWEST,
+        /**
+         * When the queue is full, replace the latest queued message on the same topic,
+         * otherwise drop the oldest. Only for state topics where the newest value is all
+         * that matters; until the queue fills up every message is delivered.
+         */
+        COALESCE_BY_TOPIC
+    }
+
+    private final TopicRouter router;
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+    private final ExecutorService defaultExecutor = Executors.newCachedThreadPool();
+
+    public ListenerRegistry(TopicRouter router) {
+        this.router = router;
+    }
+
+    public Registration add(MQTTService.MQTTCallback callback, Executor executor, int capacity,
+                            OverflowPolicy policy, String... topicFilters) {
+        if (callback == null) {
+            throw new IllegalArgumentException("Callback cannot be null");
+        }
+        Registration registration = new Registration(callback,
+                executor != null ? executor : defaultExecutor,
+                Math.max(1, capacity), policy, topicFilters);
+        registrations.add(registration);
+        for (String filter : registration.topicFilters) {
+            router.addHandler(filter, registration);
+        }
+        Log.d(TAG, "Listener added, total: " + registrations.size());
+        return registration;
+    }
+
+    public boolean remove(MQTTService.MQTTCallback callback) {
+        for (Registration registration : registrations) {
+            if (registration.callback == callback) {
+                return remove(registration);
+            }
+        }
+        return false;
+    }
+
+    public boolean remove(Registration registration) {
+        if (registration == null || !registrations.remove(registration)) {
+            return false;
+        }
+        for (String filter : registration.topicFilters) {
+            router.removeHandler(filter, registration);
+        }
+        registration.clear();
+        Log.d(TAG, "Listener removed, total: " + registrations.size());
+        return true;
+    }
+
+    public void notifyConnected() {
+        for (Registration registration : registrations) {
+            registration.offer(Event.connected());
+        }
+    }
+
+    public void notifyConnectionLost(Throwable cause) {
+        for (Registration registration : registrations) {
+            registration.offer(Event.connectionLost(cause));
+        }
+    }
+
+    public int size() {
+        return registrations.size();
+    }
+
+    public static final class Registration implements TopicRouter.MessageHandler {
+
+        private final MQTTService.MQTTCallback callback;
+        private final Executor executor;
+        private final int capacity;
+        private final OverflowPolicy policy;
+        private final String[] topicFilters;
+
+        private final ArrayDeque<Event> queue = new ArrayDeque<>();
+        private final Map<String, Event> pendingByTopic = new HashMap<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean active = true;
+
+        private final AtomicLong offered = new AtomicLong();
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private volatile int maxDepth;
+
+        Registration(MQTTService.MQTTCallback callback, Executor executor, int capacity,
+                     OverflowPolicy policy, String[] topicFilters) {
+            this.callback = callback;
+            this.executor = executor;
+            this.capacity = capacity;
+            this.policy = policy != null ? policy : OverflowPolicy.DROP_OLDEST;
+            this.topicFilters = topicFilters != null && topicFilters.length > 0
+                    ? topicFilters.clone() : new String[]{"#"};
+        }
+
+        @Override
+        public void onMessage(String topic, String message) {
+            offer(Event.message(topic, message));
+        }
+
+        void offerConnected() {
+            offer(Event.connected());
+        }
+
+        private void offer(Event event) {
+            if (!active) {
+                return;
+            }
+            offered.incrementAndGet();
+            synchronized (queue) {
+                if (queue.size() >= capacity) {
+                    if (policy == OverflowPolicy.DROP_NEWEST) {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    if (policy == OverflowPolicy.COALESCE_BY_TOPIC && event.type == Event.MESSAGE) {
+                        Event pending = pendingByTopic.get(event.topic);
+                        if (pending != null) {
+                            pending.message = event.message;
+                            coalesced.incrementAndGet();
+                            return;
+                        }
+                    }
+                    Event oldest = queue.pollFirst();
+                    if (oldest != null && oldest.type == Event.MESSAGE) {
+                        pendingByTopic.remove(oldest.topic, oldest);
+                    }
+                    dropped.incrementAndGet();
+                }
+                queue.addLast(event);
+                if (event.type == Event.MESSAGE && policy == OverflowPolicy.COALESCE_BY_TOPIC) {
+                    pendingByTopic.put(event.topic, event);
+                }
+                if (queue.size() > maxDepth) {
+                    maxDepth = queue.size();
+                }
+            }
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (Exception e) {
+                    draining.set(false);
+                    Log.e(TAG, "Delivery executor rejected listener drain: " + e.getMessage());
+                }
+            }
+        }
+
+        private void drain() {
+            while (active) {
+                Event event;
+                synchronized (queue) {
+                    event = queue.pollFirst();
+                    if (event == null) {
+                        draining.set(false);
+                        return;
+                    }
+                    if (event.type == Event.MESSAGE) {
+                        pendingByTopic.remove(event.topic, event);
+                    }
+                }
+                deliver(event);
+            }
+            draining.set(false);
+        }
+
+        private void deliver(Event event) {
+            try {
+                switch (event.type) {
+                    case Event.MESSAGE:
+                        callback.onMessageReceived(event.topic, event.message);
+                        break;
+                    case Event.CONNECTED:
+                        callback.onConnected();
+                        break;
+                    case Event.CONNECTION_LOST:
+                        callback.onConnectionLost(event.cause);
+                        break;
+                }
+                delivered.incrementAndGet();
+            } catch (Exception e) {
+                Log.e(TAG, "Listener failed: " + e.getMessage());
+            }
+        }
+
+        void clear() {
+            active = false;
+            synchronized (queue) {
+                queue.clear();
+                pendingByTopic.clear();
+            }
+        }
+
+        public MQTTService.MQTTCallback getCallback() {
+            return callback;
+        }
+
+        public int getQueueDepth() {
+            synchronized (queue) {
+                return queue.size();
+            }
+        }
+
+        public int getMaxQueueDepth() {
+            return maxDepth;
+        }
+
+        public long getOfferedCount() {
+            return offered.get();
+        }
+
+        public long getDeliveredCount() {
+            return delivered.get();
+        }
+
+        public long getDroppedCount() {
+            return dropped.get();
+        }
+
+        public long getCoalescedCount() {
+            return coalesced.get();
+        }
+    }
+
+    private static final class Event {
+        static final int MESSAGE = 0;
+        static final int CONNECTED = 1;
+        static final int CONNECTION_LOST = 2;
+
+        final int type;
+        final String topic;
+        volatile String message;
+        final Throwable cause;
+
+        private Event(int type, String topic, String message, Throwable cause) {
+            this.type = type;
+            this.topic = topic;
+            this.message = message;
+            this.cause = cause;
+        }
+
+        static Event message(String topic, String message) {
+            return new Event(MESSAGE, topic, message, null);
+        }
+
+        static Event connected() {
+            return new Event(CONNECTED, null, null, null);
+        }
+
+        static Event connectionLost(Throwable cause) {
+            return new Event(CONNECTION_LOST, null, null, cause);
+        }
+    }
+}
@@ -1,26 +1,104 @@
 package com.espressif.ui.Services;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.util.Log;
+
+import com.espressif.AppConstants;
+import com.espressif.ui.Data.DeviceChange;
 import com.espressif.ui.Data.DeviceDatabaseHelper;
+import com.espressif.ui.Data.DeviceGroupStore;
+import com.espressif.ui.Data.DeviceStore;
+import com.espressif.ui.Data.OutboxDatabaseHelper;
+import com.espressif.ui.Data.RuleStore;
+import com.espressif.ui.Data.SceneStore;
+import com.espressif.ui.models.DeviceCommand;
+import com.espressif.ui.models.DeviceGroup;
 import com.espressif.ui.models.ESPDevice;
-import com.hivemq.client.mqtt.MqttClient;
+import com.espressif.ui.models.Rule;
+import com.hivemq.client.mqtt.MqttClientState;
 import com.hivemq.client.mqtt.datatypes.MqttQos;
-import com.hivemq.client.mqtt.mqtt3.Mqtt3AsyncClient;
+import com.hivemq.client.mqtt.lifecycle.MqttClientConnectedContext;
+import com.hivemq.client.mqtt.lifecycle.MqttClientDisconnectedContext;
+import com.hivemq.client.mqtt.lifecycle.MqttClientReconnector;
+import com.hivemq.client.mqtt.lifecycle.MqttDisconnectSource;
+import com.hivemq.client.mqtt.mqtt3.lifecycle.Mqtt3ClientConnectedContext;
+import com.hivemq.client.mqtt.mqtt5.lifecycle.Mqtt5ClientConnectedContext;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 
 public class MQTTService {
     private static final String TAG = "MQTTService";
-    private static final String BROKER_URL = "172.28.31.152";
-    private static final int BROKER_PORT = 1883;
+    private static final long RECONNECT_BASE_DELAY_MS = 1000;
+    private static final long RECONNECT_MAX_DELAY_MS = 60_000;
+    private static final long RECONNECT_MIN_DELAY_MS = 500;
     private static final String NOTIFICATION_TOPIC = "/devices/notification";
     private static final String COMMAND_TOPIC = "/speech/command";
     private static volatile MQTTService instance;
-    private final Mqtt3AsyncClient client;
+    private volatile ClientPool pool;
     private final String clientId;
+    private final boolean persistentSession;
     private final Context context;
-    private final DeviceDatabaseHelper dbHelper;
-    private MQTTCallback callback;
-    public static boolean init;
+    private final DeviceStore deviceStore;
+    private final GroupCommander groupCommander;
+    private final SceneEngine sceneEngine;
+    private final RuleEngine ruleEngine;
+    private final CommandTracker commandTracker;
+    private final PresenceTracker presenceTracker;
+    private final TopicRouter router = new TopicRouter();
+    private final ListenerRegistry listeners = new ListenerRegistry(router);
+    private final SubscriptionTable subscriptions;
+    private final OutboundQueue outbox;
+    private ListenerRegistry.Registration legacyRegistration;
+    private final ReconnectBackoff backoff = new ReconnectBackoff(RECONNECT_BASE_DELAY_MS,
+            RECONNECT_MAX_DELAY_MS, RECONNECT_MIN_DELAY_MS);
+    private final ScheduledExecutorService reconnectScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final CopyOnWriteArrayList<ConnectionStateListener> stateListeners = new CopyOnWriteArrayList<>();
+    private volatile ConnectionState connectionState = ConnectionState.DISCONNECTED;
+    private volatile long disconnectedAtNanos;
+    // Hoàn thành sớm future này để kết thúc backoff đang chờ (nút Retry)
+    private volatile CompletableFuture<Void> pendingBackoff;
+    private final AtomicLong reconnectCount = new AtomicLong();
+    private volatile long lastReconnectMs = -1;
+    private volatile long totalReconnectMs;
+    private final String responseTopic;
+    private final AtomicBoolean responseSubscribed = new AtomicBoolean();
+    private final AtomicLong correlationSeq = new AtomicLong();
+    private final Map<Long, CompletableFuture<String>> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicLong commandSeq = new AtomicLong();
+    private volatile boolean binaryCommands;
+    public static volatile boolean init;
+
+    public enum ConnectionState {
+        CONNECTING,
+        CONNECTED,
+        DISCONNECTED
+    }
+
+    public interface ConnectionStateListener {
+        /**
+         * @param cause   reason of the disconnect, null otherwise
+         * @param attempt number of reconnect attempts made since the connection was lost
+         */
+        void onConnectionStateChanged(ConnectionState state, Throwable cause, int attempt);
+    }
 
     public interface MQTTCallback {
         void onMessageReceived(String topic, String message);
@@ -30,17 +108,259 @@ public class MQTTService {
 
     private MQTTService(Context context) {
         this.context = context.getApplicationContext();
-        this.clientId = "AndroidClient_" + System.currentTimeMillis();
-        this.dbHelper = DeviceDatabaseHelper.getInstance(context);
-        this.client = MqttClient.builder()
-                .useMqttVersion3()
-                .serverHost(BROKER_URL)
-                .serverPort(BROKER_PORT)
-                .identifier(clientId)
-                .buildAsync();
+        SharedPreferences prefs = this.context.getSharedPreferences(AppConstants.ESP_PREFERENCES, Context.MODE_PRIVATE);
+        this.persistentSession = prefs.getBoolean(AppConstants.KEY_MQTT_PERSISTENT_SESSION, false);
+        this.clientId = persistentSession ? getStableClientId(prefs) : "AndroidClient_" + System.currentTimeMillis();
+        this.responseTopic = "/app/" + clientId + "/response";
+        this.binaryCommands = prefs.getBoolean(AppConstants.KEY_MQTT_BINARY_COMMANDS, false);
+        BrokerProfile profile = loadBrokerProfile(prefs);
+        this.deviceStore = DeviceStore.getInstance(context);
+        this.subscriptions = new SubscriptionTable(new SubscriptionTable.Sender() {
+            @Override
+            public boolean isConnected() {
+                return MQTTService.this.isConnected();
+            }
+
+            @Override
+            public CompletableFuture<?> subscribe(Map<String, MqttQos> filters) {
+                return pool.primary().subscribe(filters);
+            }
+
+            @Override
+            public CompletableFuture<?> unsubscribe(List<String> filters) {
+                return pool.primary().unsubscribe(filters);
+            }
+        });
+        this.outbox = new OutboundQueue(OutboxDatabaseHelper.getInstance(context), new OutboundQueue.Publisher() {
+            @Override
+            public boolean isConnected() {
+                return MQTTService.this.isConnected();
+            }
+
+            @Override
+            public CompletableFuture<?> publish(String topic, byte[] payload, MqttQos qos) {
+                return sendPublish(topic, payload, qos, PublishOptions.NONE);
+            }
+        });
+        this.pool = newPool(profile);
+
+        // Store được cập nhật trực tiếp trên router, trước các listener UI
+        deviceStore.registerRoutes(router);
+        this.commandTracker = newCommandTracker();
+        commandTracker.registerRoutes(router);
+        this.presenceTracker = newPresenceTracker();
+        presenceTracker.registerRoutes(router);
+        DeviceGroupStore groupStore = DeviceGroupStore.getInstance(context);
+        this.groupCommander = new GroupCommander(this, deviceStore, groupStore);
+        groupCommander.registerRoutes(router);
+        this.sceneEngine = new SceneEngine(this, deviceStore, groupStore, SceneStore.getInstance(context));
+        // Đăng ký sau store để luật thấy trạng thái đã cập nhật
+        this.ruleEngine = new RuleEngine(router, new RuleEngine.Host() {
+            @Override
+            public void subscribe(String topicFilter) {
+                MQTTService.this.subscribe(topicFilter, MqttQos.AT_LEAST_ONCE);
+            }
+
+            @Override
+            public void unsubscribe(String topicFilter) {
+                MQTTService.this.unsubscribe(topicFilter);
+            }
+
+            @Override
+            public void applyScene(Rule rule, String topic) {
+                sceneEngine.apply(rule.getSceneId()).whenComplete((result, throwable) -> {
+                    if (throwable != null) {
+                        Log.e(TAG, "Rule " + rule.getRuleId() + " failed: " + throwable.getMessage());
+                    }
+                });
+            }
+        }, Executors.newSingleThreadScheduledExecutor(), Clock.systemDefaultZone());
+        RuleStore.getInstance(context).addListener(ruleEngine);
+        subscribeToDefaultTopics();
+        connect();
+    }
+
+    private CommandTracker newCommandTracker() {
+        return new CommandTracker(new CommandTracker.Host() {
+            @Override
+            public DeviceCommand stamp(DeviceCommand command) {
+                return MQTTService.this.stamp(command);
+            }
+
+            @Override
+            public void publish(String topic, DeviceCommand command) {
+                MQTTService.this.publish(topic, command, MqttQos.AT_LEAST_ONCE);
+            }
+
+            @Override
+            public CompletableFuture<String> request(String topic, DeviceCommand command, long expirySeconds,
+                                                     long timeoutMs) {
+                return MQTTService.this.request(topic, command, MqttQos.AT_LEAST_ONCE, expirySeconds, timeoutMs);
+            }
+
+            @Override
+            public boolean supportsRequestResponse() {
+                return MQTTService.this.supportsRequestResponse();
+            }
+
+            @Override
+            public int getRefCount(String topic) {
+                return subscriptions.getRefCount(topic);
+            }
+
+            @Override
+            public void discardQueued(String topic) {
+                outbox.discardState(topic);
+            }
+
+            @Override
+            public ESPDevice updateDevice(String deviceId, UnaryOperator<ESPDevice> change) {
+                return deviceStore.update(deviceId, change);
+            }
+        }, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    private PresenceTracker newPresenceTracker() {
+        DeviceDatabaseHelper dbHelper = DeviceDatabaseHelper.getInstance(context);
+        PresenceTracker tracker = new PresenceTracker(new PresenceTracker.Host() {
+            @Override
+            public void setReachable(String deviceId, boolean reachable) {
+                deviceStore.update(deviceId, d -> d.withReachable(reachable));
+            }
+
+            @Override
+            public void saveLastSeen(Map<String, Long> lastSeen) {
+                dbHelper.saveLastSeenLater(lastSeen);
+            }
+        }, System::currentTimeMillis, PresenceTracker.DEFAULT_TIMEOUT_MS);
+        deviceStore.addListener(change -> {
+            if (change.getType() == DeviceChange.Type.REMOVED) {
+                tracker.forget(change.getDeviceId());
+            }
+        }, Runnable::run);
+        // Nạp sau store để thiết bị quá hạn được đánh dấu ngay ở tick đầu tiên
+        deviceStore.whenLoaded()
+                .thenCompose(store -> dbHelper.getAllLastSeenAsync())
+                .whenComplete((lastSeen, throwable) -> {
+                    if (throwable != null) {
+                        Log.e(TAG, "Failed to load last-seen times: " + throwable.getMessage());
+                        return;
+                    }
+                    tracker.load(lastSeen);
+                });
+        tracker.start(Executors.newSingleThreadScheduledExecutor());
+        context.registerComponentCallbacks(tracker);
+        return tracker;
+    }
+
+    private ClientPool newPool(BrokerProfile profile) {
+        Log.d(TAG, "Using MQTT broker " + profile);
+        ClientPool newPool = new ClientPool(profile, clientId, RECONNECT_BASE_DELAY_MS, RECONNECT_MAX_DELAY_MS,
+                new ClientPool.Listener() {
+                    @Override
+                    public void onPrimaryConnected(ClientPool source, MqttClientConnectedContext context) {
+                        if (source == pool) {
+                            onClientConnected(context);
+                        }
+                    }
+
+                    @Override
+                    public void onPrimaryDisconnected(ClientPool source, MqttClientDisconnectedContext context) {
+                        // Pool cũ bị đóng khi đổi broker, không tính là mất kết nối
+                        if (source == pool) {
+                            onClientDisconnected(context);
+                        }
+                    }
+
+                    @Override
+                    public void onSecondaryConnected(ClientPool source, int index) {
+                        if (source == pool && isConnected()) {
+                            outbox.replay();
+                        }
+                    }
+                });
+        // Một luồng nhận duy nhất cho mọi subscription, định tuyến qua TopicRouter
+        newPool.primary().setInboundHandler(this::onPublishReceived);
+        return newPool;
+    }
+
+    private static BrokerProfile loadBrokerProfile(SharedPreferences prefs) {
+        String host = prefs.getString(AppConstants.KEY_MQTT_BROKER_HOST, null);
+        if (host == null) {
+            return BrokerProfile.DEFAULT;
+        }
+        return new BrokerProfile.Builder(host)
+                .port(prefs.getInt(AppConstants.KEY_MQTT_BROKER_PORT, 0))
+                .tls(prefs.getBoolean(AppConstants.KEY_MQTT_BROKER_TLS, false))
+                .keepAlive(prefs.getInt(AppConstants.KEY_MQTT_KEEP_ALIVE, BrokerProfile.DEFAULT_KEEP_ALIVE_SECONDS))
+                .poolSize(prefs.getInt(AppConstants.KEY_MQTT_POOL_SIZE, 1))
+                .mqttVersion(prefs.getInt(AppConstants.KEY_MQTT_VERSION, 3))
+                .topicAliasMaximum(prefs.getInt(AppConstants.KEY_MQTT_TOPIC_ALIAS_MAXIMUM,
+                        BrokerProfile.DEFAULT_TOPIC_ALIAS_MAXIMUM))
+                .build();
+    }
+
+    /** Stores the broker used by the next {@link #getInstance(Context)}; see also {@link #setBrokerProfile}. */
+    public static void saveBrokerProfile(Context context, BrokerProfile profile) {
+        context.getSharedPreferences(AppConstants.ESP_PREFERENCES, Context.MODE_PRIVATE).edit()
+                .putString(AppConstants.KEY_MQTT_BROKER_HOST, profile.getHost())
+                .putInt(AppConstants.KEY_MQTT_BROKER_PORT, profile.getPort())
+                .putBoolean(AppConstants.KEY_MQTT_BROKER_TLS, profile.isTls())
+                .putInt(AppConstants.KEY_MQTT_KEEP_ALIVE, profile.getKeepAliveSeconds())
+                .putInt(AppConstants.KEY_MQTT_POOL_SIZE, profile.getPoolSize())
+                .putInt(AppConstants.KEY_MQTT_VERSION, profile.getMqttVersion())
+                .putInt(AppConstants.KEY_MQTT_TOPIC_ALIAS_MAXIMUM, profile.getTopicAliasMaximum())
+                .apply();
+    }
+
+    /**
+     * Saves the profile and moves every connection to the new broker. Subscriptions are
+     * restored there and commands queued meanwhile are replayed once it is connected.
+     */
+    public synchronized void setBrokerProfile(BrokerProfile profile) {
+        saveBrokerProfile(context, profile);
+        ClientPool old = pool;
+        pool = newPool(profile);
+        init = false;
+        disconnectedAtNanos = 0;
+        old.disconnectAll().whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                Log.w(TAG, "Failed to close connections to " + old.getProfile() + ": " + throwable.getMessage());
+            }
+        });
+        setConnectionState(ConnectionState.DISCONNECTED, null, 0);
         connect();
     }
 
+    /**
+     * Sends device commands in the compact binary format. Only enable once every device
+     * on the site runs firmware that decodes it; incoming binary is always understood.
+     */
+    public void setBinaryCommandsEnabled(boolean enabled) {
+        binaryCommands = enabled;
+        context.getSharedPreferences(AppConstants.ESP_PREFERENCES, Context.MODE_PRIVATE).edit()
+                .putBoolean(AppConstants.KEY_MQTT_BINARY_COMMANDS, enabled)
+                .apply();
+    }
+
+    public boolean isBinaryCommandsEnabled() {
+        return binaryCommands;
+    }
+
+    public BrokerProfile getBrokerProfile() {
+        return pool.getProfile();
+    }
+
+    // Phiên persistent (cleanSession=false) cần client ID cố định để broker giữ lại subscription
+    private static String getStableClientId(SharedPreferences prefs) {
+        String id = prefs.getString(AppConstants.KEY_MQTT_CLIENT_ID, null);
+        if (id == null) {
+            id = "AndroidClient_" + UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+            prefs.edit().putString(AppConstants.KEY_MQTT_CLIENT_ID, id).apply();
+        }
+        return id;
+    }
+
     public static MQTTService getInstance(Context context) {
         if (instance == null) {
             synchronized (MQTTService.class) {
@@ -52,98 +372,407 @@ public class MQTTService {
         return instance;
     }
 
-    public void setCallback(MQTTCallback callback) {
-        this.callback = callback;
+    /**
+     * @deprecated replaces only the listener set by the previous call; use
+     * {@link #addListener(MQTTCallback, String...)} so several screens can listen at once.
+     */
+    @Deprecated
+    public synchronized void setCallback(MQTTCallback callback) {
+        listeners.remove(legacyRegistration);
+        legacyRegistration = callback != null ? addListener(callback) : null;
     }
 
-    public void connect() {
+    public ListenerRegistry.Registration addListener(MQTTCallback callback, String... topicFilters) {
+        return addListener(callback, null, ListenerRegistry.DEFAULT_CAPACITY,
+                ListenerRegistry.OverflowPolicy.DROP_OLDEST, topicFilters);
+    }
+
+    public ListenerRegistry.Registration addListener(MQTTCallback callback, Executor executor, String... topicFilters) {
+        return addListener(callback, executor, ListenerRegistry.DEFAULT_CAPACITY,
+                ListenerRegistry.OverflowPolicy.DROP_OLDEST, topicFilters);
+    }
+
+    public ListenerRegistry.Registration addListener(MQTTCallback callback, Executor executor, int capacity,
+                                                    ListenerRegistry.OverflowPolicy policy, String... topicFilters) {
+        ListenerRegistry.Registration registration = listeners.add(callback, executor, capacity, policy, topicFilters);
         if (isConnected()) {
-            Log.d(TAG, "Already connected to MQTT broker");
-            subscribeToDefaultTopics();
-            if (callback != null) {
-                callback.onConnected();
-            }
+            registration.offerConnected();
+        }
+        return registration;
+    }
+
+    public boolean removeListener(MQTTCallback callback) {
+        return listeners.remove(callback);
+    }
+
+    public boolean removeListener(ListenerRegistry.Registration registration) {
+        return listeners.remove(registration);
+    }
+
+    public TopicRouter getRouter() {
+        return router;
+    }
+
+    public GroupCommander getGroupCommander() {
+        return groupCommander;
+    }
+
+    public SceneEngine getSceneEngine() {
+        return sceneEngine;
+    }
+
+    public RuleEngine getRuleEngine() {
+        return ruleEngine;
+    }
+
+    public CommandTracker getCommandTracker() {
+        return commandTracker;
+    }
+
+    public PresenceTracker getPresenceTracker() {
+        return presenceTracker;
+    }
+
+    private void onPublishReceived(String topic, byte[] payload, byte[] correlationData) {
+        if (DeviceCommandCodec.isBinary(payload)) {
+            onCommandReceived(topic, payload, correlationData);
             return;
         }
+        String message = new String(payload, StandardCharsets.UTF_8);
+        Log.d(TAG, "Received message: " + message + " from topic: " + topic);
+        boolean reply = completeRequest(correlationData, message);
+        if (router.dispatch(topic, message) == 0 && !reply) {
+            Log.w(TAG, "No handler for topic: " + topic);
+        }
+    }
 
-        client.connectWith()
-                .send()
+    private void onCommandReceived(String topic, byte[] payload, byte[] correlationData) {
+        DeviceCommand command;
+        try {
+            command = DeviceCommandCodec.decode(payload);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Dropping malformed command on " + topic + ": " + e.getMessage());
+            return;
+        }
+        Log.d(TAG, "Received command: " + command + " from topic: " + topic);
+        boolean reply = correlationData != null && completeRequest(correlationData, command.toLegacyString());
+        if (router.dispatch(topic, command) == 0 && !reply) {
+            Log.w(TAG, "No handler for topic: " + topic);
+        }
+    }
+
+    public void connect() {
+        ClientPool current = pool;
+        MqttClientState state = current.primary().getState();
+        if (state != MqttClientState.DISCONNECTED) {
+            Log.d(TAG, "Already connected or reconnecting: " + state);
+            return;
+        }
+
+        setConnectionState(ConnectionState.CONNECTING, null, 0);
+        current.connectPrimary(!persistentSession)
                 .whenComplete((connAck, throwable) -> {
                     if (throwable != null) {
+                        // Listener mất kết nối sẽ lên lịch kết nối lại với backoff
                         Log.e(TAG, "Connection failed: " + throwable.getMessage());
-                        if (callback != null) {
-                            callback.onConnectionLost(throwable);
-                        }
-                    } else {
-                        Log.d(TAG, "Connected to MQTT broker");
-                        subscribeToDefaultTopics();
-                        init = true;
-                        if (callback != null) {
-                            callback.onConnected();
-                        }
                     }
                 });
+        // Các client phụ chỉ publish và tự kết nối lại
+        for (CompletableFuture<?> future : current.connectSecondaries()) {
+            future.whenComplete((connAck, throwable) -> {
+                if (throwable != null) {
+                    Log.w(TAG, "Publish connection failed: " + throwable.getMessage());
+                }
+            });
+        }
     }
 
+    /**
+     * Connects now: ends the backoff of an automatic reconnect that is waiting, or starts
+     * a connection if the client is idle.
+     */
     public void reconnect() {
-        if (!isConnected()) {
-            Log.d(TAG, "Attempting to reconnect to MQTT broker");
-            connect();
+        if (isConnected()) {
+            return;
         }
+        CompletableFuture<Void> backoff = pendingBackoff;
+        if (backoff != null && backoff.complete(null)) {
+            Log.d(TAG, "Ending reconnect backoff early");
+            return;
+        }
+        Log.d(TAG, "Attempting to reconnect to MQTT broker");
+        connect();
     }
 
-    public void subscribe(String topic, MqttQos qos) {
-        if (!isConnected()) {
-            Log.w(TAG, "Cannot subscribe to " + topic + ": MQTT not connected");
+    private void onClientConnected(MqttClientConnectedContext context) {
+        boolean sessionPresent;
+        if (context instanceof Mqtt5ClientConnectedContext) {
+            sessionPresent = ((Mqtt5ClientConnectedContext) context).getConnAck().isSessionPresent();
+        } else {
+            sessionPresent = context instanceof Mqtt3ClientConnectedContext
+                    && ((Mqtt3ClientConnectedContext) context).getConnAck().isSessionPresent();
+        }
+        if (disconnectedAtNanos != 0) {
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - disconnectedAtNanos);
+            disconnectedAtNanos = 0;
+            lastReconnectMs = elapsedMs;
+            totalReconnectMs += elapsedMs;
+            reconnectCount.incrementAndGet();
+            Log.d(TAG, "Reconnected to MQTT broker after " + elapsedMs + " ms");
+        } else {
+            Log.d(TAG, "Connected to MQTT broker");
+        }
+        init = true;
+        setConnectionState(ConnectionState.CONNECTED, null, 0);
+        subscriptions.onConnected(sessionPresent);
+        outbox.replay();
+        listeners.notifyConnected();
+    }
+
+    private void onClientDisconnected(MqttClientDisconnectedContext context) {
+        init = false;
+        MqttClientReconnector reconnector = context.getReconnector();
+        int attempt = reconnector.getAttempts();
+        Throwable cause = context.getCause();
+        if (attempt == 0 && disconnectedAtNanos == 0) {
+            disconnectedAtNanos = System.nanoTime();
+            listeners.notifyConnectionLost(cause);
+        }
+
+        if (context.getSource() == MqttDisconnectSource.USER) {
+            Log.d(TAG, "Disconnected by user, not reconnecting");
+            disconnectedAtNanos = 0;
+            setConnectionState(ConnectionState.DISCONNECTED, cause, attempt);
             return;
         }
 
-        client.subscribeWith()
-                .topicFilter(topic)
-                .qos(qos)
-                .callback(publish -> {
-                    String message = new String(publish.getPayloadAsBytes());
-                    Log.d(TAG, "Received message: " + message + " from topic: " + topic);
-                    dbHelper.handleMqttMessage(topic, message);
-                    if (callback != null) {
-                        callback.onMessageReceived(topic, message);
-                    }
-                })
-                .send()
-                .whenComplete((subAck, throwable) -> {
-                    if (throwable != null) {
-                        Log.e(TAG, "Subscription failed for " + topic + ": " + throwable.getMessage());
-                    } else {
-                        Log.d(TAG, "Subscribed to topic: " + topic);
-                    }
-                });
+        long delayMs = backoff.nextDelayMs(attempt);
+        Log.w(TAG, "MQTT disconnected (" + cause.getMessage() + "), reconnect attempt "
+                + (attempt + 1) + " in " + delayMs + " ms");
+        CompletableFuture<Void> backoffElapsed = new CompletableFuture<>();
+        reconnectScheduler.schedule(() -> backoffElapsed.complete(null), delayMs, TimeUnit.MILLISECONDS);
+        pendingBackoff = backoffElapsed;
+        // SubscriptionTable tự khôi phục subscription theo lô, không để client gửi lại từng cái
+        reconnector.reconnect(true)
+                .resubscribeIfSessionExpired(false)
+                .delay(0, TimeUnit.MILLISECONDS)
+                .reconnectWhen(backoffElapsed, (ignored, throwable) ->
+                        setConnectionState(ConnectionState.CONNECTING, null, attempt + 1));
+        setConnectionState(ConnectionState.DISCONNECTED, cause, attempt);
+    }
+
+    private void setConnectionState(ConnectionState state, Throwable cause, int attempt) {
+        connectionState = state;
+        for (ConnectionStateListener listener : stateListeners) {
+            try {
+                listener.onConnectionStateChanged(state, cause, attempt);
+            } catch (Exception e) {
+                Log.e(TAG, "Connection state listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public void addConnectionStateListener(ConnectionStateListener listener) {
+        stateListeners.addIfAbsent(listener);
+        listener.onConnectionStateChanged(connectionState, null, 0);
+    }
+
+    public void removeConnectionStateListener(ConnectionStateListener listener) {
+        stateListeners.remove(listener);
+    }
+
+    public ConnectionState getConnectionState() {
+        return connectionState;
+    }
+
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    /** Time from losing the connection to the last successful reconnect, -1 if none yet. */
+    public long getLastReconnectMs() {
+        return lastReconnectMs;
     }
 
+    public long getTotalReconnectMs() {
+        return totalReconnectMs;
+    }
+
+    public void subscribe(String topic, MqttQos qos) {
+        subscriptions.acquire(topic, qos);
+    }
 
+    public void unsubscribe(String topic) {
+        subscriptions.release(topic);
+    }
+
+    public SubscriptionTable getSubscriptionTable() {
+        return subscriptions;
+    }
 
     public void publish(String topic, String message, MqttQos qos) {
-        if (!isConnected()) {
-            Log.w(TAG, "Cannot publish to " + topic + ": MQTT not connected");
+        publish(topic, message, qos, PublishOptions.NONE);
+    }
+
+    /**
+     * Publishes with MQTT 5 properties; they are dropped on MQTT 3.1.1 and for commands
+     * that have to wait in the outbox.
+     */
+    public void publish(String topic, String message, MqttQos qos, PublishOptions options) {
+        publishPayload(topic, message.getBytes(StandardCharsets.UTF_8), message, qos, options);
+    }
+
+    /**
+     * Publishes a device command in the binary format when {@link #isBinaryCommandsEnabled()},
+     * otherwise as its legacy string. Commands without a sequence number get the next one.
+     */
+    public void publish(String topic, DeviceCommand command, MqttQos qos) {
+        publish(topic, command, qos, PublishOptions.NONE);
+    }
+
+    public void publish(String topic, DeviceCommand command, MqttQos qos, PublishOptions options) {
+        DeviceCommand stamped = stamp(command);
+        publishPayload(topic, encode(stamped), stamped, qos, options);
+    }
+
+    /** Gives the command the next sequence number unless it already has one. */
+    public DeviceCommand stamp(DeviceCommand command) {
+        return command.getSeq() != 0 ? command : command.withSeq(commandSeq.incrementAndGet());
+    }
+
+    /** The payload {@link #publish(String, DeviceCommand, MqttQos)} would send, in the current format. */
+    public byte[] encode(DeviceCommand command) {
+        return binaryCommands
+                ? DeviceCommandCodec.encode(command)
+                : command.toLegacyString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // description chỉ dùng để ghi log
+    private void publishPayload(String topic, byte[] payload, Object description, MqttQos qos,
+                                PublishOptions options) {
+        String message = String.valueOf(description);
+        if (!pool.forTopic(topic).getState().isConnected()) {
+            // Giữ lệnh trong outbox, gửi lại khi kết nối được khôi phục
+            Log.w(TAG, "MQTT not connected, queueing " + message + " for " + topic);
+            outbox.enqueue(topic, payload, qos);
+            return;
+        }
+        if (outbox.getDepth() > 0) {
+            // Outbox còn đang phát lại: xếp sau để lệnh mới không bị lệnh cũ ghi đè
+            outbox.enqueue(topic, payload, qos);
+            outbox.replay();
             return;
         }
 
-        client.publishWith()
-                .topic(topic)
-                .qos(qos)
-                .payload(message.getBytes())
-                .send()
+        sendPublish(topic, payload, qos, options)
                 .whenComplete((publish, throwable) -> {
                     if (throwable != null) {
                         Log.e(TAG, "Publish failed to " + topic + ": " + throwable.getMessage());
+                        if (qos != MqttQos.AT_MOST_ONCE) {
+                            outbox.enqueue(topic, payload, qos);
+                        }
                     } else {
                         Log.d(TAG, "Published: " + message + " to " + topic);
                     }
                 });
     }
 
+    /**
+     * Sends now, bypassing the outbox: the future completes when the broker acknowledges
+     * (QoS 1/2) or the message is written (QoS 0), and fails if the client is not connected.
+     * Retrying is up to the caller.
+     */
+    public CompletableFuture<?> publishAsync(String topic, String message, MqttQos qos, PublishOptions options) {
+        return publishAsync(topic, message.getBytes(StandardCharsets.UTF_8), qos, options);
+    }
+
+    /** {@link #publishAsync(String, String, MqttQos, PublishOptions)} for an already encoded payload. */
+    public CompletableFuture<?> publishAsync(String topic, byte[] payload, MqttQos qos, PublishOptions options) {
+        if (!pool.forTopic(topic).getState().isConnected()) {
+            // Client tự reconnect sẽ giữ tin lại; ở đây muốn báo lỗi ngay cho caller
+            CompletableFuture<?> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("MQTT not connected"));
+            return failed;
+        }
+        return sendPublish(topic, payload, qos, options);
+    }
+
+    private CompletableFuture<?> sendPublish(String topic, byte[] payload, MqttQos qos, PublishOptions options) {
+        return pool.forTopic(topic).publish(topic, payload, qos, options);
+    }
+
+    /** Request/response with correlation data needs an MQTT 5 broker profile. */
+    public boolean supportsRequestResponse() {
+        return pool.primary().getMqttVersion() == 5;
+    }
+
+    /**
+     * Publishes a command the device is expected to answer on our response topic, echoing
+     * the correlation data. The future completes with the reply payload, or fails with a
+     * {@link TimeoutException} if none arrives within {@code timeoutMs}.
+     *
+     * @param expirySeconds how long the broker may hold the command for an offline device
+     */
+    public CompletableFuture<String> request(String topic, String message, MqttQos qos,
+                                             long expirySeconds, long timeoutMs) {
+        return request(topic, message.getBytes(StandardCharsets.UTF_8), message, qos, expirySeconds, timeoutMs);
+    }
+
+    /** {@link #request(String, String, MqttQos, long, long)} for a device command. */
+    public CompletableFuture<String> request(String topic, DeviceCommand command, MqttQos qos,
+                                             long expirySeconds, long timeoutMs) {
+        DeviceCommand stamped = stamp(command);
+        return request(topic, encode(stamped), stamped, qos, expirySeconds, timeoutMs);
+    }
+
+    private CompletableFuture<String> request(String topic, byte[] payload, Object description, MqttQos qos,
+                                              long expirySeconds, long timeoutMs) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        if (!supportsRequestResponse()) {
+            reply.completeExceptionally(new UnsupportedOperationException("Request/response needs MQTT 5"));
+            return reply;
+        }
+        if (responseSubscribed.compareAndSet(false, true)) {
+            subscribe(responseTopic, MqttQos.AT_LEAST_ONCE);
+        }
+
+        long id = correlationSeq.incrementAndGet();
+        pendingRequests.put(id, reply);
+        ScheduledFuture<?> timeout = reconnectScheduler.schedule(() -> {
+            if (pendingRequests.remove(id) != null) {
+                reply.completeExceptionally(new TimeoutException("No reply from " + topic + " in " + timeoutMs + " ms"));
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        reply.whenComplete((ignored, throwable) -> timeout.cancel(false));
+
+        publishPayload(topic, payload, description, qos, new PublishOptions.Builder()
+                .messageExpiry(expirySeconds)
+                .responseTopic(responseTopic)
+                .correlationData(ByteBuffer.allocate(Long.BYTES).putLong(id).array())
+                .build());
+        return reply;
+    }
+
+    private boolean completeRequest(byte[] correlationData, String message) {
+        if (correlationData == null || correlationData.length != Long.BYTES) {
+            return false;
+        }
+        CompletableFuture<String> reply = pendingRequests.remove(ByteBuffer.wrap(correlationData).getLong());
+        return reply != null && reply.complete(message);
+    }
+
+    public String getResponseTopic() {
+        return responseTopic;
+    }
+
+    public OutboundQueue getOutbox() {
+        return outbox;
+    }
+
     public void disconnect() {
-        if (isConnected()) {
-            client.disconnect()
+        ClientPool current = pool;
+        if (current.primary().getState() != MqttClientState.DISCONNECTED) {
+            current.disconnectAll()
                     .whenComplete((voidResult, throwable) -> {
                         if (throwable != null) {
                             Log.e(TAG, "Disconnect failed: " + throwable.getMessage());
@@ -157,11 +786,17 @@ public class MQTTService {
     }
 
     public boolean isConnected() {
-        return client.getState().isConnected();
+        return pool.primary().getState().isConnected();
     }
 
     private void subscribeToDefaultTopics() {
         subscribe(NOTIFICATION_TOPIC, MqttQos.AT_LEAST_ONCE);
         subscribe(COMMAND_TOPIC, MqttQos.AT_LEAST_ONCE);
+        // Lệnh nhóm từ app khác cũng cập nhật trạng thái cục bộ
+        subscribe(DeviceGroup.TOPIC_FILTER, MqttQos.AT_LEAST_ONCE);
+        // Last Will giữ lại trên broker nên vừa subscribe là biết thiết bị nào đang offline
+        subscribe(PresenceTracker.STATUS_TOPIC_FILTER, MqttQos.AT_LEAST_ONCE);
+        // Mất một heartbeat không sao, bản kế tiếp sẽ đến
+        subscribe(PresenceTracker.HEARTBEAT_TOPIC_FILTER, MqttQos.AT_MOST_ONCE);
     }
 }
\ No newline at end of file
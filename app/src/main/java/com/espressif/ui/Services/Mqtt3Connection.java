@@ -0,0 +1,87 @@
+package com.espressif.ui.Services;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.MqttGlobalPublishFilter;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.datatypes.MqttTopicFilter;
+import com.hivemq.client.mqtt.mqtt3.Mqtt3AsyncClient;
+import com.hivemq.client.mqtt.mqtt3.message.subscribe.Mqtt3Subscribe;
+import com.hivemq.client.mqtt.mqtt3.message.subscribe.Mqtt3Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/** MQTT 3.1.1 connection; {@link PublishOptions} other than retain are not representable and ignored. */
+class Mqtt3Connection implements MqttConnection {
+
+    private final Mqtt3AsyncClient client;
+    private final int keepAliveSeconds;
+
+    Mqtt3Connection(Mqtt3AsyncClient client, int keepAliveSeconds) {
+        this.client = client;
+        this.keepAliveSeconds = keepAliveSeconds;
+    }
+
+    @Override
+    public int getMqttVersion() {
+        return 3;
+    }
+
+    @Override
+    public MqttClientState getState() {
+        return client.getState();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> connect(boolean cleanSession) {
+        return client.connectWith()
+                .cleanSession(cleanSession)
+                .keepAlive(keepAliveSeconds)
+                .send()
+                .thenApply(connAck -> connAck.isSessionPresent());
+    }
+
+    @Override
+    public CompletableFuture<?> subscribe(Map<String, MqttQos> filters) {
+        List<Mqtt3Subscription> batch = new ArrayList<>(filters.size());
+        for (Map.Entry<String, MqttQos> filter : filters.entrySet()) {
+            batch.add(Mqtt3Subscription.builder()
+                    .topicFilter(filter.getKey())
+                    .qos(filter.getValue())
+                    .build());
+        }
+        return client.subscribe(Mqtt3Subscribe.builder().addSubscriptions(batch).build());
+    }
+
+    @Override
+    public CompletableFuture<?> unsubscribe(List<String> filters) {
+        List<MqttTopicFilter> batch = new ArrayList<>(filters.size());
+        for (String filter : filters) {
+            batch.add(MqttTopicFilter.of(filter));
+        }
+        return client.unsubscribeWith().addTopicFilters(batch).send();
+    }
+
+    @Override
+    public CompletableFuture<?> publish(String topic, byte[] payload, MqttQos qos, PublishOptions options) {
+        return client.publishWith()
+                .topic(topic)
+                .qos(qos)
+                .payload(payload)
+                .retain(options.isRetain())
+                .send();
+    }
+
+    @Override
+    public void setInboundHandler(InboundHandler handler) {
+        client.publishes(MqttGlobalPublishFilter.ALL, publish ->
+                handler.onPublish(publish.getTopic().toString(), publish.getPayloadAsBytes(), null));
+    }
+
+    @Override
+    public CompletableFuture<Void> disconnect() {
+        return client.disconnect();
+    }
+}
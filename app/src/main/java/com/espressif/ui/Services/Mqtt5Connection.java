@@ -0,0 +1,128 @@
+package com.espressif.ui.Services;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.MqttGlobalPublishFilter;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.datatypes.MqttTopicFilter;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperties;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserPropertiesBuilder;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishBuilder;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscribe;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * MQTT 5 connection. Repeated topics are replaced by topic aliases (the client maps
+ * them automatically up to {@link BrokerProfile#getTopicAliasMaximum()} per connection)
+ * and {@link PublishOptions} are sent as publish properties.
+ */
+class Mqtt5Connection implements MqttConnection {
+
+    // Phiên persistent của MQTT 5 hết hạn ngay khi ngắt kết nối nếu không đặt thời gian này
+    private static final long SESSION_EXPIRY_SECONDS = 24 * 60 * 60;
+
+    private final Mqtt5AsyncClient client;
+    private final int keepAliveSeconds;
+    private final int topicAliasMaximum;
+
+    Mqtt5Connection(Mqtt5AsyncClient client, int keepAliveSeconds, int topicAliasMaximum) {
+        this.client = client;
+        this.keepAliveSeconds = keepAliveSeconds;
+        this.topicAliasMaximum = topicAliasMaximum;
+    }
+
+    @Override
+    public int getMqttVersion() {
+        return 5;
+    }
+
+    @Override
+    public MqttClientState getState() {
+        return client.getState();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> connect(boolean cleanSession) {
+        return client.connectWith()
+                .cleanStart(cleanSession)
+                .sessionExpiryInterval(cleanSession ? 0 : SESSION_EXPIRY_SECONDS)
+                .keepAlive(keepAliveSeconds)
+                .restrictions()
+                    .sendTopicAliasMaximum(topicAliasMaximum)
+                    .applyRestrictions()
+                .send()
+                .thenApply(connAck -> connAck.isSessionPresent());
+    }
+
+    @Override
+    public CompletableFuture<?> subscribe(Map<String, MqttQos> filters) {
+        List<Mqtt5Subscription> batch = new ArrayList<>(filters.size());
+        for (Map.Entry<String, MqttQos> filter : filters.entrySet()) {
+            batch.add(Mqtt5Subscription.builder()
+                    .topicFilter(filter.getKey())
+                    .qos(filter.getValue())
+                    .build());
+        }
+        return client.subscribe(Mqtt5Subscribe.builder().addSubscriptions(batch).build());
+    }
+
+    @Override
+    public CompletableFuture<?> unsubscribe(List<String> filters) {
+        List<MqttTopicFilter> batch = new ArrayList<>(filters.size());
+        for (String filter : filters) {
+            batch.add(MqttTopicFilter.of(filter));
+        }
+        return client.unsubscribeWith().addTopicFilters(batch).send();
+    }
+
+    @Override
+    public CompletableFuture<?> publish(String topic, byte[] payload, MqttQos qos, PublishOptions options) {
+        Mqtt5PublishBuilder.Complete publish = Mqtt5Publish.builder()
+                .topic(topic)
+                .qos(qos)
+                .payload(payload)
+                .retain(options.isRetain());
+        if (options.getMessageExpirySeconds() != PublishOptions.NO_EXPIRY) {
+            publish.messageExpiryInterval(options.getMessageExpirySeconds());
+        }
+        if (options.getResponseTopic() != null) {
+            publish.responseTopic(options.getResponseTopic());
+        }
+        if (options.getCorrelationData() != null) {
+            publish.correlationData(options.getCorrelationData());
+        }
+        if (!options.getUserProperties().isEmpty()) {
+            Mqtt5UserPropertiesBuilder properties = Mqtt5UserProperties.builder();
+            for (Map.Entry<String, String> property : options.getUserProperties().entrySet()) {
+                properties.add(property.getKey(), property.getValue());
+            }
+            publish.userProperties(properties.build());
+        }
+        return client.publish(publish.build());
+    }
+
+    @Override
+    public void setInboundHandler(InboundHandler handler) {
+        client.publishes(MqttGlobalPublishFilter.ALL, publish -> {
+            byte[] correlationData = null;
+            if (publish.getCorrelationData().isPresent()) {
+                ByteBuffer buffer = publish.getCorrelationData().get();
+                correlationData = new byte[buffer.remaining()];
+                buffer.get(correlationData);
+            }
+            handler.onPublish(publish.getTopic().toString(), publish.getPayloadAsBytes(), correlationData);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> disconnect() {
+        return client.disconnect();
+    }
+}
@@ -0,0 +1,39 @@
+package com.espressif.ui.Services;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One client connection of a {@link ClientPool}, independent of the MQTT protocol
+ * version spoken on the wire.
+ */
+public interface MqttConnection {
+
+    interface InboundHandler {
+        /** @param correlationData MQTT 5 correlation data of the message, null if absent */
+        void onPublish(String topic, byte[] payload, byte[] correlationData);
+    }
+
+    /** 3 or 5. */
+    int getMqttVersion();
+
+    MqttClientState getState();
+
+    /** Completes with the session-present flag of the CONNACK. */
+    CompletableFuture<Boolean> connect(boolean cleanSession);
+
+    CompletableFuture<?> subscribe(Map<String, MqttQos> filters);
+
+    CompletableFuture<?> unsubscribe(List<String> filters);
+
+    CompletableFuture<?> publish(String topic, byte[] payload, MqttQos qos, PublishOptions options);
+
+    /** Receives every incoming publish, whatever subscription it matched. */
+    void setInboundHandler(InboundHandler handler);
+
+    CompletableFuture<Void> disconnect();
+}
@@ -0,0 +1,296 @@
+package com.espressif.ui.Services;
+
+import android.util.Log;
+
+import com.espressif.ui.Data.OutboxDatabaseHelper;
+import com.espressif.ui.models.DeviceCommand;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds commands published while MQTT is offline and replays them, oldest first,
+ * once the connection is back. Replay is throttled to {@link #REPLAY_BATCH_SIZE}
+ * messages per {@link #REPLAY_INTERVAL_MS} so a long outage does not flood the broker.
+ * A batch with a failed publish is retried with backoff, and a command that fails
+ * {@link #MAX_ATTEMPTS} times while connected is dropped so it cannot hold up the rest.
+ */
+public class OutboundQueue {
+
+    private static final String TAG = "OutboundQueue";
+    private static final int REPLAY_BATCH_SIZE = 20;
+    private static final long REPLAY_INTERVAL_MS = 100;
+    private static final long RETRY_BASE_DELAY_MS = 500;
+    private static final long RETRY_MAX_DELAY_MS = 30_000;
+    static final int MAX_ATTEMPTS = 5;
+
+    public interface Publisher {
+        boolean isConnected();
+
+        CompletableFuture<?> publish(String topic, byte[] payload, MqttQos qos);
+    }
+
+    /** Where queued commands live; {@link OutboxDatabaseHelper} in the app. */
+    interface Store {
+        /** @return true if an older command with the same key was replaced */
+        boolean enqueue(String coalesceKey, String topic, byte[] payload, int qos, long enqueuedAt);
+
+        /** Oldest entries first. */
+        List<OutboxDatabaseHelper.Entry> peek(int limit);
+
+        /** @return true if the entry was still there */
+        boolean remove(long id);
+
+        int removeByKey(String coalesceKey);
+
+        int count();
+    }
+
+    private final Store store;
+    private final Publisher publisher;
+    // Mọi thao tác với outbox.db chạy tuần tự trên một luồng
+    private final ScheduledExecutorService executor;
+    private final ReconnectBackoff retryBackoff;
+    // Các trường dưới đây chỉ truy cập trên executor
+    private boolean replaying;
+    private long replayStartedAt;
+    private int retryAttempt;
+    private final Map<Long, Integer> failedAttempts = new HashMap<>();
+
+    private final AtomicInteger depth = new AtomicInteger(-1);
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long lastReplayDurationMs = -1;
+    private volatile long maxDeliveryDelayMs;
+
+    public OutboundQueue(OutboxDatabaseHelper helper, Publisher publisher) {
+        this(new Store() {
+            @Override
+            public boolean enqueue(String coalesceKey, String topic, byte[] payload, int qos, long enqueuedAt) {
+                return helper.enqueue(coalesceKey, topic, payload, qos, enqueuedAt);
+            }
+
+            @Override
+            public List<OutboxDatabaseHelper.Entry> peek(int limit) {
+                return helper.peek(limit);
+            }
+
+            @Override
+            public boolean remove(long id) {
+                return helper.remove(id);
+            }
+
+            @Override
+            public int removeByKey(String coalesceKey) {
+                return helper.removeByKey(coalesceKey);
+            }
+
+            @Override
+            public int count() {
+                return helper.count();
+            }
+        }, publisher, Executors.newSingleThreadScheduledExecutor(),
+                new ReconnectBackoff(RETRY_BASE_DELAY_MS, RETRY_MAX_DELAY_MS, RETRY_BASE_DELAY_MS));
+    }
+
+    OutboundQueue(Store store, Publisher publisher, ScheduledExecutorService executor, ReconnectBackoff retryBackoff) {
+        this.store = store;
+        this.publisher = publisher;
+        this.executor = executor;
+        this.retryBackoff = retryBackoff;
+        executor.execute(() -> depth.set(store.count()));
+    }
+
+    public void enqueue(String topic, byte[] payload, MqttQos qos) {
+        long now = System.currentTimeMillis();
+        executor.execute(() -> {
+            try {
+                if (store.enqueue(coalesceKey(topic, payload), topic, payload, qos.getCode(), now)) {
+                    coalesced.incrementAndGet();
+                } else {
+                    depth.incrementAndGet();
+                }
+                enqueued.incrementAndGet();
+                Log.d(TAG, "Queued offline command for " + topic + ", depth: " + depth.get());
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to queue command for " + topic + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Drops the queued state command for {@code topic}, if any, so a command the UI has
+     * already rolled back is not replayed on reconnect.
+     */
+    public void discardState(String topic) {
+        executor.execute(() -> {
+            try {
+                if (store.removeByKey(stateKey(topic)) > 0) {
+                    depth.decrementAndGet();
+                    Log.d(TAG, "Discarded queued state command for " + topic);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to discard queued command for " + topic + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /** Starts replaying queued commands; safe to call on every connect. */
+    public void replay() {
+        executor.execute(() -> {
+            if (replaying) {
+                return;
+            }
+            replaying = true;
+            replayStartedAt = System.nanoTime();
+            replayNextBatch();
+        });
+    }
+
+    private void replayNextBatch() {
+        if (!publisher.isConnected()) {
+            Log.w(TAG, "Connection lost during replay, " + depth.get() + " commands left");
+            replaying = false;
+            return;
+        }
+
+        List<OutboxDatabaseHelper.Entry> batch = store.peek(REPLAY_BATCH_SIZE);
+        if (batch.isEmpty()) {
+            replaying = false;
+            lastReplayDurationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - replayStartedAt);
+            Log.d(TAG, "Outbox drained in " + lastReplayDurationMs + " ms");
+            return;
+        }
+
+        AtomicBoolean failed = new AtomicBoolean();
+        CompletableFuture<?>[] acks = new CompletableFuture<?>[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            OutboxDatabaseHelper.Entry entry = batch.get(i);
+            acks[i] = publisher.publish(entry.topic, entry.payload, MqttQos.fromCode(entry.qos))
+                    .handleAsync((ack, throwable) -> {
+                        if (throwable == null) {
+                            onReplayed(entry);
+                        } else {
+                            failed.set(true);
+                            onReplayFailed(entry, throwable);
+                        }
+                        return null;
+                    }, executor);
+        }
+        CompletableFuture.allOf(acks).whenComplete((ignored, throwable) -> executor.execute(() -> {
+            long delayMs = REPLAY_INTERVAL_MS;
+            if (failed.get()) {
+                delayMs = retryBackoff.nextDelayMs(retryAttempt++);
+                Log.w(TAG, "Replay batch had failures, retrying in " + delayMs + " ms");
+            } else {
+                retryAttempt = 0;
+            }
+            executor.schedule(this::replayNextBatch, delayMs, TimeUnit.MILLISECONDS);
+        }));
+    }
+
+    private void onReplayFailed(OutboxDatabaseHelper.Entry entry, Throwable throwable) {
+        if (!publisher.isConnected()) {
+            // Mất kết nối không phải lỗi của lệnh; replay tiếp khi kết nối lại
+            return;
+        }
+        int attempts = failedAttempts.merge(entry.id, 1, Integer::sum);
+        if (attempts < MAX_ATTEMPTS) {
+            Log.w(TAG, "Replay of command for " + entry.topic + " failed (attempt " + attempts + "): "
+                    + throwable.getMessage());
+            return;
+        }
+        failedAttempts.remove(entry.id);
+        if (store.remove(entry.id)) {
+            depth.decrementAndGet();
+        }
+        dropped.incrementAndGet();
+        Log.e(TAG, "Dropped command for " + entry.topic + " after " + attempts + " failed attempts: "
+                + throwable.getMessage());
+    }
+
+    private void onReplayed(OutboxDatabaseHelper.Entry entry) {
+        failedAttempts.remove(entry.id);
+        if (store.remove(entry.id)) {
+            depth.decrementAndGet();
+        }
+        replayed.incrementAndGet();
+        long delayMs = System.currentTimeMillis() - entry.enqueuedAt;
+        if (delayMs > maxDeliveryDelayMs) {
+            maxDeliveryDelayMs = delayMs;
+        }
+    }
+
+    // Chỉ trạng thái cuối cùng của mỗi thiết bị là quan trọng; các lệnh khác giữ nguyên
+    static String coalesceKey(String topic, byte[] payload) {
+        DeviceCommand command;
+        if (DeviceCommandCodec.isBinary(payload)) {
+            try {
+                command = DeviceCommandCodec.decode(payload);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        } else {
+            command = DeviceCommand.parseLegacy(new String(payload, StandardCharsets.UTF_8));
+        }
+        if (command == null) {
+            return null;
+        }
+        switch (command.getType()) {
+            case SET_STATE:
+                return stateKey(topic);
+            case RENAME:
+                return topic + "#name";
+            default:
+                return null;
+        }
+    }
+
+    static String stateKey(String topic) {
+        return topic + "#state";
+    }
+
+    /** Number of queued commands, -1 until the outbox has been opened. */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getReplayedCount() {
+        return replayed.get();
+    }
+
+    /** Commands dropped after failing {@link #MAX_ATTEMPTS} times. */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /** Duration of the last replay that drained the outbox, -1 if none yet. */
+    public long getLastReplayDurationMs() {
+        return lastReplayDurationMs;
+    }
+
+    /** Longest time a command waited in the outbox before the broker acknowledged it. */
+    public long getMaxDeliveryDelayMs() {
+        return maxDeliveryDelayMs;
+    }
+}
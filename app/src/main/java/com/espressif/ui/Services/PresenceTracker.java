@@ -0,0 +1,249 @@
+package com.espressif.ui.Services;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks whether devices are online from two kinds of messages:
+ * <ul>
+ *     <li>{@code /devices/<id>/status}: "online" when the device connects, and "offline" as its
+ *     retained Last Will, which the broker publishes when the device drops off without
+ *     disconnecting;</li>
+ *     <li>{@code /devices/<id>/heartbeat}: sent periodically while the device runs. A device
+ *     that has sent a heartbeat is marked unreachable when none arrives for
+ *     {@code timeoutMs}.</li>
+ * </ul>
+ * Devices that never sent a heartbeat (older firmware) only change on status messages.
+ *
+ * <p>Heartbeat deadlines live in one {@link TimerWheel} ticked by a single scheduled task,
+ * so a heartbeat costs a map write and expiring a device is O(1). Last-seen times are
+ * collected in memory and handed to the host in one batch every {@link #PERSIST_INTERVAL_MS},
+ * and when the app goes to the background.
+ */
+public class PresenceTracker implements ComponentCallbacks2 {
+
+    private static final String TAG = "PresenceTracker";
+    public static final String STATUS_TOPIC_FILTER = "/devices/+/status";
+    public static final String HEARTBEAT_TOPIC_FILTER = "/devices/+/heartbeat";
+    public static final String STATUS_ONLINE = "online";
+    public static final String STATUS_OFFLINE = "offline";
+    public static final long DEFAULT_TIMEOUT_MS = 90_000; // 3 lần chu kỳ heartbeat 30 s của firmware
+    static final long TICK_MS = 1000;
+    static final long PERSIST_INTERVAL_MS = 60_000;
+    private static final int SLOTS = 128;
+
+    /** What the tracker acts on; {@link MQTTService} and {@code DeviceStore} in the app. */
+    interface Host {
+        /** Sets the reachable flag of a known device; unknown ids are ignored. */
+        void setReachable(String deviceId, boolean reachable);
+
+        /** Persists last-seen times (epoch ms) in one batch; must not block. */
+        void saveLastSeen(Map<String, Long> lastSeen);
+    }
+
+    private final Host host;
+    private final LongSupplier clock;
+    private final long timeoutMs;
+    private final TimerWheel wheel;
+    private final Map<String, Long> lastSeen = new ConcurrentHashMap<>();
+    // Chỉ truy cập khi giữ khóa this
+    private Map<String, Long> unsaved = new HashMap<>();
+    private long lastPersistMs;
+
+    private final AtomicLong heartbeats = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong batchesSaved = new AtomicLong();
+
+    PresenceTracker(Host host, LongSupplier clock, long timeoutMs) {
+        this.host = host;
+        this.clock = clock;
+        this.timeoutMs = timeoutMs;
+        long now = clock.getAsLong();
+        this.wheel = new TimerWheel(TICK_MS, SLOTS, now);
+        this.lastPersistMs = now;
+    }
+
+    /** Starts ticking the wheel on {@code scheduler}. */
+    void start(ScheduledExecutorService scheduler) {
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                tick();
+            } catch (Exception e) {
+                Log.e(TAG, "Presence tick failed: " + e.getMessage());
+            }
+        }, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void registerRoutes(TopicRouter router) {
+        router.addHandler(STATUS_TOPIC_FILTER, (topic, message) -> onStatus(deviceIdOf(topic), message));
+        router.addHandler(HEARTBEAT_TOPIC_FILTER, (topic, message) -> onHeartbeat(deviceIdOf(topic)));
+    }
+
+    /**
+     * Seeds last-seen times read from the database, so devices that went quiet while the app
+     * was closed are marked unreachable on the first tick unless they report in.
+     */
+    public synchronized void load(Map<String, Long> saved) {
+        for (Map.Entry<String, Long> entry : saved.entrySet()) {
+            if (lastSeen.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                wheel.touch(entry.getKey(), entry.getValue() + timeoutMs);
+            }
+        }
+        Log.d(TAG, "Loaded last-seen times of " + saved.size() + " devices");
+    }
+
+    void onHeartbeat(String deviceId) {
+        if (deviceId == null) {
+            return;
+        }
+        heartbeats.incrementAndGet();
+        boolean cameBack;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            cameBack = !wheel.contains(deviceId);
+            wheel.touch(deviceId, now + timeoutMs);
+            lastSeen.put(deviceId, now);
+            unsaved.put(deviceId, now);
+        }
+        if (cameBack) {
+            // Lần đầu thấy heartbeat, hoặc thiết bị đã hết hạn rồi quay lại
+            host.setReachable(deviceId, true);
+        }
+    }
+
+    void onStatus(String deviceId, String message) {
+        if (deviceId == null || message == null) {
+            return;
+        }
+        String status = message.trim();
+        if (STATUS_ONLINE.equalsIgnoreCase(status)) {
+            synchronized (this) {
+                // Chỉ gia hạn thiết bị đã theo dõi heartbeat; tin "online" giữ lại trên broker có thể đã cũ
+                if (wheel.contains(deviceId)) {
+                    long now = clock.getAsLong();
+                    wheel.touch(deviceId, now + timeoutMs);
+                    lastSeen.put(deviceId, now);
+                    unsaved.put(deviceId, now);
+                }
+            }
+            host.setReachable(deviceId, true);
+        } else if (STATUS_OFFLINE.equalsIgnoreCase(status)) {
+            synchronized (this) {
+                wheel.remove(deviceId);
+            }
+            Log.d(TAG, "Device " + deviceId + " went offline (last will)");
+            host.setReachable(deviceId, false);
+        } else {
+            Log.w(TAG, "Unknown status: " + message + " for device: " + deviceId);
+        }
+    }
+
+    /** Expires devices whose deadline passed and saves last-seen times when the interval is up. */
+    void tick() {
+        List<String> stale;
+        Map<String, Long> batch = null;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            stale = wheel.advance(now);
+            if (now - lastPersistMs >= PERSIST_INTERVAL_MS) {
+                lastPersistMs = now;
+                if (!unsaved.isEmpty()) {
+                    batch = unsaved;
+                    unsaved = new HashMap<>();
+                }
+            }
+        }
+        for (String deviceId : stale) {
+            synchronized (this) {
+                // Heartbeat đến ngay sau khi hết hạn: thiết bị đã được đánh dấu lại là online
+                if (wheel.contains(deviceId)) {
+                    continue;
+                }
+            }
+            expired.incrementAndGet();
+            Log.w(TAG, "No heartbeat from " + deviceId + " for " + timeoutMs + " ms, marking unreachable");
+            host.setReachable(deviceId, false);
+        }
+        if (batch != null) {
+            batchesSaved.incrementAndGet();
+            host.saveLastSeen(batch);
+        }
+    }
+
+    /** Saves pending last-seen times now, e.g. when the app goes to the background. */
+    public void flush() {
+        Map<String, Long> batch;
+        synchronized (this) {
+            if (unsaved.isEmpty()) {
+                return;
+            }
+            batch = unsaved;
+            unsaved = new HashMap<>();
+            lastPersistMs = clock.getAsLong();
+        }
+        batchesSaved.incrementAndGet();
+        host.saveLastSeen(batch);
+    }
+
+    /** Stops tracking a deleted device. */
+    public synchronized void forget(String deviceId) {
+        wheel.remove(deviceId);
+        lastSeen.remove(deviceId);
+        unsaved.remove(deviceId);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        flush();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Không liên quan
+    }
+
+    // "/devices/<id>/status" -> "<id>"
+    static String deviceIdOf(String topic) {
+        String[] levels = topic.split("/");
+        return levels.length == 4 && !levels[2].isEmpty() ? levels[2] : null;
+    }
+
+    /** Epoch ms of the last heartbeat, or 0 if the device never sent one. */
+    public long getLastSeenMs(String deviceId) {
+        Long seen = lastSeen.get(deviceId);
+        return seen != null ? seen : 0;
+    }
+
+    public synchronized int getTrackedCount() {
+        return wheel.size();
+    }
+
+    public long getHeartbeatCount() {
+        return heartbeats.get();
+    }
+
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    public long getBatchesSaved() {
+        return batchesSaved.get();
+    }
+}
@@ -0,0 +1,94 @@
+package com.espressif.ui.Services;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MQTT 5 publish properties. On an MQTT 3.1.1 connection they are silently dropped,
+ * so callers can always pass them. The retain flag exists in both versions and is always sent.
+ */
+public final class PublishOptions {
+
+    public static final long NO_EXPIRY = -1;
+
+    public static final PublishOptions NONE = new Builder().build();
+
+    private final long messageExpirySeconds;
+    private final String responseTopic;
+    private final byte[] correlationData;
+    private final Map<String, String> userProperties;
+    private final boolean retain;
+
+    private PublishOptions(Builder builder) {
+        this.messageExpirySeconds = builder.messageExpirySeconds;
+        this.responseTopic = builder.responseTopic;
+        this.correlationData = builder.correlationData;
+        this.userProperties = builder.userProperties.isEmpty()
+                ? Collections.emptyMap()
+                : Collections.unmodifiableMap(new LinkedHashMap<>(builder.userProperties));
+        this.retain = builder.retain;
+    }
+
+    /** Seconds the broker may keep the message for offline subscribers, {@link #NO_EXPIRY} if unlimited. */
+    public long getMessageExpirySeconds() {
+        return messageExpirySeconds;
+    }
+
+    public String getResponseTopic() {
+        return responseTopic;
+    }
+
+    public byte[] getCorrelationData() {
+        return correlationData;
+    }
+
+    public Map<String, String> getUserProperties() {
+        return userProperties;
+    }
+
+    /** Whether the broker keeps the message and hands it to every later subscriber. */
+    public boolean isRetain() {
+        return retain;
+    }
+
+    public static final class Builder {
+        private long messageExpirySeconds = NO_EXPIRY;
+        private String responseTopic;
+        private byte[] correlationData;
+        private final Map<String, String> userProperties = new LinkedHashMap<>();
+        private boolean retain;
+
+        public Builder messageExpiry(long seconds) {
+            if (seconds < 0 && seconds != NO_EXPIRY) {
+                throw new IllegalArgumentException("Invalid message expiry: " + seconds);
+            }
+            this.messageExpirySeconds = seconds;
+            return this;
+        }
+
+        public Builder responseTopic(String responseTopic) {
+            this.responseTopic = responseTopic;
+            return this;
+        }
+
+        public Builder correlationData(byte[] correlationData) {
+            this.correlationData = correlationData;
+            return this;
+        }
+
+        public Builder userProperty(String name, String value) {
+            userProperties.put(name, value);
+            return this;
+        }
+
+        public Builder retain(boolean retain) {
+            this.retain = retain;
+            return this;
+        }
+
+        public PublishOptions build() {
+            return new PublishOptions(this);
+        }
+    }
+}
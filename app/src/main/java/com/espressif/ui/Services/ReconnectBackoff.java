@@ -0,0 +1,35 @@
+package com.espressif.ui.Services;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter: the delay for attempt n is a random value in
+ * [minDelay, min(maxDelay, baseDelay * 2^n)]. Spreading retries over the whole window
+ * keeps every phone in a building from reconnecting to a flapping broker at once.
+ */
+public class ReconnectBackoff {
+
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long minDelayMs;
+
+    public ReconnectBackoff(long baseDelayMs, long maxDelayMs, long minDelayMs) {
+        if (baseDelayMs <= 0 || maxDelayMs < baseDelayMs || minDelayMs < 0 || minDelayMs > maxDelayMs) {
+            throw new IllegalArgumentException("Invalid backoff: base=" + baseDelayMs
+                    + ", max=" + maxDelayMs + ", min=" + minDelayMs);
+        }
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.minDelayMs = minDelayMs;
+    }
+
+    public long nextDelayMs(int attempt) {
+        // 2^30 * base đã vượt mọi maxDelay hợp lý, tránh tràn số khi dịch bit
+        int shift = Math.min(Math.max(attempt, 0), 30);
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << shift);
+        if (ceiling <= minDelayMs) {
+            return minDelayMs;
+        }
+        return ThreadLocalRandom.current().nextLong(minDelayMs, ceiling + 1);
+    }
+}
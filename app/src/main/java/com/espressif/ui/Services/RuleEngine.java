@@ -0,0 +1,237 @@
+package com.espressif.ui.Services;
+
+import android.util.Log;
+
+import com.espressif.ui.Data.RuleStore;
+import com.espressif.ui.models.Rule;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@link Rule}s against the inbound MQTT stream. Message rules are indexed by their
+ * trigger topic filter: each distinct filter gets one handler on the service's
+ * {@link TopicRouter}, so a message only checks the rules registered for filters it
+ * matches. Time rules are scheduled one by one on a single scheduler thread.
+ *
+ * <p>Matching happens on the router thread and only compares strings; the scenes of
+ * matching rules are applied on the rule thread, so rules never hold up message delivery.
+ * A rule fires at most once per {@link #MIN_INTERVAL_MS}, which keeps two rules that
+ * trigger each other from looping.
+ */
+public class RuleEngine implements RuleStore.Listener {
+
+    private static final String TAG = "RuleEngine";
+    static final long MIN_INTERVAL_MS = 1000;
+
+    /** What the engine acts on; {@link MQTTService} and {@link SceneEngine} in the app. */
+    interface Host {
+        void subscribe(String topicFilter);
+
+        void unsubscribe(String topicFilter);
+
+        /** Called on the rule thread; must not block. */
+        void applyScene(Rule rule, String topic);
+    }
+
+    // Các luật có chung một topic filter, với một handler duy nhất trên router
+    private final class FilterEntry implements TopicRouter.MessageHandler {
+        final String filter;
+        final Map<String, Rule> rules = new ConcurrentHashMap<>();
+
+        FilterEntry(String filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public void onMessage(String topic, String message) {
+            evaluate(this, topic, message);
+        }
+    }
+
+    private final TopicRouter router;
+    private final Host host;
+    private final Executor ruleExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final Clock clock;
+    private final Map<String, FilterEntry> byFilter = new HashMap<>();
+    private final Map<String, Rule> indexed = new HashMap<>();
+    private final Map<String, ScheduledFuture<?>> timers = new HashMap<>();
+    private final Map<String, Long> lastFiredMs = new ConcurrentHashMap<>();
+
+    private final AtomicLong messagesEvaluated = new AtomicLong();
+    private final AtomicLong rulesChecked = new AtomicLong();
+    private final AtomicLong rulesFired = new AtomicLong();
+    private final AtomicLong rulesSuppressed = new AtomicLong();
+
+    RuleEngine(TopicRouter router, Host host, ScheduledExecutorService scheduler, Clock clock) {
+        this(router, host, scheduler, scheduler, clock);
+    }
+
+    RuleEngine(TopicRouter router, Host host, Executor ruleExecutor, ScheduledExecutorService scheduler,
+               Clock clock) {
+        this.router = router;
+        this.host = host;
+        this.ruleExecutor = ruleExecutor;
+        this.scheduler = scheduler;
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized void onRuleChanged(Rule previous, Rule current) {
+        String ruleId = current != null ? current.getRuleId() : previous.getRuleId();
+        Rule old = indexed.remove(ruleId);
+        if (old != null) {
+            unindex(old);
+        }
+        if (current != null && current.isEnabled()) {
+            indexed.put(ruleId, current);
+            index(current);
+        }
+    }
+
+    private void index(Rule rule) {
+        if (rule.getTrigger() == Rule.Trigger.TIME) {
+            schedule(rule);
+            return;
+        }
+        FilterEntry entry = byFilter.get(rule.getTopicFilter());
+        if (entry == null) {
+            entry = new FilterEntry(rule.getTopicFilter());
+            byFilter.put(entry.filter, entry);
+            router.addHandler(entry.filter, entry);
+            host.subscribe(entry.filter);
+        }
+        entry.rules.put(rule.getRuleId(), rule);
+    }
+
+    private void unindex(Rule rule) {
+        if (rule.getTrigger() == Rule.Trigger.TIME) {
+            ScheduledFuture<?> timer = timers.remove(rule.getRuleId());
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            return;
+        }
+        FilterEntry entry = byFilter.get(rule.getTopicFilter());
+        if (entry == null) {
+            return;
+        }
+        entry.rules.remove(rule.getRuleId());
+        if (entry.rules.isEmpty()) {
+            byFilter.remove(entry.filter);
+            router.removeHandler(entry.filter, entry);
+            host.unsubscribe(entry.filter);
+        }
+    }
+
+    // Chạy trên luồng router: chỉ so chuỗi, phần áp dụng scene chuyển sang luồng luật
+    private void evaluate(FilterEntry entry, String topic, String message) {
+        messagesEvaluated.incrementAndGet();
+        int minute = -1;
+        for (Rule rule : entry.rules.values()) {
+            rulesChecked.incrementAndGet();
+            if (!rule.matchesPayload(message)) {
+                continue;
+            }
+            if (rule.hasWindow()) {
+                if (minute == -1) {
+                    minute = minuteOfDay();
+                }
+                if (!rule.isActiveAt(minute)) {
+                    continue;
+                }
+            }
+            fire(rule, topic);
+        }
+    }
+
+    private void fire(Rule rule, String topic) {
+        long now = clock.millis();
+        Long last = lastFiredMs.get(rule.getRuleId());
+        if (last != null && now - last < MIN_INTERVAL_MS) {
+            rulesSuppressed.incrementAndGet();
+            Log.w(TAG, "Rule " + rule.getRuleId() + " fired again within " + MIN_INTERVAL_MS + " ms, skipped");
+            return;
+        }
+        lastFiredMs.put(rule.getRuleId(), now);
+        rulesFired.incrementAndGet();
+        Log.d(TAG, "Firing " + rule + (topic != null ? " on " + topic : ""));
+        ruleExecutor.execute(() -> {
+            try {
+                host.applyScene(rule, topic);
+            } catch (Exception e) {
+                Log.e(TAG, "Rule " + rule.getRuleId() + " failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private int minuteOfDay() {
+        LocalTime time = LocalTime.now(clock);
+        return time.getHour() * 60 + time.getMinute();
+    }
+
+    private void schedule(Rule rule) {
+        long delayMs = delayUntil(ZonedDateTime.now(clock), rule.getAtMinute());
+        timers.put(rule.getRuleId(), scheduler.schedule(() -> onTimer(rule), delayMs, TimeUnit.MILLISECONDS));
+    }
+
+    private void onTimer(Rule rule) {
+        synchronized (this) {
+            // Luật đã bị sửa hoặc xóa sau khi hẹn giờ
+            if (indexed.get(rule.getRuleId()) != rule) {
+                return;
+            }
+            schedule(rule);
+        }
+        if (rule.isActiveAt(minuteOfDay())) {
+            fire(rule, null);
+        }
+    }
+
+    /** Milliseconds from {@code now} until the next {@code atMinute} of the day, in now's zone. */
+    static long delayUntil(ZonedDateTime now, int atMinute) {
+        // Theo giờ địa phương để ngày đổi giờ (DST) vẫn chạy đúng giờ trên đồng hồ
+        LocalTime at = LocalTime.of(atMinute / 60, atMinute % 60);
+        ZonedDateTime next = now.with(at);
+        if (!next.isAfter(now)) {
+            next = now.plusDays(1).with(at);
+        }
+        return Duration.between(now, next).toMillis();
+    }
+
+    public synchronized int getIndexedFilterCount() {
+        return byFilter.size();
+    }
+
+    public synchronized int getScheduledCount() {
+        return timers.size();
+    }
+
+    public long getMessagesEvaluated() {
+        return messagesEvaluated.get();
+    }
+
+    /** Rules compared against a message, over all messages; with the index this stays near the number fired. */
+    public long getRulesChecked() {
+        return rulesChecked.get();
+    }
+
+    public long getRulesFired() {
+        return rulesFired.get();
+    }
+
+    public long getRulesSuppressed() {
+        return rulesSuppressed.get();
+    }
+}
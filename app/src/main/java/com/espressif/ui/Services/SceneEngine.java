@@ -0,0 +1,343 @@
+package com.espressif.ui.Services;
+
+import android.util.Log;
+
+import com.espressif.ui.Data.DeviceChange;
+import com.espressif.ui.Data.DeviceGroupStore;
+import com.espressif.ui.Data.DeviceStore;
+import com.espressif.ui.Data.SceneStore;
+import com.espressif.ui.models.DeviceCommand;
+import com.espressif.ui.models.DeviceGroup;
+import com.espressif.ui.models.ESPDevice;
+import com.espressif.ui.models.Scene;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Applies {@link Scene}s. A scene is compiled once into a batch of (topic, payload) pairs
+ * with the payloads already encoded, and the batch is reused until the scene, the device
+ * topics, the group memberships or the command format change.
+ *
+ * <p>Applying updates local state for every targeted device in one transaction, then
+ * publishes the whole batch at QoS 1 back to back: all publishes are in flight at once and
+ * their acks are collected as they arrive. The returned future reports which devices'
+ * commands were acknowledged by the broker and which had to wait in the outbox.
+ */
+public class SceneEngine {
+
+    private static final String TAG = "SceneEngine";
+
+    /** Outcome of one scene apply. */
+    public static final class Result {
+        private final String sceneId;
+        private final List<String> acked;
+        private final List<String> queued;
+        private final long elapsedMs;
+
+        Result(String sceneId, List<String> acked, List<String> queued, long elapsedMs) {
+            this.sceneId = sceneId;
+            this.acked = Collections.unmodifiableList(acked);
+            this.queued = Collections.unmodifiableList(queued);
+            this.elapsedMs = elapsedMs;
+        }
+
+        public String getSceneId() {
+            return sceneId;
+        }
+
+        /** Devices whose commands were all acknowledged by the broker. */
+        public List<String> getAcked() {
+            return acked;
+        }
+
+        /** Devices with a command left in the outbox; it is sent when the connection allows. */
+        public List<String> getQueued() {
+            return queued;
+        }
+
+        public boolean isComplete() {
+            return queued.isEmpty();
+        }
+
+        /** From the call to apply until the last ack (or failure). */
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Scene " + sceneId + ": " + acked.size() + " acked, " + queued.size() + " queued in "
+                    + elapsedMs + " ms";
+        }
+    }
+
+    // Một scene đã biên dịch: message i gửi payloads[i] tới topics[i] và thuộc về devices[i]
+    static final class CompiledScene {
+        final Scene scene;
+        final long topologyVersion;
+        final boolean binary;
+        final String[] topics;
+        final byte[][] payloads;
+        final String[][] devices;
+        // Lệnh cuối cùng cho mỗi thiết bị, để cập nhật trạng thái cục bộ
+        final Map<String, DeviceCommand> localCommands;
+
+        CompiledScene(Scene scene, long topologyVersion, boolean binary, List<String> topics,
+                      List<byte[]> payloads, List<String[]> devices, Map<String, DeviceCommand> localCommands) {
+            this.scene = scene;
+            this.topologyVersion = topologyVersion;
+            this.binary = binary;
+            this.topics = topics.toArray(new String[0]);
+            this.payloads = payloads.toArray(new byte[0][]);
+            this.devices = devices.toArray(new String[0][]);
+            this.localCommands = localCommands;
+        }
+
+        int size() {
+            return topics.length;
+        }
+    }
+
+    private final MQTTService mqttService;
+    private final DeviceStore deviceStore;
+    private final DeviceGroupStore groupStore;
+    private final SceneStore sceneStore;
+    private final Map<String, CompiledScene> compiled = new ConcurrentHashMap<>();
+    // Tăng khi topic của thiết bị hoặc thành viên nhóm thay đổi; bản biên dịch cũ hơn bị bỏ
+    private final AtomicLong topologyVersion = new AtomicLong();
+
+    private final AtomicLong applies = new AtomicLong();
+    private final AtomicLong compiles = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong totalApplyMs = new AtomicLong();
+    private volatile long lastApplyMs;
+    private volatile long maxApplyMs;
+
+    SceneEngine(MQTTService mqttService, DeviceStore deviceStore, DeviceGroupStore groupStore,
+                SceneStore sceneStore) {
+        this.mqttService = mqttService;
+        this.deviceStore = deviceStore;
+        this.groupStore = groupStore;
+        this.sceneStore = sceneStore;
+        deviceStore.addListener(this::onDeviceChanged, Runnable::run);
+        groupStore.addListener(deviceId -> topologyVersion.incrementAndGet());
+        // Biên dịch sẵn mọi scene khi dữ liệu đã nạp xong, lần apply đầu không phải chờ
+        CompletableFuture.allOf(deviceStore.whenLoaded(), groupStore.whenLoaded(), sceneStore.whenLoaded())
+                .thenRun(this::precompileAll);
+    }
+
+    private void onDeviceChanged(DeviceChange change) {
+        if (change.getType() != DeviceChange.Type.UPDATED || change.hasChanged(ESPDevice.FIELD_TOPIC)) {
+            topologyVersion.incrementAndGet();
+        }
+    }
+
+    private void precompileAll() {
+        for (Scene scene : sceneStore.getAll()) {
+            compiledFor(scene);
+        }
+        Log.d(TAG, "Precompiled " + compiled.size() + " scenes");
+    }
+
+    /**
+     * Applies a saved scene.
+     *
+     * @return completes once every publish was acknowledged or queued; fails only if the
+     * scene does not exist
+     */
+    public CompletableFuture<Result> apply(String sceneId) {
+        Scene scene = sceneStore.get(sceneId);
+        if (scene == null) {
+            CompletableFuture<Result> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("Scene not found: " + sceneId));
+            return failed;
+        }
+        return apply(scene);
+    }
+
+    public CompletableFuture<Result> apply(Scene scene) {
+        long start = System.nanoTime();
+        CompiledScene batch = compiledFor(scene);
+        Map<String, DeviceCommand> commands = batch.localCommands;
+        deviceStore.updateAll(commands.keySet(), device -> commands.get(device.getDeviceId()).applyTo(device));
+
+        int size = batch.size();
+        boolean[] queued = new boolean[size];
+        CompletableFuture<?>[] acks = new CompletableFuture<?>[size];
+        OutboundQueue outbox = mqttService.getOutbox();
+        // Outbox còn lệnh cũ thì xếp sau chúng, giống publish() thường
+        boolean viaOutbox = !mqttService.isConnected() || outbox.getDepth() > 0;
+        for (int i = 0; i < size; i++) {
+            if (viaOutbox) {
+                outbox.enqueue(batch.topics[i], batch.payloads[i], MqttQos.AT_LEAST_ONCE);
+                queued[i] = true;
+                acks[i] = CompletableFuture.completedFuture(null);
+                continue;
+            }
+            int index = i;
+            // Gửi liên tiếp không chờ ack; mỗi ack được ghi nhận khi về
+            acks[i] = mqttService.publishAsync(batch.topics[i], batch.payloads[i], MqttQos.AT_LEAST_ONCE,
+                    PublishOptions.NONE).handle((ignored, throwable) -> {
+                if (throwable != null) {
+                    Log.w(TAG, "Scene publish to " + batch.topics[index] + " failed: " + throwable.getMessage());
+                    outbox.enqueue(batch.topics[index], batch.payloads[index], MqttQos.AT_LEAST_ONCE);
+                    queued[index] = true;
+                }
+                return null;
+            });
+        }
+        if (viaOutbox) {
+            outbox.replay();
+        }
+        messagesSent.addAndGet(size);
+        return CompletableFuture.allOf(acks).thenApply(ignored -> {
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Result result = result(batch, queued, elapsedMs);
+            recordApply(elapsedMs);
+            Log.d(TAG, result.toString());
+            return result;
+        });
+    }
+
+    // allOf đã đảm bảo mọi ghi vào queued xảy ra trước khi đọc ở đây
+    private static Result result(CompiledScene batch, boolean[] queued, long elapsedMs) {
+        Set<String> pending = new LinkedHashSet<>();
+        Set<String> all = new LinkedHashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Collections.addAll(all, batch.devices[i]);
+            if (queued[i]) {
+                Collections.addAll(pending, batch.devices[i]);
+            }
+        }
+        List<String> acked = new ArrayList<>();
+        for (String deviceId : all) {
+            if (!pending.contains(deviceId)) {
+                acked.add(deviceId);
+            }
+        }
+        return new Result(batch.scene.getSceneId(), acked, new ArrayList<>(pending), elapsedMs);
+    }
+
+    private void recordApply(long elapsedMs) {
+        applies.incrementAndGet();
+        totalApplyMs.addAndGet(elapsedMs);
+        lastApplyMs = elapsedMs;
+        if (elapsedMs > maxApplyMs) {
+            maxApplyMs = elapsedMs;
+        }
+    }
+
+    private CompiledScene compiledFor(Scene scene) {
+        long topology = topologyVersion.get();
+        boolean binary = mqttService.isBinaryCommandsEnabled();
+        CompiledScene current = compiled.get(scene.getSceneId());
+        if (current != null && current.scene == scene && current.topologyVersion == topology
+                && current.binary == binary) {
+            return current;
+        }
+        current = compile(scene, topology, binary, deviceStore::get, this::membersOf, mqttService::encode);
+        compiles.incrementAndGet();
+        // Scene có thể vừa bị sửa trong lúc biên dịch; chỉ lưu bản của scene đang có trong store
+        if (sceneStore.get(scene.getSceneId()) == scene) {
+            compiled.put(scene.getSceneId(), current);
+        }
+        return current;
+    }
+
+    private Collection<String> membersOf(String groupId) {
+        if (DeviceGroup.ALL_ID.equals(groupId)) {
+            List<ESPDevice> devices = deviceStore.getAll();
+            List<String> ids = new ArrayList<>(devices.size());
+            for (ESPDevice device : devices) {
+                ids.add(device.getDeviceId());
+            }
+            return ids;
+        }
+        DeviceGroup group = groupStore.get(groupId);
+        return group != null ? group.getMemberIds() : null;
+    }
+
+    /**
+     * Turns the scene's actions into encoded messages. Targets that no longer exist are
+     * skipped. Group actions become one message to the group topic.
+     */
+    static CompiledScene compile(Scene scene, long topologyVersion, boolean binary,
+                                 Function<String, ESPDevice> devices,
+                                 Function<String, Collection<String>> groupMembers,
+                                 Function<DeviceCommand, byte[]> encoder) {
+        List<String> topics = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        List<String[]> targets = new ArrayList<>();
+        Map<String, DeviceCommand> localCommands = new LinkedHashMap<>();
+        for (Scene.Action action : scene.getActions()) {
+            DeviceCommand command = action.getCommand();
+            if (action.getTarget() == Scene.Target.DEVICE) {
+                ESPDevice device = devices.apply(action.getTargetId());
+                if (device == null) {
+                    Log.w(TAG, "Scene " + scene.getSceneId() + ": device " + action.getTargetId() + " not found");
+                    continue;
+                }
+                topics.add(device.getCommandTopic());
+                targets.add(new String[]{device.getDeviceId()});
+                localCommands.remove(device.getDeviceId());
+                localCommands.put(device.getDeviceId(), command);
+            } else {
+                Collection<String> members = groupMembers.apply(action.getTargetId());
+                if (members == null) {
+                    Log.w(TAG, "Scene " + scene.getSceneId() + ": group " + action.getTargetId() + " not found");
+                    continue;
+                }
+                topics.add(DeviceGroup.commandTopic(action.getTargetId()));
+                List<String> known = new ArrayList<>(members.size());
+                for (String deviceId : members) {
+                    if (devices.apply(deviceId) != null) {
+                        known.add(deviceId);
+                        localCommands.remove(deviceId);
+                        localCommands.put(deviceId, command);
+                    }
+                }
+                targets.add(known.toArray(new String[0]));
+            }
+            payloads.add(encoder.apply(command));
+        }
+        return new CompiledScene(scene, topologyVersion, binary, topics, payloads, targets, localCommands);
+    }
+
+    public long getApplyCount() {
+        return applies.get();
+    }
+
+    public long getCompileCount() {
+        return compiles.get();
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    public long getLastApplyMs() {
+        return lastApplyMs;
+    }
+
+    public long getMaxApplyMs() {
+        return maxApplyMs;
+    }
+
+    public long getAverageApplyMs() {
+        long count = applies.get();
+        return count == 0 ? 0 : totalApplyMs.get() / count;
+    }
+}
@@ -0,0 +1,321 @@
+package com.espressif.ui.Services;
+
+import android.util.Log;
+
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reference-counted table of topic filters. Only the first subscribe of a filter and
+ * the last unsubscribe reach the broker, and pending changes are collected for a short
+ * window and sent as multi-filter SUBSCRIBE / UNSUBSCRIBE packets.
+ */
+public class SubscriptionTable {
+
+    private static final String TAG = "SubscriptionTable";
+    static final long BATCH_WINDOW_MS = 50;
+    static final long RETRY_DELAY_MS = 1000;
+    static final long MAX_RETRY_DELAY_MS = 60_000;
+    private static final int MAX_FILTERS_PER_PACKET = 100;
+
+    public interface Sender {
+        boolean isConnected();
+
+        /** Sends one SUBSCRIBE packet carrying all given filters. */
+        CompletableFuture<?> subscribe(Map<String, MqttQos> filters);
+
+        /** Sends one UNSUBSCRIBE packet carrying all given filters. */
+        CompletableFuture<?> unsubscribe(List<String> filters);
+    }
+
+    /** Hook for measuring how long restoring the subscription set takes after a connect. */
+    public interface ResubscribeListener {
+        void onResubscribed(int filterCount, int packetCount, long elapsedMs, boolean sessionPresent, Throwable error);
+    }
+
+    private static final class Entry {
+        int refCount;
+        MqttQos qos;
+        boolean onBroker;
+
+        Entry(MqttQos qos) {
+            this.qos = qos;
+        }
+    }
+
+    private final Sender sender;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Set<String> pendingSubscribe = new LinkedHashSet<>();
+    private final Set<String> pendingUnsubscribe = new LinkedHashSet<>();
+    private final ScheduledExecutorService scheduler;
+    private boolean flushScheduled;
+    // Số lần gửi thất bại liên tiếp, để giãn dần thời gian thử lại
+    private int failedAttempts;
+    private volatile ResubscribeListener resubscribeListener;
+
+    private final AtomicLong subscribeRequests = new AtomicLong();
+    private final AtomicLong dedupedRequests = new AtomicLong();
+    private final AtomicLong subscribePackets = new AtomicLong();
+    private final AtomicLong unsubscribePackets = new AtomicLong();
+    private final AtomicLong filtersSubscribed = new AtomicLong();
+    private final AtomicLong filtersUnsubscribed = new AtomicLong();
+
+    public SubscriptionTable(Sender sender) {
+        this(sender, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    SubscriptionTable(Sender sender, ScheduledExecutorService scheduler) {
+        this.sender = sender;
+        this.scheduler = scheduler;
+    }
+
+    public synchronized void acquire(String filter, MqttQos qos) {
+        if (filter == null) {
+            return;
+        }
+        subscribeRequests.incrementAndGet();
+        Entry entry = entries.get(filter);
+        if (entry != null) {
+            entry.refCount++;
+            dedupedRequests.incrementAndGet();
+            if (qos.getCode() > entry.qos.getCode()) {
+                entry.qos = qos;
+                pendingSubscribe.add(filter);
+                scheduleFlush();
+            }
+            return;
+        }
+
+        entry = new Entry(qos);
+        entry.refCount = 1;
+        entries.put(filter, entry);
+        if (pendingUnsubscribe.remove(filter)) {
+            // Vẫn còn trên broker, chỉ cần huỷ lệnh UNSUBSCRIBE đang chờ
+            entry.onBroker = true;
+            return;
+        }
+        pendingSubscribe.add(filter);
+        scheduleFlush();
+    }
+
+    public synchronized void release(String filter) {
+        Entry entry = entries.get(filter);
+        if (entry == null) {
+            Log.w(TAG, "Release of unknown filter: " + filter);
+            return;
+        }
+        if (--entry.refCount > 0) {
+            return;
+        }
+        entries.remove(filter);
+        pendingSubscribe.remove(filter);
+        if (entry.onBroker) {
+            pendingUnsubscribe.add(filter);
+            scheduleFlush();
+        }
+    }
+
+    public synchronized int getRefCount(String filter) {
+        Entry entry = entries.get(filter);
+        return entry != null ? entry.refCount : 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public void setResubscribeListener(ResubscribeListener listener) {
+        this.resubscribeListener = listener;
+    }
+
+    /**
+     * Restores the subscription set after a connect. If the broker kept the session,
+     * only changes made while offline are sent; otherwise every filter is resent in
+     * as few multi-filter SUBSCRIBE packets as possible.
+     */
+    public synchronized void onConnected(boolean sessionPresent) {
+        long startedAt = System.nanoTime();
+        failedAttempts = 0;
+        if (!sessionPresent) {
+            pendingUnsubscribe.clear();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                e.getValue().onBroker = false;
+                pendingSubscribe.add(e.getKey());
+            }
+        }
+        int filterCount = pendingSubscribe.size();
+        List<CompletableFuture<?>> acks = flush();
+
+        ResubscribeListener listener = resubscribeListener;
+        CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, throwable) -> {
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+            Log.d(TAG, "Resubscribed " + filterCount + " filters in " + acks.size() + " packets, "
+                    + elapsedMs + " ms, sessionPresent=" + sessionPresent);
+            if (listener != null) {
+                listener.onResubscribed(filterCount, acks.size(), elapsedMs, sessionPresent, throwable);
+            }
+        });
+    }
+
+    private void scheduleFlush() {
+        scheduleFlush(BATCH_WINDOW_MS);
+    }
+
+    private void scheduleFlush(long delayMs) {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        scheduler.schedule(() -> {
+            synchronized (SubscriptionTable.this) {
+                flushScheduled = false;
+                flush();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private List<CompletableFuture<?>> flush() {
+        List<CompletableFuture<?>> sent = new ArrayList<>();
+        if (!sender.isConnected()) {
+            return sent;
+        }
+        // Lấy và xoá trước khi gửi: future thất bại ngay có thể thêm lại filter vào các tập này
+        List<String> unsubscribes = new ArrayList<>(pendingUnsubscribe);
+        List<String> subscribes = new ArrayList<>(pendingSubscribe);
+        pendingUnsubscribe.clear();
+        pendingSubscribe.clear();
+
+        List<String> unsubscribeBatch = new ArrayList<>(MAX_FILTERS_PER_PACKET);
+        for (String filter : unsubscribes) {
+            unsubscribeBatch.add(filter);
+            if (unsubscribeBatch.size() == MAX_FILTERS_PER_PACKET) {
+                sendUnsubscribe(unsubscribeBatch);
+                unsubscribeBatch = new ArrayList<>(MAX_FILTERS_PER_PACKET);
+            }
+        }
+        if (!unsubscribeBatch.isEmpty()) {
+            sendUnsubscribe(unsubscribeBatch);
+        }
+
+        Map<String, MqttQos> subscribeBatch = new LinkedHashMap<>();
+        for (String filter : subscribes) {
+            subscribeBatch.put(filter, entries.get(filter).qos);
+            if (subscribeBatch.size() == MAX_FILTERS_PER_PACKET) {
+                sent.add(sendSubscribe(subscribeBatch));
+                subscribeBatch = new LinkedHashMap<>();
+            }
+        }
+        if (!subscribeBatch.isEmpty()) {
+            sent.add(sendSubscribe(subscribeBatch));
+        }
+        return sent;
+    }
+
+    // Mất kết nối thì onConnected sẽ gửi lại; còn kết nối thì thử lại với độ trễ tăng dần
+    private void scheduleRetry() {
+        if (!sender.isConnected()) {
+            return;
+        }
+        long delayMs = getRetryDelayMs();
+        failedAttempts++;
+        scheduleFlush(delayMs);
+    }
+
+    /** Delay before the next retry: doubles with each failure in a row, up to {@link #MAX_RETRY_DELAY_MS}. */
+    synchronized long getRetryDelayMs() {
+        int shift = Math.min(failedAttempts, 16);
+        return Math.min(MAX_RETRY_DELAY_MS, RETRY_DELAY_MS << shift);
+    }
+
+    private CompletableFuture<?> sendSubscribe(Map<String, MqttQos> batch) {
+        subscribePackets.incrementAndGet();
+        filtersSubscribed.addAndGet(batch.size());
+        return sender.subscribe(batch).whenComplete((ack, throwable) -> {
+            synchronized (SubscriptionTable.this) {
+                for (String filter : batch.keySet()) {
+                    Entry entry = entries.get(filter);
+                    if (entry == null) {
+                        // Đã bị release trong lúc chờ SUBACK
+                        if (throwable == null) {
+                            pendingUnsubscribe.add(filter);
+                            scheduleFlush();
+                        }
+                    } else if (throwable == null) {
+                        entry.onBroker = true;
+                    } else {
+                        pendingSubscribe.add(filter);
+                    }
+                }
+                if (throwable == null) {
+                    failedAttempts = 0;
+                } else if (!pendingSubscribe.isEmpty()) {
+                    scheduleRetry();
+                }
+            }
+            if (throwable != null) {
+                Log.e(TAG, "Subscribe of " + batch.size() + " filters failed: " + throwable.getMessage());
+            } else {
+                Log.d(TAG, "Subscribed " + batch.size() + " filters in one packet");
+            }
+        });
+    }
+
+    private void sendUnsubscribe(List<String> batch) {
+        unsubscribePackets.incrementAndGet();
+        filtersUnsubscribed.addAndGet(batch.size());
+        sender.unsubscribe(batch).whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                synchronized (SubscriptionTable.this) {
+                    for (String filter : batch) {
+                        // Filter được acquire lại trong lúc chờ thì vẫn giữ trên broker
+                        if (!entries.containsKey(filter)) {
+                            pendingUnsubscribe.add(filter);
+                        }
+                    }
+                    if (!pendingUnsubscribe.isEmpty()) {
+                        scheduleRetry();
+                    }
+                }
+                Log.e(TAG, "Unsubscribe of " + batch.size() + " filters failed: " + throwable.getMessage());
+            } else {
+                Log.d(TAG, "Unsubscribed " + batch.size() + " filters in one packet");
+            }
+        });
+    }
+
+    public long getSubscribeRequestCount() {
+        return subscribeRequests.get();
+    }
+
+    public long getDedupedRequestCount() {
+        return dedupedRequests.get();
+    }
+
+    public long getSubscribePacketCount() {
+        return subscribePackets.get();
+    }
+
+    public long getUnsubscribePacketCount() {
+        return unsubscribePackets.get();
+    }
+
+    public long getFiltersSubscribedCount() {
+        return filtersSubscribed.get();
+    }
+
+    public long getFiltersUnsubscribedCount() {
+        return filtersUnsubscribed.get();
+    }
+}
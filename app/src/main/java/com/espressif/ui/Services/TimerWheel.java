@@ -0,0 +1,125 @@
+package com.espressif.ui.Services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hashed timer wheel for many keys with deadlines that keep moving forward, such as the
+ * expiry of a device that sends a heartbeat every few seconds. A key sits in the slot of
+ * the tick its deadline falls in; {@link #touch} only records the new deadline, and the
+ * key is moved when its slot comes round and the deadline turns out to be later. So a
+ * heartbeat is O(1) with no allocation, and each key is looked at about once per timeout
+ * instead of once per heartbeat.
+ *
+ * <p>Not thread-safe; callers synchronize.
+ */
+final class TimerWheel {
+
+    private static final class Entry {
+        final String key;
+        long deadlineMs;
+        int slot;
+
+        Entry(String key, long deadlineMs) {
+            this.key = key;
+            this.deadlineMs = deadlineMs;
+        }
+    }
+
+    private final long tickMs;
+    private final List<Set<Entry>> slots;
+    private final Map<String, Entry> entries = new HashMap<>();
+    // Tick cuối cùng đã xử lý
+    private long currentTick;
+
+    TimerWheel(long tickMs, int slotCount, long nowMs) {
+        if (tickMs <= 0 || slotCount <= 0) {
+            throw new IllegalArgumentException("tickMs and slotCount must be positive");
+        }
+        this.tickMs = tickMs;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new HashSet<>());
+        }
+        this.currentTick = nowMs / tickMs;
+    }
+
+    /** Adds the key, or moves its deadline; an earlier deadline than the current one is ignored. */
+    void touch(String key, long deadlineMs) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, deadlineMs);
+            entries.put(key, entry);
+            place(entry);
+        } else if (deadlineMs > entry.deadlineMs) {
+            // Không đổi slot ở đây; khi slot cũ tới lượt, key được chuyển sang slot mới
+            entry.deadlineMs = deadlineMs;
+        }
+    }
+
+    boolean remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        slots.get(entry.slot).remove(entry);
+        return true;
+    }
+
+    boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Processes every tick up to {@code nowMs} and returns the keys whose deadline passed;
+     * they are no longer in the wheel. A jump of more than one turn visits each slot once.
+     */
+    List<String> advance(long nowMs) {
+        List<String> expired = new ArrayList<>();
+        long targetTick = nowMs / tickMs;
+        long ticks = Math.min(targetTick - currentTick, slots.size());
+        for (long i = 1; i <= ticks; i++) {
+            Set<Entry> slot = slots.get(slotOf(currentTick + i));
+            if (slot.isEmpty()) {
+                continue;
+            }
+            List<Entry> due = new ArrayList<>(slot);
+            slot.clear();
+            for (Entry entry : due) {
+                if (entry.deadlineMs <= nowMs) {
+                    entries.remove(entry.key);
+                    expired.add(entry.key);
+                } else {
+                    placeAfter(entry, targetTick);
+                }
+            }
+        }
+        if (targetTick > currentTick) {
+            currentTick = targetTick;
+        }
+        return expired;
+    }
+
+    private void place(Entry entry) {
+        placeAfter(entry, currentTick);
+    }
+
+    // Deadline đã qua hoặc rơi vào tick đã xử lý thì xếp vào tick kế tiếp
+    private void placeAfter(Entry entry, long afterTick) {
+        long tick = Math.max(entry.deadlineMs / tickMs, afterTick + 1);
+        entry.slot = slotOf(tick);
+        slots.get(entry.slot).add(entry);
+    }
+
+    private int slotOf(long tick) {
+        return (int) (tick % slots.size());
+    }
+}
@@ -0,0 +1,193 @@
+package com.espressif.ui.Services;
+
+import android.util.Log;
+
+import com.espressif.ui.models.DeviceCommand;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Dispatches inbound MQTT messages to handlers registered on topic filters.
+ * Filters support the MQTT wildcards '+' (one level) and '#' (all remaining levels).
+ * Matching walks the topic once, level by level, so the cost is O(topic depth)
+ * and no String is allocated per level.
+ */
+public class TopicRouter {
+
+    private static final String TAG = "TopicRouter";
+    private static final String SINGLE_LEVEL = "+";
+    private static final String MULTI_LEVEL = "#";
+
+    public interface MessageHandler {
+        void onMessage(String topic, String message);
+
+        /** Binary device commands; handlers that only know the string protocol get its legacy form. */
+        default void onCommand(String topic, DeviceCommand command) {
+            onMessage(topic, command.toLegacyString());
+        }
+    }
+
+    private final Node root = new Node();
+
+    public void addHandler(String topicFilter, MessageHandler handler) {
+        if (topicFilter == null || handler == null) {
+            Log.w(TAG, "Ignoring null topic filter or handler");
+            return;
+        }
+        Node node = root;
+        int start = 0;
+        while (true) {
+            int end = topicFilter.indexOf('/', start);
+            String level = end == -1 ? topicFilter.substring(start) : topicFilter.substring(start, end);
+            node = node.children.computeIfAbsent(level, key -> new Node());
+            if (end == -1) {
+                break;
+            }
+            start = end + 1;
+        }
+        node.handlers.add(handler);
+    }
+
+    public void removeHandler(String topicFilter, MessageHandler handler) {
+        Node node = root;
+        int start = 0;
+        while (node != null) {
+            int end = topicFilter.indexOf('/', start);
+            String level = end == -1 ? topicFilter.substring(start) : topicFilter.substring(start, end);
+            node = node.children.get(level);
+            if (end == -1) {
+                break;
+            }
+            start = end + 1;
+        }
+        if (node != null) {
+            node.handlers.remove(handler);
+        }
+    }
+
+    /**
+     * Delivers the message to every handler whose filter matches the topic.
+     *
+     * @return number of handlers invoked
+     */
+    public int dispatch(String topic, String message) {
+        if (topic == null) {
+            return 0;
+        }
+        return match(root, topic, 0, new LevelKey(topic), message);
+    }
+
+    /** Same as {@link #dispatch(String, String)} for a decoded binary command. */
+    public int dispatch(String topic, DeviceCommand command) {
+        if (topic == null) {
+            return 0;
+        }
+        return match(root, topic, 0, new LevelKey(topic), command);
+    }
+
+    private int match(Node node, String topic, int start, LevelKey key, Object message) {
+        int delivered = 0;
+
+        // '#' also matches the parent level, e.g. "a/#" matches "a"
+        Node multi = node.children.get(MULTI_LEVEL);
+        if (multi != null) {
+            delivered += deliver(multi, topic, message);
+        }
+
+        int end = topic.indexOf('/', start);
+        int levelEnd = end == -1 ? topic.length() : end;
+
+        key.set(start, levelEnd);
+        Node exact = node.children.get(key);
+        Node single = node.children.get(SINGLE_LEVEL);
+
+        if (end == -1) {
+            if (exact != null) {
+                delivered += deliver(exact, topic, message);
+                delivered += deliverTrailingMulti(exact, topic, message);
+            }
+            if (single != null) {
+                delivered += deliver(single, topic, message);
+                delivered += deliverTrailingMulti(single, topic, message);
+            }
+            return delivered;
+        }
+
+        if (exact != null) {
+            delivered += match(exact, topic, end + 1, key, message);
+        }
+        if (single != null) {
+            delivered += match(single, topic, end + 1, key, message);
+        }
+        return delivered;
+    }
+
+    private int deliverTrailingMulti(Node node, String topic, Object message) {
+        Node multi = node.children.get(MULTI_LEVEL);
+        return multi != null ? deliver(multi, topic, message) : 0;
+    }
+
+    private int deliver(Node node, String topic, Object message) {
+        int delivered = 0;
+        for (MessageHandler handler : node.handlers) {
+            try {
+                if (message instanceof DeviceCommand) {
+                    handler.onCommand(topic, (DeviceCommand) message);
+                } else {
+                    handler.onMessage(topic, (String) message);
+                }
+                delivered++;
+            } catch (Exception e) {
+                Log.e(TAG, "Handler failed for topic " + topic + ": " + e.getMessage());
+            }
+        }
+        return delivered;
+    }
+
+    private static final class Node {
+        final Map<Object, Node> children = new ConcurrentHashMap<>();
+        final CopyOnWriteArrayList<MessageHandler> handlers = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Mutable view over one level of a topic. Hashes and compares like the String
+     * of that level, so it can be used to look up children without a substring.
+     */
+    private static final class LevelKey {
+        private final String topic;
+        private int start;
+        private int end;
+        private int hash;
+
+        LevelKey(String topic) {
+            this.topic = topic;
+        }
+
+        void set(int start, int end) {
+            this.start = start;
+            this.end = end;
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + topic.charAt(i);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof String)) {
+                return false;
+            }
+            String level = (String) other;
+            int length = end - start;
+            return level.length() == length && topic.regionMatches(start, level, 0, length);
+        }
+    }
+}
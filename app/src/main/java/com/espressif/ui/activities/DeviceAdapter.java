@@ -20,96 +20,129 @@ import androidx.appcompat.widget.PopupMenu;
 import androidx.cardview.widget.CardView;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.espressif.ui.Data.DeviceDatabaseHelper;
+import com.espressif.ui.Data.DeviceChange;
+import com.espressif.ui.Data.DeviceStore;
+import com.espressif.ui.Services.CommandCoalescer;
+import com.espressif.ui.Services.CommandTracker;
 import com.espressif.ui.Services.MQTTService;
+import com.espressif.ui.models.DeviceCommand;
 import com.espressif.ui.models.ESPDevice;
 import com.espressif.wifi_provisioning.R;
 import com.hivemq.client.mqtt.datatypes.MqttQos;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
-public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceViewHolder> implements MQTTService.MQTTCallback {
+/**
+ * Device grid. The adapter shows {@link DeviceStore} snapshots: on each change event it
+ * submits the store's current snapshot to a {@link ListAdapter}, which diffs it against the
+ * shown list on a background thread and dispatches only the item-level updates. Snapshots
+ * are immutable and a changed device is always a new object, so contents are compared by
+ * identity. The changed-field mask is passed as payload, and only the matching views rebind.
+ * A burst of changes that arrives before the main thread runs is submitted once.
+ */
+public class DeviceAdapter extends ListAdapter<ESPDevice, DeviceAdapter.DeviceViewHolder>
+        implements DeviceStore.ChangeListener, CommandTracker.Listener {
 
     private static final String TAG = "DeviceAdapter";
 
     // MQTT and Menu Constants
-    private static final String MQTT_DELETE_NVS = "deleteNVS";
     private static final String MQTT_ON_RGB = "onRGB";
     private static final String MQTT_OFF_RGB = "offRGB";
     private static final String MQTT_ON = "on";
     private static final String MQTT_OFF = "off";
+    private static final long COMMAND_WINDOW_MS = 150; // Gộp các lần bấm liên tiếp trong khoảng này
+    private static final float UNREACHABLE_ALPHA = 0.4f;
     private static final String MENU_TOGGLE_MODE = "Toggle Mode";
     private static final String MENU_RENAME = "Rename";
     private static final String MENU_DELETE = "Delete";
 
+    // Snapshot không bao giờ bị sửa tại chỗ nên cùng object nghĩa là cùng nội dung
+    static final DiffUtil.ItemCallback<ESPDevice> DIFF_CALLBACK = new DiffUtil.ItemCallback<ESPDevice>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ESPDevice oldItem, @NonNull ESPDevice newItem) {
+            return oldItem.getDeviceId().equals(newItem.getDeviceId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ESPDevice oldItem, @NonNull ESPDevice newItem) {
+            return oldItem == newItem || oldItem.diff(newItem) == 0;
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull ESPDevice oldItem, @NonNull ESPDevice newItem) {
+            return oldItem.diff(newItem);
+        }
+    };
+
     private final Context context; // Application context
-    private List<ESPDevice> deviceList;
+    // Version của snapshot ban đầu và của snapshot gửi gần nhất
+    private final long initialVersion;
+    private long submittedVersion;
+    // deviceId -> id ổn định cho RecyclerView, không dùng hashCode để tránh trùng
+    private final Map<String, Long> stableIds = new HashMap<>();
     private final MQTTService mqttService;
+    private final CommandTracker commandTracker;
     private final Handler handler = new Handler(Looper.getMainLooper());
-    private final DeviceDatabaseHelper dbHelper;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
-    private final Map<String, ESPDevice> topicToDeviceMap = new HashMap<>();
+    private final DeviceStore store;
+    private final Set<String> subscribedTopics = new HashSet<>();
     private final Set<String> locallyDeletedDevices = new HashSet<>();
+    private final CommandCoalescer commandCoalescer = new CommandCoalescer(COMMAND_WINDOW_MS, this::applyCommand);
+    private final MQTTService.ConnectionStateListener connectionListener = this::onConnectionStateChanged;
 
-    public DeviceAdapter(Context context, List<ESPDevice> devices, MQTTService mqttService) {
+    public DeviceAdapter(Context context, MQTTService mqttService) {
+        super(DIFF_CALLBACK);
         if (mqttService == null) {
             throw new IllegalArgumentException("MQTTService cannot be null");
         }
+        setHasStableIds(true);
         this.context = context.getApplicationContext(); // Use application context to avoid leaks
-        this.deviceList = new ArrayList<>(devices);
         this.mqttService = mqttService;
-        this.mqttService.setCallback(this);
-        this.dbHelper = DeviceDatabaseHelper.getInstance(this.context);
-        updateTopicMap(devices);
+        // Trạng thái thiết bị đến qua sự kiện của DeviceStore; từ MQTTService chỉ cần biết mất kết nối
+        this.mqttService.addConnectionStateListener(connectionListener);
+        this.commandTracker = mqttService.getCommandTracker();
+        commandTracker.addListener(this);
+        this.store = DeviceStore.getInstance(this.context);
+        // Đăng ký trước rồi mới lấy snapshot để không lỡ thay đổi nào xảy ra ở giữa
+        store.addListener(this, handler::post);
+        DeviceStore.Snapshot snapshot = store.snapshot();
+        this.initialVersion = snapshot.getVersion();
+        this.submittedVersion = initialVersion;
+        updateSubscriptions(snapshot.getDevices());
+        // Danh sách cũ đang rỗng nên lần đầu không cần diff
+        submitList(snapshot.getDevices());
     }
 
-    // Update device list with DiffUtil
-    public void setDeviceList(List<ESPDevice> newDevices) {
-        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
-            @Override
-            public int getOldListSize() {
-                return deviceList.size();
-            }
-
-            @Override
-            public int getNewListSize() {
-                return newDevices.size();
-            }
-
-            @Override
-            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                return deviceList.get(oldItemPosition).getDeviceId()
-                        .equals(newDevices.get(newItemPosition).getDeviceId());
-            }
-
-            @Override
-            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                ESPDevice oldDevice = deviceList.get(oldItemPosition);
-                ESPDevice newDevice = newDevices.get(newItemPosition);
-                return oldDevice.isLightOn() == newDevice.isLightOn() &&
-                        oldDevice.isRGBMode() == newDevice.isRGBMode() &&
-                        oldDevice.getName().equals(newDevice.getName());
+    // Subscribe/unsubscribe chỉ cho các topic thêm vào hoặc bị loại khỏi danh sách
+    private void updateSubscriptions(List<ESPDevice> devices) {
+        Set<String> removedTopics = new HashSet<>(subscribedTopics);
+        subscribedTopics.clear();
+        for (ESPDevice device : devices) {
+            String topic = device.getCommandTopic();
+            if (subscribedTopics.add(topic) && !removedTopics.remove(topic)) {
+                mqttService.subscribe(topic, MqttQos.AT_LEAST_ONCE);
             }
-        });
-        deviceList = new ArrayList<>(newDevices);
-        updateTopicMap(newDevices);
-        diffResult.dispatchUpdatesTo(this);
+        }
+        for (String topic : removedTopics) {
+            mqttService.unsubscribe(topic);
+        }
     }
 
-    private void updateTopicMap(List<ESPDevice> devices) {
-        topicToDeviceMap.clear();
-        for (ESPDevice device : devices) {
-            topicToDeviceMap.put(device.getCommandTopic(), device);
+    @Override
+    public long getItemId(int position) {
+        String deviceId = getItem(position).getDeviceId();
+        Long id = stableIds.get(deviceId);
+        if (id == null) {
+            id = (long) stableIds.size();
+            stableIds.put(deviceId, id);
         }
+        return id;
     }
 
     @NonNull
@@ -119,36 +152,52 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
         return new DeviceViewHolder(view);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull DeviceViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        // Payload là mask các trường đã đổi; nhiều payload dồn lại trước một lần bind
+        int fields = 0;
+        for (Object payload : payloads) {
+            fields |= (Integer) payload;
+        }
+        bindFields(holder, getItem(position), fields);
+    }
+
     @Override
     public void onBindViewHolder(@NonNull DeviceViewHolder holder, int position) {
-        ESPDevice device = deviceList.get(position);
-        mqttService.subscribe(device.getCommandTopic(),MqttQos.AT_LEAST_ONCE);
+        ESPDevice device = getItem(position);
         Log.d(TAG, "Binding device: " + device.getDeviceId() + ", Name: " + device.getName() +
                 ", LightOn: " + device.isLightOn() + ", RGBMode: " + device.isRGBMode());
 
         // Update initial UI
-        updateDeviceUI(holder, device);
+        bindFields(holder, device, ESPDevice.ALL_FIELDS);
 
         // Light toggle event
         holder.lightImageView.setOnClickListener(v -> {
-            Log.d(TAG, "Light clicked for device: " + device.getDeviceId());
-            boolean newState = !device.isLightOn();
-            device.setLightOn(newState);
-            String topic = device.getCommandTopic();
-            String message = device.isRGBMode() ? (newState ? MQTT_ON_RGB : MQTT_OFF_RGB) : (newState ? MQTT_ON : MQTT_OFF);
-
-            executor.execute(() -> {
-                try {
-                    dbHelper.updateDevice(device);
-                    handler.post(() -> {
-                        updateDeviceUI(holder, device);
-                        publishMqttMessage(topic, message);
-                    });
-                } catch (Exception e) {
-                    Log.e(TAG, "Error updating device: " + e.getMessage());
-                    handler.post(() -> Toast.makeText(context, "Failed to update device", Toast.LENGTH_SHORT).show());
-                }
-            });
+            int pos = holder.getAdapterPosition();
+            if (pos == RecyclerView.NO_POSITION) return;
+
+            ESPDevice currentDevice = getItem(pos);
+            Log.d(TAG, "Light clicked for device: " + currentDevice.getDeviceId());
+            if (!currentDevice.isReachable()) {
+                Toast.makeText(context, "\"" + currentDevice.getName() + "\" is offline", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            if (!mqttService.isConnected()) {
+                Toast.makeText(context, "Not connected to MQTT broker", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            boolean newState = !currentDevice.isLightOn();
+            trackChange(currentDevice.getDeviceId());
+            ESPDevice updated = store.update(currentDevice.getDeviceId(), d -> d.withLightOn(newState));
+            if (updated == null) return;
+            String message = updated.isRGBMode() ? (newState ? MQTT_ON_RGB : MQTT_OFF_RGB) : (newState ? MQTT_ON : MQTT_OFF);
+
+            // UI cập nhật qua sự kiện của store, publish được gộp lại trong cửa sổ của coalescer
+            commandCoalescer.submit(updated, message);
         });
 
         // Menu event
@@ -161,27 +210,26 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
                 int pos = holder.getAdapterPosition();
                 if (pos == RecyclerView.NO_POSITION) return true;
 
-                ESPDevice currentDevice = deviceList.get(pos);
+                ESPDevice currentDevice = getItem(pos);
                 if (MENU_TOGGLE_MODE.equals(item.getTitle())) {
                     Log.d(TAG, "Toggle Mode clicked for device: " + currentDevice.getDeviceId());
+                    if (!currentDevice.isReachable()) {
+                        Toast.makeText(context, "\"" + currentDevice.getName() + "\" is offline",
+                                Toast.LENGTH_SHORT).show();
+                        return true;
+                    }
+                    if (!mqttService.isConnected()) {
+                        Toast.makeText(context, "Not connected to MQTT broker", Toast.LENGTH_SHORT).show();
+                        return true;
+                    }
                     boolean isRGB = !currentDevice.isRGBMode();
-                    currentDevice.setRGBMode(isRGB);
-                    String topic = currentDevice.getCommandTopic();
-                    String message = isRGB ? (currentDevice.isLightOn() ? MQTT_ON_RGB : MQTT_OFF_RGB) :
-                            (currentDevice.isLightOn() ? MQTT_ON : MQTT_OFF);
-
-                    executor.execute(() -> {
-                        try {
-                            dbHelper.updateDevice(currentDevice);
-                            handler.post(() -> {
-                                updateDeviceUI(holder, currentDevice);
-                                publishMqttMessage(topic, message);
-                            });
-                        } catch (Exception e) {
-                            Log.e(TAG, "Error toggling mode: " + e.getMessage());
-                            handler.post(() -> Toast.makeText(context, "Failed to toggle mode", Toast.LENGTH_SHORT).show());
-                        }
-                    });
+                    trackChange(currentDevice.getDeviceId());
+                    ESPDevice updated = store.update(currentDevice.getDeviceId(), d -> d.withRGBMode(isRGB));
+                    if (updated == null) return true;
+                    String message = isRGB ? (updated.isLightOn() ? MQTT_ON_RGB : MQTT_OFF_RGB) :
+                            (updated.isLightOn() ? MQTT_ON : MQTT_OFF);
+
+                    commandCoalescer.submit(updated, message);
                     return true;
                 } else if (MENU_RENAME.equals(item.getTitle())) {
                     Log.d(TAG, "Rename clicked for device: " + currentDevice.getDeviceId());
@@ -196,23 +244,17 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
                         String newName = input.getText().toString().trim();
                         if (!newName.isEmpty()) {
                             Log.d(TAG, "Renaming device " + currentDevice.getDeviceId() + " to " + newName);
-                            currentDevice.setName(newName);
-                            executor.execute(() -> {
-                                try {
-                                    dbHelper.updateDevice(currentDevice);
-                                    handler.post(() -> updateDeviceUI(holder, currentDevice));
-                                } catch (Exception e) {
-                                    Log.e(TAG, "Error renaming device: " + e.getMessage());
-                                    handler.post(() -> Toast.makeText(context, "Failed to rename device", Toast.LENGTH_SHORT).show());
-                                }
-                            });
+                            ESPDevice renamed = store.update(currentDevice.getDeviceId(), d -> d.withName(newName));
+                            if (renamed == null) {
+                                Toast.makeText(context, "Failed to rename device", Toast.LENGTH_SHORT).show();
+                            }
                         }
                     });
                     builder.setNegativeButton("Cancel", null);
                     builder.show();
                     return true;
                 } else if (MENU_DELETE.equals(item.getTitle())) {
-                    showDeleteConfirmationDialog(currentDevice, pos, holder.itemView.getContext());
+                    showDeleteConfirmationDialog(currentDevice, holder.itemView.getContext());
                     return true;
                 }
                 return false;
@@ -221,7 +263,7 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
         });
     }
 
-    private void showDeleteConfirmationDialog(ESPDevice device, int position, Context activityContext) {
+    private void showDeleteConfirmationDialog(ESPDevice device, Context activityContext) {
         AlertDialog.Builder builder = new AlertDialog.Builder(activityContext);
         builder.setTitle("Confirm Deletion");
         builder.setMessage("Are you sure you want to delete device \"" + device.getName() + "\"?");
@@ -230,30 +272,17 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
             Log.d(TAG, "Delete confirmed for device: " + device.getDeviceId());
             String topic = device.getCommandTopic();
             locallyDeletedDevices.add(device.getDeviceId());
-
-            executor.execute(() -> {
-                try {
-                    dbHelper.removeDevice(device.getDeviceId());
-                    handler.post(() -> {
-                        publishMqttMessage(topic, MQTT_DELETE_NVS);
-//                        mqttService.unsubscribe(topic);
-                        if (position >= 0 && position < deviceList.size()) {
-                            deviceList.remove(position);
-                            topicToDeviceMap.remove(topic);
-                            notifyItemRemoved(position);
-                            notifyItemRangeChanged(position, deviceList.size());
-                            Toast.makeText(context, "Device \"" + device.getName() + "\" deleted", Toast.LENGTH_SHORT).show();
-                        } else {
-                            Log.w(TAG, "Invalid position: " + position + ", deviceList size: " + deviceList.size());
-                        }
-                        locallyDeletedDevices.remove(device.getDeviceId());
-                    });
-                } catch (Exception e) {
-                    Log.e(TAG, "Error deleting device: " + e.getMessage());
-                    locallyDeletedDevices.remove(device.getDeviceId());
-                    handler.post(() -> Toast.makeText(context, "Failed to delete device", Toast.LENGTH_SHORT).show());
-                }
-            });
+            commandCoalescer.cancel(topic);
+            commandTracker.cancel(device);
+
+            // Store xóa ngay trong bộ nhớ, SQLite được xóa trên luồng ghi; item được gỡ khi nhận sự kiện REMOVED
+            if (!store.remove(device.getDeviceId())) {
+                locallyDeletedDevices.remove(device.getDeviceId());
+                Log.w(TAG, "Device already removed: " + device.getDeviceId());
+                return;
+            }
+            publishMqttMessage(topic, DeviceCommand.deleteNvs());
+            Toast.makeText(context, "Device \"" + device.getName() + "\" deleted", Toast.LENGTH_SHORT).show();
         });
 
         builder.setNegativeButton("Cancel", (dialog, which) -> {
@@ -271,113 +300,80 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
         dialog.show();
     }
 
+    // Chạy trên luồng chính; chỉ gửi snapshot mới nếu sự kiện chưa nằm trong snapshot đã gửi
     @Override
-    public int getItemCount() {
-        return deviceList.size();
+    public void onDeviceChanged(DeviceChange change) {
+        if (change.getType() == DeviceChange.Type.REMOVED && change.getVersion() > initialVersion
+                && !locallyDeletedDevices.remove(change.getDeviceId())) {
+            // Thiết bị tự xóa (deleteNVS) chứ không phải người dùng bấm xóa
+            Toast.makeText(context, "Device \"" + change.getPrevious().getName() + "\" removed",
+                    Toast.LENGTH_SHORT).show();
+        }
+        if (change.getVersion() <= submittedVersion) {
+            return;
+        }
+        DeviceStore.Snapshot snapshot = store.snapshot();
+        submittedVersion = snapshot.getVersion();
+        updateSubscriptions(snapshot.getDevices());
+        submitList(snapshot.getDevices(), () ->
+                Log.d(TAG, "Showing snapshot v" + snapshot.getVersion() + ", count: " + snapshot.getDevices().size()));
     }
 
-    @Override
-    public void onMessageReceived(String topic, String message) {
-        Log.d(TAG, "Received: " + message + " from " + topic);
-        executor.execute(() -> {
-            try {
-
-
-                // Cập nhật giao diện trên luồng chính
-                handler.post(() -> {
-                    ESPDevice device = topicToDeviceMap.get(topic);
-                    if (device == null) {
-                        Log.w(TAG, "No device found for topic: " + topic);
-                        return;
-                    }
-
-                    int position = deviceList.indexOf(device);
-                    if (position == -1) {
-                        Log.w(TAG, "Device not found in list: " + device.getDeviceId());
-                        return;
-                    }
-
-                    // Lấy thiết bị cập nhật từ cơ sở dữ liệu
-                    ESPDevice updatedDevice = dbHelper.getDeviceById(device.getDeviceId());
-                    if (updatedDevice == null) {
-                        Log.e(TAG, "Updated device not found in database: " + device.getDeviceId());
-                        Toast.makeText(context, "Device data not found", Toast.LENGTH_SHORT).show();
-                        return;
-                    }
-
-                    // Xử lý các lệnh MQTT
-                    if (MQTT_DELETE_NVS.equals(message) && !locallyDeletedDevices.contains(device.getDeviceId())) {
-                        deviceList.remove(position);
-                        topicToDeviceMap.remove(topic);
-//                        mqttService.unsubscribe(topic); // Gỡ đăng ký topic
-                        notifyItemRemoved(position);
-                        notifyItemRangeChanged(position, deviceList.size()); // Cập nhật chỉ số
-                        Log.d(TAG, "Removed device from UI and unsubscribed: " + device.getDeviceId());
-                        Toast.makeText(context, "Device \"" + device.getName() + "\" removed", Toast.LENGTH_SHORT).show();
-                    } else if (MQTT_ON.equals(message) || MQTT_ON_RGB.equals(message)) {
-                        updatedDevice.setLightOn(true);
-                        deviceList.set(position, updatedDevice);
-                        topicToDeviceMap.put(topic, updatedDevice);
-                        notifyItemChanged(position);
-                        Log.d(TAG, "Turned on device: " + device.getDeviceId());
-                    } else if (MQTT_OFF.equals(message) || MQTT_OFF_RGB.equals(message)) {
-                        updatedDevice.setLightOn(false);
-                        deviceList.set(position, updatedDevice);
-                        topicToDeviceMap.put(topic, updatedDevice);
-                        notifyItemChanged(position);
-                        Log.d(TAG, "Turned off device: " + device.getDeviceId());
-                    } else {
-                        // Cập nhật nếu có thay đổi
-                        if (updatedDevice.isLightOn() != device.isLightOn() ||
-                                updatedDevice.isRGBMode() != device.isRGBMode() ||
-                                !updatedDevice.getName().equals(device.getName())) {
-                            deviceList.set(position, updatedDevice);
-                            topicToDeviceMap.put(topic, updatedDevice);
-                            notifyItemChanged(position);
-                            Log.d(TAG, "Updated UI for device: " + device.getDeviceId() +
-                                    ", LightOn: " + updatedDevice.isLightOn() +
-                                    ", RGBMode: " + updatedDevice.isRGBMode() +
-                                    ", Name: " + updatedDevice.getName());
-                        }
-                    }
-                    // Xử lý thông điệp trong cơ sở dữ liệu
-                    dbHelper.handleMqttMessage(topic, message);
-                });
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing MQTT message: " + e.getMessage());
-                handler.post(() -> Toast.makeText(context, "Failed to process MQTT message", Toast.LENGTH_SHORT).show());
-            }
-        });
+    // Chỉ báo lần mất kết nối đầu tiên, không báo lại ở mỗi lần thử kết nối lại
+    private void onConnectionStateChanged(MQTTService.ConnectionState state, Throwable cause, int attempt) {
+        if (state == MQTTService.ConnectionState.DISCONNECTED && attempt == 0 && cause != null) {
+            Log.e(TAG, "Connection lost: " + cause.getMessage());
+            handler.post(() -> Toast.makeText(context, "MQTT connection lost", Toast.LENGTH_SHORT).show());
+        }
     }
 
+    // Trạng thái lạc quan đã được hoàn lại trong store; UI tự cập nhật qua sự kiện
     @Override
-    public void onConnectionLost(Throwable cause) {
-        Log.e(TAG, "Connection lost: " + cause.getMessage());
-        handler.post(() -> Toast.makeText(context, "MQTT connection lost", Toast.LENGTH_SHORT).show());
+    public void onCommandTimedOut(ESPDevice restored, DeviceCommand command) {
+        handler.post(() -> Toast.makeText(context, "\"" + restored.getName() + "\" did not respond",
+                Toast.LENGTH_SHORT).show());
     }
 
     @Override
-    public void onConnected() {
-        if (deviceList != null && !deviceList.isEmpty()) {
-            for (ESPDevice device : deviceList) {
-                mqttService.subscribe(device.getCommandTopic(), MqttQos.AT_LEAST_ONCE);
-                Log.d(TAG, "Subscribed to topic: " + device.getCommandTopic());
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        for (String topic : subscribedTopics) {
+            mqttService.unsubscribe(topic);
+            Log.d(TAG, "Unsubscribed from topic: " + topic);
+        }
+        subscribedTopics.clear();
+        store.removeListener(this);
+        mqttService.removeConnectionStateListener(connectionListener);
+        commandTracker.removeListener(this);
+        commandCoalescer.shutdown();
+    }
+
+    // Chạy trên luồng của coalescer với trạng thái cuối cùng sau khi gộp
+    private void applyCommand(ESPDevice device, String message) {
+        try {
+            // Trạng thái đã nằm trong DeviceStore từ lúc bấm, ở đây chỉ còn publish
+            DeviceCommand command = DeviceCommand.parseLegacy(message);
+            if (command.getType() == DeviceCommand.Type.SET_STATE) {
+                // Chỉ gửi được ở định dạng nhị phân, chuỗi cũ bỏ qua hai trường này
+                command = command.withBrightness(device.getBrightness()).withColor(device.getColor());
             }
+            // Tracker chờ thiết bị xác nhận và hoàn lại trạng thái nếu hết giờ
+            commandTracker.send(device, command);
+        } catch (Exception e) {
+            Log.e(TAG, "Error updating device: " + e.getMessage());
+            handler.post(() -> Toast.makeText(context, "Failed to update device", Toast.LENGTH_SHORT).show());
         }
     }
 
-    @Override
-    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
-        super.onDetachedFromRecyclerView(recyclerView);
-        for (ESPDevice device : deviceList) {
-//            mqttService.unsubscribe(device.getCommandTopic());
-            Log.d(TAG, "Unsubscribed from topic: " + device.getCommandTopic());
+    // Ghi lại trạng thái trước khi đổi lạc quan, để hoàn lại nếu thiết bị không xác nhận
+    private void trackChange(String deviceId) {
+        ESPDevice before = store.get(deviceId);
+        if (before != null) {
+            commandTracker.beforeChange(before);
         }
-        mqttService.setCallback(null);
-        executor.shutdown();
     }
 
-    private void publishMqttMessage(String topic, String message) {
+    private void publishMqttMessage(String topic, DeviceCommand message) {
         try {
             mqttService.publish(topic, message, MqttQos.AT_LEAST_ONCE);
             Log.d(TAG, "Published: " + message + " to " + topic);
@@ -387,44 +383,26 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
         }
     }
 
-    public void updateAllDevices() {
-        executor.execute(() -> {
-            try {
-                // Lấy danh sách thiết bị mới nhất từ cơ sở dữ liệu
-                List<ESPDevice> updatedDevices = dbHelper.getAllDevices();
-
-                // Cập nhật trên luồng chính (UI thread)
-                handler.post(() -> {
-                    // Cập nhật danh sách thiết bị và topic map
-                    setDeviceList(updatedDevices);
-
-                    // Thông báo cập nhật toàn bộ danh sách
-                    notifyDataSetChanged();
-
-                    // Ghi log
-                    Log.d(TAG, "All devices updated, count: " + updatedDevices.size());
-
-                    // Đảm bảo đăng ký lại các topic MQTT
-                    for (ESPDevice device : updatedDevices) {
-                        mqttService.subscribe(device.getCommandTopic(), MqttQos.AT_LEAST_ONCE);
-                        Log.d(TAG, "Re-subscribed to topic: " + device.getCommandTopic());
-                    }
-                });
-            } catch (Exception e) {
-                Log.e(TAG, "Error updating all devices: " + e.getMessage());
-                handler.post(() -> Toast.makeText(context, "Failed to update devices", Toast.LENGTH_SHORT).show());
-            }
-        });
-    }
-
-    private void updateDeviceUI(DeviceViewHolder holder, ESPDevice device) {
-        holder.lightImageView.setImageResource(device.isLightOn() ?
-                R.drawable.ic_light_on : R.drawable.ic_light_off);
-        holder.lightImageView.clearColorFilter();
-        holder.deviceNameTextView.setText(device.getName());
-        holder.cardView.setSelected(device.isRGBMode());
+    // Chỉ bind các view ứng với trường đã đổi
+    private void bindFields(DeviceViewHolder holder, ESPDevice device, int fields) {
+        if ((fields & ESPDevice.FIELD_LIGHT) != 0) {
+            holder.lightImageView.setImageResource(device.isLightOn() ?
+                    R.drawable.ic_light_on : R.drawable.ic_light_off);
+            holder.lightImageView.clearColorFilter();
+        }
+        if ((fields & ESPDevice.FIELD_NAME) != 0) {
+            holder.deviceNameTextView.setText(device.getName());
+        }
+        if ((fields & ESPDevice.FIELD_RGB_MODE) != 0) {
+            holder.cardView.setSelected(device.isRGBMode());
+        }
+        if ((fields & ESPDevice.FIELD_REACHABLE) != 0) {
+            // Thiết bị mất kết nối: làm mờ cả thẻ, trạng thái đèn chỉ là giá trị cuối cùng đã biết
+            holder.itemView.setAlpha(device.isReachable() ? 1f : UNREACHABLE_ALPHA);
+        }
 
         Log.d(TAG, "UI updated for device: " + device.getDeviceId() +
+                ", fields: 0x" + Integer.toHexString(fields) +
                 ", LightOn: " + device.isLightOn() +
                 ", RGBMode: " + device.isRGBMode());
     }
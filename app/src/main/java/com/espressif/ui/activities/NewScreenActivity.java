@@ -2,8 +2,8 @@ package com.espressif.ui.activities;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.StrictMode;
 import android.util.Log;
-import android.view.View;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AlertDialog;
@@ -11,16 +11,16 @@ import androidx.core.splashscreen.SplashScreen;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
-import com.espressif.ui.Data.AppDataManager;
 import com.espressif.ui.Data.DeviceDatabaseHelper;
+import com.espressif.ui.Data.DeviceStore;
 import com.espressif.ui.Services.MQTTService;
 import com.espressif.ui.models.ESPDevice;
+import com.espressif.wifi_provisioning.BuildConfig;
 import com.espressif.wifi_provisioning.R;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
-import com.hivemq.client.mqtt.datatypes.MqttQos;
 import java.util.List;
 
-public class NewScreenActivity extends AppCompatActivity implements MQTTService.MQTTCallback {
+public class NewScreenActivity extends AppCompatActivity {
 
     private static final String TAG = "NewScreenActivity";
 
@@ -29,11 +29,30 @@ public class NewScreenActivity extends AppCompatActivity implements MQTTService.
     private static MQTTService mqttService;
     private DeviceAdapter deviceAdapter;
     private List<ESPDevice> deviceList;
+    private AlertDialog connectionErrorDialog;
+
+    // MQTTService tự kết nối lại với backoff, màn hình chỉ hiển thị trạng thái
+    private final MQTTService.ConnectionStateListener connectionStateListener = (state, cause, attempt) ->
+            runOnUiThread(() -> {
+                if (state == MQTTService.ConnectionState.CONNECTED) {
+                    if (connectionErrorDialog != null && connectionErrorDialog.isShowing()) {
+                        connectionErrorDialog.dismiss();
+                        Toast.makeText(this, "MQTT connected!", Toast.LENGTH_SHORT).show();
+                    }
+                } else if (state == MQTTService.ConnectionState.DISCONNECTED && cause != null && attempt == 0) {
+                    Log.w(TAG, "MQTT disconnected, reconnect attempt " + attempt + ": " + cause.getMessage());
+                    showMQTTConnectionErrorDialog();
+                }
+            });
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         try {
-            DeviceDatabaseHelper.getInstance(this);
+            if (BuildConfig.DEBUG) {
+                enableStrictMode();
+            }
+            // Bắt đầu nạp thiết bị từ SQLite trên luồng DB, trước khi MQTTService đăng ký route vào store
+            DeviceStore store = DeviceStore.getInstance(this);
             // Add Splash Screen
             SplashScreen splashScreen = SplashScreen.installSplashScreen(this);
             Log.d(TAG, "Splash Screen installed");
@@ -43,52 +62,14 @@ public class NewScreenActivity extends AppCompatActivity implements MQTTService.
             Log.d(TAG, "Layout set");
 
             mqttService = MQTTService.getInstance(this);
-            mqttService.setCallback(new MQTTService.MQTTCallback() {
-                @Override
-                public void onMessageReceived(String topic, String message) {
-                    // Handle incoming messages if needed
-                    Log.d(TAG, "Message received on topic: " + topic + ", message: " + message);
-                }
-
-                @Override
-                public void onConnectionLost(Throwable cause) {
-                    Log.e(TAG, "MQTT connection lost: " + cause.getMessage());
-
-                }
-
-                @Override
-                public void onConnected() {
-                    Log.d(TAG, "MQTT connected successfully");
-                    // Optionally update UI or notify user of successful connection
-                }
-            });
-
-            if (!MQTTService.init) {
-                showMQTTConnectionErrorDialog();
-            }
-
-            // Get device list
-            DeviceDatabaseHelper dbHelper = new DeviceDatabaseHelper(this);
-            deviceList = dbHelper.getAllDevices();
-
-            if (deviceList == null || deviceList.isEmpty()) {
-                Log.w(TAG, "No devices found, showing empty state");
-                Toast.makeText(this, "No devices available. Add a new device!", Toast.LENGTH_LONG).show();
-                // Not calling finish(), allowing user to press FAB
-            } else {
-                // Handle when device list is available
-            }
+            mqttService.addConnectionStateListener(connectionStateListener);
+            mqttService.reconnect();
 
-            // Setup RecyclerView
+            // Setup RecyclerView; danh sách được gắn khi store nạp xong
             deviceRecyclerView = findViewById(R.id.deviceRecyclerView);
             deviceRecyclerView.setLayoutManager(new GridLayoutManager(this, 2));
-            if (deviceList != null && !deviceList.isEmpty()) {
-                deviceAdapter = new DeviceAdapter(this, deviceList, mqttService);
-                deviceRecyclerView.setAdapter(deviceAdapter);
-            } else {
-                // If no devices, RecyclerView will be empty
-                deviceRecyclerView.setAdapter(null);
-            }
+            deviceRecyclerView.setAdapter(null);
+            store.whenLoaded().thenAccept(loadedStore -> runOnUiThread(() -> showDevices(loadedStore.getAll())));
             Log.d(TAG, "RecyclerView initialized");
 
             // Setup FAB
@@ -103,7 +84,7 @@ public class NewScreenActivity extends AppCompatActivity implements MQTTService.
             // Keep Splash Screen until UI is ready
             splashScreen.setKeepOnScreenCondition(() -> {
                 Log.d(TAG, "Splash Screen still visible");
-                return deviceRecyclerView.getAdapter() == null && (deviceList != null && !deviceList.isEmpty());
+                return deviceList == null;
             });
         } catch (Exception e) {
             Log.e(TAG, "Error in onCreate: " + e.getMessage());
@@ -111,6 +92,37 @@ public class NewScreenActivity extends AppCompatActivity implements MQTTService.
         }
     }
 
+    private void showDevices(List<ESPDevice> devices) {
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+        deviceList = devices;
+        if (devices.isEmpty()) {
+            Log.w(TAG, "No devices found, showing empty state");
+            Toast.makeText(this, "No devices available. Add a new device!", Toast.LENGTH_LONG).show();
+            // Not calling finish(), allowing user to press FAB
+        }
+        // Adapter luôn được gắn để thiết bị thêm qua MQTT hiện ra ngay, kể cả khi danh sách đang rỗng
+        deviceAdapter = new DeviceAdapter(this, mqttService);
+        deviceRecyclerView.setAdapter(deviceAdapter);
+        Log.d(TAG, "Showing " + devices.size() + " devices");
+    }
+
+    // Bản debug báo mọi truy cập đĩa/mạng trên luồng chính
+    private static void enableStrictMode() {
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .penaltyLog()
+                .build());
+        StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                .detectLeakedSqlLiteObjects()
+                .detectLeakedClosableObjects()
+                .penaltyLog()
+                .build());
+    }
+
     // Method to show MQTT connection error dialog
     private void showMQTTConnectionErrorDialog() {
         if (isFinishing() || isDestroyed()) {
@@ -118,60 +130,34 @@ public class NewScreenActivity extends AppCompatActivity implements MQTTService.
             return;
         }
 
-        new AlertDialog.Builder(this)
+        if (connectionErrorDialog != null && connectionErrorDialog.isShowing()) {
+            return;
+        }
+
+        connectionErrorDialog = new AlertDialog.Builder(this)
                 .setTitle("Connection Error")
-                .setMessage("Failed to connect to MQTT server. Please check your network and try again.")
+                .setMessage("Failed to connect to MQTT server. Reconnecting automatically, or retry now.")
                 .setPositiveButton("Retry", (dialog, which) -> {
                     try {
                         mqttService.reconnect();
-                        if (mqttService.isConnected()) {
-                            Toast.makeText(this, "MQTT connected!", Toast.LENGTH_SHORT).show();
-                        } else {
-                            // Delay retry to avoid rapid dialog re-display
-                            new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(
-                                    this::showMQTTConnectionErrorDialog,
-                                    1000
-                            );
-                        }
                     } catch (Exception e) {
                         Log.e(TAG, "Reconnection failed: " + e.getMessage(), e);
-                        showMQTTConnectionErrorDialog();
                     }
                 })
                 .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
                 .setCancelable(false)
                 .show();
     }
-    @Override
-    public void onMessageReceived(String topic, String message) {
-        runOnUiThread(() -> {
-//            mqttService.subscribe(topic, MqttQos.AT_LEAST_ONCE);
-//            AppDataManager.getInstance().handleMqttMessage(topic, message);
-//            Log.d(TAG, "Received: AA " + message + " from " + topic);
-        });
-    }
-
-    @Override
-    public void onConnectionLost(Throwable cause) {
-        Log.e(TAG, "Connection lost: " + cause.getMessage());
-        runOnUiThread(this::showMQTTConnectionErrorDialog);
-    }
-
-    @Override
-    public void onConnected() {
-        if (deviceList != null && !deviceList.isEmpty()) {
-            for (ESPDevice device : deviceList) {
-                mqttService.subscribe(device.getCommandTopic(), MqttQos.AT_LEAST_ONCE);
-            }
-            Log.d(TAG, "MQTT subscribed to topics");
-        }
-    }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
         if (mqttService != null) {
-            mqttService.disconnect();
+            mqttService.removeConnectionStateListener(connectionStateListener);
+            // Xoay màn hình cũng huỷ activity; chỉ ngắt kết nối khi người dùng thực sự thoát
+            if (isFinishing()) {
+                mqttService.disconnect();
+            }
         }
         Log.d(TAG, "Activity destroyed");
     }
@@ -0,0 +1,180 @@
+package com.espressif.ui.models;
+
+import java.util.Objects;
+
+/**
+ * One command or state report on a device command topic, independent of whether it
+ * travelled as a legacy string ("on", "offRGB", "name/...", "deleteNVS") or in the
+ * compact binary format of {@link com.espressif.ui.Services.DeviceCommandCodec}.
+ */
+public final class DeviceCommand {
+
+    public enum Type {
+        SET_STATE,
+        RENAME,
+        DELETE_NVS
+    }
+
+    public static final int NONE = -1;
+
+    public static final String LEGACY_ON = "on";
+    public static final String LEGACY_OFF = "off";
+    public static final String LEGACY_ON_RGB = "onRGB";
+    public static final String LEGACY_OFF_RGB = "offRGB";
+    public static final String LEGACY_DELETE_NVS = "deleteNVS";
+    public static final String LEGACY_NAME_PREFIX = "name/";
+
+    private static final DeviceCommand DELETE_NVS = new DeviceCommand(Type.DELETE_NVS, false, false, NONE, NONE, 0, null);
+
+    private final Type type;
+    private final boolean lightOn;
+    private final boolean rgbMode;
+    private final int brightness;
+    private final int color;
+    private final long seq;
+    private final String name;
+
+    public DeviceCommand(Type type, boolean lightOn, boolean rgbMode, int brightness, int color, long seq, String name) {
+        this.type = type;
+        this.lightOn = lightOn;
+        this.rgbMode = rgbMode;
+        this.brightness = brightness;
+        this.color = color;
+        this.seq = seq;
+        this.name = name;
+    }
+
+    public static DeviceCommand setState(boolean lightOn, boolean rgbMode) {
+        return new DeviceCommand(Type.SET_STATE, lightOn, rgbMode, NONE, NONE, 0, null);
+    }
+
+    public static DeviceCommand rename(String name) {
+        return new DeviceCommand(Type.RENAME, false, false, NONE, NONE, 0, name);
+    }
+
+    public static DeviceCommand deleteNvs() {
+        return DELETE_NVS;
+    }
+
+    /** @return the command for a legacy string message, or null if it is not one */
+    public static DeviceCommand parseLegacy(String message) {
+        switch (message) {
+            case LEGACY_ON:
+                return setState(true, false);
+            case LEGACY_OFF:
+                return setState(false, false);
+            case LEGACY_ON_RGB:
+                return setState(true, true);
+            case LEGACY_OFF_RGB:
+                return setState(false, true);
+            case LEGACY_DELETE_NVS:
+                return DELETE_NVS;
+            default:
+                if (message.startsWith(LEGACY_NAME_PREFIX) && message.length() > LEGACY_NAME_PREFIX.length()) {
+                    return rename(message.substring(LEGACY_NAME_PREFIX.length()));
+                }
+                return null;
+        }
+    }
+
+    /** Legacy string form; brightness, color and sequence number have no legacy encoding. */
+    public String toLegacyString() {
+        switch (type) {
+            case SET_STATE:
+                if (rgbMode) {
+                    return lightOn ? LEGACY_ON_RGB : LEGACY_OFF_RGB;
+                }
+                return lightOn ? LEGACY_ON : LEGACY_OFF;
+            case RENAME:
+                return LEGACY_NAME_PREFIX + name;
+            default:
+                return LEGACY_DELETE_NVS;
+        }
+    }
+
+    public DeviceCommand withBrightness(int brightness) {
+        return new DeviceCommand(type, lightOn, rgbMode, brightness, color, seq, name);
+    }
+
+    public DeviceCommand withColor(int color) {
+        return new DeviceCommand(type, lightOn, rgbMode, brightness, color, seq, name);
+    }
+
+    public DeviceCommand withSeq(long seq) {
+        return new DeviceCommand(type, lightOn, rgbMode, brightness, color, seq, name);
+    }
+
+    /**
+     * Returns the device with a state or rename command applied; DELETE_NVS, or a command
+     * that changes nothing, returns the same instance.
+     */
+    public ESPDevice applyTo(ESPDevice device) {
+        if (type == Type.SET_STATE) {
+            return device.withState(ESPDevice.packState(lightOn, rgbMode, device.isReachable(),
+                    hasBrightness() ? brightness : device.getBrightness(),
+                    hasColor() ? color : device.getColor()));
+        } else if (type == Type.RENAME) {
+            return device.withName(name);
+        }
+        return device;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public boolean isLightOn() {
+        return lightOn;
+    }
+
+    public boolean isRGBMode() {
+        return rgbMode;
+    }
+
+    public boolean hasBrightness() {
+        return brightness != NONE;
+    }
+
+    /** 0-100, {@link #NONE} if not set. */
+    public int getBrightness() {
+        return brightness;
+    }
+
+    public boolean hasColor() {
+        return color != NONE;
+    }
+
+    /** 0xRRGGBB, {@link #NONE} if not set. */
+    public int getColor() {
+        return color;
+    }
+
+    /** Sender's sequence number, 0 if not set. */
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DeviceCommand)) return false;
+        DeviceCommand other = (DeviceCommand) o;
+        return type == other.type && lightOn == other.lightOn && rgbMode == other.rgbMode
+                && brightness == other.brightness && color == other.color && seq == other.seq
+                && Objects.equals(name, other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, lightOn, rgbMode, brightness, color, seq, name);
+    }
+
+    @Override
+    public String toString() {
+        return toLegacyString() + (seq != 0 ? " #" + seq : "");
+    }
+}
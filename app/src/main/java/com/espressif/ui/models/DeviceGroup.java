@@ -0,0 +1,126 @@
+package com.espressif.ui.models;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable named set of devices: a room, a zone or a free-form tag. A device can be in
+ * any number of groups. Commands for a group are published once to its
+ * {@link #getCommandTopic() command topic}, which every member subscribes to.
+ *
+ * <p>The built-in group {@link #ALL_ID} contains every device and is not stored; devices
+ * always subscribe to its topic.
+ */
+public final class DeviceGroup {
+
+    public enum Type {
+        ROOM,
+        ZONE,
+        TAG
+    }
+
+    public static final String ALL_ID = "all";
+    public static final String TOPIC_FILTER = "/groups/+/command";
+
+    private final String groupId;
+    private final String name;
+    private final Type type;
+    private final Set<String> memberIds;
+
+    public DeviceGroup(String groupId, String name, Type type, Set<String> memberIds) {
+        if (!isValidId(groupId)) {
+            throw new IllegalArgumentException("Invalid group id: " + groupId);
+        }
+        this.groupId = groupId;
+        this.name = name;
+        this.type = type != null ? type : Type.TAG;
+        this.memberIds = Collections.unmodifiableSet(new LinkedHashSet<>(memberIds));
+    }
+
+    // Id là một level của topic nên không được chứa '/', '+', '#'
+    public static boolean isValidId(String groupId) {
+        if (groupId == null || groupId.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < groupId.length(); i++) {
+            char c = groupId.charAt(i);
+            if (c == '/' || c == '+' || c == '#' || c == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** "/groups/&lt;id&gt;/command" */
+    public static String commandTopic(String groupId) {
+        return "/groups/" + groupId + "/command";
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** Member device ids in the order they were added; the set cannot be modified. */
+    public Set<String> getMemberIds() {
+        return memberIds;
+    }
+
+    public boolean contains(String deviceId) {
+        return memberIds.contains(deviceId);
+    }
+
+    public String getCommandTopic() {
+        return commandTopic(groupId);
+    }
+
+    public DeviceGroup withName(String name) {
+        return Objects.equals(this.name, name) ? this : new DeviceGroup(groupId, name, type, memberIds);
+    }
+
+    public DeviceGroup withMember(String deviceId) {
+        if (memberIds.contains(deviceId)) {
+            return this;
+        }
+        Set<String> members = new LinkedHashSet<>(memberIds);
+        members.add(deviceId);
+        return new DeviceGroup(groupId, name, type, members);
+    }
+
+    public DeviceGroup withoutMember(String deviceId) {
+        if (!memberIds.contains(deviceId)) {
+            return this;
+        }
+        Set<String> members = new LinkedHashSet<>(memberIds);
+        members.remove(deviceId);
+        return new DeviceGroup(groupId, name, type, members);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DeviceGroup)) return false;
+        DeviceGroup other = (DeviceGroup) o;
+        return groupId.equals(other.groupId) && Objects.equals(name, other.name) && type == other.type
+                && memberIds.equals(other.memberIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(groupId, name, type, memberIds);
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceGroup{" + groupId + ", name=" + name + ", " + type + ", members=" + memberIds + "}";
+    }
+}
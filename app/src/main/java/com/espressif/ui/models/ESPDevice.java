@@ -1,26 +1,71 @@
 package com.espressif.ui.models;
 
-public class ESPDevice {
-    private String deviceId;     // ID duy nhất của thiết bị (ví dụ: từ MAC)
-    private String name;         // Tên hiển thị của thiết bị (có thể đổi)
-    private String commandTopic; // Topic để gửi lệnh (ví dụ: /devices/esp_device_XXXXXX/command)
-    private boolean isLightOn;   // Trạng thái đèn
-    private boolean isRGBMode;   // Chế độ Single hay RGB
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of one device. Light, RGB mode, reachability, brightness and color are
+ * packed into a single state word, so comparing two snapshots is one long compare plus the
+ * strings, and {@link #diff} turns the difference into a mask of changed fields.
+ * Changes are made with the {@code with...} methods, which return a copy, or the same
+ * instance when the value does not change.
+ */
+public final class ESPDevice {
+
+    public static final int FIELD_NAME = 1;
+    public static final int FIELD_TOPIC = 1 << 1;
+    public static final int FIELD_LIGHT = 1 << 2;
+    public static final int FIELD_RGB_MODE = 1 << 3;
+    public static final int FIELD_BRIGHTNESS = 1 << 4;
+    public static final int FIELD_COLOR = 1 << 5;
+    public static final int FIELD_REACHABLE = 1 << 6;
+    public static final int ALL_FIELDS = (1 << 7) - 1;
+
+    public static final int DEFAULT_BRIGHTNESS = 100;
+    public static final int DEFAULT_COLOR = 0xFFFFFF;
+
+    // Bố cục state: bit 0 đèn, bit 1 RGB, bit 2 reachable, bit 8-14 độ sáng, bit 16-39 màu 0xRRGGBB
+    private static final long LIGHT_BIT = 1L;
+    private static final long RGB_BIT = 1L << 1;
+    private static final long REACHABLE_BIT = 1L << 2;
+    private static final int BRIGHTNESS_SHIFT = 8;
+    private static final long BRIGHTNESS_MASK = 0x7FL << BRIGHTNESS_SHIFT;
+    private static final int COLOR_SHIFT = 16;
+    private static final long COLOR_MASK = 0xFFFFFFL << COLOR_SHIFT;
+
+    private final String deviceId;     // ID duy nhất của thiết bị (ví dụ: từ MAC)
+    private final String name;         // Tên hiển thị của thiết bị (có thể đổi)
+    private final String commandTopic; // Topic để gửi lệnh (ví dụ: /devices/esp_device_XXXXXX/command)
+    private final long state;
 
     public ESPDevice(String deviceId, String commandTopic) {
-        this.deviceId = deviceId;
-        this.name = deviceId;    // Mặc định tên hiển thị là deviceId
-        this.commandTopic = commandTopic;
-        this.isLightOn = false;  // Mặc định là tắt
-        this.isRGBMode = false;  // Mặc định là chế độ Single
+        // Mặc định tên hiển thị là deviceId, đèn tắt, chế độ Single
+        this(deviceId, deviceId, commandTopic, false, false);
+    }
+
+    public ESPDevice(String deviceId, String name, String commandTopic, boolean isLightOn, boolean isRGBMode) {
+        this(deviceId, name, commandTopic, packState(isLightOn, isRGBMode, true, DEFAULT_BRIGHTNESS, DEFAULT_COLOR));
     }
 
-    public ESPDevice(String deviceId, String name, String commandTopic, boolean isLightOn, boolean isRGBMode){
+    public ESPDevice(String deviceId, String name, String commandTopic, long state) {
         this.deviceId = deviceId;
-        this.name = deviceId;    // Mặc định tên hiển thị là deviceId
+        this.name = name;
         this.commandTopic = commandTopic;
-        this.isLightOn = isLightOn;
-        this.isRGBMode = isRGBMode;
+        this.state = state;
+    }
+
+    /** Packs the state fields; brightness is clamped to 0-100 and color masked to 24 bits. */
+    public static long packState(boolean lightOn, boolean rgbMode, boolean reachable, int brightness, int color) {
+        long state = 0;
+        if (lightOn) state |= LIGHT_BIT;
+        if (rgbMode) state |= RGB_BIT;
+        if (reachable) state |= REACHABLE_BIT;
+        state |= (long) clampBrightness(brightness) << BRIGHTNESS_SHIFT;
+        state |= (color & 0xFFFFFFL) << COLOR_SHIFT;
+        return state;
+    }
+
+    private static int clampBrightness(int brightness) {
+        return Math.max(0, Math.min(100, brightness));
     }
 
     public String getDeviceId() {
@@ -31,27 +76,103 @@ public class ESPDevice {
         return name;
     }
 
-    public void setName(String name) {
-        this.name = name;
-    }
-
     public String getCommandTopic() {
         return commandTopic;
     }
 
-    public boolean isLightOn() {
-        return isLightOn;
+    /** The packed state word; equal words mean equal light, mode, reachability, brightness and color. */
+    public long getState() {
+        return state;
     }
 
-    public void setLightOn(boolean lightOn) {
-        this.isLightOn = lightOn;
+    public boolean isLightOn() {
+        return (state & LIGHT_BIT) != 0;
     }
 
     public boolean isRGBMode() {
-        return isRGBMode;
+        return (state & RGB_BIT) != 0;
+    }
+
+    /** False once presence tracking has marked the device offline. */
+    public boolean isReachable() {
+        return (state & REACHABLE_BIT) != 0;
+    }
+
+    /** Brightness 0-100. */
+    public int getBrightness() {
+        return (int) ((state & BRIGHTNESS_MASK) >>> BRIGHTNESS_SHIFT);
+    }
+
+    /** Color in RGB mode, 0xRRGGBB. */
+    public int getColor() {
+        return (int) ((state & COLOR_MASK) >>> COLOR_SHIFT);
+    }
+
+    public ESPDevice withName(String name) {
+        return Objects.equals(this.name, name) ? this : new ESPDevice(deviceId, name, commandTopic, state);
+    }
+
+    public ESPDevice withLightOn(boolean lightOn) {
+        return withState(lightOn ? state | LIGHT_BIT : state & ~LIGHT_BIT);
+    }
+
+    public ESPDevice withRGBMode(boolean rgbMode) {
+        return withState(rgbMode ? state | RGB_BIT : state & ~RGB_BIT);
+    }
+
+    public ESPDevice withReachable(boolean reachable) {
+        return withState(reachable ? state | REACHABLE_BIT : state & ~REACHABLE_BIT);
+    }
+
+    public ESPDevice withBrightness(int brightness) {
+        return withState((state & ~BRIGHTNESS_MASK) | (long) clampBrightness(brightness) << BRIGHTNESS_SHIFT);
+    }
+
+    public ESPDevice withColor(int color) {
+        return withState((state & ~COLOR_MASK) | (color & 0xFFFFFFL) << COLOR_SHIFT);
+    }
+
+    public ESPDevice withState(long state) {
+        return this.state == state ? this : new ESPDevice(deviceId, name, commandTopic, state);
+    }
+
+    /** Mask of the {@code FIELD_*} values that differ from {@code other}; 0 when both are equal. */
+    public int diff(ESPDevice other) {
+        if (other == this) {
+            return 0;
+        }
+        int fields = 0;
+        long changed = state ^ other.state;
+        if (changed != 0) {
+            if ((changed & LIGHT_BIT) != 0) fields |= FIELD_LIGHT;
+            if ((changed & RGB_BIT) != 0) fields |= FIELD_RGB_MODE;
+            if ((changed & REACHABLE_BIT) != 0) fields |= FIELD_REACHABLE;
+            if ((changed & BRIGHTNESS_MASK) != 0) fields |= FIELD_BRIGHTNESS;
+            if ((changed & COLOR_MASK) != 0) fields |= FIELD_COLOR;
+        }
+        if (!Objects.equals(name, other.name)) fields |= FIELD_NAME;
+        if (!Objects.equals(commandTopic, other.commandTopic)) fields |= FIELD_TOPIC;
+        return fields;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ESPDevice)) return false;
+        ESPDevice other = (ESPDevice) o;
+        return state == other.state && Objects.equals(deviceId, other.deviceId)
+                && Objects.equals(name, other.name) && Objects.equals(commandTopic, other.commandTopic);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(deviceId, name, commandTopic, state);
     }
 
-    public void setRGBMode(boolean isRGBMode) {
-        this.isRGBMode = isRGBMode;
+    @Override
+    public String toString() {
+        return "ESPDevice{" + deviceId + ", name=" + name + ", on=" + isLightOn() + ", rgb=" + isRGBMode()
+                + ", reachable=" + isReachable() + ", brightness=" + getBrightness()
+                + ", color=#" + String.format("%06X", getColor()) + "}";
     }
-}
\ No newline at end of file
+}
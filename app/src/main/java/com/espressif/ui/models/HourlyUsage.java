@@ -0,0 +1,40 @@
+package com.espressif.ui.models;
+
+/** How long a light was on, and how often it was switched, during one hour. */
+public final class HourlyUsage {
+
+    private final String deviceId;
+    private final long hourStartMs;
+    private final long onDurationMs;
+    private final int toggleCount;
+
+    public HourlyUsage(String deviceId, long hourStartMs, long onDurationMs, int toggleCount) {
+        this.deviceId = deviceId;
+        this.hourStartMs = hourStartMs;
+        this.onDurationMs = onDurationMs;
+        this.toggleCount = toggleCount;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /** Start of the hour in epoch milliseconds, aligned to whole UTC hours. */
+    public long getHourStartMs() {
+        return hourStartMs;
+    }
+
+    public long getOnDurationMs() {
+        return onDurationMs;
+    }
+
+    /** Number of on/off switches inside the hour; RGB mode changes are not counted. */
+    public int getToggleCount() {
+        return toggleCount;
+    }
+
+    @Override
+    public String toString() {
+        return deviceId + "@" + hourStartMs + ": on " + onDurationMs + " ms, " + toggleCount + " toggles";
+    }
+}
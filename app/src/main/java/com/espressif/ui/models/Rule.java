@@ -0,0 +1,172 @@
+package com.espressif.ui.models;
+
+import java.util.Objects;
+
+/**
+ * Immutable automation: when the trigger fires and the time of day is inside the optional
+ * window, the rule applies a {@link Scene}.
+ *
+ * <p>A {@link Trigger#MESSAGE} rule fires on every inbound MQTT message whose topic matches
+ * {@link #getTopicFilter()} (wildcards allowed) and, if {@link #getPayload()} is set, whose
+ * payload equals it; binary device commands are compared in their legacy form ("on",
+ * "offRGB", ...). A {@link Trigger#TIME} rule fires every day at {@link #getAtMinute()}.
+ */
+public final class Rule {
+
+    public enum Trigger {
+        MESSAGE,
+        TIME
+    }
+
+    public static final int NO_TIME = -1;
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final String ruleId;
+    private final String name;
+    private final boolean enabled;
+    private final Trigger trigger;
+    private final String topicFilter;
+    private final String payload;
+    private final int atMinute;
+    private final int windowStart;
+    private final int windowEnd;
+    private final String sceneId;
+
+    public Rule(String ruleId, String name, boolean enabled, Trigger trigger, String topicFilter, String payload,
+                int atMinute, int windowStart, int windowEnd, String sceneId) {
+        if (ruleId == null || trigger == null || sceneId == null) {
+            throw new IllegalArgumentException("Rule id, trigger and scene are required");
+        }
+        if (trigger == Trigger.MESSAGE && (topicFilter == null || topicFilter.isEmpty())) {
+            throw new IllegalArgumentException("Message rule needs a topic filter");
+        }
+        if (trigger == Trigger.TIME && !isMinuteOfDay(atMinute)) {
+            throw new IllegalArgumentException("Time rule needs a minute of day: " + atMinute);
+        }
+        if ((windowStart == NO_TIME) != (windowEnd == NO_TIME)
+                || (windowStart != NO_TIME && (!isMinuteOfDay(windowStart) || !isMinuteOfDay(windowEnd)))) {
+            throw new IllegalArgumentException("Invalid window: " + windowStart + "-" + windowEnd);
+        }
+        this.ruleId = ruleId;
+        this.name = name;
+        this.enabled = enabled;
+        this.trigger = trigger;
+        this.topicFilter = trigger == Trigger.MESSAGE ? topicFilter : null;
+        this.payload = trigger == Trigger.MESSAGE ? payload : null;
+        this.atMinute = trigger == Trigger.TIME ? atMinute : NO_TIME;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.sceneId = sceneId;
+    }
+
+    private static boolean isMinuteOfDay(int minute) {
+        return minute >= 0 && minute < MINUTES_PER_DAY;
+    }
+
+    /** Fires on messages on {@code topicFilter}; {@code payload} null matches any payload. */
+    public static Rule onMessage(String ruleId, String name, String topicFilter, String payload, String sceneId) {
+        return new Rule(ruleId, name, true, Trigger.MESSAGE, topicFilter, payload, NO_TIME, NO_TIME, NO_TIME, sceneId);
+    }
+
+    /** Fires every day at {@code hour}:{@code minute}, local time. */
+    public static Rule at(String ruleId, String name, int hour, int minute, String sceneId) {
+        return new Rule(ruleId, name, true, Trigger.TIME, null, null, hour * 60 + minute, NO_TIME, NO_TIME, sceneId);
+    }
+
+    public String getRuleId() {
+        return ruleId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Trigger getTrigger() {
+        return trigger;
+    }
+
+    public String getTopicFilter() {
+        return topicFilter;
+    }
+
+    /** Payload the message must equal, or null for any. */
+    public String getPayload() {
+        return payload;
+    }
+
+    /** Minute of the day a time rule fires at, {@link #NO_TIME} for message rules. */
+    public int getAtMinute() {
+        return atMinute;
+    }
+
+    public boolean hasWindow() {
+        return windowStart != NO_TIME;
+    }
+
+    public int getWindowStart() {
+        return windowStart;
+    }
+
+    public int getWindowEnd() {
+        return windowEnd;
+    }
+
+    public String getSceneId() {
+        return sceneId;
+    }
+
+    /** Whether the rule may fire at {@code minuteOfDay}; windows may wrap midnight (23:00-06:00). */
+    public boolean isActiveAt(int minuteOfDay) {
+        if (!hasWindow()) {
+            return true;
+        }
+        if (windowStart <= windowEnd) {
+            return minuteOfDay >= windowStart && minuteOfDay < windowEnd;
+        }
+        return minuteOfDay >= windowStart || minuteOfDay < windowEnd;
+    }
+
+    public boolean matchesPayload(String message) {
+        return payload == null || payload.equals(message);
+    }
+
+    /** Only fires between {@code start} and {@code end} (minutes of day, end exclusive). */
+    public Rule withWindow(int start, int end) {
+        return new Rule(ruleId, name, enabled, trigger, topicFilter, payload, atMinute, start, end, sceneId);
+    }
+
+    public Rule withEnabled(boolean enabled) {
+        return enabled == this.enabled ? this
+                : new Rule(ruleId, name, enabled, trigger, topicFilter, payload, atMinute, windowStart, windowEnd, sceneId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Rule)) return false;
+        Rule other = (Rule) o;
+        return enabled == other.enabled && atMinute == other.atMinute && windowStart == other.windowStart
+                && windowEnd == other.windowEnd && ruleId.equals(other.ruleId) && Objects.equals(name, other.name)
+                && trigger == other.trigger && Objects.equals(topicFilter, other.topicFilter)
+                && Objects.equals(payload, other.payload) && sceneId.equals(other.sceneId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ruleId, name, enabled, trigger, topicFilter, payload, atMinute, windowStart, windowEnd,
+                sceneId);
+    }
+
+    @Override
+    public String toString() {
+        String when = trigger == Trigger.MESSAGE
+                ? topicFilter + (payload != null ? " = " + payload : "")
+                : String.format("%02d:%02d", atMinute / 60, atMinute % 60);
+        return "Rule{" + ruleId + ", " + when + (hasWindow() ? ", window " + windowStart + "-" + windowEnd : "")
+                + " -> scene " + sceneId + (enabled ? "" : ", disabled") + "}";
+    }
+}
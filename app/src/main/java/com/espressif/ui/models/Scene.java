@@ -0,0 +1,127 @@
+package com.espressif.ui.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable named list of commands applied together, e.g. "evening: lobby RGB on,
+ * office off". Each action targets one device or one {@link DeviceGroup}; when a device
+ * is targeted more than once, the last action wins.
+ */
+public final class Scene {
+
+    public enum Target {
+        DEVICE,
+        GROUP
+    }
+
+    public static final class Action {
+        private final Target target;
+        private final String targetId;
+        private final DeviceCommand command;
+
+        public Action(Target target, String targetId, DeviceCommand command) {
+            if (target == null || targetId == null || command == null) {
+                throw new IllegalArgumentException("Target, id and command are required");
+            }
+            if (command.getType() == DeviceCommand.Type.DELETE_NVS) {
+                throw new IllegalArgumentException("DELETE_NVS cannot be part of a scene");
+            }
+            this.target = target;
+            this.targetId = targetId;
+            this.command = command;
+        }
+
+        public static Action device(String deviceId, DeviceCommand command) {
+            return new Action(Target.DEVICE, deviceId, command);
+        }
+
+        public static Action group(String groupId, DeviceCommand command) {
+            return new Action(Target.GROUP, groupId, command);
+        }
+
+        public Target getTarget() {
+            return target;
+        }
+
+        public String getTargetId() {
+            return targetId;
+        }
+
+        public DeviceCommand getCommand() {
+            return command;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Action)) return false;
+            Action other = (Action) o;
+            return target == other.target && targetId.equals(other.targetId) && command.equals(other.command);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(target, targetId, command);
+        }
+
+        @Override
+        public String toString() {
+            return target + " " + targetId + ": " + command;
+        }
+    }
+
+    private final String sceneId;
+    private final String name;
+    private final List<Action> actions;
+
+    public Scene(String sceneId, String name, List<Action> actions) {
+        if (sceneId == null || sceneId.isEmpty()) {
+            throw new IllegalArgumentException("Scene id is required");
+        }
+        this.sceneId = sceneId;
+        this.name = name;
+        this.actions = Collections.unmodifiableList(new ArrayList<>(actions));
+    }
+
+    public String getSceneId() {
+        return sceneId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Actions in the order they are published; the list cannot be modified. */
+    public List<Action> getActions() {
+        return actions;
+    }
+
+    public Scene withName(String name) {
+        return Objects.equals(this.name, name) ? this : new Scene(sceneId, name, actions);
+    }
+
+    public Scene withActions(List<Action> actions) {
+        return new Scene(sceneId, name, actions);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Scene)) return false;
+        Scene other = (Scene) o;
+        return sceneId.equals(other.sceneId) && Objects.equals(name, other.name) && actions.equals(other.actions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sceneId, name, actions);
+    }
+
+    @Override
+    public String toString() {
+        return "Scene{" + sceneId + ", name=" + name + ", actions=" + actions + "}";
+    }
+}
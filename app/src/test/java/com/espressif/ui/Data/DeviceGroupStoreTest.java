@@ -0,0 +1,80 @@
+package com.espressif.ui.Data;
+
+import com.espressif.ui.models.DeviceGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceGroupStoreTest {
+
+    private final List<String> writes = new ArrayList<>();
+    private final List<String> notified = new ArrayList<>();
+    private DeviceGroupStore store;
+
+    @Before
+    public void setUp() {
+        DeviceGroup kitchen = new DeviceGroup("kitchen", "Kitchen", DeviceGroup.Type.ROOM,
+                new LinkedHashSet<>(Arrays.asList("a", "b")));
+        DeviceGroup hall = new DeviceGroup("hall", "Hall", DeviceGroup.Type.ZONE,
+                new LinkedHashSet<>(Collections.singletonList("a")));
+        store = new DeviceGroupStore(Arrays.asList(kitchen, hall), new DeviceGroupStore.Persistence() {
+            @Override
+            public void save(DeviceGroup group) {
+                writes.add("save " + group.getGroupId() + " " + group.getMemberIds());
+            }
+
+            @Override
+            public void delete(String groupId) {
+                writes.add("delete " + groupId);
+            }
+        });
+        store.addListener(notified::add);
+    }
+
+    @Test
+    public void membershipChangesAreSavedAndNotified() {
+        store.addMember("hall", "c");
+        DeviceGroup unchanged = store.get("hall");
+        assertSame(unchanged, store.addMember("hall", "c"));
+        store.removeMember("kitchen", "b");
+
+        assertEquals(Arrays.asList("save hall [a, c]", "save kitchen [a]"), writes);
+        assertEquals(Arrays.asList("c", "b"), notified);
+        assertNull(store.addMember("missing", "a"));
+    }
+
+    @Test
+    public void removedDeviceLeavesEveryGroup() {
+        assertEquals(2, store.groupsOf("a").size());
+
+        store.removeDevice("a");
+
+        assertTrue(store.groupsOf("a").isEmpty());
+        assertEquals(Collections.singleton("b"), store.get("kitchen").getMemberIds());
+        assertEquals(Collections.singletonList("a"), notified);
+        // Các dòng group_members đã bị xóa cùng thiết bị
+        assertTrue(writes.isEmpty());
+    }
+
+    @Test
+    public void deletingGroupNotifiesItsMembers() {
+        assertTrue(store.delete("kitchen"));
+        assertFalse(store.delete("kitchen"));
+
+        assertEquals(Collections.singletonList("delete kitchen"), writes);
+        assertEquals(Arrays.asList("a", "b"), notified);
+        assertEquals(1, store.groupsOf("a").size());
+    }
+}
@@ -0,0 +1,196 @@
+package com.espressif.ui.Data;
+
+import com.espressif.ui.models.DeviceCommand;
+import com.espressif.ui.models.ESPDevice;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Microbenchmark of {@link DeviceStore} against the synchronized list that AppDataManager
+ * used before. Each case runs warmup iterations, then reports the mean ns/op of the
+ * measured iterations, in the spirit of a JMH average-time benchmark.
+ * Skipped in normal test runs; run with
+ * {@code ./gradlew :app:testDebugUnitTest --tests '*DeviceStoreBenchmark' -Pbenchmark=true}.
+ */
+public class DeviceStoreBenchmark {
+
+    private static final int[] SIZES = {100, 500, 1000};
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final int OPS_PER_ITERATION = 20_000;
+    private static final boolean ENABLED = Boolean.getBoolean("benchmark");
+
+    // Ghi kết quả vào đây để JIT không bỏ được phép đo
+    private static volatile int blackhole;
+
+    private static final DeviceStore.Persistence NO_PERSISTENCE = new DeviceStore.Persistence() {
+        @Override
+        public void write(ESPDevice device) {
+        }
+
+        @Override
+        public void delete(String deviceId) {
+        }
+
+        @Override
+        public void setAllLightsOn(boolean lightOn) {
+        }
+
+        @Override
+        public void recordTransition(ESPDevice device, long timestampMs) {
+        }
+    };
+
+    private interface Operation {
+        /** Returns something derived from the result so the JIT cannot drop the work. */
+        int run(int i);
+    }
+
+    /** What AppDataManager did: a synchronized list scanned under its lock. */
+    private static final class SynchronizedListStore {
+        private final List<ESPDevice> devices = Collections.synchronizedList(new ArrayList<>());
+
+        SynchronizedListStore(List<ESPDevice> initial) {
+            devices.addAll(initial);
+        }
+
+        ESPDevice get(String deviceId) {
+            synchronized (devices) {
+                for (ESPDevice device : devices) {
+                    if (deviceId.equals(device.getDeviceId())) {
+                        return device;
+                    }
+                }
+                return null;
+            }
+        }
+
+        void apply(String deviceId, DeviceCommand command) {
+            synchronized (devices) {
+                for (int i = 0; i < devices.size(); i++) {
+                    ESPDevice device = devices.get(i);
+                    if (deviceId.equals(device.getDeviceId())) {
+                        devices.set(i, command.applyTo(device));
+                        return;
+                    }
+                }
+            }
+        }
+
+        List<ESPDevice> getAll() {
+            synchronized (devices) {
+                return new ArrayList<>(devices);
+            }
+        }
+
+        int countLightOn() {
+            synchronized (devices) {
+                int count = 0;
+                for (ESPDevice device : devices) {
+                    if (device.isLightOn()) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+        }
+    }
+
+    @Test
+    public void compareWithSynchronizedList() {
+        assumeTrue("Benchmark disabled, pass -Pbenchmark=true", ENABLED);
+        print(String.format(Locale.US, "%-22s %6s %14s %14s", "operation", "n", "list ns/op", "store ns/op"));
+        for (int size : SIZES) {
+            List<ESPDevice> devices = devices(size);
+            SynchronizedListStore list = new SynchronizedListStore(copies(devices));
+            DeviceStore store = new DeviceStore(copies(devices), NO_PERSISTENCE);
+            String[] ids = randomIds(size);
+            DeviceCommand on = DeviceCommand.setState(true, false);
+            DeviceCommand off = DeviceCommand.setState(false, false);
+
+            report("getById", size,
+                    i -> list.get(ids[i % ids.length]).getName().length(),
+                    i -> store.get(ids[i % ids.length]).getName().length());
+            report("applyCommand", size,
+                    i -> {
+                        list.apply(ids[i % ids.length], (i & 1) == 0 ? on : off);
+                        return i;
+                    },
+                    i -> {
+                        store.apply(ids[i % ids.length], (i & 1) == 0 ? on : off);
+                        return i;
+                    });
+            report("getAll (no change)", size,
+                    i -> list.getAll().size(),
+                    i -> store.getAll().size());
+            report("countLightOn", size,
+                    i -> list.countLightOn(),
+                    i -> store.countLightOn());
+
+            assertEquals(list.countLightOn(), store.countLightOn());
+        }
+    }
+
+    private static void report(String name, int size, Operation baseline, Operation candidate) {
+        double baselineNs = measure(baseline);
+        double candidateNs = measure(candidate);
+        print(String.format(Locale.US, "%-22s %6d %14.1f %14.1f", name, size, baselineNs, candidateNs));
+    }
+
+    private static double measure(Operation operation) {
+        int sink = 0;
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++) {
+            for (int i = 0; i < OPS_PER_ITERATION; i++) {
+                sink += operation.run(i);
+            }
+        }
+        long total = 0;
+        for (int iteration = 0; iteration < MEASURED_ITERATIONS; iteration++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < OPS_PER_ITERATION; i++) {
+                sink += operation.run(i);
+            }
+            total += System.nanoTime() - start;
+        }
+        blackhole = sink;
+        return (double) total / ((long) MEASURED_ITERATIONS * OPS_PER_ITERATION);
+    }
+
+    private static void print(String line) {
+        if (ENABLED) {
+            System.out.println(line);
+        }
+    }
+
+    private static List<ESPDevice> devices(int size) {
+        List<ESPDevice> devices = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String id = String.format(Locale.US, "esp_device_%06X", i);
+            devices.add(new ESPDevice(id, id, "/devices/" + id + "/command", i % 3 == 0, false));
+        }
+        return devices;
+    }
+
+    // ESPDevice bất biến nên hai store dùng chung phần tử được, chỉ cần danh sách riêng
+    private static List<ESPDevice> copies(List<ESPDevice> devices) {
+        return new ArrayList<>(devices);
+    }
+
+    private static String[] randomIds(int size) {
+        Random random = new Random(size);
+        String[] ids = new String[1024];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = String.format(Locale.US, "esp_device_%06X", random.nextInt(size));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,174 @@
+package com.espressif.ui.Data;
+
+import com.espressif.ui.models.DeviceCommand;
+import com.espressif.ui.models.ESPDevice;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceStoreTest {
+
+    private final List<String> writes = new ArrayList<>();
+    private final List<String> transitions = new ArrayList<>();
+    private DeviceStore store;
+
+    @Before
+    public void setUp() {
+        store = new DeviceStore(Arrays.asList(device("a", true, false), device("b", false, true),
+                device("c", true, true)), new DeviceStore.Persistence() {
+            @Override
+            public void write(ESPDevice device) {
+                writes.add("write " + device.getDeviceId());
+            }
+
+            @Override
+            public void writeAll(List<ESPDevice> devices) {
+                List<String> ids = new ArrayList<>();
+                for (ESPDevice device : devices) {
+                    ids.add(device.getDeviceId());
+                }
+                writes.add("writeAll " + ids);
+            }
+
+            @Override
+            public void delete(String deviceId) {
+                writes.add("delete " + deviceId);
+            }
+
+            @Override
+            public void setAllLightsOn(boolean lightOn) {
+                writes.add("all " + lightOn);
+            }
+
+            @Override
+            public void recordTransition(ESPDevice device, long timestampMs) {
+                transitions.add(device.getDeviceId() + (device.isLightOn() ? " on" : " off"));
+            }
+        });
+    }
+
+    private static ESPDevice device(String id, boolean lightOn, boolean rgbMode) {
+        return new ESPDevice(id, id, "/devices/" + id + "/command", lightOn, rgbMode);
+    }
+
+    @Test
+    public void reachabilityChangeIsNotWritten() {
+        ESPDevice offline = store.update("b", device -> device.withReachable(false));
+
+        assertFalse(offline.isReachable());
+        assertSame(offline, store.get("b"));
+        assertTrue(writes.isEmpty());
+        assertTrue(transitions.isEmpty());
+    }
+
+    @Test
+    public void updatePublishesCopyAndMaintainsIndexes() {
+        ESPDevice before = store.get("a");
+        assertEquals(2, store.countLightOn());
+
+        ESPDevice after = store.update("a", device -> device.withLightOn(false));
+
+        assertNotSame(before, after);
+        assertTrue(before.isLightOn());
+        assertSame(after, store.getByTopic("/devices/a/command"));
+        assertEquals(1, store.countLightOn());
+        assertEquals("c", store.getLightOn().get(0).getDeviceId());
+        assertEquals(Arrays.asList("write a"), writes);
+        assertEquals(Arrays.asList("a off"), transitions);
+    }
+
+    @Test
+    public void onlyLightOrModeChangesAreRecorded() {
+        store.update("b", device -> device.withName("Kitchen"));
+        store.update("b", device -> device.withBrightness(40));
+        assertTrue(transitions.isEmpty());
+
+        store.update("b", device -> device.withRGBMode(false));
+        assertEquals(Arrays.asList("b off"), transitions);
+    }
+
+    @Test
+    public void updateAllWritesChangedDevicesInOneBatch() {
+        List<DeviceChange> changes = new ArrayList<>();
+        store.addListener(changes::add, Runnable::run);
+
+        List<ESPDevice> changed = store.applyAll(Arrays.asList("a", "b", "missing", "c"),
+                DeviceCommand.setState(false, true));
+
+        // "b" đã tắt và ở chế độ RGB nên không đổi
+        assertEquals(2, changed.size());
+        assertEquals(Arrays.asList("writeAll [a, c]"), writes);
+        assertEquals(Arrays.asList("a off", "c off"), transitions);
+        assertEquals(2, changes.size());
+        assertEquals(0, store.countLightOn());
+        assertEquals(3, store.countRGBMode());
+    }
+
+    @Test
+    public void snapshotIsReusedUntilNextWrite() {
+        DeviceStore.Snapshot first = store.snapshot();
+        assertSame(first, store.snapshot());
+        assertEquals(Arrays.asList("a", "b", "c"), ids(first.getDevices()));
+
+        store.apply("b", DeviceCommand.deleteNvs());
+        DeviceStore.Snapshot second = store.snapshot();
+
+        assertTrue(second.getVersion() > first.getVersion());
+        assertEquals(Arrays.asList("a", "c"), ids(second.getDevices()));
+        assertEquals(3, first.getDevices().size());
+        assertNull(store.getByTopic("/devices/b/command"));
+        assertEquals(1, store.countRGBMode());
+    }
+
+    @Test
+    public void turningAllOffTouchesOnlyLitDevices() {
+        ESPDevice unlit = store.get("b");
+        store.setAllLightsOn(false);
+
+        assertEquals(0, store.countLightOn());
+        assertSame(unlit, store.get("b"));
+        assertFalse(store.get("a").isLightOn());
+        assertEquals(Arrays.asList("all false"), writes);
+        assertEquals(2, transitions.size());
+    }
+
+    @Test
+    public void changesAreEmittedInOrderWithFieldMask() {
+        List<DeviceChange> changes = new ArrayList<>();
+        store.addListener(changes::add, Runnable::run);
+
+        store.update("a", device -> device.withName("a"));
+        store.update("a", device -> device.withLightOn(false));
+        store.add("d", "/devices/d/command");
+        store.remove("b");
+
+        assertEquals(3, changes.size());
+        assertEquals(DeviceChange.Type.UPDATED, changes.get(0).getType());
+        assertEquals(ESPDevice.FIELD_LIGHT, changes.get(0).getChangedFields());
+        assertEquals(DeviceChange.Type.INSERTED, changes.get(1).getType());
+        assertEquals("d", changes.get(1).getDeviceId());
+        assertEquals(DeviceChange.Type.REMOVED, changes.get(2).getType());
+        assertEquals("b", changes.get(2).getDeviceId());
+        assertTrue(changes.get(1).getVersion() < changes.get(2).getVersion());
+        assertEquals(store.getVersion(), changes.get(2).getVersion());
+    }
+
+    private static List<String> ids(List<ESPDevice> devices) {
+        List<String> ids = new ArrayList<>();
+        for (ESPDevice device : devices) {
+            ids.add(device.getDeviceId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,74 @@
+package com.espressif.ui.Data;
+
+import com.espressif.ui.models.HourlyUsage;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UsageAggregatorTest {
+
+    private static final long HOUR = UsageAggregator.HOUR_MS;
+    private static final long MINUTE = 60_000L;
+    private static final long T0 = 1_000 * HOUR;
+
+    @Test
+    public void onPeriodIsSplitAcrossHours() {
+        UsageAggregator aggregator = new UsageAggregator("a");
+        aggregator.add(T0 + 45 * MINUTE, true, false);
+        aggregator.add(T0 + HOUR + 30 * MINUTE, false, false);
+
+        List<HourlyUsage> usage = aggregator.result();
+
+        assertEquals(2, usage.size());
+        assertEquals(T0, usage.get(0).getHourStartMs());
+        assertEquals(15 * MINUTE, usage.get(0).getOnDurationMs());
+        assertEquals(0, usage.get(0).getToggleCount());
+        assertEquals(30 * MINUTE, usage.get(1).getOnDurationMs());
+        assertEquals(1, usage.get(1).getToggleCount());
+    }
+
+    @Test
+    public void finishCountsCurrentStateAndModeChangesAreNotToggles() {
+        UsageAggregator aggregator = new UsageAggregator("a");
+        aggregator.add(T0, false, false);
+        aggregator.add(T0 + 10 * MINUTE, true, false);
+        aggregator.add(T0 + 20 * MINUTE, true, true);
+        aggregator.finish(T0 + HOUR + 5 * MINUTE);
+
+        List<HourlyUsage> usage = aggregator.result();
+
+        assertEquals(50 * MINUTE, usage.get(0).getOnDurationMs());
+        assertEquals(1, usage.get(0).getToggleCount());
+        assertEquals(5 * MINUTE, usage.get(1).getOnDurationMs());
+        assertTrue(aggregator.isLastRGBMode());
+    }
+
+    @Test
+    public void clockGoingBackwardsAddsNoTime() {
+        UsageAggregator aggregator = new UsageAggregator("a");
+        aggregator.add(T0 + 30 * MINUTE, true, false);
+        aggregator.add(T0 + 20 * MINUTE, false, false);
+
+        HourlyUsage usage = aggregator.result().get(0);
+
+        assertEquals(0, usage.getOnDurationMs());
+        assertEquals(1, usage.getToggleCount());
+    }
+
+    @Test
+    public void resultIsLimitedToRange() {
+        UsageAggregator aggregator = new UsageAggregator("a");
+        aggregator.add(T0, true, false);
+        aggregator.finish(T0 + 3 * HOUR);
+
+        List<HourlyUsage> usage = aggregator.result(T0 + HOUR + MINUTE, T0 + 2 * HOUR);
+
+        assertEquals(1, usage.size());
+        assertEquals(T0 + HOUR, usage.get(0).getHourStartMs());
+        assertEquals(HOUR, usage.get(0).getOnDurationMs());
+    }
+}
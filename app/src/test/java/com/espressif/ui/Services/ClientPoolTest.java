@@ -0,0 +1,130 @@
+package com.espressif.ui.Services;
+
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.lifecycle.MqttClientConnectedContext;
+import com.hivemq.client.mqtt.lifecycle.MqttClientDisconnectedContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClientPoolTest {
+
+    private static final ClientPool.Listener NO_OP = new ClientPool.Listener() {
+        @Override
+        public void onPrimaryConnected(ClientPool pool, MqttClientConnectedContext context) {
+        }
+
+        @Override
+        public void onPrimaryDisconnected(ClientPool pool, MqttClientDisconnectedContext context) {
+        }
+
+        @Override
+        public void onSecondaryConnected(ClientPool pool, int index) {
+        }
+    };
+
+    private LocalMqttBroker broker;
+    private ClientPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new LocalMqttBroker();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (pool != null) {
+            pool.disconnectAll().get(5, TimeUnit.SECONDS);
+        }
+        broker.close();
+    }
+
+    @Test
+    public void topicAlwaysMapsToSameClient() {
+        for (int i = 0; i < 100; i++) {
+            String topic = "/devices/esp" + i + "/command";
+            int index = ClientPool.indexFor(topic, 3);
+            assertTrue(index >= 0 && index < 3);
+            assertEquals(index, ClientPool.indexFor(topic, 3));
+        }
+    }
+
+    @Test
+    public void publishesAreSpreadAcrossPoolAndDelivered() throws Exception {
+        pool = new ClientPool(broker.profile(3), "test", 100, 1000, NO_OP);
+        pool.connectPrimary(true).get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<?> future : pool.connectSecondaries()) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(3, broker.getConnectCount());
+
+        int topicCount = 30;
+        CountDownLatch received = new CountDownLatch(topicCount);
+        List<String> payloads = new CopyOnWriteArrayList<>();
+        pool.primary().setInboundHandler((topic, payload, correlationData) -> {
+            payloads.add(new String(payload, StandardCharsets.UTF_8));
+            received.countDown();
+        });
+        pool.primary().subscribe(Collections.singletonMap("/devices/+/command", MqttQos.AT_LEAST_ONCE))
+                .get(5, TimeUnit.SECONDS);
+
+        Map<Integer, Integer> expectedPerClient = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> acks = new ArrayList<>();
+        for (int i = 0; i < topicCount; i++) {
+            String topic = "/devices/esp" + i + "/command";
+            expectedPerClient.merge(ClientPool.indexFor(topic, 3), 1, Integer::sum);
+            acks.add(pool.forTopic(topic).publish(topic, ("on" + i).getBytes(StandardCharsets.UTF_8),
+                    MqttQos.AT_LEAST_ONCE, PublishOptions.NONE));
+        }
+        CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertEquals(topicCount, payloads.size());
+        assertTrue("publishes should use more than one connection", expectedPerClient.size() > 1);
+        assertEquals((int) expectedPerClient.getOrDefault(0, 0), broker.getPublishCount("test"));
+        assertEquals((int) expectedPerClient.getOrDefault(1, 0), broker.getPublishCount("test-1"));
+        assertEquals((int) expectedPerClient.getOrDefault(2, 0), broker.getPublishCount("test-2"));
+    }
+
+    @Test
+    public void secondaryClientReconnectsOnItsOwn() throws Exception {
+        CountDownLatch secondaryConnects = new CountDownLatch(2);
+        pool = new ClientPool(broker.profile(2), "test", 50, 200, new ClientPool.Listener() {
+            @Override
+            public void onPrimaryConnected(ClientPool pool, MqttClientConnectedContext context) {
+            }
+
+            @Override
+            public void onPrimaryDisconnected(ClientPool pool, MqttClientDisconnectedContext context) {
+            }
+
+            @Override
+            public void onSecondaryConnected(ClientPool pool, int index) {
+                secondaryConnects.countDown();
+            }
+        });
+        for (CompletableFuture<?> future : pool.connectSecondaries()) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        broker.dropConnections();
+
+        assertTrue(secondaryConnects.await(5, TimeUnit.SECONDS));
+        assertTrue(pool.get(1).getState().isConnected());
+    }
+}
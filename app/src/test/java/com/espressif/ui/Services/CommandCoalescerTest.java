@@ -0,0 +1,123 @@
+package com.espressif.ui.Services;
+
+import com.espressif.ui.models.ESPDevice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommandCoalescerTest {
+
+    private static final long WINDOW_MS = 50;
+    private static final ESPDevice LAMP = new ESPDevice("a", "/devices/a/command");
+    private static final ESPDevice FAN = new ESPDevice("b", "/devices/b/command");
+
+    private final List<String> emitted = Collections.synchronizedList(new ArrayList<>());
+    private ScheduledExecutorService scheduler;
+    private CommandCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        coalescer = new CommandCoalescer(WINDOW_MS,
+                (device, command) -> emitted.add(device.getDeviceId() + ":" + command), scheduler);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    // Tác vụ cùng độ trễ chạy sau lần emit đã hẹn, theo thứ tự lên lịch
+    private void waitForWindow() throws Exception {
+        scheduler.schedule(() -> { }, WINDOW_MS, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void lastCommandInWindowWins() throws Exception {
+        coalescer.submit(LAMP, "on");
+        coalescer.submit(LAMP, "off");
+        coalescer.submit(LAMP, "onRGB");
+        waitForWindow();
+
+        assertEquals(Arrays.asList("a:onRGB"), emitted);
+        assertEquals(3, coalescer.getSubmittedCount());
+        assertEquals(1, coalescer.getEmittedCount());
+        assertEquals(2, coalescer.getSupersededCount());
+    }
+
+    @Test
+    public void topicsAreCoalescedSeparately() throws Exception {
+        coalescer.submit(LAMP, "on");
+        coalescer.submit(FAN, "on");
+        coalescer.submit(FAN, "off");
+        waitForWindow();
+
+        assertEquals(Arrays.asList("a:on", "b:off"), emitted);
+    }
+
+    @Test
+    public void commandAfterWindowOpensNewOne() throws Exception {
+        coalescer.submit(LAMP, "on");
+        waitForWindow();
+        coalescer.submit(LAMP, "off");
+        waitForWindow();
+
+        assertEquals(Arrays.asList("a:on", "a:off"), emitted);
+        assertEquals(0, coalescer.getSupersededCount());
+    }
+
+    @Test
+    public void cancelDropsPendingCommand() throws Exception {
+        coalescer.submit(LAMP, "on");
+        coalescer.cancel(LAMP.getCommandTopic());
+        coalescer.cancel(FAN.getCommandTopic());
+        waitForWindow();
+
+        assertEquals(Collections.emptyList(), emitted);
+        assertEquals(1, coalescer.getSupersededCount());
+    }
+
+    @Test
+    public void shutdownEmitsPendingCommands() throws Exception {
+        CommandCoalescer slow = new CommandCoalescer(60_000,
+                (device, command) -> emitted.add(device.getDeviceId() + ":" + command), scheduler);
+        slow.submit(LAMP, "on");
+        slow.submit(FAN, "offRGB");
+        slow.shutdown();
+
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        Collections.sort(emitted);
+        assertEquals(Arrays.asList("a:on", "b:offRGB"), emitted);
+    }
+
+    @Test
+    public void submitAfterShutdownIsDropped() throws Exception {
+        coalescer.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+
+        coalescer.submit(LAMP, "on");
+        coalescer.cancel(LAMP.getCommandTopic());
+
+        assertEquals(Collections.emptyList(), emitted);
+        assertEquals(1, coalescer.getSubmittedCount());
+        assertEquals(0, coalescer.getEmittedCount());
+        assertEquals(0, coalescer.getSupersededCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeWindow() {
+        new CommandCoalescer(-1, (device, command) -> { });
+    }
+}
@@ -0,0 +1,201 @@
+package com.espressif.ui.Services;
+
+import com.espressif.ui.models.DeviceCommand;
+import com.espressif.ui.models.ESPDevice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommandTrackerTest {
+
+    private static final String TOPIC = "/devices/a/command";
+    private static final ESPDevice CONFIRMED = new ESPDevice("a", "Lamp", TOPIC, false, false);
+
+    private final List<String> log = new ArrayList<>();
+    private final TopicRouter router = new TopicRouter();
+    private ScheduledExecutorService scheduler;
+    private volatile ESPDevice stored = CONFIRMED;
+    private int refCount;
+    private long seq;
+    private CommandTracker tracker;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        tracker = newTracker(CommandTracker.ACK_TIMEOUT_MS);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private CommandTracker newTracker(long ackTimeoutMs) {
+        CommandTracker created = new CommandTracker(new CommandTracker.Host() {
+            @Override
+            public DeviceCommand stamp(DeviceCommand command) {
+                return command.getSeq() != 0 ? command : command.withSeq(++seq);
+            }
+
+            @Override
+            public void publish(String topic, DeviceCommand command) {
+                log.add("publish " + command.toLegacyString());
+            }
+
+            @Override
+            public CompletableFuture<String> request(String topic, DeviceCommand command, long expirySeconds,
+                                                     long timeoutMs) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean supportsRequestResponse() {
+                return false;
+            }
+
+            @Override
+            public int getRefCount(String topic) {
+                return refCount;
+            }
+
+            @Override
+            public void discardQueued(String topic) {
+                log.add("discard " + topic);
+            }
+
+            @Override
+            public ESPDevice updateDevice(String deviceId, UnaryOperator<ESPDevice> change) {
+                stored = change.apply(stored);
+                return stored;
+            }
+        }, scheduler, ackTimeoutMs);
+        created.registerRoutes(router);
+        return created;
+    }
+
+    // Giống nút bấm trên lưới: đổi store trước rồi mới gửi
+    private void toggle(CommandTracker target, boolean lightOn) {
+        target.beforeChange(stored);
+        stored = stored.withLightOn(lightOn);
+        target.send(stored, DeviceCommand.setState(lightOn, false));
+    }
+
+    @Test
+    public void ownEchoIsSkippedWhileSubscribed() {
+        refCount = 1;
+        toggle(tracker, true);
+
+        router.dispatch(TOPIC, "on");
+        assertTrue(tracker.isPending(TOPIC));
+        router.dispatch(TOPIC, "on");
+
+        assertFalse(tracker.isPending(TOPIC));
+        assertEquals(1, tracker.getAckedCount());
+        assertEquals(1, tracker.getLatency().getCount());
+    }
+
+    @Test
+    public void firstEchoConfirmsWhenNotSubscribed() {
+        toggle(tracker, true);
+        router.dispatch(TOPIC, "on");
+
+        assertFalse(tracker.isPending(TOPIC));
+        assertEquals(Arrays.asList("publish on"), log);
+    }
+
+    @Test
+    public void echoesOfSupersededCommandAreSkipped() {
+        refCount = 1;
+        toggle(tracker, true);
+        toggle(tracker, false);
+        assertEquals(1, tracker.getSupersededCount());
+
+        // Bản echo của app và của thiết bị cho lệnh "on" cũ, không mang seq
+        router.dispatch(TOPIC, "on");
+        router.dispatch(TOPIC, "on");
+        assertTrue(tracker.isPending(TOPIC));
+
+        router.dispatch(TOPIC, "off");
+        router.dispatch(TOPIC, "off");
+        assertFalse(tracker.isPending(TOPIC));
+        assertEquals(1, tracker.getAckedCount());
+    }
+
+    @Test
+    public void sequenceNumberDecidesWhenPresent() {
+        toggle(tracker, true);
+        toggle(tracker, false);
+
+        // Seq cũ hơn lệnh đang chờ: bỏ qua dù trạng thái khác
+        router.dispatch(TOPIC, DeviceCommand.setState(true, false).withSeq(1));
+        assertTrue(tracker.isPending(TOPIC));
+        // Cùng seq thì khớp, không cần so trạng thái
+        router.dispatch(TOPIC, DeviceCommand.setState(true, true).withSeq(2));
+
+        assertFalse(tracker.isPending(TOPIC));
+    }
+
+    @Test
+    public void timeoutRollsBackAndDropsQueuedCommand() throws InterruptedException {
+        CommandTracker fast = newTracker(50);
+        CountDownLatch timedOut = new CountDownLatch(1);
+        List<ESPDevice> restored = new ArrayList<>();
+        fast.addListener((device, command) -> {
+            restored.add(device);
+            timedOut.countDown();
+        });
+
+        toggle(fast, true);
+
+        assertTrue(timedOut.await(2, TimeUnit.SECONDS));
+        assertFalse(restored.get(0).isLightOn());
+        assertFalse(stored.isLightOn());
+        assertEquals(Arrays.asList("publish on", "discard " + TOPIC), log);
+        assertEquals(1, fast.getTimedOutCount());
+    }
+
+    @Test
+    public void rollbackRestoresUnconfirmedFields() {
+        ESPDevice expected = CONFIRMED.withLightOn(true).withRGBMode(true);
+
+        ESPDevice restored = CommandTracker.rollback(expected.withName("Desk"), expected, CONFIRMED);
+
+        assertFalse(restored.isLightOn());
+        assertFalse(restored.isRGBMode());
+        assertEquals("Desk", restored.getName());
+    }
+
+    @Test
+    public void rollbackKeepsFieldsChangedSince() {
+        ESPDevice expected = CONFIRMED.withLightOn(true).withRGBMode(true);
+        // Thiết bị đã báo RGB tắt sau khi lệnh được gửi
+        ESPDevice current = expected.withRGBMode(false).withBrightness(40);
+
+        ESPDevice restored = CommandTracker.rollback(current, expected, CONFIRMED);
+
+        assertFalse(restored.isLightOn());
+        assertFalse(restored.isRGBMode());
+        assertEquals(40, restored.getBrightness());
+    }
+
+    @Test
+    public void rollbackOfConfirmedStateChangesNothing() {
+        ESPDevice current = CONFIRMED.withLightOn(true);
+        assertTrue(CommandTracker.rollback(current, current, current) == current);
+    }
+}
@@ -0,0 +1,84 @@
+package com.espressif.ui.Services;
+
+import com.espressif.ui.models.DeviceCommand;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceCommandCodecTest {
+
+    @Test
+    public void stateCommandRoundTrip() {
+        DeviceCommand command = DeviceCommand.setState(true, true)
+                .withBrightness(80)
+                .withColor(0x12AB34)
+                .withSeq(300);
+
+        byte[] payload = DeviceCommandCodec.encode(command);
+        DeviceCommand decoded = DeviceCommandCodec.decode(payload);
+
+        assertEquals(DeviceCommand.Type.SET_STATE, decoded.getType());
+        assertTrue(decoded.isLightOn());
+        assertTrue(decoded.isRGBMode());
+        assertEquals(80, decoded.getBrightness());
+        assertEquals(0x12AB34, decoded.getColor());
+        assertEquals(300, decoded.getSeq());
+        assertEquals("onRGB", decoded.toLegacyString());
+    }
+
+    @Test
+    public void plainStateCommandIsFiveBytes() {
+        byte[] payload = DeviceCommandCodec.encode(DeviceCommand.setState(false, false));
+
+        assertArrayEquals(new byte[]{DeviceCommandCodec.MAGIC, 1, 1, 0, 0}, payload);
+        DeviceCommand decoded = DeviceCommandCodec.decode(payload);
+        assertFalse(decoded.hasBrightness());
+        assertFalse(decoded.hasColor());
+        assertEquals("off", decoded.toLegacyString());
+    }
+
+    @Test
+    public void renameAndDeleteRoundTrip() {
+        DeviceCommand rename = DeviceCommandCodec.decode(
+                DeviceCommandCodec.encode(DeviceCommand.rename("Đèn phòng khách").withSeq(7)));
+        assertEquals(DeviceCommand.Type.RENAME, rename.getType());
+        assertEquals("Đèn phòng khách", rename.getName());
+        assertEquals(7, rename.getSeq());
+
+        DeviceCommand delete = DeviceCommandCodec.decode(DeviceCommandCodec.encode(DeviceCommand.deleteNvs()));
+        assertEquals("deleteNVS", delete.toLegacyString());
+    }
+
+    @Test
+    public void legacyStringsAreNotBinary() {
+        for (String legacy : new String[]{"on", "offRGB", "name/Đèn", "deleteNVS"}) {
+            byte[] payload = legacy.getBytes(StandardCharsets.UTF_8);
+            assertFalse(DeviceCommandCodec.isBinary(payload));
+            assertEquals(legacy, DeviceCommand.parseLegacy(legacy).toLegacyString());
+        }
+        assertNull(DeviceCommand.parseLegacy("name/"));
+        assertNull(DeviceCommand.parseLegacy("blink"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedColorIsRejected() {
+        byte[] payload = DeviceCommandCodec.encode(DeviceCommand.setState(true, true).withColor(0xFFFFFF));
+        byte[] truncated = new byte[payload.length - 1];
+        System.arraycopy(payload, 0, truncated, 0, truncated.length);
+        DeviceCommandCodec.decode(truncated);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void newerVersionIsRejected() {
+        byte[] payload = DeviceCommandCodec.encode(DeviceCommand.setState(true, false));
+        payload[1] = 2;
+        DeviceCommandCodec.decode(payload);
+    }
+}
@@ -0,0 +1,34 @@
+package com.espressif.ui.Services;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsArePowersOfTwo() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(1, LatencyHistogram.bucketOf(1));
+        assertEquals(2, LatencyHistogram.bucketOf(3));
+        assertEquals(3, LatencyHistogram.bucketOf(4));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(10_000_000));
+    }
+
+    @Test
+    public void percentilesReportBucketUpperBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(20);
+        }
+        histogram.record(300);
+        histogram.record(700);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(32, histogram.getPercentileMs(50));
+        assertEquals(512, histogram.getPercentileMs(99));
+        assertEquals(700, histogram.getPercentileMs(100));
+        assertEquals(700, histogram.getMaxMs());
+        assertEquals(29, histogram.getAverageMs());
+    }
+}
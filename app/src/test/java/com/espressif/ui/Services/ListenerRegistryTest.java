@@ -0,0 +1,177 @@
+package com.espressif.ui.Services;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+public class ListenerRegistryTest {
+
+    private final TopicRouter router = new TopicRouter();
+    private final ListenerRegistry registry = new ListenerRegistry(router);
+    // Giữ các lượt giao cho tới khi test gọi runAll(), để hàng đợi đầy một cách xác định
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final Executor manual = tasks::add;
+    private final List<String> log = new ArrayList<>();
+
+    private class Recorder implements MQTTService.MQTTCallback {
+        @Override
+        public void onMessageReceived(String topic, String message) {
+            log.add(topic + " " + message);
+        }
+
+        @Override
+        public void onConnectionLost(Throwable cause) {
+            log.add("lost " + cause.getMessage());
+        }
+
+        @Override
+        public void onConnected() {
+            log.add("connected");
+        }
+    }
+
+    private void runAll() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private ListenerRegistry.Registration add(int capacity, ListenerRegistry.OverflowPolicy policy,
+                                              String... filters) {
+        return registry.add(new Recorder(), manual, capacity, policy, filters);
+    }
+
+    @Test
+    public void deliversOnlyMatchingTopics() {
+        add(8, null, "/devices/+/status");
+
+        router.dispatch("/devices/a/status", "online");
+        router.dispatch("/devices/a/command", "on");
+        router.dispatch("/devices/b/status", "offline");
+        runAll();
+
+        assertEquals(Arrays.asList("/devices/a/status online", "/devices/b/status offline"), log);
+    }
+
+    @Test
+    public void listenerWithoutFiltersGetsEverythingInOrder() {
+        add(8, null);
+
+        router.dispatch("/devices/notification", "a");
+        registry.notifyConnectionLost(new IllegalStateException("timeout"));
+        registry.notifyConnected();
+        router.dispatch("/devices/a/status", "online");
+        router.dispatch("/devices/notification", "b");
+        runAll();
+
+        assertEquals(Arrays.asList("/devices/notification a", "lost timeout", "connected",
+                "/devices/a/status online", "/devices/notification b"), log);
+    }
+
+    @Test
+    public void defaultPolicyKeepsDistinctMessagesOnOneTopic() {
+        ListenerRegistry.Registration registration = add(8, null);
+
+        router.dispatch("/devices/notification", "esp_1");
+        router.dispatch("/devices/notification", "esp_2");
+        runAll();
+
+        assertEquals(Arrays.asList("/devices/notification esp_1", "/devices/notification esp_2"), log);
+        assertEquals(0, registration.getCoalescedCount());
+    }
+
+    @Test
+    public void dropOldestKeepsNewestWhenFull() {
+        ListenerRegistry.Registration registration = add(2, ListenerRegistry.OverflowPolicy.DROP_OLDEST);
+
+        router.dispatch("t", "1");
+        router.dispatch("t", "2");
+        router.dispatch("t", "3");
+        assertEquals(2, registration.getQueueDepth());
+        runAll();
+
+        assertEquals(Arrays.asList("t 2", "t 3"), log);
+        assertEquals(3, registration.getOfferedCount());
+        assertEquals(2, registration.getDeliveredCount());
+        assertEquals(1, registration.getDroppedCount());
+        assertEquals(2, registration.getMaxQueueDepth());
+        assertEquals(0, registration.getQueueDepth());
+    }
+
+    @Test
+    public void dropNewestKeepsOldestWhenFull() {
+        ListenerRegistry.Registration registration = add(2, ListenerRegistry.OverflowPolicy.DROP_NEWEST);
+
+        router.dispatch("t", "1");
+        router.dispatch("t", "2");
+        router.dispatch("t", "3");
+        runAll();
+
+        assertEquals(Arrays.asList("t 1", "t 2"), log);
+        assertEquals(1, registration.getDroppedCount());
+    }
+
+    @Test
+    public void coalesceByTopicOnlyReplacesWhenFull() {
+        ListenerRegistry.Registration registration = add(3, ListenerRegistry.OverflowPolicy.COALESCE_BY_TOPIC);
+
+        router.dispatch("a", "1");
+        router.dispatch("a", "2");
+        router.dispatch("b", "1");
+        // Hàng đợi đầy: thay tin mới nhất của "a", rồi bỏ tin cũ nhất vì "c" chưa có trong hàng
+        router.dispatch("a", "3");
+        router.dispatch("c", "1");
+        runAll();
+
+        assertEquals(Arrays.asList("a 3", "b 1", "c 1"), log);
+        assertEquals(1, registration.getCoalescedCount());
+        assertEquals(1, registration.getDroppedCount());
+        assertEquals(3, registration.getDeliveredCount());
+    }
+
+    @Test
+    public void removeDuringDeliveryStopsTheRest() {
+        ListenerRegistry.Registration[] self = new ListenerRegistry.Registration[1];
+        self[0] = registry.add(new Recorder() {
+            @Override
+            public void onMessageReceived(String topic, String message) {
+                super.onMessageReceived(topic, message);
+                registry.remove(self[0]);
+            }
+        }, manual, 8, null, "t");
+        add(8, null, "t");
+
+        router.dispatch("t", "1");
+        router.dispatch("t", "2");
+        runAll();
+
+        assertEquals(Arrays.asList("t 1", "t 1", "t 2"), log);
+        assertEquals(1, registry.size());
+        assertEquals(1, self[0].getDeliveredCount());
+        assertEquals(1, router.dispatch("t", "3"));
+    }
+
+    @Test
+    public void failingListenerKeepsDraining() {
+        registry.add(new Recorder() {
+            @Override
+            public void onMessageReceived(String topic, String message) {
+                super.onMessageReceived(topic, message);
+                throw new IllegalStateException("boom");
+            }
+        }, manual, 8, null, "t");
+
+        router.dispatch("t", "1");
+        router.dispatch("t", "2");
+        runAll();
+
+        assertEquals(Arrays.asList("t 1", "t 2"), log);
+    }
+}
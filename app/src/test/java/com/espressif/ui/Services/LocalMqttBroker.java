@@ -0,0 +1,301 @@
+package com.espressif.ui.Services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for the site broker, speaking just enough MQTT 3.1.1 for the
+ * client code: CONNECT, PUBLISH (QoS 0-2 inbound), SUBSCRIBE with '+' and '#',
+ * UNSUBSCRIBE, PINGREQ and DISCONNECT. Messages are forwarded to subscribers at QoS 0
+ * and nothing is retained or persisted. Listens on an ephemeral loopback port.
+ */
+public class LocalMqttBroker implements Closeable {
+
+    private final ServerSocket server;
+    private final Set<Session> sessions = new CopyOnWriteArraySet<>();
+    private final Map<String, AtomicInteger> publishesByClient = new ConcurrentHashMap<>();
+    private final AtomicInteger connects = new AtomicInteger();
+    private volatile boolean closed;
+
+    public LocalMqttBroker() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "LocalMqttBroker-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public BrokerProfile profile(int poolSize) {
+        return new BrokerProfile.Builder("127.0.0.1").name("local").port(getPort()).poolSize(poolSize).build();
+    }
+
+    public int getConnectCount() {
+        return connects.get();
+    }
+
+    /** PUBLISH packets received from the client with this identifier. */
+    public int getPublishCount(String clientId) {
+        AtomicInteger count = publishesByClient.get(clientId);
+        return count != null ? count.get() : 0;
+    }
+
+    /** Closes every client socket without a DISCONNECT, like a broker restart or network loss. */
+    public void dropConnections() {
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        dropConnections();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Session session = new Session(server.accept());
+                sessions.add(session);
+                Thread reader = new Thread(session, "LocalMqttBroker-session");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    throw new IllegalStateException("Broker accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void route(String topic, byte[] payload) {
+        for (Session session : sessions) {
+            if (session.isSubscribed(topic)) {
+                session.sendPublish(topic, payload);
+            }
+        }
+    }
+
+    static boolean matches(String filter, String topic) {
+        String[] filterLevels = filter.split("/", -1);
+        String[] topicLevels = topic.split("/", -1);
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (filterLevels[i].equals("#")) {
+                return true;
+            }
+            if (i >= topicLevels.length) {
+                return false;
+            }
+            if (!filterLevels[i].equals("+") && !filterLevels[i].equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+
+    private final class Session implements Runnable {
+        private final Socket socket;
+        private final OutputStream out;
+        private final Set<String> filters = new CopyOnWriteArraySet<>();
+        private String clientId;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+
+        boolean isSubscribed(String topic) {
+            for (String filter : filters) {
+                if (matches(filter, topic)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            try (DataInputStream in = new DataInputStream(socket.getInputStream())) {
+                while (true) {
+                    int header = in.readUnsignedByte();
+                    byte[] body = new byte[readRemainingLength(in)];
+                    in.readFully(body);
+                    if (!handle(header >> 4, header & 0x0F, new DataInputStream(new ByteArrayInputStream(body)),
+                            body.length)) {
+                        break;
+                    }
+                }
+            } catch (EOFException | SocketException ignored) {
+                // Client đóng kết nối
+            } catch (IOException e) {
+                throw new IllegalStateException("Broker session failed", e);
+            } finally {
+                close();
+            }
+        }
+
+        private boolean handle(int type, int flags, DataInputStream body, int length) throws IOException {
+            switch (type) {
+                case 1: // CONNECT
+                    readString(body);
+                    body.readUnsignedByte();
+                    body.readUnsignedByte();
+                    body.readUnsignedShort();
+                    clientId = readString(body);
+                    for (Session other : sessions) {
+                        if (other != this && clientId.equals(other.clientId)) {
+                            other.close();
+                        }
+                    }
+                    connects.incrementAndGet();
+                    write(new byte[]{0x20, 0x02, 0x00, 0x00});
+                    return true;
+                case 3: { // PUBLISH
+                    int qos = (flags >> 1) & 0x03;
+                    String topic = readString(body);
+                    int consumed = 2 + topic.getBytes(StandardCharsets.UTF_8).length;
+                    int packetId = 0;
+                    if (qos > 0) {
+                        packetId = body.readUnsignedShort();
+                        consumed += 2;
+                    }
+                    byte[] payload = new byte[length - consumed];
+                    body.readFully(payload);
+                    publishesByClient.computeIfAbsent(clientId, id -> new AtomicInteger()).incrementAndGet();
+                    if (qos == 1) {
+                        write(new byte[]{0x40, 0x02, (byte) (packetId >> 8), (byte) packetId});
+                    } else if (qos == 2) {
+                        write(new byte[]{0x50, 0x02, (byte) (packetId >> 8), (byte) packetId});
+                    }
+                    route(topic, payload);
+                    return true;
+                }
+                case 6: { // PUBREL
+                    int packetId = body.readUnsignedShort();
+                    write(new byte[]{0x70, 0x02, (byte) (packetId >> 8), (byte) packetId});
+                    return true;
+                }
+                case 8: { // SUBSCRIBE
+                    int packetId = body.readUnsignedShort();
+                    ByteArrayOutputStream ack = new ByteArrayOutputStream();
+                    int read = 2;
+                    while (read < length) {
+                        String filter = readString(body);
+                        body.readUnsignedByte();
+                        read += 3 + filter.getBytes(StandardCharsets.UTF_8).length;
+                        filters.add(filter);
+                        ack.write(0x00);
+                    }
+                    writePacket(0x90, packetId, ack.toByteArray());
+                    return true;
+                }
+                case 10: { // UNSUBSCRIBE
+                    int packetId = body.readUnsignedShort();
+                    int read = 2;
+                    while (read < length) {
+                        String filter = readString(body);
+                        read += 2 + filter.getBytes(StandardCharsets.UTF_8).length;
+                        filters.remove(filter);
+                    }
+                    write(new byte[]{(byte) 0xB0, 0x02, (byte) (packetId >> 8), (byte) packetId});
+                    return true;
+                }
+                case 12: // PINGREQ
+                    write(new byte[]{(byte) 0xD0, 0x00});
+                    return true;
+                case 14: // DISCONNECT
+                    return false;
+                default:
+                    return true;
+            }
+        }
+
+        void sendPublish(String topic, byte[] payload) {
+            byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            body.write(topicBytes.length >> 8);
+            body.write(topicBytes.length);
+            body.write(topicBytes, 0, topicBytes.length);
+            body.write(payload, 0, payload.length);
+            try {
+                writeFrame(0x30, body.toByteArray());
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void writePacket(int header, int packetId, byte[] rest) throws IOException {
+            byte[] body = new byte[2 + rest.length];
+            body[0] = (byte) (packetId >> 8);
+            body[1] = (byte) packetId;
+            System.arraycopy(rest, 0, body, 2, rest.length);
+            writeFrame(header, body);
+        }
+
+        private void writeFrame(int header, byte[] body) throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            frame.write(header);
+            int remaining = body.length;
+            do {
+                int digit = remaining % 128;
+                remaining /= 128;
+                frame.write(remaining > 0 ? digit | 0x80 : digit);
+            } while (remaining > 0);
+            frame.write(body, 0, body.length);
+            write(frame.toByteArray());
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            synchronized (out) {
+                out.write(bytes);
+                out.flush();
+            }
+        }
+
+        void close() {
+            sessions.remove(this);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Đã đóng
+            }
+        }
+    }
+
+    private static int readRemainingLength(DataInputStream in) throws IOException {
+        int value = 0;
+        int multiplier = 1;
+        int digit;
+        do {
+            digit = in.readUnsignedByte();
+            value += (digit & 0x7F) * multiplier;
+            multiplier *= 128;
+        } while ((digit & 0x80) != 0);
+        return value;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
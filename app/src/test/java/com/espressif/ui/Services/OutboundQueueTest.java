@@ -0,0 +1,271 @@
+package com.espressif.ui.Services;
+
+import com.espressif.ui.Data.OutboxDatabaseHelper;
+import com.espressif.ui.models.DeviceCommand;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundQueueTest {
+
+    private static final String TOPIC = "/devices/abc/command";
+    private static final String OTHER = "/devices/xyz/command";
+
+    /** In-memory outbox with the same coalescing and ordering as outbox.db. */
+    private static final class MemoryStore implements OutboundQueue.Store {
+        private final Map<Long, OutboxDatabaseHelper.Entry> rows = new LinkedHashMap<>();
+        private final Map<String, Long> keys = new LinkedHashMap<>();
+        private long nextId = 1;
+
+        @Override
+        public synchronized boolean enqueue(String coalesceKey, String topic, byte[] payload, int qos, long enqueuedAt) {
+            boolean replaced = coalesceKey != null && removeByKey(coalesceKey) > 0;
+            long id = nextId++;
+            rows.put(id, new OutboxDatabaseHelper.Entry(id, topic, payload, qos, enqueuedAt));
+            if (coalesceKey != null) {
+                keys.put(coalesceKey, id);
+            }
+            return replaced;
+        }
+
+        @Override
+        public synchronized List<OutboxDatabaseHelper.Entry> peek(int limit) {
+            List<OutboxDatabaseHelper.Entry> entries = new ArrayList<>(rows.values());
+            return entries.subList(0, Math.min(limit, entries.size()));
+        }
+
+        @Override
+        public synchronized boolean remove(long id) {
+            keys.values().remove(id);
+            return rows.remove(id) != null;
+        }
+
+        @Override
+        public synchronized int removeByKey(String coalesceKey) {
+            Long id = keys.remove(coalesceKey);
+            return id != null && rows.remove(id) != null ? 1 : 0;
+        }
+
+        @Override
+        public synchronized int count() {
+            return rows.size();
+        }
+
+        synchronized List<String> contents() {
+            List<String> contents = new ArrayList<>();
+            for (OutboxDatabaseHelper.Entry entry : rows.values()) {
+                contents.add(entry.topic + " " + new String(entry.payload, StandardCharsets.UTF_8));
+            }
+            return contents;
+        }
+    }
+
+    private final MemoryStore store = new MemoryStore();
+    private final List<String> published = Collections.synchronizedList(new ArrayList<>());
+    // Topic bị broker từ chối, kèm số lần còn từ chối
+    private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+    private final Set<String> disconnectOn = ConcurrentHashMap.newKeySet();
+    private volatile boolean connected = true;
+    private ScheduledExecutorService executor;
+    private OutboundQueue queue;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        queue = new OutboundQueue(store, new OutboundQueue.Publisher() {
+            @Override
+            public boolean isConnected() {
+                return connected;
+            }
+
+            @Override
+            public CompletableFuture<?> publish(String topic, byte[] payload, MqttQos qos) {
+                published.add(topic + " " + new String(payload, StandardCharsets.UTF_8));
+                CompletableFuture<Void> ack = new CompletableFuture<>();
+                if (disconnectOn.remove(topic)) {
+                    connected = false;
+                    ack.completeExceptionally(new IllegalStateException("Connection lost"));
+                } else if (failures.computeIfPresent(topic, (t, left) -> left - 1) != null) {
+                    failures.remove(topic, 0);
+                    ack.completeExceptionally(new IllegalStateException("Rejected"));
+                } else {
+                    ack.complete(null);
+                }
+                return ack;
+            }
+        }, executor, new ReconnectBackoff(1, 1, 0));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] utf8(String message) {
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void enqueue(String topic, String message) {
+        queue.enqueue(topic, utf8(message), MqttQos.AT_LEAST_ONCE);
+    }
+
+    // Chờ các tác vụ đã xếp hàng trên luồng outbox chạy xong
+    private void drain() throws Exception {
+        executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void stateCommandsReplaceEachOtherAndMoveToTheEnd() throws Exception {
+        enqueue(TOPIC, DeviceCommand.LEGACY_ON);
+        enqueue(TOPIC, DeviceCommand.LEGACY_DELETE_NVS);
+        enqueue(TOPIC, DeviceCommand.LEGACY_OFF);
+        drain();
+
+        assertEquals(Arrays.asList(TOPIC + " deleteNVS", TOPIC + " off"), store.contents());
+        assertEquals(2, queue.getDepth());
+        assertEquals(3, queue.getEnqueuedCount());
+        assertEquals(1, queue.getCoalescedCount());
+    }
+
+    @Test
+    public void discardStateKeepsOtherCommands() throws Exception {
+        enqueue(TOPIC, DeviceCommand.LEGACY_ON);
+        enqueue(TOPIC, DeviceCommand.LEGACY_NAME_PREFIX + "Kitchen");
+        enqueue(OTHER, DeviceCommand.LEGACY_ON);
+        queue.discardState(TOPIC);
+        queue.discardState("/devices/unknown/command");
+        drain();
+
+        assertEquals(Arrays.asList(TOPIC + " name/Kitchen", OTHER + " on"), store.contents());
+        assertEquals(2, queue.getDepth());
+    }
+
+    @Test
+    public void replayPublishesOldestFirstAndDrains() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            enqueue("/devices/d" + i + "/command", DeviceCommand.LEGACY_ON);
+        }
+        queue.replay();
+        await(() -> queue.getLastReplayDurationMs() >= 0);
+
+        assertEquals(25, published.size());
+        for (int i = 0; i < 25; i++) {
+            assertEquals("/devices/d" + i + "/command on", published.get(i));
+        }
+        assertEquals(0, queue.getDepth());
+        assertEquals(25, queue.getReplayedCount());
+        assertEquals(0, store.count());
+    }
+
+    @Test
+    public void rejectedCommandIsRetriedWithoutBlockingOthers() throws Exception {
+        failures.put(TOPIC, 2);
+        enqueue(TOPIC, DeviceCommand.LEGACY_ON);
+        enqueue(OTHER, DeviceCommand.LEGACY_OFF);
+        queue.replay();
+        await(() -> queue.getLastReplayDurationMs() >= 0);
+
+        assertEquals(Arrays.asList(TOPIC + " on", OTHER + " off", TOPIC + " on", TOPIC + " on"), published);
+        assertEquals(2, queue.getReplayedCount());
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void commandIsDroppedAfterMaxAttempts() throws Exception {
+        failures.put(TOPIC, Integer.MAX_VALUE);
+        enqueue(TOPIC, DeviceCommand.LEGACY_ON);
+        enqueue(OTHER, DeviceCommand.LEGACY_OFF);
+        queue.replay();
+        await(() -> queue.getLastReplayDurationMs() >= 0);
+
+        assertEquals(OutboundQueue.MAX_ATTEMPTS, Collections.frequency(published, TOPIC + " on"));
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(1, queue.getReplayedCount());
+        assertEquals(0, queue.getDepth());
+        assertEquals(0, store.count());
+    }
+
+    @Test
+    public void lostConnectionStopsReplayWithoutCountingAnAttempt() throws Exception {
+        disconnectOn.add(TOPIC);
+        enqueue(TOPIC, DeviceCommand.LEGACY_ON);
+        queue.replay();
+        await(() -> published.size() == 1);
+        drain();
+        drain();
+
+        assertEquals(1, queue.getDepth());
+        assertEquals(0, queue.getDroppedCount());
+
+        connected = true;
+        queue.replay();
+        await(() -> queue.getLastReplayDurationMs() >= 0);
+        assertEquals(Arrays.asList(TOPIC + " on", TOPIC + " on"), published);
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void legacyStateCommandsShareOneKey() {
+        String key = OutboundQueue.coalesceKey(TOPIC, utf8(DeviceCommand.LEGACY_ON));
+        assertEquals(TOPIC + "#state", key);
+        assertEquals(key, OutboundQueue.coalesceKey(TOPIC, utf8(DeviceCommand.LEGACY_OFF_RGB)));
+        assertEquals(OutboundQueue.stateKey(TOPIC), key);
+    }
+
+    @Test
+    public void binaryCommandsUseSameKeysAsLegacy() {
+        assertEquals(TOPIC + "#state", OutboundQueue.coalesceKey(TOPIC,
+                DeviceCommandCodec.encode(DeviceCommand.setState(true, false).withBrightness(40))));
+        assertEquals(TOPIC + "#name", OutboundQueue.coalesceKey(TOPIC,
+                DeviceCommandCodec.encode(DeviceCommand.rename("Kitchen"))));
+    }
+
+    @Test
+    public void renameHasItsOwnKey() {
+        assertEquals(TOPIC + "#name",
+                OutboundQueue.coalesceKey(TOPIC, utf8(DeviceCommand.LEGACY_NAME_PREFIX + "Kitchen")));
+    }
+
+    @Test
+    public void otherCommandsAreNeverCoalesced() {
+        assertNull(OutboundQueue.coalesceKey(TOPIC, utf8(DeviceCommand.LEGACY_DELETE_NVS)));
+        assertNull(OutboundQueue.coalesceKey(TOPIC, DeviceCommandCodec.encode(DeviceCommand.deleteNvs())));
+        assertNull(OutboundQueue.coalesceKey(TOPIC, utf8("reboot")));
+    }
+
+    @Test
+    public void corruptBinaryPayloadIsNotCoalesced() {
+        byte[] truncated = {DeviceCommandCodec.MAGIC, (byte) DeviceCommandCodec.VERSION};
+        assertNull(OutboundQueue.coalesceKey(TOPIC, truncated));
+    }
+}
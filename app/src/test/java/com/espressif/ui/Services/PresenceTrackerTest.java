@@ -0,0 +1,91 @@
+package com.espressif.ui.Services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class PresenceTrackerTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private final List<String> log = new ArrayList<>();
+    private final List<Map<String, Long>> saved = new ArrayList<>();
+    private final TopicRouter router = new TopicRouter();
+    private long now = 1_000_000;
+    private PresenceTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new PresenceTracker(new PresenceTracker.Host() {
+            @Override
+            public void setReachable(String deviceId, boolean reachable) {
+                log.add(deviceId + (reachable ? " online" : " offline"));
+            }
+
+            @Override
+            public void saveLastSeen(Map<String, Long> lastSeen) {
+                saved.add(lastSeen);
+            }
+        }, () -> now, TIMEOUT_MS);
+        tracker.registerRoutes(router);
+    }
+
+    private void advance(long ms) {
+        // Mỗi giây một tick, như scheduler thật
+        for (long end = now + ms; now < end; ) {
+            now = Math.min(end, now + PresenceTracker.TICK_MS);
+            tracker.tick();
+        }
+    }
+
+    @Test
+    public void heartbeatsKeepDeviceOnlineUntilTheyStop() {
+        router.dispatch("/devices/a/heartbeat", "1");
+        for (int i = 0; i < 5; i++) {
+            advance(5_000);
+            router.dispatch("/devices/a/heartbeat", "1");
+        }
+        assertEquals(Arrays.asList("a online"), log);
+
+        advance(TIMEOUT_MS + PresenceTracker.TICK_MS);
+
+        assertEquals(Arrays.asList("a online", "a offline"), log);
+        assertEquals(1, tracker.getExpiredCount());
+        assertEquals(0, tracker.getTrackedCount());
+    }
+
+    @Test
+    public void lastWillMarksOfflineAndStopsTracking() {
+        router.dispatch("/devices/a/heartbeat", "1");
+        router.dispatch("/devices/a/status", "offline");
+        advance(TIMEOUT_MS * 2);
+        router.dispatch("/devices/b/status", "online");
+
+        assertEquals(Arrays.asList("a online", "a offline", "b online"), log);
+        assertEquals(0, tracker.getExpiredCount());
+    }
+
+    @Test
+    public void lastSeenIsSavedInBatches() {
+        tracker.load(Collections.singletonMap("old", now - TIMEOUT_MS));
+        router.dispatch("/devices/a/heartbeat", "1");
+        router.dispatch("/devices/b/heartbeat", "1");
+        advance(PresenceTracker.TICK_MS);
+        assertEquals(Arrays.asList("a online", "b online", "old offline"), log);
+
+        router.dispatch("/devices/a/heartbeat", "1");
+        advance(PresenceTracker.PERSIST_INTERVAL_MS);
+
+        assertEquals(1, saved.size());
+        assertEquals(2, saved.get(0).size());
+        assertEquals(1_000_000 + PresenceTracker.TICK_MS, (long) saved.get(0).get("a"));
+        assertEquals(1_000_000, (long) saved.get(0).get("b"));
+    }
+}
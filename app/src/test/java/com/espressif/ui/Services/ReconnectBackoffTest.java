@@ -0,0 +1,71 @@
+package com.espressif.ui.Services;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectBackoffTest {
+
+    private static final int SAMPLES = 1000;
+
+    @Test
+    public void delayStaysWithinJitterWindow() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 10_000, 50);
+        for (int attempt = 0; attempt < 8; attempt++) {
+            long ceiling = Math.min(10_000, 100L << attempt);
+            for (int i = 0; i < SAMPLES; i++) {
+                long delay = backoff.nextDelayMs(attempt);
+                assertTrue("attempt " + attempt + ": " + delay, delay >= 50 && delay <= ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void delayIsCappedAtMaxForLargeAttempts() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 30_000, 0);
+        for (int attempt : new int[]{10, 31, 64, Integer.MAX_VALUE}) {
+            for (int i = 0; i < SAMPLES; i++) {
+                long delay = backoff.nextDelayMs(attempt);
+                assertTrue("attempt " + attempt + ": " + delay, delay >= 0 && delay <= 30_000);
+            }
+        }
+    }
+
+    @Test
+    public void jitterSpreadsDelays() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 60_000, 0);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < SAMPLES; i++) {
+            long delay = backoff.nextDelayMs(5);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        // Full jitter: mẫu phải trải khắp [0, 32000], không dồn về một giá trị
+        assertTrue("min " + min, min < 8000);
+        assertTrue("max " + max, max > 24_000);
+    }
+
+    @Test
+    public void ceilingBelowMinReturnsMin() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 10_000, 500);
+        assertEquals(500, backoff.nextDelayMs(0));
+        assertEquals(500, backoff.nextDelayMs(-3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveBase() {
+        new ReconnectBackoff(0, 1000, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMaxBelowBase() {
+        new ReconnectBackoff(1000, 500, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMinAboveMax() {
+        new ReconnectBackoff(100, 1000, 2000);
+    }
+}
@@ -0,0 +1,132 @@
+package com.espressif.ui.Services;
+
+import com.espressif.ui.models.DeviceCommand;
+import com.espressif.ui.models.Rule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class RuleEngineTest {
+
+    private final List<String> log = new ArrayList<>();
+    private final TopicRouter router = new TopicRouter();
+    private ScheduledExecutorService scheduler;
+    private Instant now = LocalDateTime.of(2026, 3, 1, 23, 30).toInstant(ZoneOffset.UTC);
+    private RuleEngine engine;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now;
+            }
+        };
+        engine = new RuleEngine(router, new RuleEngine.Host() {
+            @Override
+            public void subscribe(String topicFilter) {
+                log.add("subscribe " + topicFilter);
+            }
+
+            @Override
+            public void unsubscribe(String topicFilter) {
+                log.add("unsubscribe " + topicFilter);
+            }
+
+            @Override
+            public void applyScene(Rule rule, String topic) {
+                log.add("scene " + rule.getSceneId());
+            }
+        }, Runnable::run, scheduler, clock);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void rulesSharingAFilterShareOneSubscription() {
+        Rule first = Rule.onMessage("r1", "X on", "/devices/x/command", "on", "yz-on");
+        Rule second = Rule.onMessage("r2", "X off", "/devices/x/command", "off", "yz-off");
+        engine.onRuleChanged(null, first);
+        engine.onRuleChanged(null, second);
+        engine.onRuleChanged(first, null);
+        engine.onRuleChanged(second, null);
+
+        assertEquals(Arrays.asList("subscribe /devices/x/command", "unsubscribe /devices/x/command"), log);
+        assertEquals(0, engine.getIndexedFilterCount());
+    }
+
+    @Test
+    public void onlyRulesForTheTopicAreChecked() {
+        engine.onRuleChanged(null, Rule.onMessage("r1", "X on", "/devices/x/command", "on", "yz-on"));
+        engine.onRuleChanged(null, Rule.onMessage("r2", "W on", "/devices/w/command", "on", "w"));
+        log.clear();
+
+        router.dispatch("/devices/x/command", DeviceCommand.setState(true, false));
+        router.dispatch("/devices/x/command", "offRGB");
+
+        assertEquals(Arrays.asList("scene yz-on"), log);
+        assertEquals(2, engine.getRulesChecked());
+    }
+
+    @Test
+    public void windowAndCooldownAreApplied() {
+        Rule dim = Rule.onMessage("dim", "Night dim", "/speech/command", "turn on", "dim")
+                .withWindow(23 * 60, 6 * 60);
+        engine.onRuleChanged(null, dim);
+        log.clear();
+
+        router.dispatch("/speech/command", "turn on");
+        router.dispatch("/speech/command", "turn on");
+        now = now.plusMillis(RuleEngine.MIN_INTERVAL_MS);
+        router.dispatch("/speech/command", "turn on");
+        now = LocalDateTime.of(2026, 3, 2, 12, 0).toInstant(ZoneOffset.UTC);
+        router.dispatch("/speech/command", "turn on");
+
+        assertEquals(Arrays.asList("scene dim", "scene dim"), log);
+        assertEquals(1, engine.getRulesSuppressed());
+    }
+
+    @Test
+    public void timeRulesAreScheduledForTheNextOccurrence() {
+        ZonedDateTime evening = ZonedDateTime.of(2026, 3, 1, 22, 0, 0, 0, ZoneOffset.UTC);
+        assertEquals(TimeUnit.HOURS.toMillis(1), RuleEngine.delayUntil(evening, 23 * 60));
+        assertEquals(TimeUnit.HOURS.toMillis(23), RuleEngine.delayUntil(evening, 21 * 60));
+        assertEquals(TimeUnit.DAYS.toMillis(1), RuleEngine.delayUntil(evening, 22 * 60));
+
+        Rule rule = Rule.at("t", "Lights out", 23, 0, "all-off");
+        engine.onRuleChanged(null, rule);
+        assertEquals(1, engine.getScheduledCount());
+        engine.onRuleChanged(rule, rule.withEnabled(false));
+        assertEquals(0, engine.getScheduledCount());
+    }
+}
@@ -0,0 +1,70 @@
+package com.espressif.ui.Services;
+
+import com.espressif.ui.models.DeviceCommand;
+import com.espressif.ui.models.ESPDevice;
+import com.espressif.ui.models.Scene;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SceneEngineTest {
+
+    private final Map<String, ESPDevice> devices = new HashMap<>();
+    private final Map<String, Collection<String>> groups = new HashMap<>();
+
+    private void addDevice(String id) {
+        devices.put(id, new ESPDevice(id, id, "/devices/" + id + "/command", false, false));
+    }
+
+    private SceneEngine.CompiledScene compile(Scene scene) {
+        return SceneEngine.compile(scene, 0, false, devices::get, groups::get,
+                command -> command.toLegacyString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void compilesOneMessagePerActionWithEncodedPayloads() {
+        addDevice("lobby1");
+        addDevice("lobby2");
+        addDevice("office");
+        groups.put("lobby", Arrays.asList("lobby1", "lobby2"));
+        Scene evening = new Scene("evening", "Evening", Arrays.asList(
+                Scene.Action.group("lobby", DeviceCommand.setState(true, true)),
+                Scene.Action.device("office", DeviceCommand.setState(false, false))));
+
+        SceneEngine.CompiledScene compiled = compile(evening);
+
+        assertEquals(2, compiled.size());
+        assertArrayEquals(new String[]{"/groups/lobby/command", "/devices/office/command"}, compiled.topics);
+        assertEquals("onRGB", new String(compiled.payloads[0], StandardCharsets.UTF_8));
+        assertEquals("off", new String(compiled.payloads[1], StandardCharsets.UTF_8));
+        assertArrayEquals(new String[]{"lobby1", "lobby2"}, compiled.devices[0]);
+        assertEquals(Arrays.asList("lobby1", "lobby2", "office"),
+                Arrays.asList(compiled.localCommands.keySet().toArray()));
+    }
+
+    @Test
+    public void missingTargetsAreSkippedAndLastActionWins() {
+        addDevice("a");
+        groups.put("room", Arrays.asList("a", "gone"));
+        Scene scene = new Scene("s", "S", Arrays.asList(
+                Scene.Action.device("a", DeviceCommand.setState(true, false)),
+                Scene.Action.device("gone", DeviceCommand.setState(true, false)),
+                Scene.Action.group("missing", DeviceCommand.setState(true, false)),
+                Scene.Action.group("room", DeviceCommand.setState(false, false))));
+
+        SceneEngine.CompiledScene compiled = compile(scene);
+
+        assertEquals(2, compiled.size());
+        assertArrayEquals(new String[]{"a"}, compiled.devices[1]);
+        assertEquals(1, compiled.localCommands.size());
+        assertEquals(DeviceCommand.setState(false, false), compiled.localCommands.get("a"));
+    }
+}
@@ -0,0 +1,194 @@
+package com.espressif.ui.Services;
+
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class SubscriptionTableTest {
+
+    private final List<String> packets = new ArrayList<>();
+    private final List<CompletableFuture<Void>> subAcks = new ArrayList<>();
+    private volatile boolean connected = true;
+    // Khác null thì broker từ chối ngay mọi gói tin
+    private volatile Throwable failWith;
+    private ScheduledExecutorService scheduler;
+    private SubscriptionTable table;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        table = new SubscriptionTable(new SubscriptionTable.Sender() {
+            @Override
+            public boolean isConnected() {
+                return connected;
+            }
+
+            @Override
+            public synchronized CompletableFuture<?> subscribe(Map<String, MqttQos> filters) {
+                packets.add("sub " + filters.keySet());
+                CompletableFuture<Void> ack = new CompletableFuture<>();
+                if (failWith != null) {
+                    ack.completeExceptionally(failWith);
+                    return ack;
+                }
+                subAcks.add(ack);
+                return ack;
+            }
+
+            @Override
+            public synchronized CompletableFuture<?> unsubscribe(List<String> filters) {
+                packets.add("unsub " + filters);
+                CompletableFuture<Void> ack = new CompletableFuture<>();
+                if (failWith != null) {
+                    ack.completeExceptionally(failWith);
+                } else {
+                    ack.complete(null);
+                }
+                return ack;
+            }
+        }, scheduler);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    // Tác vụ cùng độ trễ chạy sau lần flush đã hẹn, theo thứ tự lên lịch
+    private void waitForFlush(long delayMs) throws Exception {
+        scheduler.schedule(() -> { }, delayMs, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+    }
+
+    private void ackAll() {
+        for (CompletableFuture<Void> ack : new ArrayList<>(subAcks)) {
+            ack.complete(null);
+        }
+    }
+
+    @Test
+    public void onlyFirstAcquireAndLastReleaseReachTheBroker() throws Exception {
+        table.acquire("a", MqttQos.AT_LEAST_ONCE);
+        table.acquire("a", MqttQos.AT_LEAST_ONCE);
+        table.acquire("b", MqttQos.AT_LEAST_ONCE);
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+        ackAll();
+
+        assertEquals(2, table.getRefCount("a"));
+        table.release("a");
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+        assertEquals(Arrays.asList("sub [a, b]"), packets);
+
+        table.release("a");
+        table.release("b");
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+
+        assertEquals(Arrays.asList("sub [a, b]", "unsub [a, b]"), packets);
+        assertEquals(0, table.size());
+        assertEquals(1, table.getDedupedRequestCount());
+    }
+
+    @Test
+    public void reacquireCancelsPendingUnsubscribe() throws Exception {
+        table.acquire("a", MqttQos.AT_LEAST_ONCE);
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+        ackAll();
+
+        table.release("a");
+        table.acquire("a", MqttQos.AT_LEAST_ONCE);
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+
+        assertEquals(Arrays.asList("sub [a]"), packets);
+        assertEquals(1, table.getRefCount("a"));
+    }
+
+    @Test
+    public void failedSubscribeIsRetriedWhileConnected() throws Exception {
+        table.acquire("a", MqttQos.AT_LEAST_ONCE);
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+        subAcks.get(0).completeExceptionally(new IllegalStateException("SUBACK failure"));
+        waitForFlush(SubscriptionTable.RETRY_DELAY_MS);
+
+        assertEquals(Arrays.asList("sub [a]", "sub [a]"), packets);
+    }
+
+    @Test
+    public void synchronousSubscribeFailureIsRetriedWithGrowingDelay() throws Exception {
+        failWith = new IllegalStateException("Not authorized");
+        table.acquire("a", MqttQos.AT_LEAST_ONCE);
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+        assertEquals(2 * SubscriptionTable.RETRY_DELAY_MS, table.getRetryDelayMs());
+
+        waitForFlush(SubscriptionTable.RETRY_DELAY_MS);
+        assertEquals(Arrays.asList("sub [a]", "sub [a]"), packets);
+        assertEquals(4 * SubscriptionTable.RETRY_DELAY_MS, table.getRetryDelayMs());
+
+        failWith = null;
+        waitForFlush(2 * SubscriptionTable.RETRY_DELAY_MS);
+        assertEquals(Arrays.asList("sub [a]", "sub [a]", "sub [a]"), packets);
+        ackAll();
+        assertEquals(SubscriptionTable.RETRY_DELAY_MS, table.getRetryDelayMs());
+    }
+
+    @Test
+    public void failedUnsubscribeIsRetried() throws Exception {
+        table.acquire("a", MqttQos.AT_LEAST_ONCE);
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+        ackAll();
+
+        failWith = new IllegalStateException("Broker busy");
+        table.release("a");
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+        failWith = null;
+        waitForFlush(SubscriptionTable.RETRY_DELAY_MS);
+
+        assertEquals(Arrays.asList("sub [a]", "unsub [a]", "unsub [a]"), packets);
+    }
+
+    @Test
+    public void failedUnsubscribeIsNotRetriedAfterReacquire() throws Exception {
+        table.acquire("a", MqttQos.AT_LEAST_ONCE);
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+        ackAll();
+
+        failWith = new IllegalStateException("Broker busy");
+        table.release("a");
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+        failWith = null;
+        // UNSUBSCRIBE thất bại nên filter vẫn còn trên broker, không cần gửi lại gì
+        table.acquire("a", MqttQos.AT_LEAST_ONCE);
+        waitForFlush(SubscriptionTable.RETRY_DELAY_MS);
+
+        assertEquals(Arrays.asList("sub [a]", "unsub [a]"), packets);
+        assertEquals(1, table.getRefCount("a"));
+    }
+
+    @Test
+    public void resubscribeAfterConnectDependsOnSession() throws Exception {
+        connected = false;
+        table.acquire("a", MqttQos.AT_LEAST_ONCE);
+        table.acquire("b", MqttQos.AT_MOST_ONCE);
+        waitForFlush(SubscriptionTable.BATCH_WINDOW_MS);
+        assertEquals(Collections.emptyList(), packets);
+
+        connected = true;
+        table.onConnected(false);
+        ackAll();
+        table.onConnected(true);
+
+        assertEquals(Arrays.asList("sub [a, b]"), packets);
+    }
+}
@@ -0,0 +1,89 @@
+package com.espressif.ui.Services;
+
+import com.espressif.ui.models.DeviceCommand;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TopicRouterTest {
+
+    private final TopicRouter router = new TopicRouter();
+    private final List<String> log = new ArrayList<>();
+
+    private void handle(String filter) {
+        router.addHandler(filter, (topic, message) -> log.add(filter + " <- " + topic + " " + message));
+    }
+
+    @Test
+    public void singleLevelWildcardMatchesExactlyOneLevel() {
+        handle("/devices/+/command");
+
+        assertEquals(1, router.dispatch("/devices/a/command", "on"));
+        assertEquals(0, router.dispatch("/devices/a/b/command", "on"));
+        assertEquals(0, router.dispatch("/devices/command", "on"));
+        assertEquals(Arrays.asList("/devices/+/command <- /devices/a/command on"), log);
+    }
+
+    @Test
+    public void multiLevelWildcardAlsoMatchesParentLevel() {
+        handle("a/#");
+
+        router.dispatch("a", "1");
+        router.dispatch("a/b", "2");
+        router.dispatch("a/b/c", "3");
+        router.dispatch("b/a", "4");
+
+        assertEquals(Arrays.asList("a/# <- a 1", "a/# <- a/b 2", "a/# <- a/b/c 3"), log);
+    }
+
+    @Test
+    public void everyMatchingFilterIsDelivered() {
+        handle("/devices/a/command");
+        handle("/devices/+/command");
+        handle("/devices/#");
+        handle("#");
+        handle("/devices/+/status");
+
+        assertEquals(4, router.dispatch("/devices/a/command", "off"));
+        Collections.sort(log);
+        assertEquals(Arrays.asList("# <- /devices/a/command off", "/devices/# <- /devices/a/command off",
+                "/devices/+/command <- /devices/a/command off", "/devices/a/command <- /devices/a/command off"), log);
+    }
+
+    @Test
+    public void removedHandlerIsNotCalled() {
+        TopicRouter.MessageHandler handler = (topic, message) -> log.add(topic);
+        router.addHandler("/speech/command", handler);
+        router.removeHandler("/speech/command", handler);
+        router.removeHandler("/not/registered", handler);
+
+        assertEquals(0, router.dispatch("/speech/command", "turn on"));
+        assertEquals(Collections.emptyList(), log);
+    }
+
+    @Test
+    public void commandsReachStringHandlersAsLegacyText() {
+        handle("/devices/+/command");
+
+        router.dispatch("/devices/a/command", DeviceCommand.setState(true, true));
+
+        assertEquals(Arrays.asList("/devices/+/command <- /devices/a/command onRGB"), log);
+    }
+
+    @Test
+    public void failingHandlerDoesNotStopOthers() {
+        router.addHandler("/devices/+/command", (topic, message) -> {
+            throw new IllegalStateException("boom");
+        });
+        handle("/devices/#");
+
+        assertEquals(1, router.dispatch("/devices/a/command", "on"));
+        assertEquals(1, log.size());
+    }
+}
@@ -0,0 +1,76 @@
+package com.espressif.ui.models;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ESPDeviceTest {
+
+    private static final String TOPIC = "/devices/esp_device_01/command";
+
+    @Test
+    public void constructorKeepsName() {
+        ESPDevice device = new ESPDevice("esp_device_01", "Kitchen", TOPIC, true, false);
+
+        assertEquals("Kitchen", device.getName());
+        assertTrue(device.isLightOn());
+        assertTrue(device.isReachable());
+        assertEquals(ESPDevice.DEFAULT_BRIGHTNESS, device.getBrightness());
+        assertEquals(ESPDevice.DEFAULT_COLOR, device.getColor());
+    }
+
+    @Test
+    public void stateFieldsDoNotOverlap() {
+        ESPDevice device = new ESPDevice("esp_device_01", TOPIC)
+                .withColor(0xFFFFFF)
+                .withBrightness(100)
+                .withRGBMode(true)
+                .withReachable(false);
+
+        assertFalse(device.isLightOn());
+        assertTrue(device.isRGBMode());
+        assertFalse(device.isReachable());
+        assertEquals(100, device.getBrightness());
+        assertEquals(0xFFFFFF, device.getColor());
+
+        device = device.withColor(0x123456).withBrightness(150);
+        assertEquals(0x123456, device.getColor());
+        assertEquals(100, device.getBrightness());
+        assertTrue(device.isRGBMode());
+    }
+
+    @Test
+    public void unchangedWithReturnsSameInstance() {
+        ESPDevice device = new ESPDevice("esp_device_01", "Kitchen", TOPIC, true, false);
+
+        assertSame(device, device.withLightOn(true));
+        assertSame(device, device.withName("Kitchen"));
+        assertNotSame(device, device.withLightOn(false));
+    }
+
+    @Test
+    public void diffReportsChangedFields() {
+        ESPDevice device = new ESPDevice("esp_device_01", "Kitchen", TOPIC, true, false);
+        ESPDevice changed = device.withLightOn(false).withColor(0xFF0000).withName("Hall");
+
+        assertEquals(0, device.diff(new ESPDevice("esp_device_01", "Kitchen", TOPIC, true, false)));
+        assertEquals(ESPDevice.FIELD_LIGHT | ESPDevice.FIELD_COLOR | ESPDevice.FIELD_NAME, device.diff(changed));
+        assertEquals(ESPDevice.FIELD_REACHABLE, device.diff(device.withReachable(false)));
+    }
+
+    @Test
+    public void commandReturnsUpdatedCopy() {
+        ESPDevice device = new ESPDevice("esp_device_01", TOPIC);
+        ESPDevice updated = DeviceCommand.setState(true, true).withBrightness(40).applyTo(device);
+
+        assertFalse(device.isLightOn());
+        assertTrue(updated.isLightOn());
+        assertTrue(updated.isRGBMode());
+        assertEquals(40, updated.getBrightness());
+        assertEquals(device.getColor(), updated.getColor());
+    }
+}